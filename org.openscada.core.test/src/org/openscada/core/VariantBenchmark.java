@@ -0,0 +1,200 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measure the allocation rate and throughput of common variant operations
+ * <p>
+ * Run once on each revision to compare them. The allocated bytes are only
+ * reported if the JVM provides per thread allocation counters.
+ * </p>
+ */
+public class VariantBenchmark
+{
+    private static final int SIZE = 1024 * 1024;
+
+    private static final int ITERATIONS = 10;
+
+    private static final int WARMUP = 5;
+
+    private static volatile Object sink;
+
+    private interface Operation
+    {
+        public void run ( Variant[] values, double[] doubles );
+    }
+
+    public static void main ( final String[] args ) throws Exception
+    {
+        final Random r = new Random ( 0 );
+
+        final double[] doubles = new double[SIZE];
+        final Variant[] values = new Variant[SIZE];
+        for ( int i = 0; i < SIZE; i++ )
+        {
+            doubles[i] = r.nextGaussian () * 1000.0;
+            switch ( i % 4 )
+            {
+                case 0:
+                    values[i] = Variant.valueOf ( doubles[i] );
+                    break;
+                case 1:
+                    values[i] = Variant.valueOf ( (int)doubles[i] );
+                    break;
+                case 2:
+                    values[i] = Variant.valueOf ( (long)doubles[i] * 1000000L );
+                    break;
+                default:
+                    values[i] = Variant.valueOf ( i % 8 == 3 );
+                    break;
+            }
+        }
+
+        run ( "valueOf(double)", values, doubles, new Operation () {
+
+            @Override
+            public void run ( final Variant[] values, final double[] doubles )
+            {
+                Variant last = null;
+                for ( final double d : doubles )
+                {
+                    last = Variant.valueOf ( d );
+                }
+                sink = last;
+            }
+        } );
+
+        run ( "asDouble", values, doubles, new Operation () {
+
+            @Override
+            public void run ( final Variant[] values, final double[] doubles )
+            {
+                double sum = 0;
+                for ( final Variant v : values )
+                {
+                    sum += v.asDouble ( 0.0 );
+                }
+                sink = sum;
+            }
+        } );
+
+        run ( "equals", values, doubles, new Operation () {
+
+            @Override
+            public void run ( final Variant[] values, final double[] doubles )
+            {
+                int count = 0;
+                for ( int i = 1; i < values.length; i++ )
+                {
+                    if ( values[i].equals ( values[i - 1] ) )
+                    {
+                        count++;
+                    }
+                }
+                sink = count;
+            }
+        } );
+
+        run ( "hashCode", values, doubles, new Operation () {
+
+            @Override
+            public void run ( final Variant[] values, final double[] doubles )
+            {
+                int hash = 0;
+                for ( final Variant v : values )
+                {
+                    hash += v.hashCode ();
+                }
+                sink = hash;
+            }
+        } );
+
+        final Variant[] strings = new Variant[SIZE / 16];
+        for ( int i = 0; i < strings.length; i++ )
+        {
+            strings[i] = Variant.valueOf ( i % 2 == 0 ? "tag" + r.nextInt ( 1000 ) : Integer.toString ( r.nextInt ( 1000 ) ) );
+        }
+
+        run ( "sort(strings)", strings, doubles, new Operation () {
+
+            @Override
+            public void run ( final Variant[] values, final double[] doubles )
+            {
+                final Variant[] copy = values.clone ();
+                Arrays.sort ( copy );
+                sink = copy;
+            }
+        } );
+    }
+
+    private static void run ( final String name, final Variant[] values, final double[] doubles, final Operation operation ) throws Exception
+    {
+        for ( int i = 0; i < WARMUP; i++ )
+        {
+            operation.run ( values, doubles );
+        }
+
+        long bestTime = Long.MAX_VALUE;
+        long allocated = -1;
+
+        for ( int i = 0; i < ITERATIONS; i++ )
+        {
+            final long startBytes = allocatedBytes ();
+            final long tix = System.nanoTime ();
+
+            operation.run ( values, doubles );
+
+            bestTime = Math.min ( bestTime, System.nanoTime () - tix );
+            final long endBytes = allocatedBytes ();
+            if ( startBytes >= 0 && endBytes >= 0 )
+            {
+                allocated = endBytes - startBytes;
+            }
+        }
+
+        System.out.println ( String.format ( "%-16s %8.2f ns/op %8.2f bytes/op", name, (double)bestTime / values.length, allocated >= 0 ? (double)allocated / values.length : Double.NaN ) );
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread
+     * 
+     * @return the number of bytes or -1 if the JVM does not provide this
+     *         information
+     */
+    private static long allocatedBytes ()
+    {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean ();
+        try
+        {
+            final Method method = Class.forName ( "com.sun.management.ThreadMXBean" ).getMethod ( "getThreadAllocatedBytes", long.class );
+            return (Long)method.invoke ( bean, Thread.currentThread ().getId () );
+        }
+        catch ( final Exception e )
+        {
+            return -1;
+        }
+    }
+}
@@ -19,6 +19,11 @@
 
 package org.openscada.core;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -44,6 +49,23 @@ public class VariantCompareTest
         checkCompare ( "true", "true", 0 );
     }
 
+    @Test
+    public void testSort ()
+    {
+        final List<Variant> values = new ArrayList<Variant> ();
+        values.add ( Variant.valueOf ( "b" ) );
+        values.add ( Variant.valueOf ( 2.5 ) );
+        values.add ( Variant.NULL );
+        values.add ( Variant.valueOf ( "10" ) );
+        values.add ( Variant.valueOf ( 3 ) );
+        values.add ( Variant.valueOf ( "a" ) );
+        values.add ( Variant.valueOf ( true ) );
+
+        Collections.sort ( values );
+
+        Assert.assertEquals ( Arrays.asList ( Variant.NULL, Variant.valueOf ( true ), Variant.valueOf ( 2.5 ), Variant.valueOf ( 3 ), Variant.valueOf ( "10" ), Variant.valueOf ( "a" ), Variant.valueOf ( "b" ) ), values );
+    }
+
     private void checkCompare ( final Object o1, final Object o2, final int expected )
     {
         Assert.assertEquals ( expected, Variant.valueOf ( o1 ).compareTo ( Variant.valueOf ( o2 ) ) );
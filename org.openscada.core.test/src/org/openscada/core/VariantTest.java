@@ -19,6 +19,9 @@
 
 package org.openscada.core;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -41,6 +44,10 @@ public class VariantTest
         {
             Assert.assertTrue ( v1.equals ( v2 ) );
             Assert.assertTrue ( v2.equals ( v1 ) );
+            if ( !v1.isBoolean () && !v2.isBoolean () )
+            {
+                Assert.assertEquals ( v1.hashCode (), v2.hashCode () );
+            }
         }
         else
         {
@@ -346,4 +353,34 @@ public class VariantTest
         compareVariant ( v1, v2, true );
     }
 
+    @Test
+    public void testVariantCompareStringVSIntegerEqual () throws Exception
+    {
+        compareVariant ( new Variant ( "1" ), new Variant ( 1 ), true );
+        compareVariant ( new Variant ( "1.0" ), new Variant ( 1 ), true );
+        compareVariant ( new Variant ( "1.0" ), new Variant ( 1L ), true );
+        compareVariant ( new Variant ( "-0" ), new Variant ( 0.0 ), true );
+    }
+
+    @Test
+    public void testVariantCompareStringVSIntegerDifferent () throws Exception
+    {
+        compareVariant ( new Variant ( "1.5" ), new Variant ( 1 ), false );
+        compareVariant ( new Variant ( "abc" ), new Variant ( 1 ), false );
+        compareVariant ( new Variant ( "" ), new Variant ( 0 ), false );
+    }
+
+    @Test
+    public void testHashSet () throws Exception
+    {
+        final Set<Variant> values = new HashSet<Variant> ();
+        values.add ( Variant.valueOf ( 1 ) );
+        values.add ( Variant.valueOf ( 1L ) );
+        values.add ( Variant.valueOf ( 1.0 ) );
+        values.add ( Variant.valueOf ( "1" ) );
+        values.add ( Variant.valueOf ( -0.0 ) );
+        values.add ( Variant.valueOf ( 0 ) );
+
+        Assert.assertEquals ( 2, values.size () );
+    }
 }
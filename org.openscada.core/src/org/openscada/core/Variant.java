@@ -19,6 +19,10 @@
 
 package org.openscada.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.math.BigDecimal;
 
@@ -26,6 +30,20 @@ import org.openscada.utils.lang.Immutable;
 
 /**
  * A variant data type that can hold any scalar value type.
+ * <p>
+ * The value is held as a type plus a primitive slot, only strings are held as
+ * reference. Boxed values are only created when requested by
+ * {@link #getValue()}. The serialized form still is the boxed value.
+ * </p>
+ * <p>
+ * Numbers of different types are equal if they have the same numeric value,
+ * strings are equal to numbers if they parse to the same value. The hash code
+ * follows the same rules, so these can be mixed in hash based collections.
+ * Booleans are equal to other types if these have the same truth value (see
+ * {@link #asBoolean()}). Since e.g. <code>true</code> is equal to any number
+ * except zero, the hash code of booleans is only consistent with other
+ * booleans.
+ * </p>
  * 
  * @author Jens Reimann &lt;jens.reimann@th4-systems.com&gt;
  */
@@ -35,6 +53,8 @@ public class Variant implements Serializable, Comparable<Variant>
 
     private static final long serialVersionUID = 1L;
 
+    private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField ( "value", Serializable.class ) };
+
     /**
      * A default NULL instance
      */
@@ -50,28 +70,51 @@ public class Variant implements Serializable, Comparable<Variant>
      */
     public static final Variant FALSE = new Variant ( false );
 
-    private static final int MAX_PRE_INSTANCES = 256;
+    private static final int MIN_PRE_INSTANCE = -128;
+
+    private static final int MAX_PRE_INSTANCE = 1024;
 
-    private static final Variant[] preIntInstances = new Variant[MAX_PRE_INSTANCES];
+    private static final Variant[] preIntInstances = new Variant[MAX_PRE_INSTANCE - MIN_PRE_INSTANCE];
 
-    private static final Variant[] preLongInstances = new Variant[MAX_PRE_INSTANCES];
+    private static final Variant[] preLongInstances = new Variant[MAX_PRE_INSTANCE - MIN_PRE_INSTANCE];
+
+    private static final Variant[] preDoubleInstances = new Variant[MAX_PRE_INSTANCE - MIN_PRE_INSTANCE];
 
     static
     {
         for ( int i = 0; i < preIntInstances.length; i++ )
         {
-            preIntInstances[i] = new Variant ( i );
-            preLongInstances[i] = new Variant ( (long)i );
+            preIntInstances[i] = new Variant ( i + MIN_PRE_INSTANCE );
+            preLongInstances[i] = new Variant ( (long) ( i + MIN_PRE_INSTANCE ) );
+            preDoubleInstances[i] = new Variant ( (double) ( i + MIN_PRE_INSTANCE ) );
         }
     }
 
     private static final VariantComparator comparator = new VariantComparator ();
 
+    /**
+     * The numeric value of a string
+     */
+    private static final class StringNumber
+    {
+        private final boolean valid;
+
+        private final double value;
+
+        public StringNumber ( final boolean valid, final double value )
+        {
+            this.valid = valid;
+            this.value = value;
+        }
+    }
+
+    private static final StringNumber NOT_A_NUMBER = new StringNumber ( false, 0.0 );
+
     public static Variant valueOf ( final long value )
     {
-        if ( value >= 0 && value < preLongInstances.length )
+        if ( value >= MIN_PRE_INSTANCE && value < MAX_PRE_INSTANCE )
         {
-            return preLongInstances[(int)value];
+            return preLongInstances[(int)value - MIN_PRE_INSTANCE];
         }
         else
         {
@@ -81,9 +124,9 @@ public class Variant implements Serializable, Comparable<Variant>
 
     public static Variant valueOf ( final int value )
     {
-        if ( value >= 0 && value < preIntInstances.length )
+        if ( value >= MIN_PRE_INSTANCE && value < MAX_PRE_INSTANCE )
         {
-            return preIntInstances[value];
+            return preIntInstances[value - MIN_PRE_INSTANCE];
         }
         else
         {
@@ -93,7 +136,16 @@ public class Variant implements Serializable, Comparable<Variant>
 
     public static Variant valueOf ( final double value )
     {
-        return new Variant ( value );
+        final int intValue = (int)value;
+        // negative zero is not the same double as zero
+        if ( intValue == value && intValue >= MIN_PRE_INSTANCE && intValue < MAX_PRE_INSTANCE && ( intValue != 0 || Double.doubleToRawLongBits ( value ) == 0L ) )
+        {
+            return preDoubleInstances[intValue - MIN_PRE_INSTANCE];
+        }
+        else
+        {
+            return new Variant ( value );
+        }
     }
 
     public static Variant valueOf ( final boolean value )
@@ -111,6 +163,10 @@ public class Variant implements Serializable, Comparable<Variant>
         {
             return (Variant)value;
         }
+        if ( value instanceof String )
+        {
+            return new Variant ( (String)value );
+        }
         if ( value instanceof Boolean )
         {
             return valueOf ( ( (Boolean)value ).booleanValue () );
@@ -130,7 +186,26 @@ public class Variant implements Serializable, Comparable<Variant>
         return new Variant ( value );
     }
 
-    private Serializable value;
+    /**
+     * The type of the value, never <code>null</code>
+     */
+    private transient VariantType type = VariantType.NULL;
+
+    /**
+     * The value of booleans (zero or one), integers, longs and doubles (as raw
+     * long bits)
+     */
+    private transient long bits;
+
+    /**
+     * The value of strings
+     */
+    private transient String string;
+
+    /**
+     * The numeric value of the string, parsed on first use
+     */
+    private transient StringNumber stringNumber;
 
     protected Variant ()
     {
@@ -168,12 +243,15 @@ public class Variant implements Serializable, Comparable<Variant>
 
     protected Variant ( final Variant arg0 )
     {
-        this ( arg0 != null ? arg0.value : null );
+        if ( arg0 != null )
+        {
+            setValue ( arg0 );
+        }
     }
 
     public boolean isNull ()
     {
-        return this.value == null;
+        return this.type == VariantType.NULL;
     }
 
     /**
@@ -188,11 +266,11 @@ public class Variant implements Serializable, Comparable<Variant>
     {
         if ( value == null )
         {
-            this.value = null;
+            this.type = VariantType.NULL;
         }
         else if ( value instanceof Variant )
         {
-            setValue ( ( (Variant)value ).value );
+            setValue ( (Variant)value );
         }
         else if ( value instanceof Short )
         {
@@ -236,36 +314,182 @@ public class Variant implements Serializable, Comparable<Variant>
         }
     }
 
+    private void setValue ( final Variant value )
+    {
+        this.type = value.type;
+        this.bits = value.bits;
+        this.string = value.string;
+        this.stringNumber = value.stringNumber;
+    }
+
     private void setValue ( final boolean value )
     {
-        this.value = Boolean.valueOf ( value );
+        this.type = VariantType.BOOLEAN;
+        this.bits = value ? 1L : 0L;
     }
 
     private void setValue ( final int value )
     {
-        this.value = Integer.valueOf ( value );
+        this.type = VariantType.INT32;
+        this.bits = value;
     }
 
     private void setValue ( final long value )
     {
-        this.value = Long.valueOf ( value );
+        this.type = VariantType.INT64;
+        this.bits = value;
     }
 
     private void setValue ( final String value )
     {
         if ( value != null )
         {
-            this.value = value;
+            this.type = VariantType.STRING;
+            this.string = value;
         }
         else
         {
-            this.value = null;
+            this.type = VariantType.NULL;
         }
     }
 
     private void setValue ( final double value )
     {
-        this.value = Double.valueOf ( value );
+        this.type = VariantType.DOUBLE;
+        this.bits = Double.doubleToRawLongBits ( value );
+    }
+
+    private double doubleValue ()
+    {
+        return Double.longBitsToDouble ( this.bits );
+    }
+
+    private StringNumber stringNumber ()
+    {
+        StringNumber result = this.stringNumber;
+        if ( result == null )
+        {
+            result = parseNumber ( this.string );
+            this.stringNumber = result;
+        }
+        return result;
+    }
+
+    /**
+     * Parse a string like {@link Double#parseDouble(String)} does, but without
+     * throwing exceptions for most strings which are not numbers
+     */
+    private static StringNumber parseNumber ( final String str )
+    {
+        final String s = str.trim ();
+        if ( s.length () == 0 )
+        {
+            return NOT_A_NUMBER;
+        }
+
+        final char c = s.charAt ( 0 );
+        if ( ( c < '0' || c > '9' ) && c != '-' && c != '+' && c != '.' && c != 'I' && c != 'N' )
+        {
+            return NOT_A_NUMBER;
+        }
+
+        try
+        {
+            return new StringNumber ( true, Double.parseDouble ( s ) );
+        }
+        catch ( final NumberFormatException e )
+        {
+            return NOT_A_NUMBER;
+        }
+    }
+
+    /**
+     * Check if the variant has a numeric value
+     * <p>
+     * This is true for numbers, booleans and strings which can be parsed as
+     * double.
+     * </p>
+     */
+    boolean hasNumber ()
+    {
+        switch ( this.type )
+        {
+            case BOOLEAN:
+            case INT32:
+            case INT64:
+            case DOUBLE:
+                return true;
+            case STRING:
+                return stringNumber ().valid;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get the numeric value
+     * <p>
+     * Only valid if {@link #hasNumber()} returns <code>true</code>.
+     * </p>
+     */
+    double numberValue ()
+    {
+        switch ( this.type )
+        {
+            case DOUBLE:
+                return doubleValue ();
+            case STRING:
+                return stringNumber ().value;
+            default:
+                return this.bits;
+        }
+    }
+
+    private static int hashNumber ( final double value )
+    {
+        // zero also covers negative zero
+        final long doubleBits = Double.doubleToLongBits ( value == 0.0 ? 0.0 : value );
+        return (int) ( doubleBits ^ doubleBits >>> 32 );
+    }
+
+    /**
+     * Format the value, same as calling {@link Object#toString()} on the boxed
+     * value
+     * 
+     * @return the formatted value or <code>null</code> if the variant is of
+     *         type {@link VariantType#NULL}
+     */
+    private String format ()
+    {
+        switch ( this.type )
+        {
+            case BOOLEAN:
+                return Boolean.toString ( this.bits != 0 );
+            case INT32:
+                return Integer.toString ( (int)this.bits );
+            case INT64:
+                return Long.toString ( this.bits );
+            case DOUBLE:
+                return Double.toString ( doubleValue () );
+            case STRING:
+                return this.string;
+            default:
+                return null;
+        }
+    }
+
+    private void writeObject ( final ObjectOutputStream out ) throws IOException
+    {
+        final ObjectOutputStream.PutField fields = out.putFields ();
+        fields.put ( "value", getValue () );
+        out.writeFields ();
+    }
+
+    private void readObject ( final ObjectInputStream in ) throws IOException, ClassNotFoundException
+    {
+        final ObjectInputStream.GetField fields = in.readFields ();
+        this.type = VariantType.NULL;
+        setValue ( fields.get ( "value", null ) );
     }
 
     /**
@@ -282,7 +506,7 @@ public class Variant implements Serializable, Comparable<Variant>
             throw new NullValueException ();
         }
 
-        return this.value.toString ();
+        return format ();
     }
 
     /**
@@ -299,7 +523,7 @@ public class Variant implements Serializable, Comparable<Variant>
             return defaultValue;
         }
 
-        return this.value.toString ();
+        return format ();
     }
 
     /**
@@ -311,56 +535,36 @@ public class Variant implements Serializable, Comparable<Variant>
      */
     public Double asDouble ( final Double defaultValue )
     {
-        try
-        {
-            return asDouble ();
-        }
-        catch ( final NullValueException e )
-        {
-            return defaultValue;
-        }
-        catch ( final NotConvertableException e )
+        if ( !hasNumber () )
         {
             return defaultValue;
         }
+        return numberValue ();
     }
 
     public double asDouble () throws NullValueException, NotConvertableException
     {
-        if ( isNull () )
+        switch ( this.type )
         {
-            throw new NullValueException ();
-        }
-
-        try
-        {
-            if ( this.value instanceof Boolean )
-            {
-                return ( (Boolean)this.value ).booleanValue () ? 1.0 : 0.0;
-            }
-            if ( this.value instanceof Double )
-            {
-                return ( (Double)this.value ).doubleValue ();
-            }
-            if ( this.value instanceof Integer )
-            {
-                return ( (Integer)this.value ).doubleValue ();
-            }
-            if ( this.value instanceof Long )
-            {
-                return ( (Long)this.value ).doubleValue ();
-            }
-            if ( this.value instanceof String )
-            {
-                return Double.parseDouble ( (String)this.value );
-            }
-        }
-        catch ( final NumberFormatException e )
-        {
-            throw new NotConvertableException ( this.value );
+            case NULL:
+                throw new NullValueException ();
+            case BOOLEAN:
+                return this.bits != 0 ? 1.0 : 0.0;
+            case INT32:
+            case INT64:
+                return this.bits;
+            case DOUBLE:
+                return doubleValue ();
+            case STRING:
+                final StringNumber number = stringNumber ();
+                if ( !number.valid )
+                {
+                    throw new NotConvertableException ( this.string );
+                }
+                return number.value;
+            default:
+                throw new NotConvertableException ( getValue () );
         }
-
-        throw new NotConvertableException ( this.value );
     }
 
     /**
@@ -388,40 +592,29 @@ public class Variant implements Serializable, Comparable<Variant>
 
     public int asInteger () throws NullValueException, NotConvertableException
     {
-        if ( isNull () )
+        switch ( this.type )
         {
-            throw new NullValueException ();
-        }
-
-        try
-        {
-            if ( this.value instanceof Boolean )
-            {
-                return ( (Boolean)this.value ).booleanValue () ? 1 : 0;
-            }
-            if ( this.value instanceof Double )
-            {
-                return ( (Double)this.value ).intValue ();
-            }
-            if ( this.value instanceof Integer )
-            {
-                return ( (Integer)this.value ).intValue ();
-            }
-            if ( this.value instanceof Long )
-            {
-                return ( (Long)this.value ).intValue ();
-            }
-            if ( this.value instanceof String )
-            {
-                return Integer.parseInt ( (String)this.value );
-            }
-        }
-        catch ( final NumberFormatException e )
-        {
-            throw new NotConvertableException ( this.value );
+            case NULL:
+                throw new NullValueException ();
+            case BOOLEAN:
+                return this.bits != 0 ? 1 : 0;
+            case INT32:
+            case INT64:
+                return (int)this.bits;
+            case DOUBLE:
+                return (int)doubleValue ();
+            case STRING:
+                try
+                {
+                    return Integer.parseInt ( this.string );
+                }
+                catch ( final NumberFormatException e )
+                {
+                    throw new NotConvertableException ( this.string );
+                }
+            default:
+                throw new NotConvertableException ( getValue () );
         }
-
-        throw new NotConvertableException ( this.value );
     }
 
     /**
@@ -449,40 +642,29 @@ public class Variant implements Serializable, Comparable<Variant>
 
     public long asLong () throws NullValueException, NotConvertableException
     {
-        if ( isNull () )
-        {
-            throw new NullValueException ();
-        }
-
-        try
-        {
-            if ( this.value instanceof Boolean )
-            {
-                return ( (Boolean)this.value ).booleanValue () ? 1L : 0L;
-            }
-            if ( this.value instanceof Double )
-            {
-                return ( (Double)this.value ).longValue ();
-            }
-            if ( this.value instanceof Integer )
-            {
-                return ( (Integer)this.value ).longValue ();
-            }
-            if ( this.value instanceof Long )
-            {
-                return ( (Long)this.value ).longValue ();
-            }
-            if ( this.value instanceof String )
-            {
-                return Long.parseLong ( (String)this.value );
-            }
-        }
-        catch ( final NumberFormatException e )
+        switch ( this.type )
         {
-            throw new NotConvertableException ( this.value );
+            case NULL:
+                throw new NullValueException ();
+            case BOOLEAN:
+                return this.bits != 0 ? 1L : 0L;
+            case INT32:
+            case INT64:
+                return this.bits;
+            case DOUBLE:
+                return (long)doubleValue ();
+            case STRING:
+                try
+                {
+                    return Long.parseLong ( this.string );
+                }
+                catch ( final NumberFormatException e )
+                {
+                    throw new NotConvertableException ( this.string );
+                }
+            default:
+                throw new NotConvertableException ( getValue () );
         }
-
-        throw new NotConvertableException ( this.value );
     }
 
     /**
@@ -506,58 +688,24 @@ public class Variant implements Serializable, Comparable<Variant>
      */
     public boolean asBoolean ()
     {
-        try
+        switch ( this.type )
         {
-            if ( this.value == null )
-            {
-                return false;
-            }
-            if ( this.value instanceof Boolean )
-            {
-                return ( (Boolean)this.value ).booleanValue ();
-            }
-            if ( this.value instanceof Double )
-            {
-                return ( (Double)this.value ).doubleValue () != 0;
-            }
-            if ( this.value instanceof Integer )
-            {
-                return ( (Integer)this.value ).intValue () != 0;
-            }
-            if ( this.value instanceof Long )
-            {
-                return ( (Long)this.value ).longValue () != 0;
-            }
-            if ( this.value instanceof String )
-            {
-                final String str = (String)this.value;
-                if ( str.length () == 0 )
-                {
-                    return false;
-                }
-                try
-                {
-                    final long i = Long.parseLong ( str );
-                    return i != 0;
-                }
-                catch ( final NumberFormatException e )
-                {
-                }
-                try
-                {
-                    final double i = Double.parseDouble ( str );
-                    return i != 0;
-                }
-                catch ( final NumberFormatException e )
+            case BOOLEAN:
+            case INT32:
+            case INT64:
+                return this.bits != 0;
+            case DOUBLE:
+                return doubleValue () != 0;
+            case STRING:
+                final StringNumber number = stringNumber ();
+                if ( number.valid )
                 {
+                    return number.value != 0;
                 }
-                return Boolean.parseBoolean ( str );
-            }
-        }
-        catch ( final Exception e )
-        {
+                return Boolean.parseBoolean ( this.string );
+            default:
+                return false;
         }
-        return false;
     }
 
     /**
@@ -679,62 +827,32 @@ public class Variant implements Serializable, Comparable<Variant>
 
     public boolean isBoolean ()
     {
-        if ( isNull () )
-        {
-            return false;
-        }
-
-        return this.value instanceof Boolean;
+        return this.type == VariantType.BOOLEAN;
     }
 
     public boolean isString ()
     {
-        if ( isNull () )
-        {
-            return false;
-        }
-
-        return this.value instanceof String;
+        return this.type == VariantType.STRING;
     }
 
     public boolean isDouble ()
     {
-        if ( isNull () )
-        {
-            return false;
-        }
-
-        return this.value instanceof Double;
+        return this.type == VariantType.DOUBLE;
     }
 
     public boolean isInteger ()
     {
-        if ( isNull () )
-        {
-            return false;
-        }
-
-        return this.value instanceof Integer;
+        return this.type == VariantType.INT32;
     }
 
     public boolean isLong ()
     {
-        if ( isNull () )
-        {
-            return false;
-        }
-
-        return this.value instanceof Long;
+        return this.type == VariantType.INT64;
     }
 
     public boolean isNumber ()
     {
-        if ( isNull () )
-        {
-            return false;
-        }
-
-        return this.value instanceof Number;
+        return this.type == VariantType.INT32 || this.type == VariantType.INT64 || this.type == VariantType.DOUBLE;
     }
 
     @Override
@@ -753,192 +871,89 @@ public class Variant implements Serializable, Comparable<Variant>
 
         final Variant arg0 = (Variant)obj;
 
-        try
+        if ( this.type == arg0.type )
         {
-            if ( arg0.isNull () )
-            {
-                return isNull ();
-            }
-            else if ( isNull () )
-            {
-                return arg0.isNull ();
-            }
-            else if ( arg0.isBoolean () )
-            {
-                return compareToBoolean ( arg0.asBoolean () );
-            }
-            else if ( arg0.isDouble () )
-            {
-                return compareToDouble ( arg0.asDouble () );
-            }
-            else if ( arg0.isLong () )
-            {
-                return compareToLong ( arg0.asLong () );
-            }
-            else if ( arg0.isInteger () )
-            {
-                return compareToInteger ( arg0.asInteger () );
-            }
-            else if ( arg0.isString () )
+            switch ( this.type )
             {
-                return compareToString ( arg0.asString () );
+                case NULL:
+                    return true;
+                case DOUBLE:
+                    return doubleValue () == arg0.doubleValue ();
+                case STRING:
+                    return this.string.equals ( arg0.string );
+                default:
+                    return this.bits == arg0.bits;
             }
-
-            return false;
         }
-        catch ( final NullValueException e )
-        {
-            // should never happen since we check using isNull()
-            return false;
-        }
-        catch ( final NotConvertableException e )
-        {
-            // if it cannot be converted it should not be equal
-            return false;
-        }
-    }
 
-    @Override
-    public int hashCode ()
-    {
-        if ( this.value == null )
-        {
-            return 0;
-        }
-        return this.value.hashCode ();
-    }
-
-    private boolean compareToString ( final String s )
-    {
-        if ( isNull () )
+        if ( isNull () || arg0.isNull () )
         {
             return false;
         }
-
-        try
+        else if ( isBoolean () || arg0.isBoolean () )
         {
-            if ( isDouble () )
-            {
-                return asDouble () == Double.parseDouble ( s );
-            }
-            else if ( isBoolean () )
-            {
-                return asBoolean () == new Variant ( s ).asBoolean ();
-            }
-            else if ( isLong () )
-            {
-                return asLong () == Long.parseLong ( s );
-            }
-            else if ( isInteger () )
-            {
-                return asInteger () == Integer.parseInt ( s );
-            }
-            else
-            {
-                return asString ().equals ( s );
-            }
+            return asBoolean () == arg0.asBoolean ();
         }
-        catch ( final Exception e )
+        else if ( isString () )
         {
-            return false;
+            return equalsString ( arg0 );
         }
-    }
-
-    private boolean compareToInteger ( final int i )
-    {
-        if ( isNull () )
+        else if ( arg0.isString () )
         {
-            return false;
+            return arg0.equalsString ( this );
         }
-
-        try
+        else if ( isDouble () || arg0.isDouble () )
         {
-            if ( isDouble () )
-            {
-                return asDouble () == i;
-            }
-            else if ( isBoolean () )
-            {
-                return asBoolean () ? i != 0 : i == 0;
-            }
-            else if ( isLong () )
-            {
-                return asLong () == i;
-            }
-            else
-            {
-                return asInteger () == i;
-            }
+            return numberValue () == arg0.numberValue ();
         }
-        catch ( final Exception e )
+        else
         {
-            return false;
+            // integers and longs
+            return this.bits == arg0.bits;
         }
     }
 
-    private boolean compareToLong ( final long l )
+    /**
+     * Compare this string variant to a number
+     */
+    private boolean equalsString ( final Variant other )
     {
-        if ( isNull () )
-        {
-            return false;
-        }
-
-        try
-        {
-            if ( isDouble () )
-            {
-                return asDouble () == l;
-            }
-            else if ( isBoolean () )
-            {
-                return asBoolean () ? l != 0 : l == 0;
-            }
-            else
-            {
-                return asLong () == l;
-            }
-        }
-        catch ( final Exception e )
-        {
-            return false;
-        }
+        final StringNumber number = stringNumber ();
+        return number.valid && number.value == other.numberValue ();
     }
 
-    private boolean compareToDouble ( final double d )
+    @Override
+    public int hashCode ()
     {
-        if ( isNull () )
-        {
-            return false;
-        }
-
-        try
+        switch ( this.type )
         {
-            if ( isBoolean () )
-            {
-                return asBoolean () ? d != 0 : d == 0;
-            }
-            return asDouble () == d;
-        }
-        catch ( final Exception e )
-        {
-            return false;
+            case BOOLEAN:
+            case INT32:
+            case INT64:
+                return hashNumber ( this.bits );
+            case DOUBLE:
+                return hashNumber ( doubleValue () );
+            case STRING:
+                final StringNumber number = stringNumber ();
+                if ( number.valid )
+                {
+                    return hashNumber ( number.value );
+                }
+                return this.string.hashCode ();
+            default:
+                return 0;
         }
     }
 
-    private boolean compareToBoolean ( final boolean b )
-    {
-        return asBoolean () == b;
-    }
-
     public String toLabel ( final String defaultLabel )
     {
-        if ( this.value == null )
+        if ( isNull () )
         {
             return defaultLabel;
         }
         else
         {
-            return this.value.toString ();
+            return format ();
         }
     }
 
@@ -960,7 +975,7 @@ public class Variant implements Serializable, Comparable<Variant>
     @Override
     public String toString ()
     {
-        return VariantType.fromJavaObject ( this.value ) + "#" + toLabel ();
+        return this.type + "#" + toLabel ();
     }
 
     /**
@@ -968,17 +983,35 @@ public class Variant implements Serializable, Comparable<Variant>
      */
     public VariantType getType ()
     {
-        return VariantType.fromJavaObject ( this.value );
+        return this.type;
     }
 
     /**
      * Get the internal variant value
+     * <p>
+     * Values other than strings are boxed on each call, prefer the primitive
+     * accessors like {@link #asDouble()} where possible.
+     * </p>
      * 
      * @return the internal variant value
      */
     public Serializable getValue ()
     {
-        return this.value;
+        switch ( this.type )
+        {
+            case BOOLEAN:
+                return Boolean.valueOf ( this.bits != 0 );
+            case INT32:
+                return Integer.valueOf ( (int)this.bits );
+            case INT64:
+                return Long.valueOf ( this.bits );
+            case DOUBLE:
+                return Double.valueOf ( doubleValue () );
+            case STRING:
+                return this.string;
+            default:
+                return null;
+        }
     }
 
     @Override
@@ -22,6 +22,20 @@ package org.openscada.core;
 import java.io.Serializable;
 import java.util.Comparator;
 
+/**
+ * Compare variants by their value
+ * <p>
+ * <code>null</code> and NULL variants come first. Two variants which both have
+ * a numeric value (numbers, booleans and strings which can be parsed as
+ * number) are compared by that value, otherwise they are compared by their
+ * string representation.
+ * </p>
+ * <p>
+ * The numeric value of a string is parsed once per variant instance and then
+ * kept as sort key, so comparing does not parse strings again or throw
+ * exceptions for strings which are not numbers.
+ * </p>
+ */
 public class VariantComparator implements Comparator<Variant>, Serializable
 {
     private static final long serialVersionUID = 1L;
@@ -29,58 +43,24 @@ public class VariantComparator implements Comparator<Variant>, Serializable
     @Override
     public int compare ( final Variant o1, final Variant o2 )
     {
-        // special cases
         if ( o1 == o2 )
         {
             return 0;
         }
-        if ( o1 == null && o2 == null )
-        {
-            return 0;
-        }
-        if ( o1 == null && o2.isNull () )
-        {
-            return 0;
-        }
-        if ( o2 == null && o1.isNull () )
-        {
-            return 0;
-        }
-        if ( o1 != null && o2 != null && o1.isNull () && o2.isNull () )
-        {
-            return 0;
-        }
-        // check if one of the parameters is null
-        if ( o1 == null || o1.isNull () )
-        {
-            return -1;
-        }
-        if ( o2 == null || o2.isNull () )
+
+        final boolean null1 = o1 == null || o1.isNull ();
+        final boolean null2 = o2 == null || o2.isNull ();
+        if ( null1 || null2 )
         {
-            return 1;
+            return null1 == null2 ? 0 : null1 ? -1 : 1;
         }
 
-        // first check for strings
-
-        if ( o1.isString () || o2.isString () )
+        if ( o1.hasNumber () && o2.hasNumber () )
         {
-            try
-            {
-                // try to convert to double
-                o1.asDouble ();
-                o2.asDouble ();
-            }
-            catch ( final Exception e )
-            {
-                return o1.asString ( "" ).compareTo ( o2.asString ( "" ) );
-            }
+            return Double.compare ( o1.numberValue (), o2.numberValue () );
         }
 
-        // compare by double value
-
-        final double v1 = o1.asDouble ( 0.0 );
-        final double v2 = o2.asDouble ( 0.0 );
-
-        return Double.compare ( v1, v2 );
+        // at least one of them is a string which is not a number
+        return o1.asString ( "" ).compareTo ( o2.asString ( "" ) );
     }
 }
@@ -25,14 +25,18 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import org.openscada.ds.DataNode;
 import org.openscada.ds.storage.AbstractStorage;
-import org.openscada.utils.concurrent.ExportedExecutorService;
 import org.openscada.utils.concurrent.InstantErrorFuture;
 import org.openscada.utils.concurrent.InstantFuture;
 import org.openscada.utils.concurrent.NotifyFuture;
@@ -52,7 +56,7 @@ public class StorageImpl extends AbstractStorage
 
     public StorageImpl () throws IOException
     {
-        this.executorService = new ExportedExecutorService ( StorageImpl.class.getName (), 1, 1, 0L, TimeUnit.MILLISECONDS );
+        this.executorService = createEventExecutor ( StorageImpl.class.getName () );
 
         this.rootFolder = new File ( System.getProperty ( "org.openscada.ds.storage.file.root", System.getProperty ( "user.home" ) + File.separator + ".openscadaDS" ) );
         if ( !this.rootFolder.exists () )
@@ -63,6 +67,8 @@ public class StorageImpl extends AbstractStorage
         {
             throw new IOException ( String.format ( "Unable to use directory: %s", this.rootFolder ) );
         }
+
+        exportStatistics ( StorageImpl.class.getName () );
     }
 
     @Override
@@ -92,6 +98,84 @@ public class StorageImpl extends AbstractStorage
         }
     }
 
+    @Override
+    public synchronized NotifyFuture<Map<String, DataNode>> readNodes ( final Collection<String> nodeIds )
+    {
+        try
+        {
+            final Map<String, DataNode> result = new HashMap<String, DataNode> ( nodeIds.size () );
+            for ( final String nodeId : nodeIds )
+            {
+                final DataNode node = loadFile ( nodeId );
+                if ( node != null )
+                {
+                    result.put ( nodeId, node );
+                }
+            }
+            return new InstantFuture<Map<String, DataNode>> ( result );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to load data nodes", e );
+            return new InstantErrorFuture<Map<String, DataNode>> ( e );
+        }
+    }
+
+    @Override
+    public synchronized NotifyFuture<Map<String, DataNode>> readNodesByPrefix ( final String prefix )
+    {
+        try
+        {
+            final Map<String, DataNode> result = new HashMap<String, DataNode> ();
+            scan ( this.rootFolder, 1, prefix, result );
+            return new InstantFuture<Map<String, DataNode>> ( result );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to load data nodes", e );
+            return new InstantErrorFuture<Map<String, DataNode>> ( e );
+        }
+    }
+
+    /**
+     * Scan the hashed directory structure for nodes starting with the prefix
+     */
+    private void scan ( final File folder, final int depth, final String prefix, final Map<String, DataNode> result ) throws IOException
+    {
+        final File[] files = folder.listFiles ();
+        if ( files == null )
+        {
+            return;
+        }
+
+        for ( final File file : files )
+        {
+            if ( depth <= SPLIT_PATH_DEPTH )
+            {
+                if ( file.isDirectory () )
+                {
+                    scan ( file, depth + 1, prefix, result );
+                }
+                continue;
+            }
+
+            if ( !file.isFile () )
+            {
+                continue;
+            }
+
+            final String nodeId = URLDecoder.decode ( file.getName (), "UTF-8" );
+            if ( nodeId.startsWith ( prefix ) && file.equals ( makeFile ( nodeId ) ) )
+            {
+                final DataNode node = loadFile ( nodeId );
+                if ( node != null )
+                {
+                    result.put ( nodeId, node );
+                }
+            }
+        }
+    }
+
     private DataNode loadFile ( final String nodeId ) throws IOException
     {
         final File file = makeFile ( nodeId );
@@ -162,7 +246,7 @@ public class StorageImpl extends AbstractStorage
     {
         file.delete ();
 
-        final byte[] data = node.getData ();
+        final ByteBuffer data = node.getDataBuffer ();
         if ( data == null )
         {
             return;
@@ -173,7 +257,11 @@ public class StorageImpl extends AbstractStorage
         final FileOutputStream stream = new FileOutputStream ( file );
         try
         {
-            stream.write ( node.getData () );
+            final FileChannel channel = stream.getChannel ();
+            while ( data.hasRemaining () )
+            {
+                channel.write ( data );
+            }
         }
         finally
         {
@@ -0,0 +1,236 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.jdbc.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.ds.DataNode;
+
+public class CachingStorageDaoTest
+{
+    /**
+     * A simple in memory storage
+     */
+    private static class MemoryStorageDao implements JdbcStorageDao
+    {
+        private final Map<String, DataNode> nodes = new HashMap<String, DataNode> ();
+
+        @Override
+        public synchronized DataNode readNode ( final String nodeId )
+        {
+            return this.nodes.get ( nodeId );
+        }
+
+        @Override
+        public Collection<DataNode> readAllNodes ()
+        {
+            // don't prefill the cache
+            return Collections.emptyList ();
+        }
+
+        @Override
+        public synchronized Collection<DataNode> readNodes ( final Collection<String> nodeIds )
+        {
+            final List<DataNode> result = new ArrayList<DataNode> ();
+            for ( final String nodeId : nodeIds )
+            {
+                final DataNode node = this.nodes.get ( nodeId );
+                if ( node != null )
+                {
+                    result.add ( node );
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Collection<DataNode> readNodesByPrefix ( final String prefix )
+        {
+            throw new UnsupportedOperationException ();
+        }
+
+        @Override
+        public synchronized void writeNode ( final DataNode node )
+        {
+            this.nodes.put ( node.getId (), node );
+        }
+
+        @Override
+        public synchronized void deleteNode ( final String nodeId )
+        {
+            this.nodes.remove ( nodeId );
+        }
+
+        @Override
+        public Set<String> writeNodes ( final Collection<DataNode> nodes )
+        {
+            for ( final DataNode node : nodes )
+            {
+                writeNode ( node );
+            }
+            return Collections.emptySet ();
+        }
+
+        @Override
+        public Set<String> deleteNodes ( final Collection<String> nodeIds )
+        {
+            for ( final String nodeId : nodeIds )
+            {
+                deleteNode ( nodeId );
+            }
+            return Collections.emptySet ();
+        }
+
+        @Override
+        public void dispose ()
+        {
+        }
+    }
+
+    /**
+     * A data node which deletes itself from the cache when it gets weighed
+     * <p>
+     * The cache weighs a loaded node after it checked that nothing was
+     * modified during the load, but before it puts the node into the cache.
+     * So this forces a delete to happen right between these two steps.
+     * </p>
+     */
+    private class DeletingDataNode extends DataNode
+    {
+        private boolean deleted;
+
+        public DeletingDataNode ( final String id )
+        {
+            super ( id, new byte[] { 1, 2, 3 } );
+        }
+
+        @Override
+        public int getDataLength ()
+        {
+            if ( !this.deleted )
+            {
+                this.deleted = true;
+                CachingStorageDaoTest.this.cache.deleteNode ( getId () );
+            }
+            return super.getDataLength ();
+        }
+    }
+
+    private ScheduledExecutorService scheduler;
+
+    private MemoryStorageDao storage;
+
+    private CachingStorageDao cache;
+
+    @Before
+    public void setup ()
+    {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor ();
+        this.storage = new MemoryStorageDao ();
+        this.cache = new CachingStorageDao ( this.storage, this.scheduler, 0, 1024 * 1024 );
+    }
+
+    @After
+    public void dispose ()
+    {
+        this.cache.dispose ();
+        this.scheduler.shutdown ();
+    }
+
+    @Test
+    public void testReadWrite ()
+    {
+        final DataNode node = new DataNode ( "a", new byte[] { 1 } );
+        this.cache.writeNode ( node );
+
+        Assert.assertSame ( node, this.cache.readNode ( "a" ) );
+        Assert.assertSame ( node, this.storage.readNode ( "a" ) );
+
+        this.cache.deleteNode ( "a" );
+
+        Assert.assertNull ( this.cache.readNode ( "a" ) );
+        Assert.assertNull ( this.storage.readNode ( "a" ) );
+    }
+
+    @Test
+    public void testDeleteDuringLoad ()
+    {
+        this.storage.writeNode ( new DeletingDataNode ( "a" ) );
+
+        // the load returns the node as it was read ...
+        Assert.assertNotNull ( this.cache.readNode ( "a" ) );
+
+        // ... but must not keep it in the cache
+        Assert.assertNull ( this.storage.readNode ( "a" ) );
+        Assert.assertNull ( this.cache.readNode ( "a" ) );
+    }
+
+    @Test
+    public void testDeleteDuringBulkLoad ()
+    {
+        this.storage.writeNode ( new DeletingDataNode ( "a" ) );
+
+        Assert.assertEquals ( 1, this.cache.readNodes ( Arrays.asList ( "a" ) ).size () );
+
+        Assert.assertNull ( this.storage.readNode ( "a" ) );
+        Assert.assertTrue ( this.cache.readNodes ( Arrays.asList ( "a" ) ).isEmpty () );
+        Assert.assertNull ( this.cache.readNode ( "a" ) );
+    }
+
+    /**
+     * Each cache exports its statistics under its own name
+     */
+    @Test
+    public void testExportStatistics () throws Exception
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer ();
+        final ObjectName pattern = new ObjectName ( "org.openscada.ds.storage.jdbc.JdbcStorageDao:key=CachingStorageDao,*" );
+        Assert.assertEquals ( 1, server.queryNames ( pattern, null ).size () );
+
+        final CachingStorageDao other = new CachingStorageDao ( new MemoryStorageDao (), this.scheduler, 0, 1024 );
+        try
+        {
+            Assert.assertEquals ( 2, server.queryNames ( pattern, null ).size () );
+        }
+        finally
+        {
+            other.dispose ();
+        }
+
+        Assert.assertEquals ( 1, server.queryNames ( pattern, null ).size () );
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.jdbc.internal;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.utils.osgi.jdbc.task.CommonConnectionContext;
+import org.openscada.utils.osgi.jdbc.task.ConnectionContext;
+
+public class ChunkedTransactionTest
+{
+    /**
+     * Inserts one row per item and records the chunks it got called with
+     */
+    private static class InsertTransaction extends ChunkedTransaction<String>
+    {
+        private final List<List<String>> chunks = new ArrayList<List<String>> ();
+
+        public InsertTransaction ( final int batchSize )
+        {
+            super ( batchSize );
+        }
+
+        @Override
+        protected void process ( final ConnectionContext connectionContext, final List<String> items ) throws SQLException
+        {
+            this.chunks.add ( new ArrayList<String> ( items ) );
+            for ( final String item : items )
+            {
+                connectionContext.update ( "insert into datastore ( node_id, instance_id, data ) values ( ?, ?, ? )", item, "default", item.getBytes () );
+            }
+        }
+
+        @Override
+        protected String getId ( final String item )
+        {
+            return item;
+        }
+
+        public List<Integer> getChunkSizes ()
+        {
+            final List<Integer> result = new ArrayList<Integer> ();
+            for ( final List<String> chunk : this.chunks )
+            {
+                result.add ( chunk.size () );
+            }
+            return result;
+        }
+    }
+
+    private static final List<String> ITEMS = Arrays.asList ( "a", "b", "c", "d", "e", "f", "g", "h" );
+
+    private MemoryDatabase database;
+
+    private ConnectionContext connectionContext;
+
+    @Before
+    public void setup ()
+    {
+        this.database = new MemoryDatabase ();
+        final Connection connection = this.database.createConnection ();
+        this.connectionContext = new CommonConnectionContext () {
+
+            @Override
+            public Connection getConnection ()
+            {
+                return connection;
+            }
+        };
+    }
+
+    private Set<String> getStoredIds ()
+    {
+        final Set<String> result = new HashSet<String> ();
+        for ( final Map<String, Object> row : this.database.getRows () )
+        {
+            Assert.assertTrue ( "Duplicate row: " + row, result.add ( (String)row.get ( "node_id" ) ) );
+        }
+        return result;
+    }
+
+    @Test
+    public void testChunking () throws Exception
+    {
+        final InsertTransaction tx = new InsertTransaction ( 3 );
+        final Set<String> failed = tx.run ( this.connectionContext, ITEMS );
+
+        Assert.assertTrue ( failed.isEmpty () );
+        Assert.assertEquals ( Arrays.asList ( 3, 3, 2 ), tx.getChunkSizes () );
+        Assert.assertEquals ( 3, this.database.getCommits () );
+        Assert.assertEquals ( new HashSet<String> ( ITEMS ), getStoredIds () );
+    }
+
+    @Test
+    public void testExactChunks () throws Exception
+    {
+        final InsertTransaction tx = new InsertTransaction ( 4 );
+        tx.run ( this.connectionContext, ITEMS );
+
+        Assert.assertEquals ( Arrays.asList ( 4, 4 ), tx.getChunkSizes () );
+    }
+
+    @Test
+    public void testUnlimitedChunk () throws Exception
+    {
+        final InsertTransaction tx = new InsertTransaction ( 0 );
+        tx.run ( this.connectionContext, ITEMS );
+
+        Assert.assertEquals ( Arrays.asList ( 8 ), tx.getChunkSizes () );
+    }
+
+    @Test
+    public void testEmpty () throws Exception
+    {
+        final InsertTransaction tx = new InsertTransaction ( 3 );
+        final Set<String> failed = tx.run ( this.connectionContext, Collections.<String> emptyList () );
+
+        Assert.assertTrue ( failed.isEmpty () );
+        Assert.assertTrue ( tx.getChunkSizes ().isEmpty () );
+        Assert.assertEquals ( 0, this.database.getCommits () );
+    }
+
+    @Test
+    public void testRetryReportsFailedItems () throws Exception
+    {
+        this.database.failOn ( "c" );
+        this.database.failOn ( "g" );
+
+        final InsertTransaction tx = new InsertTransaction ( 3 );
+        final Set<String> failed = tx.run ( this.connectionContext, ITEMS );
+
+        Assert.assertEquals ( new HashSet<String> ( Arrays.asList ( "c", "g" ) ), failed );
+
+        // the failed chunks got retried one by one, the good one got processed once
+        Assert.assertEquals ( Arrays.asList ( 3, 1, 1, 1, 3, 2, 1, 1 ), tx.getChunkSizes () );
+
+        // the rows written before the failure got rolled back and written again
+        final Set<String> expected = new HashSet<String> ( ITEMS );
+        expected.removeAll ( failed );
+        Assert.assertEquals ( expected, getStoredIds () );
+    }
+
+    @Test
+    public void testSingleItemChunkIsNotRetried () throws Exception
+    {
+        this.database.failOn ( "h" );
+
+        final InsertTransaction tx = new InsertTransaction ( 1 );
+        final Set<String> failed = tx.run ( this.connectionContext, ITEMS );
+
+        Assert.assertEquals ( Collections.singleton ( "h" ), failed );
+        Assert.assertEquals ( ITEMS.size (), tx.getChunkSizes ().size () );
+        Assert.assertEquals ( 1, this.database.getRollbacks () );
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.jdbc.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.ds.DataNode;
+
+public class JdbcStorageDaoBase64ImplTest
+{
+    private static final String CHUNK_SIZE_PROPERTY = "org.openscada.ds.storage.jdbc.chunkSize";
+
+    private MemoryDatabase database;
+
+    private JdbcStorageDaoBase64Impl dao;
+
+    @Before
+    public void setup () throws Exception
+    {
+        System.setProperty ( CHUNK_SIZE_PROPERTY, "8" );
+        this.database = new MemoryDatabase ();
+        this.dao = new JdbcStorageDaoBase64Impl ( this.database.createDataSourceFactory (), new Properties (), false, UpsertDialect.UPDATE_INSERT );
+    }
+
+    @After
+    public void dispose ()
+    {
+        this.dao.dispose ();
+        System.clearProperty ( CHUNK_SIZE_PROPERTY );
+    }
+
+    private static List<DataNode> makeNodes ( final int count, final String value )
+    {
+        final List<DataNode> result = new ArrayList<DataNode> ( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            result.add ( new DataNode ( "node." + i, ( value + i ).getBytes () ) );
+        }
+        return result;
+    }
+
+    /**
+     * Get the stored sequence numbers of a node
+     */
+    private Set<Integer> getSequenceNumbers ( final String nodeId )
+    {
+        final Set<Integer> result = new TreeSet<Integer> ();
+        for ( final Map<String, Object> row : this.database.getRows () )
+        {
+            if ( nodeId.equals ( row.get ( "node_id" ) ) )
+            {
+                Assert.assertTrue ( "Duplicate chunk: " + row, result.add ( (Integer)row.get ( "sequence_nr" ) ) );
+            }
+        }
+        return result;
+    }
+
+    private Set<String> getStoredIds ()
+    {
+        final Set<String> result = new HashSet<String> ();
+        for ( final Map<String, Object> row : this.database.getRows () )
+        {
+            result.add ( (String)row.get ( "node_id" ) );
+        }
+        return result;
+    }
+
+    @Test
+    public void testBulkWriteReadsChunksPerPartition ()
+    {
+        final Set<String> failed = this.dao.writeNodes ( makeNodes ( 1200, "value" ) );
+        Assert.assertTrue ( failed.isEmpty () );
+
+        // one query for each transaction of up to 500 nodes
+        Assert.assertEquals ( 3, this.database.countStatements ( "select node_id, sequence_nr, data" ) );
+
+        // overwriting reads the stored chunks the same way
+        this.dao.writeNodes ( makeNodes ( 1200, "other" ) );
+        Assert.assertEquals ( 6, this.database.countStatements ( "select node_id, sequence_nr, data" ) );
+
+        Assert.assertArrayEquals ( "other1199".getBytes (), this.dao.readNode ( "node.1199" ).getData () );
+        Assert.assertEquals ( range ( 2 ), getSequenceNumbers ( "node.1199" ) );
+        Assert.assertEquals ( 1200, getStoredIds ().size () );
+    }
+
+    @Test
+    public void testShrinkDeletesTailChunks ()
+    {
+        // 40 bytes encode to 56 characters, 7 full chunks and an empty one
+        final DataNode large = new DataNode ( "node.1", new byte[40] );
+        this.dao.writeNodes ( Arrays.asList ( large, new DataNode ( "node.2", new byte[4] ) ) );
+        Assert.assertEquals ( range ( 8 ), getSequenceNumbers ( "node.1" ) );
+        Assert.assertEquals ( range ( 2 ), getSequenceNumbers ( "node.2" ) );
+
+        // shrink one node and let the other one grow in the same transaction
+        final Set<String> failed = this.dao.writeNodes ( Arrays.asList ( new DataNode ( "node.1", "abcd".getBytes () ), new DataNode ( "node.2", new byte[20] ) ) );
+        Assert.assertTrue ( failed.isEmpty () );
+
+        Assert.assertEquals ( range ( 2 ), getSequenceNumbers ( "node.1" ) );
+        Assert.assertEquals ( range ( 4 ), getSequenceNumbers ( "node.2" ) );
+        Assert.assertEquals ( 1, this.database.countStatements ( "delete from datastore where node_id=? and instance_id=? and sequence_nr>=?" ) );
+
+        Assert.assertArrayEquals ( "abcd".getBytes (), this.dao.readNode ( "node.1" ).getData () );
+        Assert.assertArrayEquals ( new byte[20], this.dao.readNode ( "node.2" ).getData () );
+    }
+
+    @Test
+    public void testUnchangedChunksAreNotWritten ()
+    {
+        final byte[] data = new byte[40];
+        this.dao.writeNodes ( Collections.singleton ( new DataNode ( "node.1", data ) ) );
+        final int inserts = this.database.countStatements ( "insert" );
+        final int updates = this.database.countStatements ( "update" );
+
+        // change the last byte, which is part of the last full chunk only
+        data[39] = 1;
+        this.dao.writeNodes ( Collections.singleton ( new DataNode ( "node.1", data ) ) );
+
+        Assert.assertEquals ( inserts, this.database.countStatements ( "insert" ) );
+        Assert.assertEquals ( updates + 1, this.database.countStatements ( "update" ) );
+        Assert.assertArrayEquals ( data, this.dao.readNode ( "node.1" ).getData () );
+    }
+
+    @Test
+    public void testBulkWriteReportsFailedNodes ()
+    {
+        this.database.failOn ( "node.7" );
+        this.database.failOn ( "node.612" );
+
+        final Set<String> failed = this.dao.writeNodes ( makeNodes ( 700, "value" ) );
+        Assert.assertEquals ( new HashSet<String> ( Arrays.asList ( "node.7", "node.612" ) ), failed );
+
+        final Set<String> stored = getStoredIds ();
+        Assert.assertEquals ( 698, stored.size () );
+        Assert.assertFalse ( stored.contains ( "node.7" ) );
+        Assert.assertFalse ( stored.contains ( "node.612" ) );
+
+        // the nodes of the failed transactions are stored exactly once
+        Assert.assertEquals ( range ( 2 ), getSequenceNumbers ( "node.6" ) );
+        Assert.assertEquals ( range ( 2 ), getSequenceNumbers ( "node.699" ) );
+    }
+
+    @Test
+    public void testBulkDeleteReportsFailedNodes ()
+    {
+        this.dao.writeNodes ( makeNodes ( 10, "value" ) );
+        this.database.failOn ( "node.3" );
+
+        final List<String> ids = new ArrayList<String> ();
+        for ( int i = 0; i < 10; i++ )
+        {
+            ids.add ( "node." + i );
+        }
+
+        final Set<String> failed = this.dao.deleteNodes ( ids );
+        Assert.assertEquals ( Collections.singleton ( "node.3" ), failed );
+        Assert.assertEquals ( Collections.singleton ( "node.3" ), getStoredIds () );
+    }
+
+    @Test
+    public void testDeleteInsertDialect () throws Exception
+    {
+        this.dao.dispose ();
+        this.dao = new JdbcStorageDaoBase64Impl ( this.database.createDataSourceFactory (), new Properties (), false, UpsertDialect.DELETE_INSERT );
+
+        this.dao.writeNodes ( Collections.singleton ( new DataNode ( "node.1", new byte[40] ) ) );
+        this.dao.writeNodes ( Collections.singleton ( new DataNode ( "node.1", new byte[4] ) ) );
+
+        Assert.assertEquals ( range ( 2 ), getSequenceNumbers ( "node.1" ) );
+        Assert.assertArrayEquals ( new byte[4], this.dao.readNode ( "node.1" ).getData () );
+    }
+
+    private static Set<Integer> range ( final int count )
+    {
+        final Set<Integer> result = new TreeSet<Integer> ();
+        for ( int i = 0; i < count; i++ )
+        {
+            result.add ( i );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.jdbc.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.ds.DataNode;
+
+public class JdbcStorageDaoBlobImplTest
+{
+    private MemoryDatabase database;
+
+    private JdbcStorageDaoBlobImpl dao;
+
+    @Before
+    public void setup () throws Exception
+    {
+        this.database = new MemoryDatabase ();
+        this.dao = new JdbcStorageDaoBlobImpl ( this.database.createDataSourceFactory (), new Properties (), false, UpsertDialect.UPDATE_INSERT );
+    }
+
+    @After
+    public void dispose ()
+    {
+        this.dao.dispose ();
+    }
+
+    private static List<DataNode> makeNodes ( final int count, final String value )
+    {
+        final List<DataNode> result = new ArrayList<DataNode> ( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            result.add ( new DataNode ( "node." + i, ( value + i ).getBytes () ) );
+        }
+        return result;
+    }
+
+    private static List<String> makeIds ( final int count )
+    {
+        final List<String> result = new ArrayList<String> ( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            result.add ( "node." + i );
+        }
+        return result;
+    }
+
+    private static Map<String, DataNode> toMap ( final Collection<DataNode> nodes )
+    {
+        final Map<String, DataNode> result = new HashMap<String, DataNode> ();
+        for ( final DataNode node : nodes )
+        {
+            Assert.assertNull ( "Duplicate node: " + node.getId (), result.put ( node.getId (), node ) );
+        }
+        return result;
+    }
+
+    private Set<String> getStoredIds ()
+    {
+        final Set<String> result = new HashSet<String> ();
+        for ( final Map<String, Object> row : this.database.getRows () )
+        {
+            Assert.assertTrue ( "Duplicate row: " + row, result.add ( (String)row.get ( "node_id" ) ) );
+        }
+        return result;
+    }
+
+    @Test
+    public void testBulkWriteAndRead ()
+    {
+        final Set<String> failed = this.dao.writeNodes ( makeNodes ( 1200, "value" ) );
+        Assert.assertTrue ( failed.isEmpty () );
+
+        // one transaction for each chunk of up to 500 nodes
+        Assert.assertEquals ( 3, this.database.getCommits () );
+
+        final Map<String, DataNode> nodes = toMap ( this.dao.readNodes ( makeIds ( 1200 ) ) );
+        Assert.assertEquals ( 1200, nodes.size () );
+        Assert.assertArrayEquals ( "value1199".getBytes (), nodes.get ( "node.1199" ).getData () );
+        Assert.assertEquals ( 3, this.database.countStatements ( "select node_id, data from datastore where instance_id=? and node_id in" ) );
+
+        Assert.assertEquals ( 1200, toMap ( this.dao.readAllNodes () ).size () );
+        Assert.assertEquals ( 311, toMap ( this.dao.readNodesByPrefix ( "node.1" ) ).size () );
+    }
+
+    @Test
+    public void testBulkOverwrite ()
+    {
+        this.dao.writeNodes ( makeNodes ( 10, "value" ) );
+
+        final List<DataNode> nodes = makeNodes ( 15, "other" );
+        final Set<String> failed = this.dao.writeNodes ( nodes );
+        Assert.assertTrue ( failed.isEmpty () );
+
+        Assert.assertEquals ( 15, getStoredIds ().size () );
+        Assert.assertEquals ( 15, this.database.countStatements ( "insert" ) );
+        Assert.assertArrayEquals ( "other3".getBytes (), this.dao.readNode ( "node.3" ).getData () );
+        Assert.assertArrayEquals ( "other14".getBytes (), this.dao.readNode ( "node.14" ).getData () );
+    }
+
+    @Test
+    public void testBulkWriteReportsFailedNodes ()
+    {
+        this.database.failOn ( "node.42" );
+        this.database.failOn ( "node.510" );
+
+        final Set<String> failed = this.dao.writeNodes ( makeNodes ( 600, "value" ) );
+        Assert.assertEquals ( new HashSet<String> ( Arrays.asList ( "node.42", "node.510" ) ), failed );
+
+        final Set<String> stored = getStoredIds ();
+        Assert.assertEquals ( 598, stored.size () );
+        Assert.assertFalse ( stored.contains ( "node.42" ) );
+        Assert.assertFalse ( stored.contains ( "node.510" ) );
+    }
+
+    @Test
+    public void testBulkDeleteReportsFailedNodes ()
+    {
+        this.dao.writeNodes ( makeNodes ( 10, "value" ) );
+        this.database.failOn ( "node.3" );
+
+        final Set<String> failed = this.dao.deleteNodes ( makeIds ( 10 ) );
+        Assert.assertEquals ( Collections.singleton ( "node.3" ), failed );
+        Assert.assertEquals ( Collections.singleton ( "node.3" ), getStoredIds () );
+    }
+
+    @Test
+    public void testDeleteInsertDialect () throws Exception
+    {
+        this.dao.dispose ();
+        this.dao = new JdbcStorageDaoBlobImpl ( this.database.createDataSourceFactory (), new Properties (), false, UpsertDialect.DELETE_INSERT );
+
+        this.dao.writeNodes ( makeNodes ( 10, "value" ) );
+        this.dao.writeNodes ( makeNodes ( 10, "other" ) );
+
+        Assert.assertEquals ( 10, getStoredIds ().size () );
+        Assert.assertArrayEquals ( "other9".getBytes (), this.dao.readNode ( "node.9" ).getData () );
+    }
+}
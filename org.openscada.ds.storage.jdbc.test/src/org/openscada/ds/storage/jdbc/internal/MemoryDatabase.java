@@ -0,0 +1,636 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.jdbc.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.XADataSource;
+
+import org.osgi.service.jdbc.DataSourceFactory;
+
+/**
+ * A minimal in memory database for testing the storage DAOs
+ * <p>
+ * It understands the simple statements used by the DAOs: inserts, updates
+ * and deletes with conditions of the form <code>column=?</code>,
+ * <code>column&gt;=?</code>, <code>column in ( ?, ... )</code> and
+ * <code>column like ?</code>, and selects which may be ordered. All columns
+ * except <code>data</code> make up the primary key. Changes are only visible
+ * to other connections after a commit, a rollback discards them.
+ * </p>
+ */
+class MemoryDatabase
+{
+    private static final Pattern INSERT = Pattern.compile ( "insert into (\\w+) \\( (.*?) \\) values .*" );
+
+    private static final Pattern UPDATE = Pattern.compile ( "update (\\w+) set (\\w+)=\\? where (.*)" );
+
+    private static final Pattern DELETE = Pattern.compile ( "delete from (\\w+) where (.*)" );
+
+    private static final Pattern SELECT = Pattern.compile ( "select (.*?) from (\\w+) where (.*?)(?: escape '!')?(?: order by (.*))?" );
+
+    private static final Pattern CONDITION = Pattern.compile ( "(\\w+) ?(=|>=|in|like) ?(\\?|\\(.*\\))" );
+
+    private static final String VALUE_COLUMN = "data";
+
+    private List<Map<String, Object>> rows = new ArrayList<Map<String, Object>> ();
+
+    private final List<String> statements = new ArrayList<String> ();
+
+    private final Set<String> failingValues = new HashSet<String> ();
+
+    private int commits;
+
+    private int rollbacks;
+
+    /**
+     * Let all statements fail which have the value as a parameter
+     */
+    public synchronized void failOn ( final String value )
+    {
+        this.failingValues.add ( value );
+    }
+
+    /**
+     * Get the committed rows
+     */
+    public synchronized List<Map<String, Object>> getRows ()
+    {
+        return new ArrayList<Map<String, Object>> ( this.rows );
+    }
+
+    /**
+     * Get all statements executed so far
+     */
+    public synchronized List<String> getStatements ()
+    {
+        return new ArrayList<String> ( this.statements );
+    }
+
+    /**
+     * Count the executed statements starting with the prefix
+     */
+    public synchronized int countStatements ( final String prefix )
+    {
+        int result = 0;
+        for ( final String sql : this.statements )
+        {
+            if ( sql.startsWith ( prefix ) )
+            {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    public synchronized int getCommits ()
+    {
+        return this.commits;
+    }
+
+    public synchronized int getRollbacks ()
+    {
+        return this.rollbacks;
+    }
+
+    public Connection createConnection ()
+    {
+        return proxy ( Connection.class, new ConnectionHandler () );
+    }
+
+    public DataSourceFactory createDataSourceFactory ()
+    {
+        return new DataSourceFactory () {
+
+            @Override
+            public DataSource createDataSource ( final Properties props )
+            {
+                return proxy ( DataSource.class, new InvocationHandler () {
+
+                    @Override
+                    public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+                    {
+                        if ( method.getName ().equals ( "getConnection" ) )
+                        {
+                            return createConnection ();
+                        }
+                        throw new UnsupportedOperationException ( method.getName () );
+                    }
+                } );
+            }
+
+            @Override
+            public ConnectionPoolDataSource createConnectionPoolDataSource ( final Properties props )
+            {
+                throw new UnsupportedOperationException ();
+            }
+
+            @Override
+            public XADataSource createXADataSource ( final Properties props )
+            {
+                throw new UnsupportedOperationException ();
+            }
+
+            @Override
+            public Driver createDriver ( final Properties props )
+            {
+                throw new UnsupportedOperationException ();
+            }
+        };
+    }
+
+    private static <T> T proxy ( final Class<T> clazz, final InvocationHandler handler )
+    {
+        return clazz.cast ( Proxy.newProxyInstance ( MemoryDatabase.class.getClassLoader (), new Class<?>[] { clazz }, handler ) );
+    }
+
+    private static List<Map<String, Object>> copy ( final List<Map<String, Object>> rows )
+    {
+        final List<Map<String, Object>> result = new ArrayList<Map<String, Object>> ( rows.size () );
+        for ( final Map<String, Object> row : rows )
+        {
+            result.add ( new HashMap<String, Object> ( row ) );
+        }
+        return result;
+    }
+
+    private class ConnectionHandler implements InvocationHandler
+    {
+        /**
+         * The rows as seen by this connection, <code>null</code> if there is
+         * no open transaction
+         */
+        private List<Map<String, Object>> transaction;
+
+        private boolean autoCommit = true;
+
+        @Override
+        public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+        {
+            final String name = method.getName ();
+            if ( name.equals ( "prepareStatement" ) && args.length == 1 )
+            {
+                return proxy ( PreparedStatement.class, new StatementHandler ( this, (String)args[0] ) );
+            }
+            else if ( name.equals ( "setAutoCommit" ) )
+            {
+                this.autoCommit = (Boolean)args[0];
+                return null;
+            }
+            else if ( name.equals ( "getAutoCommit" ) )
+            {
+                return this.autoCommit;
+            }
+            else if ( name.equals ( "commit" ) )
+            {
+                commit ();
+                return null;
+            }
+            else if ( name.equals ( "rollback" ) )
+            {
+                synchronized ( MemoryDatabase.this )
+                {
+                    MemoryDatabase.this.rollbacks++;
+                }
+                this.transaction = null;
+                return null;
+            }
+            else if ( name.equals ( "close" ) )
+            {
+                this.transaction = null;
+                return null;
+            }
+            throw new UnsupportedOperationException ( name );
+        }
+
+        private void commit ()
+        {
+            synchronized ( MemoryDatabase.this )
+            {
+                MemoryDatabase.this.commits++;
+                if ( this.transaction != null )
+                {
+                    MemoryDatabase.this.rows = this.transaction;
+                }
+            }
+            this.transaction = null;
+        }
+
+        private List<Map<String, Object>> getRows ()
+        {
+            if ( this.transaction == null )
+            {
+                synchronized ( MemoryDatabase.this )
+                {
+                    this.transaction = copy ( MemoryDatabase.this.rows );
+                }
+            }
+            return this.transaction;
+        }
+
+        public ResultSet executeQuery ( final String sql, final List<Object> parameters ) throws SQLException
+        {
+            record ( sql, parameters );
+
+            final Matcher m = SELECT.matcher ( sql );
+            if ( !m.matches () )
+            {
+                throw new SQLException ( "Unsupported query: " + sql );
+            }
+
+            final List<String> columns = split ( m.group ( 1 ) );
+            final List<Map<String, Object>> result = select ( getRows (), m.group ( 3 ), parameters, 0 );
+
+            if ( m.group ( 4 ) != null )
+            {
+                final List<String> order = split ( m.group ( 4 ) );
+                Collections.sort ( result, new Comparator<Map<String, Object>> () {
+
+                    @Override
+                    @SuppressWarnings ( { "unchecked", "rawtypes" } )
+                    public int compare ( final Map<String, Object> o1, final Map<String, Object> o2 )
+                    {
+                        for ( final String column : order )
+                        {
+                            final int rc = ( (Comparable)o1.get ( column ) ).compareTo ( o2.get ( column ) );
+                            if ( rc != 0 )
+                            {
+                                return rc;
+                            }
+                        }
+                        return 0;
+                    }
+                } );
+            }
+
+            final List<Object[]> values = new ArrayList<Object[]> ( result.size () );
+            for ( final Map<String, Object> row : result )
+            {
+                final Object[] value = new Object[columns.size ()];
+                for ( int i = 0; i < columns.size (); i++ )
+                {
+                    value[i] = row.get ( columns.get ( i ) );
+                }
+                values.add ( value );
+            }
+
+            if ( this.autoCommit )
+            {
+                this.transaction = null;
+            }
+
+            return proxy ( ResultSet.class, new ResultSetHandler ( columns, values ) );
+        }
+
+        public int executeUpdate ( final String sql, final List<Object> parameters ) throws SQLException
+        {
+            record ( sql, parameters );
+
+            final List<Map<String, Object>> rows = getRows ();
+            final int result = update ( rows, sql, parameters );
+
+            if ( this.autoCommit )
+            {
+                commit ();
+            }
+            return result;
+        }
+
+        private void record ( final String sql, final List<Object> parameters ) throws SQLException
+        {
+            synchronized ( MemoryDatabase.this )
+            {
+                MemoryDatabase.this.statements.add ( sql );
+                for ( final Object parameter : parameters )
+                {
+                    if ( MemoryDatabase.this.failingValues.contains ( parameter ) )
+                    {
+                        throw new SQLException ( "Failing on: " + parameter );
+                    }
+                }
+            }
+        }
+    }
+
+    private static int update ( final List<Map<String, Object>> rows, final String sql, final List<Object> parameters ) throws SQLException
+    {
+        Matcher m = INSERT.matcher ( sql );
+        if ( m.matches () )
+        {
+            final List<String> columns = split ( m.group ( 2 ) );
+            final Map<String, Object> row = new HashMap<String, Object> ();
+            for ( int i = 0; i < columns.size (); i++ )
+            {
+                row.put ( columns.get ( i ), parameters.get ( i ) );
+            }
+            for ( final Map<String, Object> existing : rows )
+            {
+                if ( sameKey ( existing, row ) )
+                {
+                    throw new SQLException ( "Duplicate key: " + row );
+                }
+            }
+            rows.add ( row );
+            return 1;
+        }
+
+        m = UPDATE.matcher ( sql );
+        if ( m.matches () )
+        {
+            final List<Map<String, Object>> selected = select ( rows, m.group ( 3 ), parameters, 1 );
+            for ( final Map<String, Object> row : selected )
+            {
+                row.put ( m.group ( 2 ), parameters.get ( 0 ) );
+            }
+            return selected.size ();
+        }
+
+        m = DELETE.matcher ( sql );
+        if ( m.matches () )
+        {
+            final List<Map<String, Object>> selected = select ( rows, m.group ( 2 ), parameters, 0 );
+            rows.removeAll ( selected );
+            return selected.size ();
+        }
+
+        throw new SQLException ( "Unsupported statement: " + sql );
+    }
+
+    private static boolean sameKey ( final Map<String, Object> row1, final Map<String, Object> row2 )
+    {
+        for ( final Map.Entry<String, Object> entry : row1.entrySet () )
+        {
+            if ( !entry.getKey ().equals ( VALUE_COLUMN ) && !entry.getValue ().equals ( row2.get ( entry.getKey () ) ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Select the rows matching the conditions
+     *
+     * @param offset
+     *            the index of the first parameter used by the conditions
+     */
+    private static List<Map<String, Object>> select ( final List<Map<String, Object>> rows, final String where, final List<Object> parameters, final int offset ) throws SQLException
+    {
+        final List<Map<String, Object>> result = new ArrayList<Map<String, Object>> ();
+
+        for ( final Map<String, Object> row : rows )
+        {
+            int index = offset;
+            boolean matches = true;
+            for ( final String condition : where.split ( " and " ) )
+            {
+                final Matcher m = CONDITION.matcher ( condition.trim () );
+                if ( !m.matches () )
+                {
+                    throw new SQLException ( "Unsupported condition: " + condition );
+                }
+
+                final Object value = row.get ( m.group ( 1 ) );
+                final String operator = m.group ( 2 );
+                if ( operator.equals ( "=" ) )
+                {
+                    matches &= value.equals ( parameters.get ( index++ ) );
+                }
+                else if ( operator.equals ( ">=" ) )
+                {
+                    matches &= ( (Integer)value ).intValue () >= ( (Number)parameters.get ( index++ ) ).intValue ();
+                }
+                else if ( operator.equals ( "in" ) )
+                {
+                    final int count = m.group ( 3 ).split ( "," ).length;
+                    matches &= parameters.subList ( index, index + count ).contains ( value );
+                    index += count;
+                }
+                else
+                {
+                    // only prefix patterns are used
+                    final String pattern = (String)parameters.get ( index++ );
+                    final String prefix = pattern.substring ( 0, pattern.length () - 1 ).replaceAll ( "!(.)", "$1" );
+                    matches &= ( (String)value ).startsWith ( prefix );
+                }
+            }
+            if ( matches )
+            {
+                result.add ( row );
+            }
+        }
+
+        return result;
+    }
+
+    private static List<String> split ( final String columns )
+    {
+        final List<String> result = new ArrayList<String> ();
+        for ( final String column : columns.split ( "," ) )
+        {
+            result.add ( column.trim () );
+        }
+        return result;
+    }
+
+    private class StatementHandler implements InvocationHandler
+    {
+        private final ConnectionHandler connection;
+
+        private final String sql;
+
+        private final Map<Integer, Object> parameters = new HashMap<Integer, Object> ();
+
+        private final List<List<Object>> batch = new ArrayList<List<Object>> ();
+
+        public StatementHandler ( final ConnectionHandler connection, final String sql )
+        {
+            this.connection = connection;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+        {
+            final String name = method.getName ();
+            if ( name.equals ( "setObject" ) || name.equals ( "setString" ) || name.equals ( "setInt" ) || name.equals ( "setBytes" ) )
+            {
+                this.parameters.put ( (Integer)args[0], args[1] );
+                return null;
+            }
+            else if ( name.equals ( "setBinaryStream" ) )
+            {
+                this.parameters.put ( (Integer)args[0], readFully ( (InputStream)args[1] ) );
+                return null;
+            }
+            else if ( name.equals ( "addBatch" ) )
+            {
+                this.batch.add ( getParameters () );
+                return null;
+            }
+            else if ( name.equals ( "executeBatch" ) )
+            {
+                final int[] result = new int[this.batch.size ()];
+                for ( int i = 0; i < result.length; i++ )
+                {
+                    result[i] = this.connection.executeUpdate ( this.sql, this.batch.get ( i ) );
+                }
+                this.batch.clear ();
+                return result;
+            }
+            else if ( name.equals ( "executeUpdate" ) )
+            {
+                return this.connection.executeUpdate ( this.sql, getParameters () );
+            }
+            else if ( name.equals ( "executeQuery" ) )
+            {
+                return this.connection.executeQuery ( this.sql, getParameters () );
+            }
+            else if ( name.equals ( "close" ) || name.equals ( "clearParameters" ) )
+            {
+                this.parameters.clear ();
+                return null;
+            }
+            throw new UnsupportedOperationException ( name );
+        }
+
+        private List<Object> getParameters ()
+        {
+            final List<Object> result = new ArrayList<Object> ( this.parameters.size () );
+            for ( int i = 1; i <= this.parameters.size (); i++ )
+            {
+                result.add ( this.parameters.get ( i ) );
+            }
+            return result;
+        }
+
+        private byte[] readFully ( final InputStream stream ) throws IOException
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream ();
+            final byte[] buffer = new byte[1024];
+            int rc;
+            while ( ( rc = stream.read ( buffer ) ) > 0 )
+            {
+                out.write ( buffer, 0, rc );
+            }
+            return out.toByteArray ();
+        }
+    }
+
+    private static class ResultSetHandler implements InvocationHandler
+    {
+        private final Map<String, Integer> columns = new LinkedHashMap<String, Integer> ();
+
+        private final List<Object[]> rows;
+
+        private int index = -1;
+
+        public ResultSetHandler ( final List<String> columns, final List<Object[]> rows )
+        {
+            for ( int i = 0; i < columns.size (); i++ )
+            {
+                this.columns.put ( columns.get ( i ), i );
+            }
+            this.rows = rows;
+        }
+
+        @Override
+        public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+        {
+            final String name = method.getName ();
+            if ( name.equals ( "next" ) )
+            {
+                this.index++;
+                return this.index < this.rows.size ();
+            }
+            else if ( name.equals ( "close" ) )
+            {
+                return null;
+            }
+            else if ( name.equals ( "getMetaData" ) )
+            {
+                return proxy ( ResultSetMetaData.class, new InvocationHandler () {
+
+                    @Override
+                    public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+                    {
+                        if ( method.getName ().equals ( "getColumnCount" ) )
+                        {
+                            return ResultSetHandler.this.columns.size ();
+                        }
+                        throw new UnsupportedOperationException ( method.getName () );
+                    }
+                } );
+            }
+
+            final Object value = getValue ( args[0] );
+            if ( name.equals ( "getString" ) || name.equals ( "getObject" ) )
+            {
+                return value;
+            }
+            else if ( name.equals ( "getInt" ) )
+            {
+                return value == null ? 0 : ( (Number)value ).intValue ();
+            }
+            else if ( name.equals ( "getBytes" ) )
+            {
+                return value == null ? null : Arrays.copyOf ( (byte[])value, ( (byte[])value ).length );
+            }
+            else if ( name.equals ( "getBinaryStream" ) )
+            {
+                return value == null ? null : new ByteArrayInputStream ( (byte[])value );
+            }
+            throw new UnsupportedOperationException ( name );
+        }
+
+        private Object getValue ( final Object column )
+        {
+            final int columnIndex = column instanceof String ? this.columns.get ( column ) : (Integer)column - 1;
+            return this.rows.get ( this.index )[columnIndex];
+        }
+    }
+}
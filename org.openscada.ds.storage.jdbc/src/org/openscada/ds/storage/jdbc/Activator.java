@@ -32,6 +32,7 @@ import org.openscada.ds.storage.jdbc.internal.JdbcStorageDao;
 import org.openscada.ds.storage.jdbc.internal.JdbcStorageDaoBase64Impl;
 import org.openscada.ds.storage.jdbc.internal.JdbcStorageDaoBlobImpl;
 import org.openscada.ds.storage.jdbc.internal.StorageImpl;
+import org.openscada.ds.storage.jdbc.internal.UpsertDialect;
 import org.openscada.utils.concurrent.NamedThreadFactory;
 import org.openscada.utils.osgi.SingleServiceListener;
 import org.openscada.utils.osgi.jdbc.DataSourceFactoryTracker;
@@ -95,28 +96,31 @@ public class Activator implements BundleActivator
                 unregister ();
                 if ( service != null )
                 {
-                    register ( service, context );
+                    register ( service, context, driver );
                 }
             }
         } );
         this.dataSourceFactoryTracker.open ( true );
     }
 
-    protected void register ( final DataSourceFactory service, final BundleContext context )
+    protected void register ( final DataSourceFactory service, final BundleContext context, final String driver )
     {
         JdbcStorageDao storage = null;
 
+        final UpsertDialect dialect = UpsertDialect.getDialect ( driver );
+        logger.info ( "Using write dialect {} for driver {}", dialect, driver );
+
         try
         {
             switch ( getType () )
             {
                 case BLOB:
                     logger.info ( "Registering BLOB implemenation" );
-                    storage = configure ( new JdbcStorageDaoBlobImpl ( service, getDataSourceProperties (), isConnectionPool () ) );
+                    storage = configure ( new JdbcStorageDaoBlobImpl ( service, getDataSourceProperties (), isConnectionPool (), dialect ) );
                     break;
                 case BASE64:
                     logger.info ( "Registering BASE64 implemenation" );
-                    storage = configure ( new JdbcStorageDaoBase64Impl ( service, getDataSourceProperties (), isConnectionPool () ) );
+                    storage = configure ( new JdbcStorageDaoBase64Impl ( service, getDataSourceProperties (), isConnectionPool (), dialect ) );
                     break;
             }
         }
@@ -146,7 +150,7 @@ public class Activator implements BundleActivator
         if ( !Boolean.getBoolean ( "org.openscada.ds.storage.jdbc.disableCache" ) )
         {
             logger.info ( "Adding cache" );
-            result = new CachingStorageDao ( result, this.scheduler, Long.getLong ( "org.openscada.ds.storage.jdbc.cleanUpCacheDelay", 10 * 60 ) ); // default is 10 min
+            result = new CachingStorageDao ( result, this.scheduler, Long.getLong ( "org.openscada.ds.storage.jdbc.cleanUpCacheDelay", 10 * 60 ), Long.getLong ( "org.openscada.ds.storage.jdbc.cacheMaxWeight", 64 * 1024 * 1024 ) ); // default is 10 min, 64 MiB
         }
         return result;
     }
@@ -21,9 +21,12 @@ package org.openscada.ds.storage.jdbc.internal;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -182,6 +185,100 @@ public class BufferingStorageDao implements BufferingStorageDaoMXBean, JdbcStora
         }
     }
 
+    @Override
+    public Collection<DataNode> readNodes ( final Collection<String> nodeIds )
+    {
+        try
+        {
+            this.readLock.lock ();
+
+            if ( this.disposed )
+            {
+                return null;
+            }
+
+            final Map<String, DataNode> result = new HashMap<String, DataNode> ( nodeIds.size () );
+            final List<String> stored = new ArrayList<String> ( nodeIds.size () );
+
+            for ( final String nodeId : nodeIds )
+            {
+                if ( this.queueMap.containsKey ( nodeId ) )
+                {
+                    result.put ( nodeId, this.queueMap.get ( nodeId ) );
+                }
+                else if ( this.writeMap.containsKey ( nodeId ) )
+                {
+                    result.put ( nodeId, this.writeMap.get ( nodeId ) );
+                }
+                else
+                {
+                    stored.add ( nodeId );
+                }
+            }
+
+            if ( !stored.isEmpty () )
+            {
+                for ( final DataNode node : this.targetDao.readNodes ( stored ) )
+                {
+                    result.put ( node.getId (), node );
+                }
+            }
+
+            // remove pending deletes
+            result.values ().removeAll ( Collections.singleton ( null ) );
+
+            return result.values ();
+        }
+        finally
+        {
+            this.readLock.unlock ();
+        }
+    }
+
+    @Override
+    public Collection<DataNode> readNodesByPrefix ( final String prefix )
+    {
+        try
+        {
+            this.readLock.lock ();
+
+            if ( this.disposed )
+            {
+                return null;
+            }
+
+            final Map<String, DataNode> result = new HashMap<String, DataNode> ();
+
+            // read from target first, then override with the pending changes
+            for ( final DataNode node : this.targetDao.readNodesByPrefix ( prefix ) )
+            {
+                result.put ( node.getId (), node );
+            }
+            putMatching ( result, this.writeMap, prefix );
+            putMatching ( result, this.queueMap, prefix );
+
+            // remove pending deletes
+            result.values ().removeAll ( Collections.singleton ( null ) );
+
+            return result.values ();
+        }
+        finally
+        {
+            this.readLock.unlock ();
+        }
+    }
+
+    private static void putMatching ( final Map<String, DataNode> result, final Map<String, DataNode> changes, final String prefix )
+    {
+        for ( final Map.Entry<String, DataNode> entry : changes.entrySet () )
+        {
+            if ( entry.getKey ().startsWith ( prefix ) )
+            {
+                result.put ( entry.getKey (), entry.getValue () );
+            }
+        }
+    }
+
     @Override
     public void writeNode ( final DataNode node )
     {
@@ -225,6 +322,66 @@ public class BufferingStorageDao implements BufferingStorageDaoMXBean, JdbcStora
         }
     }
 
+    /**
+     * Queue the nodes for writing
+     * 
+     * @return always an empty set, failed writes will be re-tried by the
+     *         writer
+     */
+    @Override
+    public Set<String> writeNodes ( final Collection<DataNode> nodes )
+    {
+        try
+        {
+            this.writeLock.lock ();
+
+            if ( !this.disposed )
+            {
+                for ( final DataNode node : nodes )
+                {
+                    this.queueMap.put ( node.getId (), node );
+                }
+
+                this.writeCondition.signal ();
+            }
+        }
+        finally
+        {
+            this.writeLock.unlock ();
+        }
+        return Collections.emptySet ();
+    }
+
+    /**
+     * Queue the nodes for deletion
+     * 
+     * @return always an empty set, failed deletes will be re-tried by the
+     *         writer
+     */
+    @Override
+    public Set<String> deleteNodes ( final Collection<String> nodeIds )
+    {
+        try
+        {
+            this.writeLock.lock ();
+
+            if ( !this.disposed )
+            {
+                for ( final String nodeId : nodeIds )
+                {
+                    this.queueMap.put ( nodeId, null );
+                }
+
+                this.writeCondition.signal ();
+            }
+        }
+        finally
+        {
+            this.writeLock.unlock ();
+        }
+        return Collections.emptySet ();
+    }
+
     protected void writer ()
     {
         logger.info ( "Starting writer" );
@@ -296,27 +453,64 @@ public class BufferingStorageDao implements BufferingStorageDaoMXBean, JdbcStora
     {
         final Map<String, DataNode> failMap = new HashMap<String, DataNode> ( this.writeMap.size () );
 
+        final List<DataNode> writes = new ArrayList<DataNode> ( this.writeMap.size () );
+        final List<String> deletes = new ArrayList<String> ();
+
         for ( final Map.Entry<String, DataNode> entry : this.writeMap.entrySet () )
+        {
+            if ( entry.getValue () == null )
+            {
+                deletes.add ( entry.getKey () );
+            }
+            else
+            {
+                writes.add ( entry.getValue () );
+            }
+        }
+
+        if ( !deletes.isEmpty () )
         {
             try
             {
-                if ( entry.getValue () == null )
+                for ( final String nodeId : this.targetDao.deleteNodes ( deletes ) )
                 {
-                    this.targetDao.deleteNode ( entry.getKey () );
+                    failMap.put ( nodeId, null );
                 }
-                else
+            }
+            catch ( final Exception e )
+            {
+                for ( final String nodeId : deletes )
                 {
-                    this.targetDao.writeNode ( entry.getValue () );
+                    failMap.put ( nodeId, null );
                 }
+                logger.warn ( "Failed to delete data nodes", e );
+            }
+        }
 
+        if ( !writes.isEmpty () )
+        {
+            try
+            {
+                for ( final String nodeId : this.targetDao.writeNodes ( writes ) )
+                {
+                    failMap.put ( nodeId, this.writeMap.get ( nodeId ) );
+                }
             }
             catch ( final Exception e )
             {
-                failMap.put ( entry.getKey (), entry.getValue () );
-                logger.warn ( "Failed to store data node", e );
+                for ( final DataNode node : writes )
+                {
+                    failMap.put ( node.getId (), node );
+                }
+                logger.warn ( "Failed to store data nodes", e );
             }
         }
 
+        if ( !failMap.isEmpty () )
+        {
+            logger.warn ( "{} data nodes failed and will be re-tried", failMap.size () );
+        }
+
         return failMap;
     }
 
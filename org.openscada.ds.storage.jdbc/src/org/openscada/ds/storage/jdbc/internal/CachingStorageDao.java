@@ -19,39 +19,146 @@
 
 package org.openscada.ds.storage.jdbc.internal;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.openscada.ds.DataNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class CachingStorageDao implements JdbcStorageDao
+/**
+ * A cache in front of another storage DAO
+ * <p>
+ * The cache is bounded by the sum of the payload sizes of the cached nodes.
+ * If the bound is exceeded the least recently used entries get evicted.
+ * Entries which were not accessed for the expiry time get removed as well.
+ * </p>
+ * <p>
+ * Reads of cached entries do not lock. Concurrent reads of the same missing
+ * node share one read from the target DAO.
+ * </p>
+ */
+public class CachingStorageDao implements JdbcStorageDao, CachingStorageDaoMXBean
 {
 
     private final static Logger logger = LoggerFactory.getLogger ( CachingStorageDao.class );
 
+    private static class Entry
+    {
+        private final DataNode node;
+
+        private final long weight;
+
+        private volatile long lastAccess;
+
+        public Entry ( final DataNode node, final long timestamp )
+        {
+            this.node = node;
+            this.weight = node == null ? 1 : Math.max ( 1, node.getDataLength () );
+            this.lastAccess = timestamp;
+        }
+    }
+
+    /**
+     * A snapshot of an entry used for sorting by last access
+     */
+    private static class Candidate
+    {
+        private final String nodeId;
+
+        private final Entry entry;
+
+        private final long lastAccess;
+
+        public Candidate ( final String nodeId, final Entry entry )
+        {
+            this.nodeId = nodeId;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+    }
+
+    private static final Comparator<Candidate> LEAST_RECENTLY_USED = new Comparator<Candidate> () {
+
+        @Override
+        public int compare ( final Candidate o1, final Candidate o2 )
+        {
+            return o1.lastAccess < o2.lastAccess ? -1 : o1.lastAccess == o2.lastAccess ? 0 : 1;
+        }
+    };
+
     private final JdbcStorageDao targetDao;
 
-    private final Map<String, DataNode> cacheMap;
+    private final ConcurrentMap<String, Entry> cacheMap = new ConcurrentHashMap<String, Entry> ();
+
+    private final ConcurrentMap<String, FutureTask<DataNode>> loadMap = new ConcurrentHashMap<String, FutureTask<DataNode>> ();
+
+    /**
+     * Incremented before every modification, so that a load can detect that
+     * its result might already be outdated
+     */
+    private final AtomicLong generation = new AtomicLong ();
+
+    private final AtomicLong weight = new AtomicLong ();
+
+    private final long maximumWeight;
+
+    private final long expiry;
+
+    private final Lock evictionLock = new ReentrantLock ();
+
+    private final AtomicLong hitCount = new AtomicLong ();
+
+    private final AtomicLong missCount = new AtomicLong ();
+
+    private final AtomicLong sharedLoadCount = new AtomicLong ();
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock ();
+    private final AtomicLong evictionCount = new AtomicLong ();
 
-    private final Lock readLock = this.lock.readLock ();
+    private final AtomicLong expiredCount = new AtomicLong ();
 
-    private final Lock writeLock = this.lock.writeLock ();
+    private final ScheduledFuture<?> cleanUpFuture;
 
-    private final ScheduledFuture<?> clearCacheFuture;
+    private final MBeanServer mbs;
 
-    public CachingStorageDao ( final JdbcStorageDao targetDao, final ScheduledExecutorService scheduler, final long cleanUpCacheDelay )
+    private ObjectName name;
+
+    /**
+     * Create a new caching storage DAO
+     * 
+     * @param targetDao
+     *            the target DAO, will be disposed by this class
+     * @param scheduler
+     *            the scheduler used for removing expired entries
+     * @param expiry
+     *            the time in seconds after which an entry which was not
+     *            accessed gets removed, zero or less to never expire entries
+     * @param maximumWeight
+     *            the maximum sum of the payload sizes of all cached nodes
+     */
+    public CachingStorageDao ( final JdbcStorageDao targetDao, final ScheduledExecutorService scheduler, final long expiry, final long maximumWeight )
     {
         if ( targetDao == null )
         {
@@ -61,141 +168,504 @@ public class CachingStorageDao implements JdbcStorageDao
         {
             throw new IllegalArgumentException ( "'scheduler' must not be null" );
         }
-        this.targetDao = targetDao;
-        try
+        if ( maximumWeight <= 0 )
         {
-            this.writeLock.lock ();
+            throw new IllegalArgumentException ( "'maximumWeight' must be greater than zero" );
+        }
 
-            logger.info ( "Starting cache prefill" );
+        this.targetDao = targetDao;
+        this.expiry = TimeUnit.SECONDS.toMillis ( expiry );
+        this.maximumWeight = maximumWeight;
 
-            final Collection<DataNode> nodes = targetDao.readAllNodes ();
-            this.cacheMap = new HashMap<String, DataNode> ( nodes.size () );
+        logger.info ( "Starting cache prefill" );
 
-            logger.debug ( "Prefill found {} entries", nodes.size () );
+        final Collection<DataNode> nodes = targetDao.readAllNodes ();
 
-            for ( final DataNode node : nodes )
-            {
-                this.cacheMap.put ( node.getId (), node );
-            }
+        logger.debug ( "Prefill found {} entries", nodes.size () );
 
-            logger.info ( "Prefill complete" );
+        for ( final DataNode node : nodes )
+        {
+            put ( node.getId (), node );
+        }
+
+        logger.info ( "Prefill complete - {} entries, weight: {}", this.cacheMap.size (), this.weight.get () );
 
-            clearCacheFuture = scheduler.schedule ( new Runnable () {
+        if ( this.expiry > 0 )
+        {
+            this.cleanUpFuture = scheduler.scheduleWithFixedDelay ( new Runnable () {
                 @Override
                 public void run ()
                 {
-                    CachingStorageDao.this.clearCache ();
+                    CachingStorageDao.this.cleanUp ();
                 }
-            }, cleanUpCacheDelay, TimeUnit.SECONDS );
+            }, expiry, expiry, TimeUnit.SECONDS );
         }
-        finally
+        else
         {
-            this.writeLock.unlock ();
+            this.cleanUpFuture = null;
         }
-    }
 
-    @Override
-    public Collection<DataNode> readAllNodes ()
-    {
+        this.mbs = ManagementFactory.getPlatformMBeanServer ();
+
         try
         {
-            this.readLock.lock ();
-            return new ArrayList<DataNode> ( this.cacheMap.values () );
+            // more than one cache may be active at the same time
+            final Hashtable<String, String> properties = new Hashtable<String, String> ();
+            properties.put ( "key", "CachingStorageDao" );
+            properties.put ( "instance", Integer.toHexString ( System.identityHashCode ( this ) ) );
+            this.name = new ObjectName ( "org.openscada.ds.storage.jdbc.JdbcStorageDao", properties );
+            this.mbs.registerMBean ( this, this.name );
         }
-        finally
+        catch ( final Exception e )
         {
-            this.readLock.unlock ();
+            logger.warn ( "Failed to export", e );
         }
     }
 
+    @Override
+    public Collection<DataNode> readAllNodes ()
+    {
+        // the cache might not hold all nodes
+        return this.targetDao.readAllNodes ();
+    }
+
     @Override
     public DataNode readNode ( final String nodeId )
     {
-        try
+        final Entry entry = this.cacheMap.get ( nodeId );
+        if ( entry != null )
         {
-            this.readLock.lock ();
-            if ( this.cacheMap.containsKey ( nodeId ) )
+            final long now = System.currentTimeMillis ();
+            if ( !isExpired ( entry, now ) )
+            {
+                entry.lastAccess = now;
+                this.hitCount.incrementAndGet ();
+                return entry.node;
+            }
+            if ( remove ( nodeId, entry ) )
             {
-                return this.cacheMap.get ( nodeId );
+                this.expiredCount.incrementAndGet ();
             }
         }
-        finally
+
+        this.missCount.incrementAndGet ();
+        return load ( nodeId );
+    }
+
+    /**
+     * Load the node from the target DAO, sharing the load with concurrent
+     * readers of the same node
+     */
+    private DataNode load ( final String nodeId )
+    {
+        FutureTask<DataNode> task = this.loadMap.get ( nodeId );
+
+        if ( task == null )
         {
-            this.readLock.unlock ();
-        }
+            final FutureTask<DataNode> newTask = new FutureTask<DataNode> ( new Callable<DataNode> () {
+                @Override
+                public DataNode call () throws Exception
+                {
+                    return loadNode ( nodeId );
+                }
+            } );
 
-        // releasing all locks could cause multiple reads, but this is ok
-        final DataNode dataNode = this.targetDao.readNode ( nodeId );
+            task = this.loadMap.putIfAbsent ( nodeId, newTask );
+            if ( task == null )
+            {
+                task = newTask;
+                try
+                {
+                    task.run ();
+                }
+                finally
+                {
+                    this.loadMap.remove ( nodeId, task );
+                }
+            }
+            else
+            {
+                this.sharedLoadCount.incrementAndGet ();
+            }
+        }
+        else
+        {
+            this.sharedLoadCount.incrementAndGet ();
+        }
 
         try
         {
-            this.writeLock.lock ();
-            // check if entry was inserted meanwhile (might be a write)
-            if ( this.cacheMap.containsKey ( nodeId ) )
+            return task.get ();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread ().interrupt ();
+            throw new RuntimeException ( "Interrupted while loading data node: " + nodeId, e );
+        }
+        catch ( final ExecutionException e )
+        {
+            if ( e.getCause () instanceof RuntimeException )
             {
-                return this.cacheMap.get ( nodeId );
+                throw (RuntimeException)e.getCause ();
             }
-            this.cacheMap.put ( nodeId, dataNode );
-            return dataNode;
+            throw new RuntimeException ( "Failed to load data node: " + nodeId, e.getCause () );
         }
-        finally
+    }
+
+    private DataNode loadNode ( final String nodeId )
+    {
+        final long generation = this.generation.get ();
+
+        final DataNode dataNode = this.targetDao.readNode ( nodeId );
+
+        if ( generation == this.generation.get () )
         {
-            this.writeLock.unlock ();
+            // nothing was written meanwhile
+            putIfAbsent ( nodeId, dataNode, generation );
+            return dataNode;
         }
+
+        // check if entry was inserted meanwhile (might be a write)
+        final Entry entry = this.cacheMap.get ( nodeId );
+        return entry != null ? entry.node : dataNode;
     }
 
     @Override
-    public void writeNode ( final DataNode node )
+    public Collection<DataNode> readNodes ( final Collection<String> nodeIds )
     {
-        try
+        final List<DataNode> result = new ArrayList<DataNode> ( nodeIds.size () );
+        final List<String> missing = new ArrayList<String> ();
+
+        final long now = System.currentTimeMillis ();
+        for ( final String nodeId : nodeIds )
         {
-            this.writeLock.lock ();
-            this.cacheMap.put ( node.getId (), node );
+            final Entry entry = this.cacheMap.get ( nodeId );
+            if ( entry != null && !isExpired ( entry, now ) )
+            {
+                entry.lastAccess = now;
+                this.hitCount.incrementAndGet ();
+                if ( entry.node != null )
+                {
+                    result.add ( entry.node );
+                }
+                continue;
+            }
+
+            if ( entry != null && remove ( nodeId, entry ) )
+            {
+                this.expiredCount.incrementAndGet ();
+            }
+            this.missCount.incrementAndGet ();
+            missing.add ( nodeId );
         }
-        finally
+
+        if ( !missing.isEmpty () )
+        {
+            result.addAll ( loadNodes ( missing ) );
+        }
+
+        return result;
+    }
+
+    /**
+     * Load a number of nodes from the target DAO with one call
+     */
+    private Collection<DataNode> loadNodes ( final List<String> nodeIds )
+    {
+        final long generation = this.generation.get ();
+
+        final Map<String, DataNode> loaded = new HashMap<String, DataNode> ( nodeIds.size () );
+        for ( final DataNode node : this.targetDao.readNodes ( nodeIds ) )
         {
-            this.writeLock.unlock ();
+            loaded.put ( node.getId (), node );
+        }
+
+        final List<DataNode> result = new ArrayList<DataNode> ( loaded.size () );
+        final boolean unchanged = generation == this.generation.get ();
+
+        for ( final String nodeId : nodeIds )
+        {
+            DataNode node = loaded.get ( nodeId );
+            if ( unchanged )
+            {
+                // nothing was written meanwhile, also remember missing nodes
+                putIfAbsent ( nodeId, node, generation );
+            }
+            else
+            {
+                // prefer entries inserted meanwhile (might be a write)
+                final Entry entry = this.cacheMap.get ( nodeId );
+                if ( entry != null )
+                {
+                    node = entry.node;
+                }
+            }
+
+            if ( node != null )
+            {
+                result.add ( node );
+            }
         }
+
+        return result;
+    }
+
+    @Override
+    public Collection<DataNode> readNodesByPrefix ( final String prefix )
+    {
+        // the cache cannot tell if it holds all matching nodes
+        return this.targetDao.readNodesByPrefix ( prefix );
+    }
+
+    @Override
+    public void writeNode ( final DataNode node )
+    {
+        this.generation.incrementAndGet ();
+        put ( node.getId (), node );
         this.targetDao.writeNode ( node );
     }
 
     @Override
     public void deleteNode ( final String nodeId )
     {
-        try
+        this.generation.incrementAndGet ();
+        remove ( nodeId );
+        this.targetDao.deleteNode ( nodeId );
+    }
+
+    @Override
+    public Set<String> writeNodes ( final Collection<DataNode> nodes )
+    {
+        this.generation.incrementAndGet ();
+        for ( final DataNode node : nodes )
         {
-            this.writeLock.lock ();
-            this.cacheMap.remove ( nodeId );
+            put ( node.getId (), node );
         }
-        finally
+        return this.targetDao.writeNodes ( nodes );
+    }
+
+    @Override
+    public Set<String> deleteNodes ( final Collection<String> nodeIds )
+    {
+        this.generation.incrementAndGet ();
+        for ( final String nodeId : nodeIds )
         {
-            this.writeLock.unlock ();
+            remove ( nodeId );
         }
-        this.targetDao.deleteNode ( nodeId );
+        return this.targetDao.deleteNodes ( nodeIds );
+    }
+
+    private boolean isExpired ( final Entry entry, final long now )
+    {
+        return this.expiry > 0 && now - entry.lastAccess > this.expiry;
     }
 
-    private void clearCache ()
+    private void put ( final String nodeId, final DataNode node )
     {
-        logger.info ( "clearing cache" );
+        final Entry entry = new Entry ( node, System.currentTimeMillis () );
+        if ( entry.weight > this.maximumWeight )
+        {
+            // too big to be cached, but don't keep an old value
+            remove ( nodeId );
+            return;
+        }
+
+        final Entry oldEntry = this.cacheMap.put ( nodeId, entry );
+        this.weight.addAndGet ( entry.weight - ( oldEntry != null ? oldEntry.weight : 0 ) );
+        evict ();
+    }
+
+    /**
+     * Cache a loaded node unless there is an entry already
+     * <p>
+     * If the generation changed after the load started, the entry is removed
+     * again, since a concurrent write or delete might have missed it.
+     * </p>
+     * 
+     * @param generation
+     *            the generation at the time the load started
+     */
+    private void putIfAbsent ( final String nodeId, final DataNode node, final long generation )
+    {
+        final Entry entry = new Entry ( node, System.currentTimeMillis () );
+        if ( entry.weight > this.maximumWeight )
+        {
+            return;
+        }
+
+        if ( this.cacheMap.putIfAbsent ( nodeId, entry ) == null )
+        {
+            this.weight.addAndGet ( entry.weight );
+            if ( generation != this.generation.get () )
+            {
+                remove ( nodeId, entry );
+                return;
+            }
+            evict ();
+        }
+    }
+
+    private void remove ( final String nodeId )
+    {
+        final Entry entry = this.cacheMap.remove ( nodeId );
+        if ( entry != null )
+        {
+            this.weight.addAndGet ( -entry.weight );
+        }
+    }
+
+    private boolean remove ( final String nodeId, final Entry entry )
+    {
+        if ( this.cacheMap.remove ( nodeId, entry ) )
+        {
+            this.weight.addAndGet ( -entry.weight );
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evict the least recently used entries if the cache is too heavy
+     * <p>
+     * Eviction goes down to 90% of the maximum weight so that sorting the
+     * entries does not happen on every insert.
+     * </p>
+     */
+    private void evict ()
+    {
+        if ( this.weight.get () <= this.maximumWeight )
+        {
+            return;
+        }
+
+        if ( !this.evictionLock.tryLock () )
+        {
+            // somebody else is already evicting
+            return;
+        }
+
         try
         {
-            this.writeLock.lock ();
-            this.cacheMap.clear ();
+            if ( this.weight.get () <= this.maximumWeight )
+            {
+                return;
+            }
+
+            final List<Candidate> candidates = new ArrayList<Candidate> ( this.cacheMap.size () );
+            for ( final Map.Entry<String, Entry> entry : this.cacheMap.entrySet () )
+            {
+                candidates.add ( new Candidate ( entry.getKey (), entry.getValue () ) );
+            }
+            Collections.sort ( candidates, LEAST_RECENTLY_USED );
+
+            final long target = this.maximumWeight - this.maximumWeight / 10;
+            int count = 0;
+
+            for ( final Candidate candidate : candidates )
+            {
+                if ( this.weight.get () <= target )
+                {
+                    break;
+                }
+                if ( remove ( candidate.nodeId, candidate.entry ) )
+                {
+                    count++;
+                }
+            }
+
+            this.evictionCount.addAndGet ( count );
+            logger.debug ( "Evicted {} entries", count );
         }
         finally
         {
-            this.writeLock.unlock ();
+            this.evictionLock.unlock ();
         }
     }
 
+    private void cleanUp ()
+    {
+        final long now = System.currentTimeMillis ();
+        int count = 0;
+
+        for ( final Map.Entry<String, Entry> entry : this.cacheMap.entrySet () )
+        {
+            if ( isExpired ( entry.getValue (), now ) && remove ( entry.getKey (), entry.getValue () ) )
+            {
+                count++;
+            }
+        }
+
+        this.expiredCount.addAndGet ( count );
+        logger.debug ( "Removed {} expired entries", count );
+    }
+
+    @Override
+    public int getCacheSize ()
+    {
+        return this.cacheMap.size ();
+    }
+
+    @Override
+    public long getCacheWeight ()
+    {
+        return this.weight.get ();
+    }
+
+    @Override
+    public long getMaximumWeight ()
+    {
+        return this.maximumWeight;
+    }
+
+    @Override
+    public long getHitCount ()
+    {
+        return this.hitCount.get ();
+    }
+
+    @Override
+    public long getMissCount ()
+    {
+        return this.missCount.get ();
+    }
+
+    @Override
+    public long getSharedLoadCount ()
+    {
+        return this.sharedLoadCount.get ();
+    }
+
+    @Override
+    public long getEvictionCount ()
+    {
+        return this.evictionCount.get ();
+    }
+
+    @Override
+    public long getExpiredCount ()
+    {
+        return this.expiredCount.get ();
+    }
+
     @Override
     public void dispose ()
     {
-        if ( clearCacheFuture != null )
+        if ( this.cleanUpFuture != null )
         {
-            clearCacheFuture.cancel ( false );
+            this.cleanUpFuture.cancel ( false );
         }
-        clearCache ();
+
+        try
+        {
+            this.mbs.unregisterMBean ( this.name );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to unregister: " + this.name, e );
+        }
+
+        this.cacheMap.clear ();
+        this.weight.set ( 0 );
         this.targetDao.dispose ();
     }
 
@@ -0,0 +1,57 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.jdbc.internal;
+
+public interface CachingStorageDaoMXBean
+{
+    /**
+     * @return the number of cached data nodes
+     */
+    public int getCacheSize ();
+
+    /**
+     * @return the sum of the payload sizes of all cached data nodes
+     */
+    public long getCacheWeight ();
+
+    public long getMaximumWeight ();
+
+    public long getHitCount ();
+
+    public long getMissCount ();
+
+    /**
+     * @return the number of reads which got served by another thread loading
+     *         the same node
+     */
+    public long getSharedLoadCount ();
+
+    /**
+     * @return the number of entries removed in order to stay below the
+     *         maximum weight
+     */
+    public long getEvictionCount ();
+
+    /**
+     * @return the number of entries removed because they were not accessed
+     *         within the expiry time
+     */
+    public long getExpiredCount ();
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2011 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.jdbc.internal;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openscada.utils.osgi.jdbc.task.ConnectionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process a collection of items in chunks, one transaction per chunk
+ * <p>
+ * If a chunk fails it is rolled back and its items are processed again one
+ * by one, so that only the items which really fail get reported back.
+ * </p>
+ * 
+ * @param <T>
+ *            the type of the items
+ */
+abstract class ChunkedTransaction<T>
+{
+
+    private final static Logger logger = LoggerFactory.getLogger ( ChunkedTransaction.class );
+
+    /**
+     * The default number of items processed in one transaction
+     */
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger ( "org.openscada.ds.storage.jdbc.batchSize", 500 );
+
+    private final int batchSize;
+
+    public ChunkedTransaction ()
+    {
+        this ( DEFAULT_BATCH_SIZE );
+    }
+
+    public ChunkedTransaction ( final int batchSize )
+    {
+        this.batchSize = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Process the items of one chunk
+     * <p>
+     * This method is called inside a transaction which will be committed by
+     * the caller.
+     * </p>
+     */
+    protected abstract void process ( ConnectionContext connectionContext, List<T> items ) throws SQLException;
+
+    /**
+     * Get the id of the item which will be reported in case of a failure
+     */
+    protected abstract String getId ( T item );
+
+    /**
+     * Process all items
+     * 
+     * @return the ids of all items that failed, never <code>null</code>
+     */
+    public Set<String> run ( final ConnectionContext connectionContext, final Collection<T> items ) throws SQLException
+    {
+        final Set<String> failed = new HashSet<String> ();
+
+        if ( items.isEmpty () )
+        {
+            return failed;
+        }
+
+        connectionContext.setAutoCommit ( false );
+
+        final List<T> chunk = new ArrayList<T> ( Math.min ( this.batchSize, items.size () ) );
+        for ( final T item : items )
+        {
+            chunk.add ( item );
+            if ( chunk.size () >= this.batchSize )
+            {
+                runChunk ( connectionContext, chunk, failed );
+                chunk.clear ();
+            }
+        }
+        if ( !chunk.isEmpty () )
+        {
+            runChunk ( connectionContext, chunk, failed );
+        }
+
+        return failed;
+    }
+
+    private void runChunk ( final ConnectionContext connectionContext, final List<T> chunk, final Set<String> failed ) throws SQLException
+    {
+        try
+        {
+            process ( connectionContext, chunk );
+            connectionContext.commit ();
+            return;
+        }
+        catch ( final SQLException e )
+        {
+            connectionContext.rollback ();
+            if ( chunk.size () == 1 )
+            {
+                logger.warn ( "Failed to process entry", e );
+                failed.add ( getId ( chunk.get ( 0 ) ) );
+                return;
+            }
+            logger.info ( "Failed to process chunk of {} entries. Retrying one by one.", chunk.size () );
+            logger.debug ( "Chunk failed", e );
+        }
+
+        // isolate the failing items
+        for ( final T item : chunk )
+        {
+            try
+            {
+                process ( connectionContext, Collections.singletonList ( item ) );
+                connectionContext.commit ();
+            }
+            catch ( final SQLException e )
+            {
+                connectionContext.rollback ();
+                logger.warn ( "Failed to process entry", e );
+                failed.add ( getId ( item ) );
+            }
+        }
+    }
+}
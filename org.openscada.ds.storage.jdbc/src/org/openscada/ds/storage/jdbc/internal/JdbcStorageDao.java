@@ -20,6 +20,7 @@
 package org.openscada.ds.storage.jdbc.internal;
 
 import java.util.Collection;
+import java.util.Set;
 
 import org.openscada.ds.DataNode;
 
@@ -29,9 +30,46 @@ public interface JdbcStorageDao
 
     public Collection<DataNode> readAllNodes ();
 
+    /**
+     * Read a number of data nodes
+     * 
+     * @return the data nodes found, nodes which do not exist are not
+     *         contained
+     */
+    public Collection<DataNode> readNodes ( Collection<String> nodeIds );
+
+    /**
+     * Read all data nodes with an id starting with the prefix
+     */
+    public Collection<DataNode> readNodesByPrefix ( String prefix );
+
     public void writeNode ( DataNode node );
 
     public void deleteNode ( String nodeId );
 
+    /**
+     * Write a number of data nodes
+     * <p>
+     * Other than {@link #writeNode(DataNode)} a failure to write a single node
+     * does not fail the whole operation.
+     * </p>
+     * 
+     * @param nodes
+     *            the nodes to write
+     * @return the ids of the nodes which could not be written, never
+     *         <code>null</code>
+     */
+    public Set<String> writeNodes ( Collection<DataNode> nodes );
+
+    /**
+     * Delete a number of data nodes
+     * 
+     * @param nodeIds
+     *            the ids of the nodes to delete
+     * @return the ids of the nodes which could not be deleted, never
+     *         <code>null</code>
+     */
+    public Set<String> deleteNodes ( Collection<String> nodeIds );
+
     public void dispose ();
 }
@@ -20,13 +20,20 @@
 package org.openscada.ds.storage.jdbc.internal;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.openscada.ds.DataNode;
 import org.openscada.utils.codec.Base64;
@@ -85,19 +92,27 @@ public class JdbcStorageDaoBase64Impl implements JdbcStorageDao
             this.currentNodeId = nodeId;
         }
 
+        /**
+         * Add the last node
+         * <p>
+         * The processor can be used for another query afterwards.
+         * </p>
+         */
         public void finish ()
         {
             if ( this.dataBuilder.length () > 0 )
             {
                 appendCurrent ();
             }
+            this.currentNodeId = null;
+            this.dataBuilder = new StringBuilder ();
         }
 
         private void appendCurrent ()
         {
             try
             {
-                this.result.add ( new DataNode ( this.currentNodeId, Base64.decode ( this.dataBuilder.toString () ) ) );
+                this.result.add ( DataNode.wrap ( this.currentNodeId, Base64.decode ( this.dataBuilder.toString () ) ) );
             }
             catch ( final IOException e )
             {
@@ -119,15 +134,30 @@ public class JdbcStorageDaoBase64Impl implements JdbcStorageDao
 
     private static final String SQL_SELECT = String.format ( "select data from %s where node_id=? and instance_id=? order by sequence_nr", TABLE_NAME );
 
-    private static final String SQL_SELECT_ALL = String.format ( "select node_id,data from %s where instance_id=? order by sequence_nr", TABLE_NAME );
+    private static final String SQL_SELECT_ALL = String.format ( "select node_id,data from %s where instance_id=? order by node_id, sequence_nr", TABLE_NAME );
+
+    private static final String SQL_SELECT_IDS = String.format ( "select node_id,data from %s where instance_id=? and node_id in ( %%s ) order by node_id, sequence_nr", TABLE_NAME );
+
+    private static final String SQL_SELECT_PREFIX = String.format ( "select node_id,data from %s where instance_id=? and node_id like ? %s order by node_id, sequence_nr", TABLE_NAME, NodeQueries.LIKE_ESCAPE );
+
+    private static final String SQL_SELECT_CHUNKS = String.format ( "select node_id, sequence_nr, data from %s where instance_id=? and node_id in ( %%s )", TABLE_NAME );
 
     private static final String SQL_DELETE = String.format ( "delete from %s where node_id=? and instance_id=?", TABLE_NAME );
 
+    private static final String SQL_DELETE_TAIL = String.format ( "delete from %s where node_id=? and instance_id=? and sequence_nr>=?", TABLE_NAME );
+
     private final CommonConnectionAccessor accessor;
 
-    public JdbcStorageDaoBase64Impl ( final DataSourceFactory dataSourceFactory, final Properties paramProperties, final boolean usePool ) throws SQLException
+    /**
+     * The upsert used for writing chunks or <code>null</code> if nodes get
+     * deleted and re-inserted
+     */
+    private final Upsert upsert;
+
+    public JdbcStorageDaoBase64Impl ( final DataSourceFactory dataSourceFactory, final Properties paramProperties, final boolean usePool, final UpsertDialect dialect ) throws SQLException
     {
         this.accessor = usePool ? new PoolConnectionAccessor ( dataSourceFactory, paramProperties ) : new DataSourceConnectionAccessor ( dataSourceFactory, paramProperties );
+        this.upsert = dialect == UpsertDialect.DELETE_INSERT ? null : new Upsert ( dialect, TABLE_NAME, "data", "node_id", "instance_id", "sequence_nr" );
         if ( this.chunkSize <= 0 )
         {
             this.chunkSize = Integer.MAX_VALUE;
@@ -161,7 +191,7 @@ public class JdbcStorageDaoBase64Impl implements JdbcStorageDao
             {
                 final String data = sb.toString ();
                 logger.debug ( "Read: {}", data );
-                return new DataNode ( nodeId, Base64.decode ( data ) );
+                return DataNode.wrap ( nodeId, Base64.decode ( data ) );
             }
             catch ( final IOException e )
             {
@@ -182,6 +212,47 @@ public class JdbcStorageDaoBase64Impl implements JdbcStorageDao
             {
                 final AllProcessor result = new AllProcessor ( new LinkedList<DataNode> () );
                 connectionContext.query ( result, SQL_SELECT_ALL, JdbcStorageDaoBase64Impl.this.instanceId );
+                result.finish ();
+                return result;
+            }
+        } ).getResult ();
+    }
+
+    @Override
+    public Collection<DataNode> readNodes ( final Collection<String> nodeIds )
+    {
+        if ( nodeIds.isEmpty () )
+        {
+            return Collections.emptyList ();
+        }
+
+        return this.accessor.doWithConnection ( new CommonConnectionTask<AllProcessor> () {
+            @Override
+            protected AllProcessor performTask ( final ConnectionContext connectionContext ) throws SQLException
+            {
+                final AllProcessor result = new AllProcessor ( new ArrayList<DataNode> ( nodeIds.size () ) );
+                for ( final List<String> chunk : NodeQueries.partition ( nodeIds ) )
+                {
+                    final String sql = String.format ( SQL_SELECT_IDS, NodeQueries.makePlaceholders ( chunk.size () ) );
+                    connectionContext.query ( result, sql, NodeQueries.makeParameters ( JdbcStorageDaoBase64Impl.this.instanceId, chunk ) );
+                    // chunks never split up a node
+                    result.finish ();
+                }
+                return result;
+            }
+        } ).getResult ();
+    }
+
+    @Override
+    public Collection<DataNode> readNodesByPrefix ( final String prefix )
+    {
+        return this.accessor.doWithConnection ( new CommonConnectionTask<AllProcessor> () {
+            @Override
+            protected AllProcessor performTask ( final ConnectionContext connectionContext ) throws SQLException
+            {
+                final AllProcessor result = new AllProcessor ( new LinkedList<DataNode> () );
+                connectionContext.query ( result, SQL_SELECT_PREFIX, JdbcStorageDaoBase64Impl.this.instanceId, NodeQueries.makePrefixPattern ( prefix ) );
+                result.finish ();
                 return result;
             }
         } ).getResult ();
@@ -224,18 +295,7 @@ public class JdbcStorageDaoBase64Impl implements JdbcStorageDao
     @Override
     public void writeNode ( final DataNode node )
     {
-        final String data;
-
-        if ( node != null && node.getData () != null )
-        {
-            data = Base64.encodeBytes ( node.getData () );
-        }
-        else
-        {
-            data = null;
-        }
-
-        logger.debug ( "Write data node: {} -> {}", node, data );
+        logger.debug ( "Write data node: {}", node );
 
         this.accessor.doWithConnection ( new CommonConnectionTask<Void> () {
 
@@ -244,8 +304,7 @@ public class JdbcStorageDaoBase64Impl implements JdbcStorageDao
             {
                 connectionContext.setAutoCommit ( false );
 
-                deleteNode ( connectionContext, node.getId () );
-                insertNode ( connectionContext, node, data );
+                writeNodes ( connectionContext, Collections.singletonList ( node ) );
 
                 connectionContext.commit ();
                 return null;
@@ -254,16 +313,260 @@ public class JdbcStorageDaoBase64Impl implements JdbcStorageDao
 
     }
 
-    protected void insertNode ( final ConnectionContext connectionContext, final DataNode node, final String data ) throws SQLException
+    @Override
+    public Set<String> writeNodes ( final Collection<DataNode> nodes )
+    {
+        logger.debug ( "Write {} data nodes", nodes.size () );
+
+        return this.accessor.doWithConnection ( new CommonConnectionTask<Set<String>> () {
+
+            @Override
+            protected Set<String> performTask ( final ConnectionContext connectionContext ) throws Exception
+            {
+                return new ChunkedTransaction<DataNode> () {
+
+                    @Override
+                    protected void process ( final ConnectionContext connectionContext, final List<DataNode> items ) throws SQLException
+                    {
+                        writeNodes ( connectionContext, items );
+                    }
+
+                    @Override
+                    protected String getId ( final DataNode item )
+                    {
+                        return item.getId ();
+                    }
+                }.run ( connectionContext, nodes );
+            }
+        } );
+    }
+
+    @Override
+    public Set<String> deleteNodes ( final Collection<String> nodeIds )
     {
+        logger.debug ( "Delete {} data nodes", nodeIds.size () );
+
+        return this.accessor.doWithConnection ( new CommonConnectionTask<Set<String>> () {
+
+            @Override
+            protected Set<String> performTask ( final ConnectionContext connectionContext ) throws Exception
+            {
+                return new ChunkedTransaction<String> () {
+
+                    @Override
+                    protected void process ( final ConnectionContext connectionContext, final List<String> items ) throws SQLException
+                    {
+                        deleteNodes ( connectionContext, items );
+                    }
+
+                    @Override
+                    protected String getId ( final String item )
+                    {
+                        return item;
+                    }
+                }.run ( connectionContext, nodeIds );
+            }
+        } );
+    }
+
+    /**
+     * Encode the data of the node, reading it without copying
+     */
+    private static CharBuffer encode ( final DataNode node )
+    {
+        final ByteBuffer data = node != null ? node.getDataBuffer () : null;
         if ( data == null )
         {
-            return;
+            return null;
+        }
+
+        final CharBuffer result = CharBuffer.allocate ( ( data.remaining () + 2 ) / 3 * 4 );
+        Base64.encode ( data, result );
+        result.flip ();
+        return result;
+    }
+
+    private static List<String> getIds ( final Collection<DataNode> nodes )
+    {
+        final List<String> result = new ArrayList<String> ( nodes.size () );
+        for ( final DataNode node : nodes )
+        {
+            result.add ( node.getId () );
+        }
+        return result;
+    }
+
+    protected void deleteNodes ( final ConnectionContext connectionContext, final Collection<String> nodeIds ) throws SQLException
+    {
+        final PreparedStatement stmt = connectionContext.getConnection ().prepareStatement ( SQL_DELETE );
+        try
+        {
+            for ( final String nodeId : nodeIds )
+            {
+                stmt.setObject ( 1, nodeId );
+                stmt.setObject ( 2, this.instanceId );
+                stmt.addBatch ();
+            }
+            stmt.executeBatch ();
         }
+        finally
+        {
+            stmt.close ();
+        }
+    }
 
+    protected void insertNodes ( final ConnectionContext connectionContext, final List<DataNode> nodes ) throws SQLException
+    {
         final PreparedStatement stmt = connectionContext.getConnection ().prepareStatement ( SQL_INSERT );
+        try
+        {
+            for ( final DataNode node : nodes )
+            {
+                addInsertBatch ( stmt, node.getId (), encode ( node ) );
+            }
+            stmt.executeBatch ();
+        }
+        finally
+        {
+            stmt.close ();
+        }
+    }
+
+    /**
+     * Write the nodes
+     * <p>
+     * When using upserts only the chunks which differ from the stored ones get
+     * written and chunks beyond the new length get deleted.
+     * </p>
+     */
+    protected void writeNodes ( final ConnectionContext connectionContext, final List<DataNode> nodes ) throws SQLException
+    {
+        if ( this.upsert == null )
+        {
+            deleteNodes ( connectionContext, getIds ( nodes ) );
+            insertNodes ( connectionContext, nodes );
+            return;
+        }
+
+        final Map<String, Map<Integer, String>> storedNodes = readChunks ( connectionContext, getIds ( nodes ) );
+
+        final List<Object[]> rows = new ArrayList<Object[]> ();
+        final Map<String, Integer> tails = new HashMap<String, Integer> ();
+
+        for ( final DataNode node : nodes )
+        {
+            final List<String> chunks = split ( encode ( node ) );
+            Map<Integer, String> stored = storedNodes.get ( node.getId () );
+            if ( stored == null )
+            {
+                stored = Collections.emptyMap ();
+            }
+
+            for ( int i = 0; i < chunks.size (); i++ )
+            {
+                final String chunk = chunks.get ( i );
+                if ( !chunk.equals ( stored.get ( i ) ) )
+                {
+                    rows.add ( new Object[] { node.getId (), this.instanceId, i, chunk } );
+                }
+            }
+
+            for ( final Integer sequenceNumber : stored.keySet () )
+            {
+                if ( sequenceNumber >= chunks.size () )
+                {
+                    tails.put ( node.getId (), chunks.size () );
+                    break;
+                }
+            }
+        }
+
+        logger.debug ( "Writing {} chunks, truncating {} nodes", rows.size (), tails.size () );
+
+        this.upsert.execute ( connectionContext, rows );
+        deleteTails ( connectionContext, tails );
+    }
+
+    /**
+     * Read the stored chunks of the nodes
+     * <p>
+     * The nodes are read using one query for up to {@link NodeQueries#MAX_IDS}
+     * nodes.
+     * </p>
+     * 
+     * @return the chunks by sequence number for each stored node
+     */
+    private Map<String, Map<Integer, String>> readChunks ( final ConnectionContext connectionContext, final List<String> nodeIds ) throws SQLException
+    {
+        final Map<String, Map<Integer, String>> result = new HashMap<String, Map<Integer, String>> ( nodeIds.size () );
+
+        final RowCallback callback = new RowCallback () {
+
+            @Override
+            public void processRow ( final ResultSet resultSet ) throws SQLException
+            {
+                final String nodeId = resultSet.getString ( 1 );
+                Map<Integer, String> chunks = result.get ( nodeId );
+                if ( chunks == null )
+                {
+                    chunks = new HashMap<Integer, String> ();
+                    result.put ( nodeId, chunks );
+                }
+                chunks.put ( resultSet.getInt ( 2 ), resultSet.getString ( 3 ) );
+            }
+        };
+
+        for ( final List<String> chunk : NodeQueries.partition ( nodeIds ) )
+        {
+            final String sql = String.format ( SQL_SELECT_CHUNKS, NodeQueries.makePlaceholders ( chunk.size () ) );
+            connectionContext.query ( callback, sql, NodeQueries.makeParameters ( this.instanceId, chunk ) );
+        }
+
+        return result;
+    }
+
+    /**
+     * Delete all chunks starting with the provided sequence number
+     */
+    private void deleteTails ( final ConnectionContext connectionContext, final Map<String, Integer> tails ) throws SQLException
+    {
+        if ( tails.isEmpty () )
+        {
+            return;
+        }
+
+        final PreparedStatement stmt = connectionContext.getConnection ().prepareStatement ( SQL_DELETE_TAIL );
+        try
+        {
+            for ( final Map.Entry<String, Integer> entry : tails.entrySet () )
+            {
+                stmt.setObject ( 1, entry.getKey () );
+                stmt.setObject ( 2, this.instanceId );
+                stmt.setObject ( 3, entry.getValue () );
+                stmt.addBatch ();
+            }
+            stmt.executeBatch ();
+        }
+        finally
+        {
+            stmt.close ();
+        }
+    }
+
+    /**
+     * Split the encoded data into chunks
+     * 
+     * @return the chunks, empty if there is no data
+     */
+    private List<String> split ( final CharBuffer data )
+    {
+        if ( data == null )
+        {
+            return Collections.emptyList ();
+        }
 
         final int len = data.length ();
+        final List<String> result = new ArrayList<String> ( len / this.chunkSize + 1 );
 
         for ( int i = 0; i <= len / this.chunkSize; i++ )
         {
@@ -273,15 +576,26 @@ public class JdbcStorageDaoBase64Impl implements JdbcStorageDao
                 end = len;
             }
 
-            final String chunk = data.substring ( i * this.chunkSize, end );
+            result.add ( data.subSequence ( i * this.chunkSize, end ).toString () );
+        }
+
+        return result;
+    }
+
+    /**
+     * Add the insert statements for all chunks of the data to the batch
+     */
+    private void addInsertBatch ( final PreparedStatement stmt, final String nodeId, final CharBuffer data ) throws SQLException
+    {
+        final List<String> chunks = split ( data );
 
-            stmt.setObject ( 1, node.getId () );
+        for ( int i = 0; i < chunks.size (); i++ )
+        {
+            stmt.setObject ( 1, nodeId );
             stmt.setObject ( 2, this.instanceId );
             stmt.setObject ( 3, i );
-            stmt.setObject ( 4, chunk );
+            stmt.setObject ( 4, chunks.get ( i ) );
             stmt.addBatch ();
         }
-
-        stmt.executeBatch ();
     }
 }
@@ -19,12 +19,18 @@
 
 package org.openscada.ds.storage.jdbc.internal;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 import org.openscada.ds.DataNode;
 import org.openscada.utils.osgi.jdbc.CommonConnectionAccessor;
@@ -51,7 +57,38 @@ public class JdbcStorageDaoBlobImpl implements JdbcStorageDao
         @Override
         public void processRow ( final ResultSet resultSet ) throws SQLException
         {
-            this.result.add ( new DataNode ( resultSet.getString ( "node_id" ), resultSet.getBytes ( "data" ) ) );
+            final String nodeId = resultSet.getString ( "node_id" );
+
+            // stream the data into the node instead of copying a byte array
+            final InputStream stream = resultSet.getBinaryStream ( "data" );
+            try
+            {
+                this.result.add ( new DataNode ( nodeId, stream ) );
+            }
+            catch ( final IOException e )
+            {
+                throw new SQLException ( "Failed to read data node: " + nodeId, e );
+            }
+            finally
+            {
+                closeStream ( stream );
+            }
+        }
+
+        private static void closeStream ( final InputStream stream )
+        {
+            if ( stream == null )
+            {
+                return;
+            }
+            try
+            {
+                stream.close ();
+            }
+            catch ( final IOException e )
+            {
+                logger.debug ( "Failed to close stream", e );
+            }
         }
 
         public List<DataNode> getResult ()
@@ -68,6 +105,10 @@ public class JdbcStorageDaoBlobImpl implements JdbcStorageDao
 
     private final static String SQL_SELECT_ALL = String.format ( "select node_id, data from %s where instance_id=?", TABLE_NAME );
 
+    private final static String SQL_SELECT_IDS = String.format ( "select node_id, data from %s where instance_id=? and node_id in ( %%s )", TABLE_NAME );
+
+    private final static String SQL_SELECT_PREFIX = String.format ( "select node_id, data from %s where instance_id=? and node_id like ? %s", TABLE_NAME, NodeQueries.LIKE_ESCAPE );
+
     private static final String SQL_INSERT = String.format ( "insert into %s ( node_id, instance_id, data ) values ( ? , ?, ? )", TABLE_NAME );
 
     private static final String SQL_DELETE = String.format ( "delete from %s where node_id=? and instance_id=?", TABLE_NAME );
@@ -76,9 +117,16 @@ public class JdbcStorageDaoBlobImpl implements JdbcStorageDao
 
     private final CommonConnectionAccessor accessor;
 
-    public JdbcStorageDaoBlobImpl ( final DataSourceFactory dataSourceFactory, final Properties paramProperties, final boolean usePool ) throws SQLException
+    /**
+     * The upsert used for writing or <code>null</code> if nodes get deleted
+     * and re-inserted
+     */
+    private final Upsert upsert;
+
+    public JdbcStorageDaoBlobImpl ( final DataSourceFactory dataSourceFactory, final Properties paramProperties, final boolean usePool, final UpsertDialect dialect ) throws SQLException
     {
         this.accessor = usePool ? new PoolConnectionAccessor ( dataSourceFactory, paramProperties ) : new DataSourceConnectionAccessor ( dataSourceFactory, paramProperties );
+        this.upsert = dialect == UpsertDialect.DELETE_INSERT ? null : new Upsert ( dialect, TABLE_NAME, "data", "node_id", "instance_id" );
     }
 
     @Override
@@ -120,6 +168,43 @@ public class JdbcStorageDaoBlobImpl implements JdbcStorageDao
         } );
     }
 
+    @Override
+    public Collection<DataNode> readNodes ( final Collection<String> nodeIds )
+    {
+        if ( nodeIds.isEmpty () )
+        {
+            return Collections.emptyList ();
+        }
+
+        return this.accessor.doWithConnection ( new CommonConnectionTask<List<DataNode>> () {
+            @Override
+            protected List<DataNode> performTask ( final ConnectionContext connectionContext ) throws Exception
+            {
+                final CollectRows innerResult = new CollectRows ( new ArrayList<DataNode> ( nodeIds.size () ) );
+                for ( final List<String> chunk : NodeQueries.partition ( nodeIds ) )
+                {
+                    final String sql = String.format ( SQL_SELECT_IDS, NodeQueries.makePlaceholders ( chunk.size () ) );
+                    connectionContext.query ( innerResult, sql, NodeQueries.makeParameters ( JdbcStorageDaoBlobImpl.this.instanceId, chunk ) );
+                }
+                return innerResult.getResult ();
+            }
+        } );
+    }
+
+    @Override
+    public Collection<DataNode> readNodesByPrefix ( final String prefix )
+    {
+        return this.accessor.doWithConnection ( new CommonConnectionTask<List<DataNode>> () {
+            @Override
+            protected List<DataNode> performTask ( final ConnectionContext connectionContext ) throws Exception
+            {
+                final CollectRows innerResult = new CollectRows ( new LinkedList<DataNode> () );
+                connectionContext.query ( innerResult, SQL_SELECT_PREFIX, JdbcStorageDaoBlobImpl.this.instanceId, NodeQueries.makePrefixPattern ( prefix ) );
+                return innerResult.getResult ();
+            }
+        } );
+    }
+
     @Override
     public void deleteNode ( final String nodeId )
     {
@@ -128,7 +213,7 @@ public class JdbcStorageDaoBlobImpl implements JdbcStorageDao
             protected Void performTask ( final ConnectionContext connectionContext ) throws Exception
             {
                 // using auto commit
-                deleteNode ( nodeId );
+                deleteNode ( connectionContext, nodeId );
                 return null;
             }
         } );
@@ -150,8 +235,7 @@ public class JdbcStorageDaoBlobImpl implements JdbcStorageDao
             {
                 connectionContext.getConnection ().setAutoCommit ( false );
 
-                deleteNode ( connectionContext, node.getId () );
-                connectionContext.update ( SQL_INSERT, node.getId (), JdbcStorageDaoBlobImpl.this.instanceId, node.getData () );
+                writeNodes ( connectionContext, Collections.singletonList ( node ) );
 
                 connectionContext.commit ();
                 return null;
@@ -159,6 +243,124 @@ public class JdbcStorageDaoBlobImpl implements JdbcStorageDao
         } );
     }
 
+    @Override
+    public Set<String> writeNodes ( final Collection<DataNode> nodes )
+    {
+        logger.debug ( "Write {} data nodes", nodes.size () );
+
+        return this.accessor.doWithConnection ( new CommonConnectionTask<Set<String>> () {
+            @Override
+            protected Set<String> performTask ( final ConnectionContext connectionContext ) throws Exception
+            {
+                return new ChunkedTransaction<DataNode> () {
+                    @Override
+                    protected void process ( final ConnectionContext connectionContext, final List<DataNode> items ) throws SQLException
+                    {
+                        writeNodes ( connectionContext, items );
+                    }
+
+                    @Override
+                    protected String getId ( final DataNode item )
+                    {
+                        return item.getId ();
+                    }
+                }.run ( connectionContext, nodes );
+            }
+        } );
+    }
+
+    @Override
+    public Set<String> deleteNodes ( final Collection<String> nodeIds )
+    {
+        logger.debug ( "Delete {} data nodes", nodeIds.size () );
+
+        return this.accessor.doWithConnection ( new CommonConnectionTask<Set<String>> () {
+            @Override
+            protected Set<String> performTask ( final ConnectionContext connectionContext ) throws Exception
+            {
+                return new ChunkedTransaction<String> () {
+                    @Override
+                    protected void process ( final ConnectionContext connectionContext, final List<String> items ) throws SQLException
+                    {
+                        deleteNodes ( connectionContext, items );
+                    }
+
+                    @Override
+                    protected String getId ( final String item )
+                    {
+                        return item;
+                    }
+                }.run ( connectionContext, nodeIds );
+            }
+        } );
+    }
+
+    protected void writeNodes ( final ConnectionContext connectionContext, final List<DataNode> nodes ) throws SQLException
+    {
+        if ( this.upsert == null )
+        {
+            deleteNodes ( connectionContext, getIds ( nodes ) );
+            insertNodes ( connectionContext, nodes );
+            return;
+        }
+
+        final List<Object[]> rows = new ArrayList<Object[]> ( nodes.size () );
+        for ( final DataNode node : nodes )
+        {
+            rows.add ( new Object[] { node.getId (), this.instanceId, node } );
+        }
+        this.upsert.execute ( connectionContext, rows );
+    }
+
+    private static List<String> getIds ( final Collection<DataNode> nodes )
+    {
+        final List<String> result = new ArrayList<String> ( nodes.size () );
+        for ( final DataNode node : nodes )
+        {
+            result.add ( node.getId () );
+        }
+        return result;
+    }
+
+    protected void deleteNodes ( final ConnectionContext connectionContext, final Collection<String> nodeIds ) throws SQLException
+    {
+        final PreparedStatement stmt = connectionContext.getConnection ().prepareStatement ( SQL_DELETE );
+        try
+        {
+            for ( final String nodeId : nodeIds )
+            {
+                stmt.setObject ( 1, nodeId );
+                stmt.setObject ( 2, this.instanceId );
+                stmt.addBatch ();
+            }
+            stmt.executeBatch ();
+        }
+        finally
+        {
+            stmt.close ();
+        }
+    }
+
+    protected void insertNodes ( final ConnectionContext connectionContext, final List<DataNode> nodes ) throws SQLException
+    {
+        final PreparedStatement stmt = connectionContext.getConnection ().prepareStatement ( SQL_INSERT );
+        try
+        {
+            for ( final DataNode node : nodes )
+            {
+                stmt.setObject ( 1, node.getId () );
+                stmt.setObject ( 2, this.instanceId );
+                Upsert.setParameter ( stmt, 3, node );
+                stmt.addBatch ();
+            }
+            stmt.executeBatch ();
+        }
+        finally
+        {
+            stmt.close ();
+        }
+    }
+
     @Override
     public void dispose ()
     {
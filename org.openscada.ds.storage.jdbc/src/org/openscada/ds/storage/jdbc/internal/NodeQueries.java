@@ -0,0 +1,125 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2011 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.jdbc.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Helpers for selecting a number of nodes with one statement
+ */
+final class NodeQueries
+{
+    /**
+     * The maximum number of node ids in one "in" clause
+     * <p>
+     * Some databases limit the number of elements to 1000.
+     * </p>
+     */
+    public static final int MAX_IDS = 500;
+
+    /**
+     * The escape character used for "like" patterns
+     */
+    public static final String LIKE_ESCAPE = "escape '!'";
+
+    private NodeQueries ()
+    {
+    }
+
+    /**
+     * Split the node ids into chunks of at most {@link #MAX_IDS} elements
+     */
+    public static List<List<String>> partition ( final Collection<String> nodeIds )
+    {
+        final List<List<String>> result = new ArrayList<List<String>> ( nodeIds.size () / MAX_IDS + 1 );
+
+        List<String> chunk = null;
+        for ( final String nodeId : nodeIds )
+        {
+            if ( chunk == null || chunk.size () >= MAX_IDS )
+            {
+                chunk = new ArrayList<String> ( Math.min ( MAX_IDS, nodeIds.size () ) );
+                result.add ( chunk );
+            }
+            chunk.add ( nodeId );
+        }
+
+        return result;
+    }
+
+    /**
+     * Make a list of parameter placeholders
+     * 
+     * @return a string like "?, ?, ?" with <code>count</code> placeholders
+     */
+    public static String makePlaceholders ( final int count )
+    {
+        final StringBuilder sb = new StringBuilder ( count * 3 );
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( i > 0 )
+            {
+                sb.append ( ", " );
+            }
+            sb.append ( '?' );
+        }
+        return sb.toString ();
+    }
+
+    /**
+     * Make the parameters for a select of node ids
+     * 
+     * @return the instance id followed by the node ids
+     */
+    public static Object[] makeParameters ( final String instanceId, final List<String> nodeIds )
+    {
+        final Object[] result = new Object[nodeIds.size () + 1];
+        result[0] = instanceId;
+        for ( int i = 0; i < nodeIds.size (); i++ )
+        {
+            result[i + 1] = nodeIds.get ( i );
+        }
+        return result;
+    }
+
+    /**
+     * Make a "like" pattern matching all values starting with the prefix
+     * <p>
+     * The pattern must be used with {@link #LIKE_ESCAPE}.
+     * </p>
+     */
+    public static String makePrefixPattern ( final String prefix )
+    {
+        final StringBuilder sb = new StringBuilder ( prefix.length () + 1 );
+        for ( int i = 0; i < prefix.length (); i++ )
+        {
+            final char c = prefix.charAt ( i );
+            if ( c == '!' || c == '%' || c == '_' )
+            {
+                sb.append ( '!' );
+            }
+            sb.append ( c );
+        }
+        sb.append ( '%' );
+        return sb.toString ();
+    }
+}
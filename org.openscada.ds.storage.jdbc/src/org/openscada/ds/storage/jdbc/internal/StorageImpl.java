@@ -19,6 +19,10 @@
 
 package org.openscada.ds.storage.jdbc.internal;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -39,32 +43,41 @@ public class StorageImpl extends AbstractStorage
 
     private final JdbcStorageDao storage;
 
+    /**
+     * Executor for storage operations, keeps the order of the operations
+     */
     private final ExecutorService executorService;
 
+    private final ExecutorService eventExecutor;
+
     public StorageImpl ( final JdbcStorageDao storage )
     {
         this.executorService = new ExportedExecutorService ( StorageImpl.class.getName (), 1, 1, 0L, TimeUnit.MILLISECONDS );
+        this.eventExecutor = createEventExecutor ( StorageImpl.class.getName () + ".events" );
 
         this.storage = storage;
+
+        exportStatistics ( StorageImpl.class.getName () );
     }
 
     @Override
     protected Executor getExecutor ()
     {
-        return this.executorService;
+        return this.eventExecutor;
     }
 
     @Override
-    public synchronized void dispose ()
+    public void dispose ()
     {
         super.dispose ();
 
         this.executorService.shutdown ();
+        this.eventExecutor.shutdown ();
         this.storage.dispose ();
     }
 
     @Override
-    public synchronized NotifyFuture<DataNode> readNode ( final String nodeId )
+    public NotifyFuture<DataNode> readNode ( final String nodeId )
     {
         try
         {
@@ -88,7 +101,70 @@ public class StorageImpl extends AbstractStorage
     }
 
     @Override
-    public synchronized NotifyFuture<Void> writeNode ( final DataNode node )
+    public NotifyFuture<Map<String, DataNode>> readNodes ( final Collection<String> nodeIds )
+    {
+        try
+        {
+            final FutureTask<Map<String, DataNode>> task = new FutureTask<Map<String, DataNode>> ( new Callable<Map<String, DataNode>> () {
+
+                @Override
+                public Map<String, DataNode> call () throws Exception
+                {
+                    return makeMap ( StorageImpl.this.storage.readNodes ( nodeIds ) );
+                }
+            } );
+
+            this.executorService.execute ( task );
+            return task;
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to load data nodes", e );
+            return new InstantErrorFuture<Map<String, DataNode>> ( e );
+        }
+    }
+
+    @Override
+    public NotifyFuture<Map<String, DataNode>> readNodesByPrefix ( final String prefix )
+    {
+        try
+        {
+            final FutureTask<Map<String, DataNode>> task = new FutureTask<Map<String, DataNode>> ( new Callable<Map<String, DataNode>> () {
+
+                @Override
+                public Map<String, DataNode> call () throws Exception
+                {
+                    return makeMap ( StorageImpl.this.storage.readNodesByPrefix ( prefix ) );
+                }
+            } );
+
+            this.executorService.execute ( task );
+            return task;
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to load data nodes", e );
+            return new InstantErrorFuture<Map<String, DataNode>> ( e );
+        }
+    }
+
+    private static Map<String, DataNode> makeMap ( final Collection<DataNode> nodes )
+    {
+        if ( nodes == null )
+        {
+            return Collections.emptyMap ();
+        }
+
+        final Map<String, DataNode> result = new HashMap<String, DataNode> ( nodes.size () );
+        for ( final DataNode node : nodes )
+        {
+            result.put ( node.getId (), node );
+        }
+        return result;
+    }
+
+    @Override
+    public NotifyFuture<Void> writeNode ( final DataNode node )
     {
         try
         {
@@ -122,7 +198,7 @@ public class StorageImpl extends AbstractStorage
     }
 
     @Override
-    public synchronized NotifyFuture<Void> deleteNode ( final String nodeId )
+    public NotifyFuture<Void> deleteNode ( final String nodeId )
     {
         try
         {
@@ -0,0 +1,189 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2011 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.jdbc.internal;
+
+import java.io.InputStream;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openscada.ds.DataNode;
+import org.openscada.utils.osgi.jdbc.task.ConnectionContext;
+
+/**
+ * Update or insert rows of a table using an {@link UpsertDialect}
+ * <p>
+ * Each row is an array of the key column values, in the order the key
+ * columns were provided, followed by the value. A {@link DataNode} value
+ * gets streamed as binary data.
+ * </p>
+ */
+class Upsert
+{
+    private final String upsertSql;
+
+    private final String updateSql;
+
+    private final String insertSql;
+
+    private final int keys;
+
+    public Upsert ( final UpsertDialect dialect, final String table, final String valueColumn, final String... keyColumns )
+    {
+        this.keys = keyColumns.length;
+        this.upsertSql = dialect.makeUpsert ( table, valueColumn, keyColumns );
+
+        final StringBuilder where = new StringBuilder ();
+        final StringBuilder columns = new StringBuilder ();
+        final StringBuilder values = new StringBuilder ();
+        for ( final String column : keyColumns )
+        {
+            if ( where.length () > 0 )
+            {
+                where.append ( " and " );
+            }
+            where.append ( column ).append ( "=?" );
+            columns.append ( column ).append ( ", " );
+            values.append ( "?, " );
+        }
+
+        this.updateSql = String.format ( "update %s set %s=? where %s", table, valueColumn, where );
+        this.insertSql = String.format ( "insert into %s ( %s%s ) values ( %s? )", table, columns, valueColumn, values );
+    }
+
+    public void execute ( final ConnectionContext connectionContext, final List<Object[]> rows ) throws SQLException
+    {
+        if ( rows.isEmpty () )
+        {
+            return;
+        }
+
+        if ( this.upsertSql != null )
+        {
+            executeBatch ( connectionContext, this.upsertSql, rows );
+        }
+        else
+        {
+            final List<Object[]> missing = update ( connectionContext, rows );
+            if ( !missing.isEmpty () )
+            {
+                executeBatch ( connectionContext, this.insertSql, missing );
+            }
+        }
+    }
+
+    /**
+     * Update the rows
+     * 
+     * @return the rows which did not exist
+     */
+    private List<Object[]> update ( final ConnectionContext connectionContext, final List<Object[]> rows ) throws SQLException
+    {
+        final List<Object[]> missing = new ArrayList<Object[]> ();
+
+        final PreparedStatement stmt = connectionContext.getConnection ().prepareStatement ( this.updateSql );
+        try
+        {
+            for ( final Object[] row : rows )
+            {
+                setUpdateParameters ( stmt, row );
+                stmt.addBatch ();
+            }
+            final int[] result = stmt.executeBatch ();
+
+            for ( int i = 0; i < rows.size (); i++ )
+            {
+                int count = i < result.length ? result[i] : Statement.SUCCESS_NO_INFO;
+                if ( count == Statement.SUCCESS_NO_INFO )
+                {
+                    // the driver does not tell, so ask again for this row
+                    setUpdateParameters ( stmt, rows.get ( i ) );
+                    count = stmt.executeUpdate ();
+                }
+                if ( count == 0 )
+                {
+                    missing.add ( rows.get ( i ) );
+                }
+            }
+        }
+        finally
+        {
+            stmt.close ();
+        }
+
+        return missing;
+    }
+
+    private void setUpdateParameters ( final PreparedStatement stmt, final Object[] row ) throws SQLException
+    {
+        setParameter ( stmt, 1, row[this.keys] );
+        for ( int i = 0; i < this.keys; i++ )
+        {
+            setParameter ( stmt, i + 2, row[i] );
+        }
+    }
+
+    /**
+     * Set a statement parameter, streaming the data of data nodes
+     */
+    static void setParameter ( final PreparedStatement stmt, final int index, final Object value ) throws SQLException
+    {
+        if ( value instanceof DataNode )
+        {
+            final DataNode node = (DataNode)value;
+            final InputStream stream = node.getDataStream ();
+            if ( stream != null )
+            {
+                stmt.setBinaryStream ( index, stream, node.getDataLength () );
+            }
+            else
+            {
+                stmt.setObject ( index, null );
+            }
+        }
+        else
+        {
+            stmt.setObject ( index, value );
+        }
+    }
+
+    private static void executeBatch ( final ConnectionContext connectionContext, final String sql, final List<Object[]> rows ) throws SQLException
+    {
+        final PreparedStatement stmt = connectionContext.getConnection ().prepareStatement ( sql );
+        try
+        {
+            for ( final Object[] row : rows )
+            {
+                for ( int i = 0; i < row.length; i++ )
+                {
+                    setParameter ( stmt, i + 1, row[i] );
+                }
+                stmt.addBatch ();
+            }
+            stmt.executeBatch ();
+        }
+        finally
+        {
+            stmt.close ();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2011 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.jdbc.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The way rows get updated or inserted in one step
+ * <p>
+ * The dialect is chosen using the system property
+ * <code>org.openscada.ds.storage.jdbc.dialect</code> and defaults to
+ * {@link #UPDATE_INSERT}. Setting it to <code>auto</code> derives the dialect
+ * from the JDBC driver class.
+ * </p>
+ * <p>
+ * {@link #ON_CONFLICT} and {@link #ON_DUPLICATE_KEY} require a unique key on
+ * the key columns, which the shipped schemas do not create.
+ * </p>
+ */
+public enum UpsertDialect
+{
+    /**
+     * Delete all rows of the data node and insert them again
+     */
+    DELETE_INSERT,
+    /**
+     * Update the row and insert it if nothing was updated
+     * <p>
+     * This works with every database and schema and is the default.
+     * </p>
+     */
+    UPDATE_INSERT,
+    /**
+     * <code>INSERT ... ON CONFLICT DO UPDATE</code> (PostgreSQL, SQLite)
+     */
+    ON_CONFLICT
+    {
+        @Override
+        public String makeUpsert ( final String table, final String valueColumn, final String... keyColumns )
+        {
+            return String.format ( "insert into %s ( %s, %s ) values ( %s ) on conflict ( %s ) do update set %s=excluded.%s", table, join ( keyColumns, ", " ), valueColumn, placeholders ( keyColumns.length + 1 ), join ( keyColumns, ", " ), valueColumn, valueColumn );
+        }
+    },
+    /**
+     * <code>INSERT ... ON DUPLICATE KEY UPDATE</code> (MySQL, MariaDB)
+     */
+    ON_DUPLICATE_KEY
+    {
+        @Override
+        public String makeUpsert ( final String table, final String valueColumn, final String... keyColumns )
+        {
+            return String.format ( "insert into %s ( %s, %s ) values ( %s ) on duplicate key update %s=values(%s)", table, join ( keyColumns, ", " ), valueColumn, placeholders ( keyColumns.length + 1 ), valueColumn, valueColumn );
+        }
+    },
+    /**
+     * SQL:2003 <code>MERGE</code> using a row value constructor (H2, HSQLDB)
+     */
+    MERGE
+    {
+        @Override
+        public String makeUpsert ( final String table, final String valueColumn, final String... keyColumns )
+        {
+            return makeMerge ( table, String.format ( "( values ( %s ) ) s ( %s, %s )", placeholders ( keyColumns.length + 1 ), join ( keyColumns, ", " ), valueColumn ), valueColumn, keyColumns );
+        }
+    },
+    /**
+     * <code>MERGE</code> selecting the source row from <code>dual</code>
+     * (Oracle)
+     */
+    ORACLE_MERGE
+    {
+        @Override
+        public String makeUpsert ( final String table, final String valueColumn, final String... keyColumns )
+        {
+            final StringBuilder sb = new StringBuilder ( "( select " );
+            for ( final String column : keyColumns )
+            {
+                sb.append ( "? " ).append ( column ).append ( ", " );
+            }
+            sb.append ( "? " ).append ( valueColumn ).append ( " from dual ) s" );
+            return makeMerge ( table, sb.toString (), valueColumn, keyColumns );
+        }
+    };
+
+    private final static Logger logger = LoggerFactory.getLogger ( UpsertDialect.class );
+
+    /**
+     * Create the upsert statement
+     * <p>
+     * The parameters of the statement are the key columns, in the order
+     * provided, followed by the value column.
+     * </p>
+     * 
+     * @return the SQL statement or <code>null</code> if the dialect cannot do
+     *         it in one statement
+     */
+    public String makeUpsert ( final String table, final String valueColumn, final String... keyColumns )
+    {
+        return null;
+    }
+
+    private static String makeMerge ( final String table, final String source, final String valueColumn, final String... keyColumns )
+    {
+        final StringBuilder on = new StringBuilder ();
+        final StringBuilder values = new StringBuilder ();
+        for ( final String column : keyColumns )
+        {
+            if ( on.length () > 0 )
+            {
+                on.append ( " and " );
+            }
+            on.append ( "t." ).append ( column ).append ( "=s." ).append ( column );
+            values.append ( "s." ).append ( column ).append ( ", " );
+        }
+        values.append ( "s." ).append ( valueColumn );
+
+        return String.format ( "merge into %s t using %s on ( %s ) when matched then update set t.%s=s.%s when not matched then insert ( %s, %s ) values ( %s )", table, source, on, valueColumn, valueColumn, join ( keyColumns, ", " ), valueColumn, values );
+    }
+
+    private static String join ( final String[] values, final String separator )
+    {
+        final StringBuilder sb = new StringBuilder ();
+        for ( final String value : values )
+        {
+            if ( sb.length () > 0 )
+            {
+                sb.append ( separator );
+            }
+            sb.append ( value );
+        }
+        return sb.toString ();
+    }
+
+    private static String placeholders ( final int count )
+    {
+        final StringBuilder sb = new StringBuilder ();
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( i > 0 )
+            {
+                sb.append ( ", " );
+            }
+            sb.append ( '?' );
+        }
+        return sb.toString ();
+    }
+
+    /**
+     * Get the dialect for the driver
+     * <p>
+     * If the system property <code>org.openscada.ds.storage.jdbc.dialect</code>
+     * is set to a dialect name this will be used. If it is set to
+     * <code>auto</code> the dialect gets derived from the driver class name.
+     * Otherwise {@link #UPDATE_INSERT} is used.
+     * </p>
+     * 
+     * @param driver
+     *            the JDBC driver class name, may be <code>null</code>
+     */
+    public static UpsertDialect getDialect ( final String driver )
+    {
+        final String dialect = System.getProperty ( "org.openscada.ds.storage.jdbc.dialect" );
+        if ( dialect == null )
+        {
+            return UPDATE_INSERT;
+        }
+        if ( "auto".equalsIgnoreCase ( dialect ) )
+        {
+            return fromDriver ( driver );
+        }
+
+        try
+        {
+            return UpsertDialect.valueOf ( dialect.toUpperCase () );
+        }
+        catch ( final IllegalArgumentException e )
+        {
+            logger.warn ( "Unknown dialect '{}'. Using {}.", dialect, UPDATE_INSERT );
+            return UPDATE_INSERT;
+        }
+    }
+
+    /**
+     * Derive the dialect from the JDBC driver class name
+     */
+    public static UpsertDialect fromDriver ( final String driver )
+    {
+        if ( driver == null )
+        {
+            return UPDATE_INSERT;
+        }
+
+        final String name = driver.toLowerCase ();
+        if ( name.startsWith ( "org.postgresql." ) || name.startsWith ( "org.sqlite." ) )
+        {
+            return ON_CONFLICT;
+        }
+        else if ( name.startsWith ( "com.mysql." ) || name.startsWith ( "org.mariadb." ) )
+        {
+            return ON_DUPLICATE_KEY;
+        }
+        else if ( name.startsWith ( "org.h2." ) || name.startsWith ( "org.hsqldb." ) )
+        {
+            return MERGE;
+        }
+        else if ( name.startsWith ( "oracle." ) )
+        {
+            return ORACLE_MERGE;
+        }
+        else
+        {
+            return UPDATE_INSERT;
+        }
+    }
+}
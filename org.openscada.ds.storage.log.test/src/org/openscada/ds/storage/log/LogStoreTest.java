@@ -0,0 +1,540 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.ds.DataNode;
+
+public class LogStoreTest
+{
+    private static final long SEGMENT_SIZE = 1024;
+
+    private File directory;
+
+    private LogStore store;
+
+    @Before
+    public void setup () throws Exception
+    {
+        this.directory = new File ( "base", "logStore" );
+        delete ( this.directory.getParentFile () );
+        this.store = open ();
+    }
+
+    @After
+    public void dispose ()
+    {
+        if ( this.store != null )
+        {
+            this.store.dispose ();
+        }
+    }
+
+    private LogStore open () throws IOException
+    {
+        // compaction is triggered by the tests
+        return new LogStore ( this.directory, SEGMENT_SIZE, 50, 3600 );
+    }
+
+    /**
+     * Close the store and open it again
+     *
+     * @param checkpoint
+     *            if <code>false</code> the checkpoint is removed, so that the
+     *            log has to be scanned completely
+     */
+    private void reopen ( final boolean checkpoint ) throws IOException
+    {
+        this.store.dispose ();
+        this.store = null;
+
+        if ( !checkpoint )
+        {
+            Assert.assertTrue ( checkpointFile ().delete () );
+        }
+
+        this.store = open ();
+    }
+
+    private File checkpointFile ()
+    {
+        return new File ( this.directory, "index.checkpoint" );
+    }
+
+    private File segmentFile ( final long id )
+    {
+        return Segment.makeFile ( this.directory, id );
+    }
+
+    private static void delete ( final File file )
+    {
+        final File[] files = file.listFiles ();
+        if ( files != null )
+        {
+            for ( final File child : files )
+            {
+                delete ( child );
+            }
+        }
+        file.delete ();
+    }
+
+    private static byte[] data ( final String value )
+    {
+        return value.getBytes ();
+    }
+
+    private static byte[] data ( final int length, final int value )
+    {
+        final byte[] data = new byte[length];
+        Arrays.fill ( data, (byte)value );
+        return data;
+    }
+
+    private static int recordSize ( final String nodeId, final byte[] data )
+    {
+        return Record.encode ( Record.TYPE_WRITE, nodeId, data == null ? null : ByteBuffer.wrap ( data ) ).remaining ();
+    }
+
+    private void write ( final String nodeId, final byte[] data ) throws Exception
+    {
+        this.store.write ( new DataNode ( nodeId, data ) ).get ( 10, TimeUnit.SECONDS );
+    }
+
+    private void assertNode ( final String nodeId, final byte[] expected ) throws IOException
+    {
+        final DataNode node = this.store.read ( nodeId );
+        if ( expected == null )
+        {
+            Assert.assertNull ( "Node must not exist: " + nodeId, node );
+        }
+        else
+        {
+            Assert.assertNotNull ( "Node must exist: " + nodeId, node );
+            Assert.assertArrayEquals ( expected, node.getData () );
+        }
+    }
+
+    private static void writeByte ( final File file, final long position, final int value ) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile ( file, "rw" );
+        try
+        {
+            raf.seek ( position );
+            raf.write ( value );
+        }
+        finally
+        {
+            raf.close ();
+        }
+    }
+
+    private static void truncate ( final File file, final long length ) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile ( file, "rw" );
+        try
+        {
+            raf.setLength ( length );
+        }
+        finally
+        {
+            raf.close ();
+        }
+    }
+
+    @Test
+    public void testReopen () throws Exception
+    {
+        write ( "a", data ( "a1" ) );
+        write ( "b", data ( "b1" ) );
+        write ( "c", data ( "c1" ) );
+        write ( "a", data ( "a2" ) );
+        this.store.delete ( "b" ).get ( 10, TimeUnit.SECONDS );
+
+        assertNode ( "a", data ( "a2" ) );
+        assertNode ( "b", null );
+        assertNode ( "c", data ( "c1" ) );
+
+        reopen ( true );
+
+        Assert.assertEquals ( 2, this.store.size () );
+        assertNode ( "a", data ( "a2" ) );
+        assertNode ( "b", null );
+        assertNode ( "c", data ( "c1" ) );
+
+        reopen ( false );
+
+        Assert.assertEquals ( 2, this.store.size () );
+        assertNode ( "a", data ( "a2" ) );
+        assertNode ( "b", null );
+        assertNode ( "c", data ( "c1" ) );
+    }
+
+    @Test
+    public void testWriteNullDeletes () throws Exception
+    {
+        write ( "a", data ( "a1" ) );
+        write ( "a", null );
+        assertNode ( "a", null );
+
+        reopen ( false );
+        assertNode ( "a", null );
+    }
+
+    @Test
+    public void testBulkRead () throws Exception
+    {
+        write ( "foo.1", data ( "1" ) );
+        write ( "foo.2", data ( "2" ) );
+        write ( "bar.1", data ( "3" ) );
+
+        final Map<String, DataNode> nodes = this.store.read ( Arrays.asList ( "foo.2", "bar.1", "missing" ) );
+        Assert.assertEquals ( 2, nodes.size () );
+        Assert.assertArrayEquals ( data ( "2" ), nodes.get ( "foo.2" ).getData () );
+        Assert.assertArrayEquals ( data ( "3" ), nodes.get ( "bar.1" ).getData () );
+
+        final Map<String, DataNode> prefixed = this.store.readByPrefix ( "foo." );
+        Assert.assertEquals ( 2, prefixed.size () );
+        Assert.assertTrue ( prefixed.containsKey ( "foo.1" ) );
+        Assert.assertTrue ( prefixed.containsKey ( "foo.2" ) );
+    }
+
+    @Test
+    public void testTornTail () throws Exception
+    {
+        write ( "a", data ( "a1" ) );
+        write ( "b", data ( "b1" ) );
+
+        this.store.dispose ();
+        this.store = null;
+        Assert.assertTrue ( checkpointFile ().delete () );
+
+        // cut the last record in half, as a crash while appending would
+        final File file = segmentFile ( 0 );
+        final long validLength = recordSize ( "a", data ( "a1" ) );
+        truncate ( file, file.length () - recordSize ( "b", data ( "b1" ) ) / 2 );
+
+        this.store = open ();
+
+        assertNode ( "a", data ( "a1" ) );
+        assertNode ( "b", null );
+        Assert.assertEquals ( validLength, file.length () );
+
+        // appending continues after the last valid record
+        write ( "c", data ( "c1" ) );
+        reopen ( false );
+
+        assertNode ( "a", data ( "a1" ) );
+        assertNode ( "b", null );
+        assertNode ( "c", data ( "c1" ) );
+    }
+
+    @Test
+    public void testCorruptTail () throws Exception
+    {
+        write ( "a", data ( "a1" ) );
+        write ( "b", data ( "b1" ) );
+
+        this.store.dispose ();
+        this.store = null;
+        Assert.assertTrue ( checkpointFile ().delete () );
+
+        // flip the last byte of the data of the last record
+        final File file = segmentFile ( 0 );
+        final long validLength = recordSize ( "a", data ( "a1" ) );
+        writeByte ( file, file.length () - 1, 'x' );
+
+        this.store = open ();
+
+        assertNode ( "a", data ( "a1" ) );
+        assertNode ( "b", null );
+        Assert.assertEquals ( validLength, file.length () );
+    }
+
+    @Test
+    public void testCheckpoint () throws Exception
+    {
+        write ( "a", data ( "a1" ) );
+        write ( "a", data ( "a2" ) );
+        write ( "b", data ( "b1" ) );
+
+        this.store.dispose ();
+        this.store = null;
+        Assert.assertTrue ( checkpointFile ().exists () );
+
+        // break the first record, which is no longer live. Only a full scan would run into it.
+        writeByte ( segmentFile ( 0 ), recordSize ( "a", data ( "a1" ) ) - 1, 'x' );
+
+        this.store = open ();
+
+        // the checkpoint is only used once
+        Assert.assertFalse ( checkpointFile ().exists () );
+
+        assertNode ( "a", data ( "a2" ) );
+        assertNode ( "b", data ( "b1" ) );
+    }
+
+    @Test
+    public void testCheckpointWithLaterRecords () throws Exception
+    {
+        write ( "a", data ( "a1" ) );
+        write ( "b", data ( "b1" ) );
+
+        this.store.dispose ();
+        this.store = null;
+
+        final File saved = new File ( this.directory, "saved.checkpoint" );
+        Assert.assertTrue ( checkpointFile ().renameTo ( saved ) );
+
+        // open without a checkpoint and append some more changes
+        this.store = open ();
+        write ( "a", data ( "a2" ) );
+        write ( "c", data ( "c1" ) );
+        this.store.delete ( "b" ).get ( 10, TimeUnit.SECONDS );
+
+        // the changes after the old checkpoint must be found by scanning
+        this.store.dispose ();
+        this.store = null;
+        Assert.assertTrue ( checkpointFile ().delete () );
+        Assert.assertTrue ( saved.renameTo ( checkpointFile () ) );
+
+        this.store = open ();
+
+        Assert.assertEquals ( 2, this.store.size () );
+        assertNode ( "a", data ( "a2" ) );
+        assertNode ( "b", null );
+        assertNode ( "c", data ( "c1" ) );
+    }
+
+    @Test
+    public void testCorruptCheckpoint () throws Exception
+    {
+        write ( "a", data ( "a1" ) );
+        write ( "b", data ( "b1" ) );
+
+        this.store.dispose ();
+        this.store = null;
+
+        // change the position, so that the checksum does not match
+        writeByte ( checkpointFile (), 20, 0x7F );
+
+        this.store = open ();
+
+        assertNode ( "a", data ( "a1" ) );
+        assertNode ( "b", data ( "b1" ) );
+    }
+
+    @Test
+    public void testRollSegments () throws Exception
+    {
+        for ( int i = 0; i < 20; i++ )
+        {
+            write ( "node." + i, data ( 200, i ) );
+        }
+
+        Assert.assertTrue ( segmentFile ( 1 ).exists () );
+
+        reopen ( false );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertNode ( "node." + i, data ( 200, i ) );
+        }
+    }
+
+    @Test
+    public void testCompaction () throws Exception
+    {
+        // segment 0: "b" which gets deleted and "c", which keeps most of the segment alive
+        write ( "b", data ( "b1" ) );
+        write ( "c", data ( 1000, 'c' ) );
+
+        // segment 1: the delete marker of "b", versions of "a" and "d"
+        this.store.delete ( "b" ).get ( 10, TimeUnit.SECONDS );
+        Assert.assertTrue ( segmentFile ( 1 ).exists () );
+        for ( int i = 0; i < 8; i++ )
+        {
+            write ( "a", data ( 100, i ) );
+        }
+        write ( "d", data ( 100, 'd' ) );
+
+        // segment 2: something else
+        write ( "e", data ( 100, 'e' ) );
+        Assert.assertTrue ( segmentFile ( 2 ).exists () );
+
+        this.store.compact ();
+
+        // segment 1 was mostly dead, segment 0 mostly alive
+        Assert.assertFalse ( segmentFile ( 1 ).exists () );
+        Assert.assertTrue ( segmentFile ( 0 ).exists () );
+
+        assertNode ( "a", data ( 100, 7 ) );
+        assertNode ( "b", null );
+        assertNode ( "c", data ( 1000, 'c' ) );
+        assertNode ( "d", data ( 100, 'd' ) );
+        assertNode ( "e", data ( 100, 'e' ) );
+
+        // the delete marker must hide the record in segment 0 when scanning
+        reopen ( false );
+
+        Assert.assertEquals ( 4, this.store.size () );
+        assertNode ( "a", data ( 100, 7 ) );
+        assertNode ( "b", null );
+        assertNode ( "c", data ( 1000, 'c' ) );
+        assertNode ( "d", data ( 100, 'd' ) );
+        assertNode ( "e", data ( 100, 'e' ) );
+    }
+
+    @Test
+    public void testCompactionDropsDeleteMarkers () throws Exception
+    {
+        // segment 0: only dead records
+        write ( "b", data ( 1000, 'b' ) );
+        this.store.delete ( "b" ).get ( 10, TimeUnit.SECONDS );
+
+        // segment 1: something alive
+        write ( "a", data ( 100, 'a' ) );
+        Assert.assertTrue ( segmentFile ( 1 ).exists () );
+
+        final long size = segmentFile ( 1 ).length ();
+
+        this.store.compact ();
+
+        Assert.assertFalse ( segmentFile ( 0 ).exists () );
+
+        // there is no older segment, so the marker was not copied
+        Assert.assertEquals ( size, segmentFile ( 1 ).length () );
+
+        reopen ( false );
+
+        assertNode ( "a", data ( 100, 'a' ) );
+        assertNode ( "b", null );
+    }
+
+    @Test
+    public void testConcurrentReadWrite () throws Exception
+    {
+        final int nodes = 10;
+        final AtomicBoolean running = new AtomicBoolean ( true );
+
+        for ( int i = 0; i < nodes; i++ )
+        {
+            write ( "node." + i, data ( "0" ) );
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool ( 4 );
+        try
+        {
+            final List<Future<Integer>> readers = new ArrayList<Future<Integer>> ();
+            for ( int r = 0; r < 3; r++ )
+            {
+                readers.add ( executor.submit ( new Callable<Integer> () {
+
+                    @Override
+                    public Integer call () throws Exception
+                    {
+                        final int[] last = new int[nodes];
+                        int reads = 0;
+                        while ( running.get () )
+                        {
+                            for ( int i = 0; i < nodes; i++ )
+                            {
+                                final DataNode node = LogStoreTest.this.store.read ( "node." + i );
+                                Assert.assertNotNull ( node );
+
+                                // values never go backwards
+                                final int value = Integer.parseInt ( new String ( node.getData () ) );
+                                Assert.assertTrue ( value >= last[i] );
+                                last[i] = value;
+                                reads++;
+                            }
+                        }
+                        return reads;
+                    }
+                } ) );
+            }
+
+            final Future<Void> compactor = executor.submit ( new Callable<Void> () {
+
+                @Override
+                public Void call () throws Exception
+                {
+                    while ( running.get () )
+                    {
+                        LogStoreTest.this.store.compact ();
+                        Thread.sleep ( 1 );
+                    }
+                    return null;
+                }
+            } );
+
+            for ( int v = 1; v <= 500; v++ )
+            {
+                for ( int i = 0; i < nodes; i++ )
+                {
+                    this.store.write ( new DataNode ( "node." + i, data ( Integer.toString ( v ) ) ) );
+                }
+            }
+
+            running.set ( false );
+
+            for ( final Future<Integer> reader : readers )
+            {
+                Assert.assertTrue ( reader.get ( 10, TimeUnit.SECONDS ) > 0 );
+            }
+            compactor.get ( 10, TimeUnit.SECONDS );
+        }
+        finally
+        {
+            running.set ( false );
+            executor.shutdown ();
+        }
+
+        for ( int i = 0; i < nodes; i++ )
+        {
+            assertNode ( "node." + i, data ( "500" ) );
+        }
+
+        reopen ( false );
+
+        for ( int i = 0; i < nodes; i++ )
+        {
+            assertNode ( "node." + i, data ( "500" ) );
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.log;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.ds.DataNode;
+
+public class StorageImplTest
+{
+    private static final String ROOT_PROPERTY = "org.openscada.ds.storage.log.root";
+
+    private File directory;
+
+    private StorageImpl storage;
+
+    @Before
+    public void setup () throws Exception
+    {
+        this.directory = new File ( "base", "logStorage" );
+        if ( this.directory.exists () )
+        {
+            for ( final File file : this.directory.listFiles () )
+            {
+                file.delete ();
+            }
+        }
+        System.setProperty ( ROOT_PROPERTY, this.directory.getAbsolutePath () );
+        this.storage = new StorageImpl ();
+    }
+
+    @After
+    public void dispose ()
+    {
+        this.storage.dispose ();
+        System.clearProperty ( ROOT_PROPERTY );
+    }
+
+    @Test
+    public void testWriteReadDelete () throws Exception
+    {
+        this.storage.writeNode ( new DataNode ( "foo.1", "value1".getBytes () ) ).get ( 10, TimeUnit.SECONDS );
+        this.storage.writeNode ( new DataNode ( "foo.2", "value2".getBytes () ) ).get ( 10, TimeUnit.SECONDS );
+        this.storage.writeNode ( new DataNode ( "bar.1", "value3".getBytes () ) ).get ( 10, TimeUnit.SECONDS );
+
+        Assert.assertArrayEquals ( "value1".getBytes (), this.storage.readNode ( "foo.1" ).get ().getData () );
+
+        final Map<String, DataNode> nodes = this.storage.readNodesByPrefix ( "foo." ).get ();
+        Assert.assertEquals ( 2, nodes.size () );
+
+        this.storage.deleteNode ( "foo.1" ).get ( 10, TimeUnit.SECONDS );
+        Assert.assertNull ( this.storage.readNode ( "foo.1" ).get () );
+
+        // the changes survive a restart
+        this.storage.dispose ();
+        this.storage = new StorageImpl ();
+
+        Assert.assertNull ( this.storage.readNode ( "foo.1" ).get () );
+        Assert.assertArrayEquals ( "value2".getBytes (), this.storage.readNode ( "foo.2" ).get ().getData () );
+        Assert.assertArrayEquals ( "value3".getBytes (), this.storage.readNode ( "bar.1" ).get ().getData () );
+    }
+
+    /**
+     * Each instance exports its statistics under its own name
+     */
+    @Test
+    public void testExportStatistics () throws Exception
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer ();
+        final ObjectName pattern = new ObjectName ( "org.openscada.ds.storage:storage=" + StorageImpl.class.getName () + ",*" );
+        Assert.assertEquals ( 1, server.queryNames ( pattern, null ).size () );
+
+        System.setProperty ( ROOT_PROPERTY, new File ( this.directory.getParentFile (), "logStorage2" ).getAbsolutePath () );
+        final StorageImpl other = new StorageImpl ();
+        try
+        {
+            Assert.assertEquals ( 2, server.queryNames ( pattern, null ).size () );
+        }
+        finally
+        {
+            other.dispose ();
+        }
+
+        Assert.assertEquals ( 1, server.queryNames ( pattern, null ).size () );
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.log;
+
+/**
+ * The location of a record in the log
+ */
+class Location
+{
+    private final long segmentId;
+
+    private final long offset;
+
+    private final int length;
+
+    public Location ( final long segmentId, final long offset, final int length )
+    {
+        this.segmentId = segmentId;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getSegmentId ()
+    {
+        return this.segmentId;
+    }
+
+    public long getOffset ()
+    {
+        return this.offset;
+    }
+
+    /**
+     * @return the length of the record, including the header
+     */
+    public int getLength ()
+    {
+        return this.length;
+    }
+
+    @Override
+    public int hashCode ()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int) ( this.offset ^ this.offset >>> 32 );
+        result = prime * result + (int) ( this.segmentId ^ this.segmentId >>> 32 );
+        return result;
+    }
+
+    @Override
+    public boolean equals ( final Object obj )
+    {
+        if ( this == obj )
+        {
+            return true;
+        }
+        if ( obj == null )
+        {
+            return false;
+        }
+        if ( getClass () != obj.getClass () )
+        {
+            return false;
+        }
+        final Location other = (Location)obj;
+        return this.offset == other.offset && this.segmentId == other.segmentId;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format ( "%016x:%s+%s", this.segmentId, this.offset, this.length );
+    }
+}
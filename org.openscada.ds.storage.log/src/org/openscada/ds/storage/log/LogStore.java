@@ -0,0 +1,931 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.openscada.ds.DataNode;
+import org.openscada.utils.concurrent.ExportedExecutorService;
+import org.openscada.utils.concurrent.InstantFuture;
+import org.openscada.utils.concurrent.NotifyFuture;
+import org.openscada.utils.concurrent.NotifyFutureImpl;
+import org.openscada.utils.concurrent.ScheduledExportedExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of data nodes
+ * <p>
+ * All changes get appended to the active segment. An in-memory index maps the
+ * node id to the location of its latest record. Once the active segment
+ * exceeds the segment size a new one is started.
+ * </p>
+ * <p>
+ * Appending returns a future which completes after the change was forced to
+ * disk. Changes arriving while the disk is being synced get synced together
+ * in the next run.
+ * </p>
+ * <p>
+ * Segments with only few live records get compacted in the background by
+ * copying the live records to the active segment and deleting the old
+ * segment.
+ * </p>
+ * <p>
+ * On startup the index is rebuilt by scanning all segments, truncating a
+ * partially written record at the end. A clean shutdown writes a checkpoint
+ * of the index, so that only the records appended after the checkpoint have
+ * to be scanned.
+ * </p>
+ */
+class LogStore
+{
+
+    private final static Logger logger = LoggerFactory.getLogger ( LogStore.class );
+
+    private static final String CHECKPOINT_FILE = "index.checkpoint";
+
+    private static final int CHECKPOINT_MAGIC = 0x44534C49;
+
+    private static final int CHECKPOINT_VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName ( "UTF-8" );
+
+    /**
+     * Orders index entries by their position in the log
+     */
+    private static final Comparator<Map.Entry<String, Location>> LOCATION_ORDER = new Comparator<Map.Entry<String, Location>> () {
+
+        @Override
+        public int compare ( final Map.Entry<String, Location> o1, final Map.Entry<String, Location> o2 )
+        {
+            final Location l1 = o1.getValue ();
+            final Location l2 = o2.getValue ();
+            if ( l1.getSegmentId () != l2.getSegmentId () )
+            {
+                return l1.getSegmentId () < l2.getSegmentId () ? -1 : 1;
+            }
+            if ( l1.getOffset () != l2.getOffset () )
+            {
+                return l1.getOffset () < l2.getOffset () ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private interface RecordHandler
+    {
+        public void record ( Record record, Location location, byte[] raw ) throws IOException;
+    }
+
+    private final File directory;
+
+    private final long segmentSize;
+
+    private final int compactionThreshold;
+
+    private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<String, Location> ();
+
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment> ();
+
+    /**
+     * Readers hold the read lock while accessing a segment, removing a
+     * segment requires the write lock
+     */
+    private final ReadWriteLock segmentLock = new ReentrantReadWriteLock ();
+
+    /**
+     * Serializes appending and all changes of the index
+     */
+    private final Lock appendLock = new ReentrantLock ();
+
+    private volatile Segment active;
+
+    private final Object syncLock = new Object ();
+
+    private List<NotifyFutureImpl<Void>> pendingSyncs = new ArrayList<NotifyFutureImpl<Void>> ();
+
+    private boolean syncScheduled;
+
+    private final ExecutorService syncExecutor;
+
+    private final ScheduledExecutorService compactionExecutor;
+
+    private volatile boolean disposed;
+
+    private final Runnable syncTask = new Runnable () {
+
+        @Override
+        public void run ()
+        {
+            sync ();
+        }
+    };
+
+    /**
+     * Open the log
+     * 
+     * @param directory
+     *            the directory holding the segments
+     * @param segmentSize
+     *            the size after which a new segment gets started
+     * @param compactionThreshold
+     *            the percentage of live data below which a segment gets
+     *            compacted
+     * @param compactionPeriod
+     *            the delay in seconds between two compaction runs
+     */
+    public LogStore ( final File directory, final long segmentSize, final int compactionThreshold, final long compactionPeriod ) throws IOException
+    {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+
+        if ( !directory.exists () )
+        {
+            directory.mkdirs ();
+        }
+        if ( !directory.exists () || !directory.isDirectory () )
+        {
+            throw new IOException ( String.format ( "Unable to use directory: %s", directory ) );
+        }
+
+        recover ();
+
+        this.syncExecutor = new ExportedExecutorService ( LogStore.class.getName () + ".sync", 1, 1, 0L, TimeUnit.MILLISECONDS );
+        this.compactionExecutor = new ScheduledExportedExecutorService ( LogStore.class.getName () + ".compaction", 1 );
+        this.compactionExecutor.scheduleWithFixedDelay ( new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                compact ();
+            }
+        }, compactionPeriod, compactionPeriod, TimeUnit.SECONDS );
+    }
+
+    private void recover () throws IOException
+    {
+        final File[] files = this.directory.listFiles ();
+        if ( files != null )
+        {
+            for ( final File file : files )
+            {
+                final Long id = Segment.parseId ( file.getName () );
+                if ( id != null )
+                {
+                    this.segments.put ( id, Segment.open ( this.directory, id ) );
+                }
+            }
+        }
+
+        if ( this.segments.isEmpty () )
+        {
+            this.segments.put ( 0L, Segment.open ( this.directory, 0 ) );
+        }
+        this.active = this.segments.lastEntry ().getValue ();
+
+        final long start = System.currentTimeMillis ();
+
+        final Location checkpoint = loadCheckpoint ();
+        if ( checkpoint == null )
+        {
+            logger.info ( "No valid checkpoint found. Scanning all segments." );
+        }
+
+        final RecordHandler handler = new RecordHandler () {
+
+            @Override
+            public void record ( final Record record, final Location location, final byte[] raw )
+            {
+                if ( record.getType () == Record.TYPE_WRITE )
+                {
+                    LogStore.this.index.put ( record.getNodeId (), location );
+                }
+                else
+                {
+                    LogStore.this.index.remove ( record.getNodeId () );
+                }
+            }
+        };
+
+        for ( final Segment segment : this.segments.values () )
+        {
+            long from = 0;
+            if ( checkpoint != null )
+            {
+                if ( segment.getId () < checkpoint.getSegmentId () )
+                {
+                    continue;
+                }
+                else if ( segment.getId () == checkpoint.getSegmentId () )
+                {
+                    from = checkpoint.getOffset ();
+                }
+            }
+
+            final long end = scan ( segment, from, handler );
+            if ( end < segment.getSize () )
+            {
+                if ( segment == this.active )
+                {
+                    logger.warn ( "Truncating incomplete or corrupt data at the end of segment {} - position: {}, size: {}", new Object[] { segment, end, segment.getSize () } );
+                    segment.truncate ( end );
+                }
+                else
+                {
+                    logger.error ( "Segment {} is corrupt at position {}. Ignoring the remaining {} bytes.", new Object[] { segment, end, segment.getSize () - end } );
+                }
+            }
+        }
+
+        for ( final Location location : this.index.values () )
+        {
+            this.segments.get ( location.getSegmentId () ).addLiveBytes ( location.getLength () );
+        }
+
+        logger.info ( "Recovered {} data nodes from {} segments in {} ms", new Object[] { this.index.size (), this.segments.size (), System.currentTimeMillis () - start } );
+    }
+
+    /**
+     * Scan the records of a segment
+     * 
+     * @return the position after the last valid record
+     */
+    private long scan ( final Segment segment, final long from, final RecordHandler handler ) throws IOException
+    {
+        final InputStream stream = new BufferedInputStream ( new FileInputStream ( segment.getFile () ), 64 * 1024 );
+        try
+        {
+            final DataInputStream in = new DataInputStream ( stream );
+
+            long skipped = 0;
+            while ( skipped < from )
+            {
+                final long rc = in.skip ( from - skipped );
+                if ( rc <= 0 )
+                {
+                    return skipped;
+                }
+                skipped += rc;
+            }
+
+            long position = from;
+            final byte[] header = new byte[Record.HEADER_SIZE];
+
+            while ( true )
+            {
+                final int first = in.read ();
+                if ( first < 0 )
+                {
+                    // clean end
+                    return position;
+                }
+
+                try
+                {
+                    header[0] = (byte)first;
+                    in.readFully ( header, 1, header.length - 1 );
+
+                    final int bodyLength = Record.readBodyLength ( ByteBuffer.wrap ( header ) );
+                    final byte[] raw = new byte[Record.HEADER_SIZE + bodyLength];
+                    System.arraycopy ( header, 0, raw, 0, header.length );
+                    in.readFully ( raw, header.length, bodyLength );
+
+                    final Record record = Record.decode ( ByteBuffer.wrap ( raw ) );
+                    handler.record ( record, new Location ( segment.getId (), position, raw.length ), raw );
+                    position += raw.length;
+                }
+                catch ( final EOFException e )
+                {
+                    logger.info ( "Incomplete record in segment {} at {}", segment, position );
+                    return position;
+                }
+                catch ( final IOException e )
+                {
+                    logger.warn ( String.format ( "Invalid record in segment %s at %s", segment, position ), e );
+                    return position;
+                }
+            }
+        }
+        finally
+        {
+            stream.close ();
+        }
+    }
+
+    /**
+     * Read a data node
+     * 
+     * @return the data node or <code>null</code> if it does not exist
+     */
+    public DataNode read ( final String nodeId ) throws IOException
+    {
+        while ( true )
+        {
+            final Location location = this.index.get ( nodeId );
+            if ( location == null )
+            {
+                return null;
+            }
+
+            this.segmentLock.readLock ().lock ();
+            try
+            {
+                final Segment segment = this.segments.get ( location.getSegmentId () );
+                if ( segment == null )
+                {
+                    // the segment got compacted meanwhile, look up again
+                    continue;
+                }
+
+                final ByteBuffer buffer = ByteBuffer.allocate ( location.getLength () );
+                segment.read ( buffer, location.getOffset () );
+                buffer.flip ();
+
+                final Record record = Record.decode ( buffer );
+                if ( !nodeId.equals ( record.getNodeId () ) )
+                {
+                    throw new IOException ( String.format ( "Index mismatch - expected: %s, found: %s at %s", nodeId, record.getNodeId (), location ) );
+                }
+                return DataNode.wrap ( nodeId, record.getData () );
+            }
+            finally
+            {
+                this.segmentLock.readLock ().unlock ();
+            }
+        }
+    }
+
+    /**
+     * Read a number of data nodes
+     * <p>
+     * The nodes are read in the order of their location in the log.
+     * </p>
+     * 
+     * @return the data nodes found, nodes which do not exist are not
+     *         contained
+     */
+    public Map<String, DataNode> read ( final Collection<String> nodeIds ) throws IOException
+    {
+        final List<Map.Entry<String, Location>> locations = new ArrayList<Map.Entry<String, Location>> ( nodeIds.size () );
+        for ( final String nodeId : nodeIds )
+        {
+            final Location location = this.index.get ( nodeId );
+            if ( location != null )
+            {
+                locations.add ( new AbstractMap.SimpleImmutableEntry<String, Location> ( nodeId, location ) );
+            }
+        }
+
+        Collections.sort ( locations, LOCATION_ORDER );
+
+        final Map<String, DataNode> result = new HashMap<String, DataNode> ( locations.size () );
+        for ( final Map.Entry<String, Location> entry : locations )
+        {
+            final DataNode node = read ( entry.getKey () );
+            if ( node != null )
+            {
+                result.put ( entry.getKey (), node );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read all data nodes with an id starting with the prefix
+     */
+    public Map<String, DataNode> readByPrefix ( final String prefix ) throws IOException
+    {
+        final List<String> nodeIds = new ArrayList<String> ();
+        for ( final String nodeId : this.index.keySet () )
+        {
+            if ( nodeId.startsWith ( prefix ) )
+            {
+                nodeIds.add ( nodeId );
+            }
+        }
+        return read ( nodeIds );
+    }
+
+    /**
+     * Write a data node
+     * <p>
+     * Writing a node without data deletes it.
+     * </p>
+     * 
+     * @return a future which completes when the change is on disk
+     * @throws IOException
+     *             if the change could not be appended to the log
+     */
+    public NotifyFuture<Void> write ( final DataNode node ) throws IOException
+    {
+        final ByteBuffer data = node.getDataBuffer ();
+        if ( data == null )
+        {
+            return delete ( node.getId () );
+        }
+
+        final ByteBuffer buffer = Record.encode ( Record.TYPE_WRITE, node.getId (), data );
+
+        this.appendLock.lock ();
+        try
+        {
+            updateIndex ( node.getId (), append ( buffer ) );
+            return requestSync ();
+        }
+        finally
+        {
+            this.appendLock.unlock ();
+        }
+    }
+
+    /**
+     * Delete a data node
+     * 
+     * @return a future which completes when the change is on disk
+     * @throws IOException
+     *             if the change could not be appended to the log
+     */
+    public NotifyFuture<Void> delete ( final String nodeId ) throws IOException
+    {
+        final ByteBuffer buffer = new Record ( Record.TYPE_DELETE, nodeId, null ).encode ();
+
+        this.appendLock.lock ();
+        try
+        {
+            if ( !this.index.containsKey ( nodeId ) )
+            {
+                return new InstantFuture<Void> ( null );
+            }
+
+            append ( buffer );
+            updateIndex ( nodeId, null );
+            return requestSync ();
+        }
+        finally
+        {
+            this.appendLock.unlock ();
+        }
+    }
+
+    /**
+     * Append a record to the active segment
+     * <p>
+     * Must be called holding the append lock
+     * </p>
+     */
+    private Location append ( final ByteBuffer buffer ) throws IOException
+    {
+        if ( this.disposed )
+        {
+            throw new IOException ( "Log store is disposed" );
+        }
+
+        if ( this.active.getSize () >= this.segmentSize )
+        {
+            roll ();
+        }
+
+        final int length = buffer.remaining ();
+        final long offset = this.active.append ( buffer );
+        return new Location ( this.active.getId (), offset, length );
+    }
+
+    /**
+     * Start a new active segment
+     * <p>
+     * Must be called holding the append lock
+     * </p>
+     */
+    private void roll () throws IOException
+    {
+        // pending syncs refer to the old segment
+        this.active.force ();
+
+        final Segment segment = Segment.open ( this.directory, this.active.getId () + 1 );
+        this.segments.put ( segment.getId (), segment );
+        logger.debug ( "Starting new segment {}", segment );
+        this.active = segment;
+    }
+
+    /**
+     * Point the index to a new location
+     * <p>
+     * Must be called holding the append lock
+     * </p>
+     * 
+     * @param location
+     *            the new location, <code>null</code> if the node was deleted
+     */
+    private void updateIndex ( final String nodeId, final Location location )
+    {
+        final Location oldLocation = location == null ? this.index.remove ( nodeId ) : this.index.put ( nodeId, location );
+
+        if ( oldLocation != null )
+        {
+            final Segment segment = this.segments.get ( oldLocation.getSegmentId () );
+            if ( segment != null )
+            {
+                segment.addLiveBytes ( -oldLocation.getLength () );
+            }
+        }
+        if ( location != null )
+        {
+            this.segments.get ( location.getSegmentId () ).addLiveBytes ( location.getLength () );
+        }
+    }
+
+    /**
+     * Must be called holding the append lock, so that no sync gets requested
+     * after disposing
+     */
+    private NotifyFuture<Void> requestSync ()
+    {
+        final NotifyFutureImpl<Void> future = new NotifyFutureImpl<Void> ();
+        synchronized ( this.syncLock )
+        {
+            this.pendingSyncs.add ( future );
+            if ( !this.syncScheduled )
+            {
+                this.syncScheduled = true;
+                this.syncExecutor.execute ( this.syncTask );
+            }
+        }
+        return future;
+    }
+
+    private void sync ()
+    {
+        final List<NotifyFutureImpl<Void>> futures;
+        synchronized ( this.syncLock )
+        {
+            futures = this.pendingSyncs;
+            this.pendingSyncs = new ArrayList<NotifyFutureImpl<Void>> ();
+            this.syncScheduled = false;
+        }
+
+        try
+        {
+            this.active.force ();
+            logger.trace ( "Synced {} changes", futures.size () );
+            for ( final NotifyFutureImpl<Void> future : futures )
+            {
+                future.setResult ( null );
+            }
+        }
+        catch ( final IOException e )
+        {
+            logger.warn ( "Failed to sync log", e );
+            for ( final NotifyFutureImpl<Void> future : futures )
+            {
+                future.setError ( e );
+            }
+        }
+    }
+
+    /**
+     * Compact all segments which are below the compaction threshold
+     */
+    public void compact ()
+    {
+        for ( final Segment segment : this.segments.values () )
+        {
+            if ( this.disposed )
+            {
+                return;
+            }
+            if ( segment == this.active )
+            {
+                continue;
+            }
+
+            final long liveBytes;
+            this.appendLock.lock ();
+            try
+            {
+                liveBytes = segment.getLiveBytes ();
+            }
+            finally
+            {
+                this.appendLock.unlock ();
+            }
+
+            if ( liveBytes * 100 < segment.getSize () * this.compactionThreshold )
+            {
+                try
+                {
+                    compact ( segment );
+                }
+                catch ( final Exception e )
+                {
+                    logger.warn ( "Failed to compact segment: " + segment, e );
+                }
+            }
+        }
+    }
+
+    private void compact ( final Segment segment ) throws IOException
+    {
+        logger.info ( "Compacting segment {} - size: {}, live: {}", new Object[] { segment, segment.getSize (), segment.getLiveBytes () } );
+
+        // delete markers are only required as long as older segments exist
+        final boolean hasOlder = this.segments.firstKey () < segment.getId ();
+
+        final long end = scan ( segment, 0, new RecordHandler () {
+
+            @Override
+            public void record ( final Record record, final Location location, final byte[] raw ) throws IOException
+            {
+                copy ( record, location, raw, hasOlder );
+            }
+        } );
+
+        if ( end < segment.getSize () )
+        {
+            logger.warn ( "Segment {} could not be read completely. Not deleting it.", segment );
+            return;
+        }
+
+        this.appendLock.lock ();
+        try
+        {
+            // copies must be on disk before the original gets deleted
+            this.active.force ();
+
+            if ( segment.getLiveBytes () != 0 )
+            {
+                logger.warn ( "Segment {} still has {} live bytes. Not deleting it.", segment, segment.getLiveBytes () );
+                return;
+            }
+        }
+        finally
+        {
+            this.appendLock.unlock ();
+        }
+
+        this.segmentLock.writeLock ().lock ();
+        try
+        {
+            this.segments.remove ( segment.getId () );
+        }
+        finally
+        {
+            this.segmentLock.writeLock ().unlock ();
+        }
+        segment.delete ();
+    }
+
+    private void copy ( final Record record, final Location location, final byte[] raw, final boolean keepDeletes ) throws IOException
+    {
+        this.appendLock.lock ();
+        try
+        {
+            if ( record.getType () == Record.TYPE_WRITE )
+            {
+                if ( location.equals ( this.index.get ( record.getNodeId () ) ) )
+                {
+                    updateIndex ( record.getNodeId (), append ( ByteBuffer.wrap ( raw ) ) );
+                }
+            }
+            else if ( keepDeletes && !this.index.containsKey ( record.getNodeId () ) )
+            {
+                append ( ByteBuffer.wrap ( raw ) );
+            }
+        }
+        finally
+        {
+            this.appendLock.unlock ();
+        }
+    }
+
+    /**
+     * Load the index from the checkpoint file
+     * 
+     * @return the position at which scanning the log has to start, or
+     *         <code>null</code> if there is no valid checkpoint
+     */
+    private Location loadCheckpoint ()
+    {
+        final File file = new File ( this.directory, CHECKPOINT_FILE );
+        if ( !file.exists () )
+        {
+            return null;
+        }
+
+        try
+        {
+            final Map<String, Location> entries = new HashMap<String, Location> ();
+
+            final CheckedInputStream checked = new CheckedInputStream ( new BufferedInputStream ( new FileInputStream ( file ) ), new CRC32 () );
+            final Location position;
+            try
+            {
+                final DataInputStream in = new DataInputStream ( checked );
+                if ( in.readInt () != CHECKPOINT_MAGIC || in.readInt () != CHECKPOINT_VERSION )
+                {
+                    logger.warn ( "Invalid checkpoint header" );
+                    return null;
+                }
+
+                position = new Location ( in.readLong (), in.readLong (), 0 );
+
+                final int count = in.readInt ();
+                for ( int i = 0; i < count; i++ )
+                {
+                    final byte[] id = new byte[in.readInt ()];
+                    in.readFully ( id );
+                    entries.put ( new String ( id, UTF8 ), new Location ( in.readLong (), in.readLong (), in.readInt () ) );
+                }
+
+                final long expected = checked.getChecksum ().getValue ();
+                if ( in.readLong () != expected )
+                {
+                    logger.warn ( "Checkpoint checksum mismatch" );
+                    return null;
+                }
+            }
+            finally
+            {
+                checked.close ();
+            }
+
+            // check that the checkpoint matches the segments
+            final Segment segment = this.segments.get ( position.getSegmentId () );
+            if ( segment == null || segment.getSize () < position.getOffset () )
+            {
+                logger.warn ( "Checkpoint does not match the segments" );
+                return null;
+            }
+            for ( final Location location : entries.values () )
+            {
+                final Segment entrySegment = this.segments.get ( location.getSegmentId () );
+                if ( entrySegment == null || entrySegment.getSize () < location.getOffset () + location.getLength () )
+                {
+                    logger.warn ( "Checkpoint entry {} does not match the segments", location );
+                    return null;
+                }
+            }
+
+            this.index.putAll ( entries );
+            return position;
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to load checkpoint", e );
+            return null;
+        }
+        finally
+        {
+            // the checkpoint is only valid once
+            if ( !file.delete () )
+            {
+                logger.warn ( "Failed to delete checkpoint: {}", file );
+            }
+        }
+    }
+
+    /**
+     * Write the index to the checkpoint file
+     * <p>
+     * Must be called after all appending has stopped.
+     * </p>
+     */
+    private void writeCheckpoint () throws IOException
+    {
+        final File file = new File ( this.directory, CHECKPOINT_FILE );
+        final File tmp = new File ( this.directory, CHECKPOINT_FILE + ".tmp" );
+
+        final FileOutputStream stream = new FileOutputStream ( tmp );
+        try
+        {
+            final CheckedOutputStream checked = new CheckedOutputStream ( new BufferedOutputStream ( stream ), new CRC32 () );
+            final DataOutputStream out = new DataOutputStream ( checked );
+
+            out.writeInt ( CHECKPOINT_MAGIC );
+            out.writeInt ( CHECKPOINT_VERSION );
+            out.writeLong ( this.active.getId () );
+            out.writeLong ( this.active.getSize () );
+
+            out.writeInt ( this.index.size () );
+            for ( final Map.Entry<String, Location> entry : this.index.entrySet () )
+            {
+                final byte[] id = entry.getKey ().getBytes ( UTF8 );
+                out.writeInt ( id.length );
+                out.write ( id );
+                out.writeLong ( entry.getValue ().getSegmentId () );
+                out.writeLong ( entry.getValue ().getOffset () );
+                out.writeInt ( entry.getValue ().getLength () );
+            }
+
+            out.writeLong ( checked.getChecksum ().getValue () );
+            out.flush ();
+            stream.getFD ().sync ();
+        }
+        finally
+        {
+            stream.close ();
+        }
+
+        file.delete ();
+        if ( !tmp.renameTo ( file ) )
+        {
+            throw new IOException ( String.format ( "Failed to rename checkpoint %s to %s", tmp, file ) );
+        }
+    }
+
+    public int size ()
+    {
+        return this.index.size ();
+    }
+
+    public void dispose ()
+    {
+        this.appendLock.lock ();
+        try
+        {
+            this.disposed = true;
+        }
+        finally
+        {
+            this.appendLock.unlock ();
+        }
+
+        this.compactionExecutor.shutdown ();
+        this.syncExecutor.shutdown ();
+        try
+        {
+            this.compactionExecutor.awaitTermination ( 10, TimeUnit.SECONDS );
+            this.syncExecutor.awaitTermination ( 10, TimeUnit.SECONDS );
+        }
+        catch ( final InterruptedException e )
+        {
+            logger.warn ( "Interrupted while waiting for background tasks", e );
+            Thread.currentThread ().interrupt ();
+        }
+
+        try
+        {
+            this.active.force ();
+            writeCheckpoint ();
+        }
+        catch ( final IOException e )
+        {
+            logger.warn ( "Failed to write checkpoint", e );
+        }
+
+        for ( final Segment segment : this.segments.values () )
+        {
+            segment.close ();
+        }
+    }
+}
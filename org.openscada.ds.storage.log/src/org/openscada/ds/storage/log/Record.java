@@ -0,0 +1,203 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * A record of the log
+ * <p>
+ * A record consists of a 12 byte header (magic, body length, CRC32 of the
+ * body) followed by the body (type, node id, data).
+ * </p>
+ */
+class Record
+{
+    public static final int MAGIC = 0x44534C47;
+
+    public static final int HEADER_SIZE = 12;
+
+    /**
+     * Upper bound of a record body, everything above is treated as corrupt
+     */
+    public static final int MAX_BODY_SIZE = 256 * 1024 * 1024;
+
+    public static final byte TYPE_WRITE = 1;
+
+    public static final byte TYPE_DELETE = 2;
+
+    private static final Charset UTF8 = Charset.forName ( "UTF-8" );
+
+    private final byte type;
+
+    private final String nodeId;
+
+    private final byte[] data;
+
+    public Record ( final byte type, final String nodeId, final byte[] data )
+    {
+        this.type = type;
+        this.nodeId = nodeId;
+        this.data = data;
+    }
+
+    public byte getType ()
+    {
+        return this.type;
+    }
+
+    public String getNodeId ()
+    {
+        return this.nodeId;
+    }
+
+    public byte[] getData ()
+    {
+        return this.data;
+    }
+
+    /**
+     * Encode the record, including its header
+     * 
+     * @return the buffer, ready for reading
+     */
+    public ByteBuffer encode ()
+    {
+        return encode ( this.type, this.nodeId, this.data != null ? ByteBuffer.wrap ( this.data ) : null );
+    }
+
+    /**
+     * Encode a record, including its header
+     * 
+     * @param data
+     *            the remaining bytes of the buffer are the data, may be
+     *            <code>null</code>. The buffer is not modified.
+     * @return the buffer, ready for reading
+     */
+    public static ByteBuffer encode ( final byte type, final String nodeId, final ByteBuffer data )
+    {
+        final byte[] id = nodeId.getBytes ( UTF8 );
+        final int dataLength = data == null ? -1 : data.remaining ();
+
+        final int bodyLength = 1 + 4 + id.length + 4 + Math.max ( 0, dataLength );
+
+        final ByteBuffer buffer = ByteBuffer.allocate ( HEADER_SIZE + bodyLength );
+        buffer.putInt ( MAGIC );
+        buffer.putInt ( bodyLength );
+        buffer.putInt ( 0 ); // checksum, filled in later
+
+        buffer.put ( type );
+        buffer.putInt ( id.length );
+        buffer.put ( id );
+        buffer.putInt ( dataLength );
+        if ( data != null )
+        {
+            buffer.put ( data.duplicate () );
+        }
+
+        buffer.putInt ( 8, checksum ( buffer.array (), HEADER_SIZE, bodyLength ) );
+
+        buffer.flip ();
+        return buffer;
+    }
+
+    /**
+     * Get the body length from a record header
+     * 
+     * @throws IOException
+     *             if the header is not valid
+     */
+    public static int readBodyLength ( final ByteBuffer header ) throws IOException
+    {
+        final int magic = header.getInt ( 0 );
+        if ( magic != MAGIC )
+        {
+            throw new IOException ( String.format ( "Invalid record magic: %08x", magic ) );
+        }
+
+        final int length = header.getInt ( 4 );
+        if ( length < 9 || length > MAX_BODY_SIZE )
+        {
+            throw new IOException ( String.format ( "Invalid record length: %s", length ) );
+        }
+        return length;
+    }
+
+    /**
+     * Decode a full record, including its header
+     * 
+     * @throws IOException
+     *             if the record is not valid
+     */
+    public static Record decode ( final ByteBuffer buffer ) throws IOException
+    {
+        final int bodyLength = readBodyLength ( buffer );
+        if ( buffer.limit () != HEADER_SIZE + bodyLength )
+        {
+            throw new IOException ( String.format ( "Record length mismatch - expected: %s, actual: %s", HEADER_SIZE + bodyLength, buffer.limit () ) );
+        }
+
+        final int expected = buffer.getInt ( 8 );
+        final int actual = checksum ( buffer.array (), buffer.arrayOffset () + HEADER_SIZE, bodyLength );
+        if ( expected != actual )
+        {
+            throw new IOException ( String.format ( "Record checksum mismatch - expected: %08x, actual: %08x", expected, actual ) );
+        }
+
+        try
+        {
+            buffer.position ( HEADER_SIZE );
+
+            final byte type = buffer.get ();
+            if ( type != TYPE_WRITE && type != TYPE_DELETE )
+            {
+                throw new IOException ( String.format ( "Invalid record type: %s", type ) );
+            }
+
+            final byte[] id = new byte[buffer.getInt ()];
+            buffer.get ( id );
+
+            final int dataLength = buffer.getInt ();
+            byte[] data = null;
+            if ( dataLength >= 0 )
+            {
+                data = new byte[dataLength];
+                buffer.get ( data );
+            }
+
+            return new Record ( type, new String ( id, UTF8 ), data );
+        }
+        catch ( final RuntimeException e )
+        {
+            // buffer under flow or negative array size
+            throw new IOException ( "Malformed record body", e );
+        }
+    }
+
+    private static int checksum ( final byte[] data, final int offset, final int length )
+    {
+        final CRC32 crc = new CRC32 ();
+        crc.update ( data, offset, length );
+        return (int)crc.getValue ();
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.log;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One file of the log
+ * <p>
+ * Reads use positional access and may run concurrently with each other and
+ * with appending. Appending must be serialized by the caller.
+ * </p>
+ * <p>
+ * Interrupting a thread which performs I/O on a {@link FileChannel} closes
+ * the channel for everybody. The segment re-opens the channel in this case,
+ * so that an interrupted reader does not break the other readers.
+ * </p>
+ */
+class Segment
+{
+
+    private final static Logger logger = LoggerFactory.getLogger ( Segment.class );
+
+    private static final String SUFFIX = ".log";
+
+    private final long id;
+
+    private final File file;
+
+    private RandomAccessFile raf;
+
+    private volatile FileChannel channel;
+
+    private volatile long size;
+
+    private volatile boolean closed;
+
+    /**
+     * The number of bytes in this segment which are still referenced by the
+     * index
+     * <p>
+     * Guarded by the append lock of the {@link LogStore}
+     * </p>
+     */
+    private long liveBytes;
+
+    private Segment ( final long id, final File file ) throws IOException
+    {
+        this.id = id;
+        this.file = file;
+        open ();
+        this.size = this.channel.size ();
+    }
+
+    public static Segment open ( final File directory, final long id ) throws IOException
+    {
+        return new Segment ( id, makeFile ( directory, id ) );
+    }
+
+    public static File makeFile ( final File directory, final long id )
+    {
+        return new File ( directory, String.format ( "%016x%s", id, SUFFIX ) );
+    }
+
+    /**
+     * Parse the segment id from a file name
+     * 
+     * @return the id or <code>null</code> if the file is not a segment
+     */
+    public static Long parseId ( final String fileName )
+    {
+        if ( !fileName.endsWith ( SUFFIX ) || fileName.length () != 16 + SUFFIX.length () )
+        {
+            return null;
+        }
+        try
+        {
+            return Long.parseLong ( fileName.substring ( 0, 16 ), 16 );
+        }
+        catch ( final NumberFormatException e )
+        {
+            return null;
+        }
+    }
+
+    private void open () throws IOException
+    {
+        this.raf = new RandomAccessFile ( this.file, "rw" );
+        this.channel = this.raf.getChannel ();
+    }
+
+    private synchronized FileChannel reopen ( final FileChannel failed ) throws IOException
+    {
+        if ( this.closed )
+        {
+            throw new ClosedChannelException ();
+        }
+        if ( this.channel == failed )
+        {
+            logger.info ( "Re-opening segment {} after the channel was closed", this.file );
+            try
+            {
+                this.raf.close ();
+            }
+            catch ( final IOException e )
+            {
+                // ignore, the channel is closed anyway
+            }
+            open ();
+        }
+        return this.channel;
+    }
+
+    public long getId ()
+    {
+        return this.id;
+    }
+
+    public File getFile ()
+    {
+        return this.file;
+    }
+
+    public long getSize ()
+    {
+        return this.size;
+    }
+
+    long getLiveBytes ()
+    {
+        return this.liveBytes;
+    }
+
+    void addLiveBytes ( final long bytes )
+    {
+        this.liveBytes += bytes;
+    }
+
+    /**
+     * Read from the segment
+     * 
+     * @throws EOFException
+     *             if the segment ends before the buffer is full
+     */
+    public void read ( final ByteBuffer buffer, final long position ) throws IOException
+    {
+        FileChannel channel = this.channel;
+        long pos = position;
+
+        while ( buffer.hasRemaining () )
+        {
+            try
+            {
+                final int rc = channel.read ( buffer, pos );
+                if ( rc < 0 )
+                {
+                    throw new EOFException ( String.format ( "Unexpected end of segment %s at %s", this.file, pos ) );
+                }
+                pos += rc;
+            }
+            catch ( final ClosedByInterruptException e )
+            {
+                reopen ( channel );
+                throw new InterruptedIOException ( "Interrupted while reading" );
+            }
+            catch ( final ClosedChannelException e )
+            {
+                // closed by somebody else
+                channel = reopen ( channel );
+            }
+        }
+    }
+
+    /**
+     * Append to the segment
+     * <p>
+     * If the write fails the segment is truncated to its previous size.
+     * </p>
+     * 
+     * @return the position the data was written to
+     */
+    public long append ( final ByteBuffer buffer ) throws IOException
+    {
+        final long position = this.size;
+        final FileChannel channel = this.channel;
+        try
+        {
+            long pos = position;
+            while ( buffer.hasRemaining () )
+            {
+                pos += channel.write ( buffer, pos );
+            }
+            this.size = pos;
+            return position;
+        }
+        catch ( final IOException e )
+        {
+            // remove the partial record
+            try
+            {
+                ( e instanceof ClosedChannelException ? reopen ( channel ) : channel ).truncate ( position );
+            }
+            catch ( final IOException e2 )
+            {
+                logger.warn ( "Failed to truncate segment after failed write: " + this.file, e2 );
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Cut off everything after the provided position
+     */
+    public void truncate ( final long position ) throws IOException
+    {
+        this.channel.truncate ( position );
+        this.size = position;
+    }
+
+    /**
+     * Force the content to disk
+     */
+    public void force () throws IOException
+    {
+        final FileChannel channel = this.channel;
+        try
+        {
+            channel.force ( false );
+        }
+        catch ( final ClosedChannelException e )
+        {
+            reopen ( channel ).force ( false );
+        }
+    }
+
+    public synchronized void close ()
+    {
+        this.closed = true;
+        try
+        {
+            this.raf.close ();
+        }
+        catch ( final IOException e )
+        {
+            logger.warn ( "Failed to close segment: " + this.file, e );
+        }
+    }
+
+    /**
+     * Close and delete the segment
+     */
+    public void delete ()
+    {
+        close ();
+        if ( !this.file.delete () )
+        {
+            logger.warn ( "Failed to delete segment: {}", this.file );
+        }
+    }
+
+    @Override
+    public String toString ()
+    {
+        return this.file.getName ();
+    }
+}
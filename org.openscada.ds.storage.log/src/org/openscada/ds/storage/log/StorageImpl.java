@@ -0,0 +1,170 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openscada.ds.DataNode;
+import org.openscada.ds.storage.AbstractStorage;
+import org.openscada.utils.concurrent.InstantErrorFuture;
+import org.openscada.utils.concurrent.InstantFuture;
+import org.openscada.utils.concurrent.NotifyFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A data store writing all changes to an append-only log
+ * <p>
+ * The futures returned by {@link #writeNode(DataNode)} and
+ * {@link #deleteNode(String)} complete after the change was forced to disk.
+ * Reads do not wait for writes.
+ * </p>
+ */
+public class StorageImpl extends AbstractStorage
+{
+
+    private final static Logger logger = LoggerFactory.getLogger ( StorageImpl.class );
+
+    private final ExecutorService executorService;
+
+    private final LogStore store;
+
+    /**
+     * Keeps the order of the change events in line with the order of the
+     * changes
+     */
+    private final Lock writeLock = new ReentrantLock ();
+
+    public StorageImpl () throws IOException
+    {
+        final File root = new File ( System.getProperty ( "org.openscada.ds.storage.log.root", System.getProperty ( "user.home" ) + File.separator + ".openscadaDSLog" ) );
+        final long segmentSize = Long.getLong ( "org.openscada.ds.storage.log.segmentSize", 16 * 1024 * 1024 );
+        final int compactionThreshold = Integer.getInteger ( "org.openscada.ds.storage.log.compactionThreshold", 50 );
+        final long compactionPeriod = Long.getLong ( "org.openscada.ds.storage.log.compactionPeriod", 60 );
+
+        this.store = new LogStore ( root, segmentSize, compactionThreshold, compactionPeriod );
+        this.executorService = createEventExecutor ( StorageImpl.class.getName () );
+
+        exportStatistics ( StorageImpl.class.getName () );
+    }
+
+    @Override
+    protected Executor getExecutor ()
+    {
+        return this.executorService;
+    }
+
+    @Override
+    public synchronized void dispose ()
+    {
+        super.dispose ();
+        this.store.dispose ();
+        this.executorService.shutdown ();
+    }
+
+    @Override
+    public NotifyFuture<DataNode> readNode ( final String nodeId )
+    {
+        try
+        {
+            return new InstantFuture<DataNode> ( this.store.read ( nodeId ) );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to load data node", e );
+            return new InstantErrorFuture<DataNode> ( e );
+        }
+    }
+
+    @Override
+    public NotifyFuture<Map<String, DataNode>> readNodes ( final Collection<String> nodeIds )
+    {
+        try
+        {
+            return new InstantFuture<Map<String, DataNode>> ( this.store.read ( nodeIds ) );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to load data nodes", e );
+            return new InstantErrorFuture<Map<String, DataNode>> ( e );
+        }
+    }
+
+    @Override
+    public NotifyFuture<Map<String, DataNode>> readNodesByPrefix ( final String prefix )
+    {
+        try
+        {
+            return new InstantFuture<Map<String, DataNode>> ( this.store.readByPrefix ( prefix ) );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to load data nodes", e );
+            return new InstantErrorFuture<Map<String, DataNode>> ( e );
+        }
+    }
+
+    @Override
+    public NotifyFuture<Void> writeNode ( final DataNode node )
+    {
+        this.writeLock.lock ();
+        try
+        {
+            final NotifyFuture<Void> result = this.store.write ( node );
+            fireUpdate ( node );
+            return result;
+        }
+        catch ( final IOException e )
+        {
+            logger.warn ( "Failed to store data node", e );
+            return new InstantErrorFuture<Void> ( e );
+        }
+        finally
+        {
+            this.writeLock.unlock ();
+        }
+    }
+
+    @Override
+    public NotifyFuture<Void> deleteNode ( final String nodeId )
+    {
+        this.writeLock.lock ();
+        try
+        {
+            return this.store.delete ( nodeId );
+        }
+        catch ( final IOException e )
+        {
+            logger.warn ( "Failed to delete data node", e );
+            return new InstantErrorFuture<Void> ( e );
+        }
+        finally
+        {
+            this.writeLock.unlock ();
+        }
+    }
+}
@@ -19,24 +19,294 @@
 
 package org.openscada.ds.storage;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.ObjectName;
 
 import org.openscada.ds.DataListener;
 import org.openscada.ds.DataNode;
 import org.openscada.ds.DataStore;
+import org.openscada.utils.concurrent.ExportedExecutorService;
+import org.openscada.utils.concurrent.FutureListener;
 import org.openscada.utils.concurrent.NotifyFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-
-public abstract class AbstractStorage implements DataStore
+/**
+ * Common base for data stores
+ * <p>
+ * Events are delivered to each listener of a node in order, but listeners of
+ * different nodes and different listeners of the same node are served in
+ * parallel by the executor returned by {@link #getExecutor()}. If a listener
+ * falls behind, pending events get replaced by the latest one, so that a slow
+ * listener only misses intermediate states and does not hold up others.
+ * </p>
+ * <p>
+ * The initial states of listeners attached in quick succession are loaded
+ * together using {@link #readNodes(java.util.Collection)}.
+ * </p>
+ */
+public abstract class AbstractStorage implements DataStore, StorageMXBean
 {
 
     private final static Logger logger = LoggerFactory.getLogger ( AbstractStorage.class );
 
-    private final Multimap<String, DataListener> listeners = HashMultimap.create ();
+    private static final int EVENT_THREADS = Integer.getInteger ( "org.openscada.ds.storage.eventThreads", Math.max ( 2, Runtime.getRuntime ().availableProcessors () ) );
+
+    private static class Event
+    {
+        private final DataNode node;
+
+        private final long timestamp;
+
+        public Event ( final DataNode node, final long timestamp )
+        {
+            this.node = node;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * The delivery state of one listener attached to one node
+     */
+    private class Subscription implements Runnable
+    {
+        private final String nodeId;
+
+        private final DataListener listener;
+
+        private Event pending;
+
+        private boolean scheduled;
+
+        private boolean updated;
+
+        private boolean closed;
+
+        private long deliveredEvents;
+
+        private long coalescedEvents;
+
+        private long failedEvents;
+
+        private long lastLatency;
+
+        private long maxLatency;
+
+        public Subscription ( final String nodeId, final DataListener listener )
+        {
+            this.nodeId = nodeId;
+            this.listener = listener;
+        }
+
+        /**
+         * Queue an update of the node
+         */
+        public void update ( final DataNode node )
+        {
+            enqueue ( node, false );
+        }
+
+        /**
+         * Queue the initial state of the node
+         * <p>
+         * The initial state is dropped if an update was queued in the
+         * meantime, since the update is the more recent one.
+         * </p>
+         */
+        public void initial ( final DataNode node )
+        {
+            enqueue ( node, true );
+        }
+
+        /**
+         * Queue a last event and stop accepting further ones
+         */
+        public void close ( final DataNode node )
+        {
+            enqueue ( node, false );
+            synchronized ( this )
+            {
+                this.closed = true;
+            }
+        }
+
+        /**
+         * Stop delivering events, including pending ones
+         */
+        public synchronized void cancel ()
+        {
+            this.closed = true;
+            this.pending = null;
+        }
+
+        private void enqueue ( final DataNode node, final boolean initial )
+        {
+            synchronized ( this )
+            {
+                if ( this.closed || initial && this.updated )
+                {
+                    return;
+                }
+                this.updated |= !initial;
+
+                if ( this.pending != null )
+                {
+                    // keep the time of the oldest missed event so that the latency shows how far behind we are
+                    this.coalescedEvents++;
+                    this.pending = new Event ( node, this.pending.timestamp );
+                }
+                else
+                {
+                    this.pending = new Event ( node, System.nanoTime () );
+                }
+
+                if ( this.scheduled )
+                {
+                    return;
+                }
+                this.scheduled = true;
+            }
+
+            schedule ();
+        }
+
+        private void schedule ()
+        {
+            try
+            {
+                getExecutor ().execute ( this );
+            }
+            catch ( final RejectedExecutionException e )
+            {
+                logger.warn ( "Failed to schedule event delivery", e );
+                synchronized ( this )
+                {
+                    this.scheduled = false;
+                }
+            }
+        }
+
+        @Override
+        public void run ()
+        {
+            final Event event;
+            synchronized ( this )
+            {
+                event = this.pending;
+                this.pending = null;
+                if ( event == null )
+                {
+                    this.scheduled = false;
+                    return;
+                }
+            }
+
+            boolean failed = false;
+            try
+            {
+                this.listener.nodeChanged ( event.node );
+            }
+            catch ( final Exception e )
+            {
+                failed = true;
+                logger.warn ( String.format ( "Failed to notify listener of node '%s'", this.nodeId ), e );
+            }
+
+            final long latency = TimeUnit.NANOSECONDS.toMicros ( System.nanoTime () - event.timestamp );
+
+            final boolean more;
+            synchronized ( this )
+            {
+                this.deliveredEvents++;
+                if ( failed )
+                {
+                    this.failedEvents++;
+                }
+                this.lastLatency = latency;
+                this.maxLatency = Math.max ( this.maxLatency, latency );
+
+                more = this.pending != null;
+                this.scheduled = more;
+            }
+
+            if ( more )
+            {
+                // re-queue instead of looping, so one busy node does not occupy a thread
+                schedule ();
+            }
+        }
+
+        public synchronized int getPendingEvents ()
+        {
+            return this.pending != null ? 1 : 0;
+        }
+
+        public synchronized ListenerStatistics getStatistics ()
+        {
+            return new ListenerStatistics ( this.nodeId, String.valueOf ( this.listener ), getPendingEvents (), this.deliveredEvents, this.coalescedEvents, this.failedEvents, this.lastLatency, this.maxLatency );
+        }
+    }
+
+    private final ConcurrentMap<String, ConcurrentMap<DataListener, Subscription>> listeners = new ConcurrentHashMap<String, ConcurrentMap<DataListener, Subscription>> ();
+
+    /**
+     * Lock for adding and removing listeners, firing events does not lock
+     */
+    private final Lock registryLock = new ReentrantLock ();
+
+    /**
+     * Subscriptions waiting for the initial state of their node
+     */
+    private final Queue<Subscription> initialLoads = new ConcurrentLinkedQueue<Subscription> ();
+
+    private final AtomicBoolean initialLoadScheduled = new AtomicBoolean ();
+
+    private final Runnable initialLoader = new Runnable () {
+
+        @Override
+        public void run ()
+        {
+            processInitialLoads ();
+        }
+    };
+
+    private ObjectName name;
+
+    /**
+     * Create a new executor which can be used for delivering events
+     * <p>
+     * The number of threads can be set using the system property
+     * <code>org.openscada.ds.storage.eventThreads</code>.
+     * </p>
+     * 
+     * @param name
+     *            the name of the executor
+     * @return the new executor, must be shut down by the caller
+     */
+    protected static ExecutorService createEventExecutor ( final String name )
+    {
+        return new ExportedExecutorService ( name, EVENT_THREADS, EVENT_THREADS, 1, TimeUnit.MINUTES );
+    }
 
     @Override
     public abstract NotifyFuture<DataNode> readNode ( final String nodeId );
@@ -44,82 +314,262 @@ public abstract class AbstractStorage implements DataStore
     /**
      * Provide an executor for sending events
      * <p>
-     * This method is only called after the constructor is completed
+     * This method is only called after the constructor is completed. The
+     * executor may use more than one thread, events of one node to one
+     * listener are still delivered in order.
      * </p>
      * 
      * @return the executor to use, must never return <code>null</code>
      */
     protected abstract Executor getExecutor ();
 
+    /**
+     * Export the listener statistics using JMX
+     * <p>
+     * The registration is removed by {@link #dispose()}. The name of the
+     * bean contains the identity of the instance, so that more than one
+     * storage of the same kind can be exported at the same time.
+     * </p>
+     * 
+     * @param key
+     *            the name of the storage
+     */
+    protected void exportStatistics ( final String key )
+    {
+        try
+        {
+            final Hashtable<String, String> properties = new Hashtable<String, String> ();
+            properties.put ( "storage", key );
+            properties.put ( "instance", Integer.toHexString ( System.identityHashCode ( this ) ) );
+            this.name = new ObjectName ( "org.openscada.ds.storage", properties );
+            ManagementFactory.getPlatformMBeanServer ().registerMBean ( this, this.name );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to export", e );
+            this.name = null;
+        }
+    }
+
     /**
      * Dispose the service.
      * <p>
      * This method still needs a valid executor using {@link #getExecutor()}.
      * </p>
      */
-    public synchronized void dispose ()
+    public void dispose ()
     {
-        for ( final DataListener listener : this.listeners.values () )
+        this.registryLock.lock ();
+        try
         {
-            getExecutor ().execute ( new Runnable () {
-
-                @Override
-                public void run ()
+            for ( final Map<DataListener, Subscription> nodeListeners : this.listeners.values () )
+            {
+                for ( final Subscription subscription : nodeListeners.values () )
                 {
-                    listener.nodeChanged ( null );
+                    subscription.close ( null );
                 }
-            } );
+            }
+            this.listeners.clear ();
+        }
+        finally
+        {
+            this.registryLock.unlock ();
+        }
+
+        if ( this.name != null )
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer ().unregisterMBean ( this.name );
+            }
+            catch ( final Exception e )
+            {
+                logger.warn ( "Failed to unexport", e );
+            }
+            this.name = null;
         }
-        this.listeners.clear ();
     }
 
     @Override
-    public synchronized void attachListener ( final String nodeId, final DataListener listener )
+    public void attachListener ( final String nodeId, final DataListener listener )
     {
-        if ( this.listeners.put ( nodeId, listener ) )
+        final Subscription subscription = new Subscription ( nodeId, listener );
+
+        this.registryLock.lock ();
+        try
+        {
+            ConcurrentMap<DataListener, Subscription> nodeListeners = this.listeners.get ( nodeId );
+            if ( nodeListeners == null )
+            {
+                nodeListeners = new ConcurrentHashMap<DataListener, Subscription> ();
+                this.listeners.put ( nodeId, nodeListeners );
+            }
+            if ( nodeListeners.putIfAbsent ( listener, subscription ) != null )
+            {
+                // already attached
+                return;
+            }
+        }
+        finally
         {
-            final NotifyFuture<DataNode> task = readNode ( nodeId );
+            this.registryLock.unlock ();
+        }
+
+        // load outside of the lock, together with other listeners attached meanwhile
+        this.initialLoads.add ( subscription );
+        if ( this.initialLoadScheduled.compareAndSet ( false, true ) )
+        {
+            try
+            {
+                getExecutor ().execute ( this.initialLoader );
+            }
+            catch ( final RejectedExecutionException e )
+            {
+                logger.warn ( "Failed to schedule initial load", e );
+                this.initialLoadScheduled.set ( false );
+            }
+        }
+    }
 
-            // fire events in executor thread
-            getExecutor ().execute ( new Runnable () {
+    /**
+     * Load the initial state of all queued subscriptions with one call to
+     * {@link #readNodes(java.util.Collection)}
+     */
+    private void processInitialLoads ()
+    {
+        this.initialLoadScheduled.set ( false );
 
-                @Override
-                public void run ()
+        final Map<String, List<Subscription>> pending = new HashMap<String, List<Subscription>> ();
+
+        Subscription subscription;
+        while ( ( subscription = this.initialLoads.poll () ) != null )
+        {
+            List<Subscription> subscriptions = pending.get ( subscription.nodeId );
+            if ( subscriptions == null )
+            {
+                subscriptions = new LinkedList<Subscription> ();
+                pending.put ( subscription.nodeId, subscriptions );
+            }
+            subscriptions.add ( subscription );
+        }
+
+        if ( pending.isEmpty () )
+        {
+            return;
+        }
+
+        logger.debug ( "Initially loading {} data nodes", pending.size () );
+
+        final NotifyFuture<Map<String, DataNode>> task = readNodes ( new ArrayList<String> ( pending.keySet () ) );
+        task.addListener ( new FutureListener<Map<String, DataNode>> () {
+
+            @Override
+            public void complete ( final Future<Map<String, DataNode>> future )
+            {
+                Map<String, DataNode> nodes;
+                try
                 {
-                    try
-                    {
-                        listener.nodeChanged ( task.get () );
-                    }
-                    catch ( final Exception e )
+                    nodes = future.get ();
+                }
+                catch ( final Exception e )
+                {
+                    logger.info ( "Failed to initially load data nodes", e );
+                    nodes = Collections.emptyMap ();
+                }
+
+                for ( final Map.Entry<String, List<Subscription>> entry : pending.entrySet () )
+                {
+                    final DataNode node = nodes.get ( entry.getKey () );
+                    for ( final Subscription subscription : entry.getValue () )
                     {
-                        listener.nodeChanged ( null );
-                        logger.info ( "Failed to initially load data node", e );
+                        subscription.initial ( node );
                     }
                 }
-            } );
+            }
+        } );
+    }
+
+    @Override
+    public void detachListener ( final String nodeId, final DataListener listener )
+    {
+        final Subscription subscription;
+
+        this.registryLock.lock ();
+        try
+        {
+            final Map<DataListener, Subscription> nodeListeners = this.listeners.get ( nodeId );
+            if ( nodeListeners == null )
+            {
+                return;
+            }
+            subscription = nodeListeners.remove ( listener );
+            if ( nodeListeners.isEmpty () )
+            {
+                this.listeners.remove ( nodeId );
+            }
+        }
+        finally
+        {
+            this.registryLock.unlock ();
+        }
+
+        if ( subscription != null )
+        {
+            subscription.cancel ();
+        }
+    }
 
+    protected void fireUpdate ( final DataNode node )
+    {
+        final Map<DataListener, Subscription> nodeListeners = this.listeners.get ( node.getId () );
+        if ( nodeListeners == null )
+        {
+            return;
+        }
+
+        for ( final Subscription subscription : nodeListeners.values () )
+        {
+            subscription.update ( node );
         }
     }
 
     @Override
-    public synchronized void detachListener ( final String nodeId, final DataListener listener )
+    public int getListenerCount ()
     {
-        this.listeners.remove ( nodeId, listener );
+        int count = 0;
+        for ( final Map<DataListener, Subscription> nodeListeners : this.listeners.values () )
+        {
+            count += nodeListeners.size ();
+        }
+        return count;
     }
 
-    protected synchronized void fireUpdate ( final DataNode node )
+    @Override
+    public long getPendingEvents ()
     {
-        for ( final DataListener listener : this.listeners.get ( node.getId () ) )
+        long count = 0;
+        for ( final Map<DataListener, Subscription> nodeListeners : this.listeners.values () )
         {
-            getExecutor ().execute ( new Runnable () {
+            for ( final Subscription subscription : nodeListeners.values () )
+            {
+                count += subscription.getPendingEvents ();
+            }
+        }
+        return count;
+    }
 
-                @Override
-                public void run ()
-                {
-                    listener.nodeChanged ( node );
-                }
-            } );
+    @Override
+    public List<ListenerStatistics> getListenerStatistics ()
+    {
+        final List<ListenerStatistics> result = new ArrayList<ListenerStatistics> ();
+        for ( final Map<DataListener, Subscription> nodeListeners : this.listeners.values () )
+        {
+            for ( final Subscription subscription : nodeListeners.values () )
+            {
+                result.add ( subscription.getStatistics () );
+            }
         }
+        return result;
     }
 
-}
\ No newline at end of file
+}
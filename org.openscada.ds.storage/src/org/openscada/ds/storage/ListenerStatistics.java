@@ -0,0 +1,122 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.storage;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the event delivery statistics of one listener attached to
+ * one data node
+ */
+public class ListenerStatistics
+{
+    private final String nodeId;
+
+    private final String listener;
+
+    private final int pendingEvents;
+
+    private final long deliveredEvents;
+
+    private final long coalescedEvents;
+
+    private final long failedEvents;
+
+    private final long lastLatency;
+
+    private final long maxLatency;
+
+    @ConstructorProperties ( { "nodeId", "listener", "pendingEvents", "deliveredEvents", "coalescedEvents", "failedEvents", "lastLatency", "maxLatency" } )
+    public ListenerStatistics ( final String nodeId, final String listener, final int pendingEvents, final long deliveredEvents, final long coalescedEvents, final long failedEvents, final long lastLatency, final long maxLatency )
+    {
+        this.nodeId = nodeId;
+        this.listener = listener;
+        this.pendingEvents = pendingEvents;
+        this.deliveredEvents = deliveredEvents;
+        this.coalescedEvents = coalescedEvents;
+        this.failedEvents = failedEvents;
+        this.lastLatency = lastLatency;
+        this.maxLatency = maxLatency;
+    }
+
+    public String getNodeId ()
+    {
+        return this.nodeId;
+    }
+
+    public String getListener ()
+    {
+        return this.listener;
+    }
+
+    /**
+     * @return the number of events waiting for delivery
+     */
+    public int getPendingEvents ()
+    {
+        return this.pendingEvents;
+    }
+
+    public long getDeliveredEvents ()
+    {
+        return this.deliveredEvents;
+    }
+
+    /**
+     * @return the number of events which got replaced by a newer event
+     *         before they could be delivered
+     */
+    public long getCoalescedEvents ()
+    {
+        return this.coalescedEvents;
+    }
+
+    /**
+     * @return the number of events for which the listener threw an exception
+     */
+    public long getFailedEvents ()
+    {
+        return this.failedEvents;
+    }
+
+    /**
+     * @return the time in microseconds between queuing and delivering the
+     *         last event
+     */
+    public long getLastLatency ()
+    {
+        return this.lastLatency;
+    }
+
+    /**
+     * @return the maximum time in microseconds between queuing and
+     *         delivering an event
+     */
+    public long getMaxLatency ()
+    {
+        return this.maxLatency;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format ( "[nodeId: %s, listener: %s, pending: %s, delivered: %s, coalesced: %s, failed: %s, lastLatency: %s, maxLatency: %s]", this.nodeId, this.listener, this.pendingEvents, this.deliveredEvents, this.coalescedEvents, this.failedEvents, this.lastLatency, this.maxLatency );
+    }
+}
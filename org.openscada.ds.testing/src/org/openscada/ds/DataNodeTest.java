@@ -19,12 +19,28 @@
 
 package org.openscada.ds;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
+import org.openscada.core.Variant;
 
 public class DataNodeTest
 {
@@ -55,4 +71,286 @@ public class DataNodeTest
 
         testSerialize ( data );
     }
+
+    private static final String COMPACT_PROPERTY = "org.openscada.ds.compactCodec";
+
+    @After
+    public void clearProperties ()
+    {
+        System.clearProperty ( COMPACT_PROPERTY );
+    }
+
+    @Test
+    public void testCompact () throws IOException, ClassNotFoundException
+    {
+        System.setProperty ( COMPACT_PROPERTY, "true" );
+
+        final ArrayList<Object> list = new ArrayList<Object> ();
+        list.add ( null );
+        list.add ( Boolean.TRUE );
+        list.add ( Integer.MIN_VALUE );
+        list.add ( Long.MAX_VALUE );
+        list.add ( -1.5 );
+        list.add ( 'x' );
+        list.add ( new Date () );
+        list.add ( Variant.valueOf ( 42 ) );
+        list.add ( "\u00e4\u00f6\u00fc" );
+
+        final LinkedHashSet<String> set = new LinkedHashSet<String> ();
+        set.add ( "b" );
+        set.add ( "a" );
+
+        final TreeMap<String, Object> data = new TreeMap<String, Object> ();
+        data.put ( "list", list );
+        data.put ( "set", set );
+
+        testSerialize ( data );
+    }
+
+    @Test
+    public void testCompactHeader ()
+    {
+        System.setProperty ( COMPACT_PROPERTY, "true" );
+
+        final DataNode node = new DataNode ( "id", "Hello World" );
+
+        Assert.assertEquals ( 0, node.getData ()[0] );
+    }
+
+    /**
+     * Older versions can't read the compact format, so it must not be
+     * written unless enabled
+     */
+    @Test
+    public void testSerializationByDefault () throws IOException, ClassNotFoundException
+    {
+        final DataNode node = new DataNode ( "id", "Hello World" );
+
+        Assert.assertFalse ( node.getData ()[0] == 0 );
+        Assert.assertEquals ( "Hello World", node.getDataAsObject () );
+    }
+
+    @Test
+    public void testFallback () throws IOException, ClassNotFoundException
+    {
+        final HashMap<String, Object> data = new HashMap<String, Object> ();
+        data.put ( "foo", "bar" );
+        data.put ( "custom", new Custom ( "bar" ) );
+
+        final DataNode node = new DataNode ( "id", data );
+
+        Assert.assertFalse ( node.getData ()[0] == 0 );
+        Assert.assertEquals ( data, node.getDataAsObject () );
+    }
+
+    @Test
+    public void testLegacy () throws IOException, ClassNotFoundException
+    {
+        final HashMap<String, String> data = new HashMap<String, String> ();
+        data.put ( "foo", "bar" );
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+        final ObjectOutputStream os = new ObjectOutputStream ( bos );
+        os.writeObject ( data );
+        os.close ();
+
+        final DataNode node = new DataNode ( "id", bos.toByteArray () );
+
+        Assert.assertEquals ( data, node.getDataAsObject () );
+    }
+
+    @Test
+    public void testDecodeCopy () throws IOException, ClassNotFoundException
+    {
+        final HashMap<String, String> data = new HashMap<String, String> ();
+        data.put ( "foo", "bar" );
+
+        final DataNode node = new DataNode ( "id", data );
+
+        @SuppressWarnings ( "unchecked" )
+        final HashMap<String, String> result1 = (HashMap<String, String>)node.getDataAsObject ();
+        result1.put ( "foo", "baz" );
+
+        final Object result2 = node.getDataAsObject ();
+
+        Assert.assertNotSame ( result1, result2 );
+        Assert.assertEquals ( data, result2 );
+    }
+
+    /**
+     * Corrupt lengths must fail with an exception instead of allocating the
+     * memory they announce
+     */
+    @Test
+    public void testCorruptLength () throws ClassNotFoundException
+    {
+        // the tags for bytes, array list, hash set and hash map
+        for ( final byte tag : new byte[] { 11, 20, 22, 30 } )
+        {
+            final DataNode node = new DataNode ( "id", new byte[] { 0, 1, tag, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x07 } );
+            try
+            {
+                node.getDataAsObject ();
+                Assert.fail ( "Decoding must fail for tag " + tag );
+            }
+            catch ( final IOException e )
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testDataIsCopied ()
+    {
+        final byte[] data = new byte[] { 1, 2, 3 };
+        final DataNode node = new DataNode ( "id", data );
+
+        data[0] = 42;
+        Assert.assertArrayEquals ( new byte[] { 1, 2, 3 }, node.getData () );
+
+        final byte[] result = node.getData ();
+        result[1] = 42;
+        Assert.assertArrayEquals ( new byte[] { 1, 2, 3 }, node.getData () );
+        Assert.assertNotSame ( node.getData (), node.getData () );
+    }
+
+    @Test
+    public void testDataBufferIsReadOnly ()
+    {
+        final DataNode node = DataNode.wrap ( "id", new byte[] { 1, 2, 3 } );
+
+        final ByteBuffer buffer = node.getDataBuffer ();
+        Assert.assertTrue ( buffer.isReadOnly () );
+        Assert.assertFalse ( buffer.hasArray () );
+        Assert.assertEquals ( ByteBuffer.wrap ( new byte[] { 1, 2, 3 } ), buffer );
+
+        try
+        {
+            buffer.put ( 0, (byte)42 );
+            Assert.fail ( "Buffer must be read-only" );
+        }
+        catch ( final ReadOnlyBufferException e )
+        {
+            // expected
+        }
+
+        // each call gets its own position
+        buffer.get ();
+        Assert.assertEquals ( 0, node.getDataBuffer ().position () );
+        Assert.assertArrayEquals ( new byte[] { 1, 2, 3 }, node.getData () );
+
+        Assert.assertNull ( DataNode.wrap ( "id", null ).getDataBuffer () );
+    }
+
+    @Test
+    public void testStreamLength () throws IOException
+    {
+        final byte[] data = new byte[10000];
+        new Random ( 42 ).nextBytes ( data );
+
+        // exact, unknown, too long and too short lengths
+        for ( final int length : new int[] { data.length, -1, data.length * 2, 100, 0 } )
+        {
+            final DataNode node = new DataNode ( "id", new ByteArrayInputStream ( data ), length );
+            Assert.assertArrayEquals ( "Length: " + length, data, node.getData () );
+        }
+
+        Assert.assertArrayEquals ( new byte[0], new DataNode ( "id", new ByteArrayInputStream ( new byte[0] ), 100 ).getData () );
+        Assert.assertNull ( new DataNode ( "id", (InputStream)null, 100 ).getData () );
+    }
+
+    /**
+     * A data node counting how often it reads the Java serialization stream
+     */
+    private static class CountingDataNode extends DataNode
+    {
+        private int reads;
+
+        public CountingDataNode ( final String id, final Serializable data )
+        {
+            super ( id, data );
+        }
+
+        @Override
+        protected Object getDataAsObject ( final ObjectInputStream stream ) throws IOException, ClassNotFoundException
+        {
+            this.reads++;
+            return super.getDataAsObject ( stream );
+        }
+
+        public int getReads ()
+        {
+            return this.reads;
+        }
+    }
+
+    @Test
+    public void testDeserializeOnce () throws IOException, ClassNotFoundException
+    {
+        final HashMap<String, Object> data = new HashMap<String, Object> ();
+        data.put ( "foo", "bar" );
+        data.put ( "list", new ArrayList<String> ( Arrays.asList ( "a", "b" ) ) );
+
+        final CountingDataNode node = new CountingDataNode ( "id", data );
+        final ClassLoader classLoader = getClass ().getClassLoader ();
+
+        @SuppressWarnings ( "unchecked" )
+        final HashMap<String, Object> result1 = (HashMap<String, Object>)node.getDataAsObject ( classLoader );
+        Assert.assertEquals ( data, result1 );
+
+        // listeners get their own copy
+        result1.put ( "foo", "baz" );
+        @SuppressWarnings ( "unchecked" )
+        final List<String> list = (List<String>)result1.get ( "list" );
+        list.add ( "c" );
+
+        final Object result2 = node.getDataAsObject ( classLoader );
+        Assert.assertEquals ( data, result2 );
+        Assert.assertNotSame ( result1, result2 );
+        Assert.assertEquals ( 1, node.getReads () );
+
+        // another class loader may resolve other classes
+        Assert.assertEquals ( data, node.getDataAsObject ( new ClassLoader ( classLoader ) {} ) );
+        Assert.assertEquals ( 2, node.getReads () );
+    }
+
+    @Test
+    public void testDeserializeUnknownTypesAgain () throws IOException, ClassNotFoundException
+    {
+        final CountingDataNode node = new CountingDataNode ( "id", new Custom ( "bar" ) );
+        final ClassLoader classLoader = getClass ().getClassLoader ();
+
+        final Object result1 = node.getDataAsObject ( classLoader );
+        final Object result2 = node.getDataAsObject ( classLoader );
+
+        // there is no way of copying it, so each caller gets a new instance
+        Assert.assertEquals ( result1, result2 );
+        Assert.assertNotSame ( result1, result2 );
+        Assert.assertEquals ( 2, node.getReads () );
+    }
+
+    private static class Custom implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+
+        public Custom ( final String value )
+        {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode ()
+        {
+            return this.value.hashCode ();
+        }
+
+        @Override
+        public boolean equals ( final Object obj )
+        {
+            return obj instanceof Custom && ( (Custom)obj ).value.equals ( this.value );
+        }
+    }
 }
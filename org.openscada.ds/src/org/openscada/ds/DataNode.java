@@ -21,15 +21,21 @@ package org.openscada.ds;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.openscada.ds.internal.ClassLoaderObjectInputStream;
+import org.openscada.ds.internal.CompactCodec;
 import org.openscada.utils.lang.Immutable;
 import org.openscada.utils.osgi.BundleObjectInputStream;
 import org.osgi.framework.Bundle;
@@ -39,6 +45,22 @@ import org.osgi.framework.Bundle;
  * <p>
  * Data nodes are equal by <code>id</code>.
  * </p>
+ * <p>
+ * Objects are stored using the first registered {@link DataNodeCodec} which
+ * can encode them, falling back to Java serialization. The built-in compact
+ * codec handles strings, primitives, variants and the common collections. It
+ * is used for writing if the system property
+ * <code>org.openscada.ds.compactCodec</code> is set to <code>true</code>.
+ * Versions before 1.1.0 cannot read data nodes written that way. Reading the
+ * compact format is always possible.
+ * </p>
+ * <p>
+ * The node keeps the last decoded object, so that following reads only need
+ * to copy it. Objects read by Java serialization are kept per class loader or
+ * bundle, and only if they consist of the types the compact codec can copy.
+ * Other objects are deserialized on each read, since there is no way of
+ * copying them which is cheaper.
+ * </p>
  * 
  * @author Jens Reimann
  * @since 0.15.0
@@ -46,10 +68,70 @@ import org.osgi.framework.Bundle;
 @Immutable
 public class DataNode
 {
+    /**
+     * The first byte of a payload written by a codec, Java serialization
+     * streams never start with it
+     */
+    private static final byte CODEC_MARKER = 0;
+
+    /**
+     * The marker followed by the codec id
+     */
+    private static final int CODEC_HEADER_SIZE = 2;
+
+    private static final DataNodeCodec COMPACT_CODEC = new CompactCodec ();
+
+    private static final String COMPACT_ENCODING_PROPERTY = "org.openscada.ds.compactCodec";
+
+    private static final List<DataNodeCodec> codecs = new CopyOnWriteArrayList<DataNodeCodec> ();
+
+    private static class Decoded
+    {
+        private final DataNodeCodec codec;
+
+        private final Object value;
+
+        public Decoded ( final DataNodeCodec codec, final Object value )
+        {
+            this.codec = codec;
+            this.value = value;
+        }
+    }
+
     private final String id;
 
     private final byte[] data;
 
+    /**
+     * An object read by Java serialization
+     */
+    private static class Deserialized
+    {
+        /**
+         * The class loader or bundle used for resolving classes, weakly
+         * referenced so that a kept node does not keep it alive
+         */
+        private final WeakReference<Object> resolver;
+
+        private final Object value;
+
+        public Deserialized ( final Object resolver, final Object value )
+        {
+            this.resolver = new WeakReference<Object> ( resolver );
+            this.value = value;
+        }
+    }
+
+    /**
+     * The object decoded by a codec
+     */
+    private volatile Decoded decoded;
+
+    /**
+     * The object read by Java serialization
+     */
+    private volatile Deserialized deserialized;
+
     /**
      * Create a new data node and fill with byte buffer
      * <p>
@@ -63,15 +145,7 @@ public class DataNode
      */
     public DataNode ( final String id, final byte[] data )
     {
-        this.id = id;
-        if ( data != null )
-        {
-            this.data = data.clone ();
-        }
-        else
-        {
-            this.data = null;
-        }
+        this ( id, data, true );
     }
 
     /**
@@ -91,6 +165,35 @@ public class DataNode
      *             if stream reading fails
      */
     public DataNode ( final String id, final InputStream stream ) throws IOException
+    {
+        this ( id, stream, -1 );
+    }
+
+    /**
+     * Create a new data node and fill with the input stream
+     * <p>
+     * The input stream is read into the data buffer of the node. If the
+     * length is known the data is read into a buffer of exactly that size,
+     * which is then used by the node without copying it again. If the stream
+     * is a {@link FileInputStream} the length is taken from the file.
+     * </p>
+     * <p>
+     * The stream is not closed by the constructor.
+     * </p>
+     * 
+     * @param id
+     *            the node id
+     * @param stream
+     *            the stream to read from
+     * @param length
+     *            the expected number of bytes or <code>-1</code> if the
+     *            length is not known. The stream is read until its end in
+     *            any case.
+     * @throws IOException
+     *             if stream reading fails
+     * @since 1.1.0
+     */
+    public DataNode ( final String id, final InputStream stream, final int length ) throws IOException
     {
         this.id = id;
 
@@ -100,59 +203,115 @@ public class DataNode
         }
         else
         {
-            this.data = loadFromFile ( stream );
+            this.data = loadFromFile ( stream, length >= 0 ? length : guessLength ( stream ) );
         }
     }
 
-    private byte[] loadFromFile ( final InputStream stream ) throws IOException
+    /**
+     * Create a new data node using the provided array
+     * 
+     * @param copy
+     *            <code>true</code> if the array has to be copied
+     */
+    private DataNode ( final String id, final byte[] data, final boolean copy )
     {
-        int bytes = 0;
-        final List<byte[]> buffers = new LinkedList<byte[]> ();
+        this.id = id;
+        if ( data != null && copy )
+        {
+            this.data = data.clone ();
+        }
+        else
+        {
+            this.data = data;
+        }
+    }
 
-        byte[] buffer = new byte[4096];
-        int i;
-        while ( ( i = stream.read ( buffer ) ) > 0 )
+    /**
+     * Create a new data node which adopts the byte array instead of copying
+     * it
+     * <p>
+     * The caller must not modify the array afterwards.
+     * </p>
+     * 
+     * @param id
+     *            the node id
+     * @param data
+     *            the data
+     * @return the new data node
+     * @since 1.1.0
+     */
+    public static DataNode wrap ( final String id, final byte[] data )
+    {
+        return new DataNode ( id, data, false );
+    }
+
+    private static int guessLength ( final InputStream stream )
+    {
+        if ( ! ( stream instanceof FileInputStream ) )
         {
-            if ( buffer.length != i )
+            return -1;
+        }
+
+        try
+        {
+            final FileChannel channel = ( (FileInputStream)stream ).getChannel ();
+            final long remaining = channel.size () - channel.position ();
+            if ( remaining >= 0 && remaining < Integer.MAX_VALUE )
             {
-                // we have to add a smaller buffer
-                final byte[] newBuffer = new byte[i];
-                System.arraycopy ( buffer, 0, newBuffer, 0, i );
-                buffers.add ( newBuffer );
+                return (int)remaining;
             }
-            else
+        }
+        catch ( final IOException e )
+        {
+            // simply read without knowing the length
+        }
+        return -1;
+    }
+
+    private static byte[] loadFromFile ( final InputStream stream, final int length ) throws IOException
+    {
+        byte[] buffer = new byte[length >= 0 ? length : 4096];
+        int count = 0;
+
+        while ( true )
+        {
+            if ( count == buffer.length )
             {
-                // we can directly add the buffer
-                buffers.add ( buffer );
-                buffer = new byte[4096];
+                // the buffer is full, check if there is more to come
+                final int b = stream.read ();
+                if ( b < 0 )
+                {
+                    break;
+                }
+                buffer = Arrays.copyOf ( buffer, Math.max ( 4096, buffer.length * 2 ) );
+                buffer[count++] = (byte)b;
             }
 
-            // record the number of bytes
-            bytes += i;
+            final int i = stream.read ( buffer, count, buffer.length - count );
+            if ( i < 0 )
+            {
+                break;
+            }
+            count += i;
         }
 
-        // if we only have one buffer
-        if ( buffers.size () == 1 )
+        if ( count == buffer.length )
         {
-            // we can simply use it
-            return buffers.get ( 0 );
+            // the expected length was correct
+            return buffer;
         }
         else
         {
-            // we have to merge data 
-            final byte[] data = new byte[bytes];
-            int currentBytes = 0;
-            for ( final byte[] cb : buffers )
-            {
-                System.arraycopy ( cb, 0, this.data, currentBytes, cb.length );
-                currentBytes += cb.length;
-            }
-            return data;
+            return Arrays.copyOf ( buffer, count );
         }
     }
 
     /**
      * Create a new data node and fill it with the serialized representation of the data object provided.
+     * <p>
+     * The data is encoded by the first registered codec which can handle it,
+     * otherwise Java serialization is used.
+     * </p>
      * 
      * @param id
      *            the node id
@@ -172,9 +331,19 @@ public class DataNode
             final ByteArrayOutputStream bos = new ByteArrayOutputStream ();
             try
             {
-                final ObjectOutputStream os = new ObjectOutputStream ( bos );
-                os.writeObject ( data );
-                os.close ();
+                final DataNodeCodec codec = findEncoder ( data );
+                if ( codec != null )
+                {
+                    bos.write ( CODEC_MARKER );
+                    bos.write ( codec.getId () );
+                    codec.encode ( data, bos );
+                }
+                else
+                {
+                    final ObjectOutputStream os = new ObjectOutputStream ( bos );
+                    os.writeObject ( data );
+                    os.close ();
+                }
                 this.data = bos.toByteArray ();
             }
             catch ( final IOException e )
@@ -184,6 +353,112 @@ public class DataNode
         }
     }
 
+    /**
+     * Register a codec
+     * <p>
+     * Registered codecs are tried in the order of registration, before the
+     * built-in compact codec.
+     * </p>
+     * 
+     * @param codec
+     *            the codec to register
+     * @throws IllegalArgumentException
+     *             if the id of the codec is invalid or already in use
+     * @since 1.1.0
+     */
+    public static void registerCodec ( final DataNodeCodec codec )
+    {
+        final byte codecId = codec.getId ();
+        if ( codecId == CODEC_MARKER || codecId == COMPACT_CODEC.getId () )
+        {
+            throw new IllegalArgumentException ( String.format ( "Codec id %s is reserved", codecId ) );
+        }
+
+        synchronized ( codecs )
+        {
+            if ( findCodec ( codecId ) != null )
+            {
+                throw new IllegalArgumentException ( String.format ( "Codec id %s is already registered", codecId ) );
+            }
+            codecs.add ( codec );
+        }
+    }
+
+    /**
+     * Unregister a codec
+     * <p>
+     * Data nodes using this codec can no longer be decoded.
+     * </p>
+     * 
+     * @since 1.1.0
+     */
+    public static void unregisterCodec ( final DataNodeCodec codec )
+    {
+        codecs.remove ( codec );
+    }
+
+    private static DataNodeCodec findEncoder ( final Object data )
+    {
+        for ( final DataNodeCodec codec : codecs )
+        {
+            if ( codec.canEncode ( data ) )
+            {
+                return codec;
+            }
+        }
+        if ( Boolean.getBoolean ( COMPACT_ENCODING_PROPERTY ) && COMPACT_CODEC.canEncode ( data ) )
+        {
+            return COMPACT_CODEC;
+        }
+        return null;
+    }
+
+    private static DataNodeCodec findCodec ( final byte codecId )
+    {
+        if ( codecId == COMPACT_CODEC.getId () )
+        {
+            return COMPACT_CODEC;
+        }
+        for ( final DataNodeCodec codec : codecs )
+        {
+            if ( codec.getId () == codecId )
+            {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    private boolean isEncodedByCodec ()
+    {
+        return this.data.length >= CODEC_HEADER_SIZE && this.data[0] == CODEC_MARKER;
+    }
+
+    /**
+     * Decode the payload using its codec
+     * <p>
+     * The decoded object is kept, so that following calls only need to copy
+     * it.
+     * </p>
+     */
+    private Object decode () throws IOException
+    {
+        final DataNodeCodec codec = findCodec ( this.data[1] );
+        if ( codec == null )
+        {
+            throw new IOException ( String.format ( "Unknown codec: %s", this.data[1] ) );
+        }
+
+        Decoded decoded = this.decoded;
+        if ( decoded == null || decoded.codec != codec )
+        {
+            decoded = new Decoded ( codec, codec.decode ( new ByteArrayInputStream ( this.data, CODEC_HEADER_SIZE, this.data.length - CODEC_HEADER_SIZE ) ) );
+            this.decoded = decoded;
+        }
+
+        return codec.copy ( decoded.value );
+    }
+
     public String getId ()
     {
         return this.id;
@@ -192,11 +467,47 @@ public class DataNode
     /**
      * Get a copy of the data
      * 
-     * @return the binary node data
+     * @return the binary node data or <code>null</code> if the node has no
+     *         data
      */
     public byte[] getData ()
     {
-        return this.data.clone ();
+        return this.data != null ? this.data.clone () : null;
+    }
+
+    /**
+     * Get a read-only view of the data without copying it
+     * 
+     * @return the binary node data or <code>null</code> if the node has no
+     *         data
+     * @since 1.1.0
+     */
+    public ByteBuffer getDataBuffer ()
+    {
+        return this.data != null ? ByteBuffer.wrap ( this.data ).asReadOnlyBuffer () : null;
+    }
+
+    /**
+     * Get a stream reading the data without copying it
+     * 
+     * @return a new stream of the binary node data or <code>null</code> if
+     *         the node has no data
+     * @since 1.1.0
+     */
+    public InputStream getDataStream ()
+    {
+        return this.data != null ? new ByteArrayInputStream ( this.data ) : null;
+    }
+
+    /**
+     * Get the length of the data
+     * 
+     * @return the number of bytes or <code>-1</code> if the node has no data
+     * @since 1.1.0
+     */
+    public int getDataLength ()
+    {
+        return this.data != null ? this.data.length : -1;
     }
 
     public Object getDataAsObject () throws IOException, ClassNotFoundException
@@ -223,18 +534,34 @@ public class DataNode
         }
     }
 
+    /**
+     * Get the data as object
+     * <p>
+     * If the data was encoded by a codec the class loader is not used.
+     * </p>
+     */
     public Object getDataAsObject ( final ClassLoader classLoader ) throws IOException, ClassNotFoundException
     {
         if ( this.data == null )
         {
             return null;
         }
+        else if ( isEncodedByCodec () )
+        {
+            return decode ();
+        }
         else
         {
+            final Object result = getDeserialized ( classLoader );
+            if ( result != null )
+            {
+                return result;
+            }
+
             final ByteArrayInputStream bin = new ByteArrayInputStream ( this.data );
             final ObjectInputStream ois = new ClassLoaderObjectInputStream ( bin, classLoader );
 
-            return getDataAsObject ( ois );
+            return keepDeserialized ( classLoader, getDataAsObject ( ois ) );
         }
     }
 
@@ -244,13 +571,56 @@ public class DataNode
         {
             return null;
         }
+        else if ( isEncodedByCodec () )
+        {
+            return decode ();
+        }
         else
         {
+            final Object result = getDeserialized ( bundle );
+            if ( result != null )
+            {
+                return result;
+            }
+
             final ByteArrayInputStream bin = new ByteArrayInputStream ( this.data );
             final ObjectInputStream ois = new BundleObjectInputStream ( bin, bundle );
 
-            return getDataAsObject ( ois );
+            return keepDeserialized ( bundle, getDataAsObject ( ois ) );
+        }
+    }
+
+    /**
+     * Get a copy of the object which was deserialized before
+     * 
+     * @param resolver
+     *            the class loader or bundle used for resolving classes
+     * @return the copy or <code>null</code> if the object was not kept for
+     *         this resolver
+     */
+    private Object getDeserialized ( final Object resolver )
+    {
+        final Deserialized deserialized = this.deserialized;
+        if ( deserialized == null || deserialized.resolver.get () != resolver )
+        {
+            return null;
+        }
+        return COMPACT_CODEC.copy ( deserialized.value );
+    }
+
+    /**
+     * Keep a deserialized object if it can be copied
+     * 
+     * @return the object to hand out, a copy if the object is kept
+     */
+    private Object keepDeserialized ( final Object resolver, final Object value )
+    {
+        if ( value == null || !COMPACT_CODEC.canEncode ( value ) )
+        {
+            return value;
         }
+        this.deserialized = new Deserialized ( resolver, value );
+        return COMPACT_CODEC.copy ( value );
     }
 
     public Object getDataAsObject ( final Object defaultValue )
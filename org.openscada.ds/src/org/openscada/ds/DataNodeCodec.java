@@ -0,0 +1,71 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A codec converting objects to the payload of a {@link DataNode}
+ * <p>
+ * Codecs get registered using {@link DataNode#registerCodec(DataNodeCodec)}.
+ * When a data node is created from an object the first registered codec
+ * which can encode the object is used. Objects which no codec can handle
+ * are stored using Java serialization.
+ * </p>
+ * <p>
+ * The payload starts with a header containing the codec id, so that reading
+ * a node picks the same codec again. The decoded object of a data node is
+ * kept by the node, callers get a copy created by {@link #copy(Object)}.
+ * </p>
+ * 
+ * @since 1.1.0
+ */
+public interface DataNodeCodec
+{
+    /**
+     * The id of the codec in the payload header
+     * 
+     * @return the id, must not be zero
+     */
+    public byte getId ();
+
+    /**
+     * Check if the object can be encoded by this codec
+     * <p>
+     * Decoding must result in an object equal to the encoded one and of the
+     * same class.
+     * </p>
+     */
+    public boolean canEncode ( Object data );
+
+    public void encode ( Object data, OutputStream stream ) throws IOException;
+
+    public Object decode ( InputStream stream ) throws IOException;
+
+    /**
+     * Copy a decoded object
+     * 
+     * @return a copy which the caller may modify, immutable objects may be
+     *         returned as is
+     */
+    public Object copy ( Object data );
+}
@@ -19,6 +19,9 @@
 
 package org.openscada.ds;
 
+import java.util.Collection;
+import java.util.Map;
+
 import org.openscada.utils.concurrent.NotifyFuture;
 
 /**
@@ -56,4 +59,23 @@ public interface DataStore
      * return <code>null</code> if the node does not exists.
      */
     public NotifyFuture<DataNode> readNode ( String nodeId );
+
+    /**
+     * Get a number of data nodes at once
+     * @param nodeIds the ids of the nodes to get
+     * @return the future to the read request. The future will
+     * return a map of node id to data node. Nodes which do not exist
+     * are not contained.
+     * @since 1.1.0
+     */
+    public NotifyFuture<Map<String, DataNode>> readNodes ( Collection<String> nodeIds );
+
+    /**
+     * Get all data nodes with an id starting with the provided prefix
+     * @param prefix the prefix of the node ids, an empty prefix selects all nodes
+     * @return the future to the read request. The future will
+     * return a map of node id to data node.
+     * @since 1.1.0
+     */
+    public NotifyFuture<Map<String, DataNode>> readNodesByPrefix ( String prefix );
 }
@@ -0,0 +1,628 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.openscada.ds.DataNodeCodec;
+
+/**
+ * A compact tagged binary codec for common types
+ * <p>
+ * Handles <code>null</code>, strings, boxed primitives, byte arrays, dates,
+ * variants and the common list, set and map implementations of these. Sorted
+ * collections are only handled if they use the natural order. Each value is
+ * written as a one byte tag followed by the value, lengths and integers use a
+ * variable length encoding.
+ * </p>
+ * <p>
+ * Variants are only supported if <code>org.openscada.core</code> is
+ * available, all access to them goes through {@link VariantSupport}.
+ * </p>
+ */
+public class CompactCodec implements DataNodeCodec
+{
+    public static final byte ID = 1;
+
+    /**
+     * The maximum nesting depth, also protects against self containing
+     * collections
+     */
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * The maximum number of elements or bytes allocated up front for a length
+     * read from the data, so that a corrupt length fails with an
+     * {@link IOException} instead of exhausting the memory
+     */
+    private static final int MAX_INITIAL_SIZE = 1024;
+
+    /**
+     * The size of the chunks in which larger byte arrays are read
+     */
+    private static final int BYTES_CHUNK_SIZE = 64 * 1024;
+
+    private static final Charset UTF8 = Charset.forName ( "UTF-8" );
+
+    private static final boolean VARIANT_SUPPORT = isVariantAvailable ();
+
+    private static final byte TAG_NULL = 0;
+
+    private static final byte TAG_TRUE = 1;
+
+    private static final byte TAG_FALSE = 2;
+
+    private static final byte TAG_BYTE = 3;
+
+    private static final byte TAG_SHORT = 4;
+
+    private static final byte TAG_INTEGER = 5;
+
+    private static final byte TAG_LONG = 6;
+
+    private static final byte TAG_FLOAT = 7;
+
+    private static final byte TAG_DOUBLE = 8;
+
+    private static final byte TAG_CHARACTER = 9;
+
+    private static final byte TAG_STRING = 10;
+
+    private static final byte TAG_BYTES = 11;
+
+    private static final byte TAG_DATE = 12;
+
+    private static final byte TAG_VARIANT = 13;
+
+    private static final byte TAG_ARRAY_LIST = 20;
+
+    private static final byte TAG_LINKED_LIST = 21;
+
+    private static final byte TAG_HASH_SET = 22;
+
+    private static final byte TAG_LINKED_HASH_SET = 23;
+
+    private static final byte TAG_TREE_SET = 24;
+
+    private static final byte TAG_HASH_MAP = 30;
+
+    private static final byte TAG_LINKED_HASH_MAP = 31;
+
+    private static final byte TAG_TREE_MAP = 32;
+
+    private static boolean isVariantAvailable ()
+    {
+        try
+        {
+            Class.forName ( "org.openscada.core.Variant", false, CompactCodec.class.getClassLoader () );
+            return true;
+        }
+        catch ( final ClassNotFoundException e )
+        {
+            return false;
+        }
+        catch ( final LinkageError e )
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public byte getId ()
+    {
+        return ID;
+    }
+
+    @Override
+    public boolean canEncode ( final Object data )
+    {
+        return canEncode ( data, 0 );
+    }
+
+    private boolean canEncode ( final Object data, final int depth )
+    {
+        if ( depth > MAX_DEPTH )
+        {
+            return false;
+        }
+
+        if ( data == null )
+        {
+            return true;
+        }
+
+        final Class<?> clazz = data.getClass ();
+        if ( clazz == String.class || clazz == Boolean.class || clazz == Integer.class || clazz == Long.class || clazz == Double.class || clazz == Float.class || clazz == Short.class || clazz == Byte.class || clazz == Character.class || clazz == byte[].class || clazz == Date.class )
+        {
+            return true;
+        }
+        if ( VARIANT_SUPPORT && VariantSupport.isVariant ( data ) )
+        {
+            return VariantSupport.canEncode ( data );
+        }
+        if ( clazz == ArrayList.class || clazz == LinkedList.class || clazz == HashSet.class || clazz == LinkedHashSet.class || clazz == TreeSet.class )
+        {
+            if ( clazz == TreeSet.class && ( (TreeSet<?>)data ).comparator () != null )
+            {
+                return false;
+            }
+            for ( final Object item : (Collection<?>)data )
+            {
+                if ( !canEncode ( item, depth + 1 ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if ( clazz == HashMap.class || clazz == LinkedHashMap.class || clazz == TreeMap.class )
+        {
+            if ( clazz == TreeMap.class && ( (TreeMap<?, ?>)data ).comparator () != null )
+            {
+                return false;
+            }
+            for ( final Map.Entry<?, ?> entry : ( (Map<?, ?>)data ).entrySet () )
+            {
+                if ( !canEncode ( entry.getKey (), depth + 1 ) || !canEncode ( entry.getValue (), depth + 1 ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void encode ( final Object data, final OutputStream stream ) throws IOException
+    {
+        final DataOutputStream out = new DataOutputStream ( stream );
+        write ( out, data );
+        out.flush ();
+    }
+
+    private void write ( final DataOutputStream out, final Object data ) throws IOException
+    {
+        if ( data == null )
+        {
+            out.writeByte ( TAG_NULL );
+            return;
+        }
+
+        final Class<?> clazz = data.getClass ();
+        if ( clazz == String.class )
+        {
+            out.writeByte ( TAG_STRING );
+            writeString ( out, (String)data );
+        }
+        else if ( clazz == Boolean.class )
+        {
+            out.writeByte ( (Boolean)data ? TAG_TRUE : TAG_FALSE );
+        }
+        else if ( clazz == Integer.class )
+        {
+            out.writeByte ( TAG_INTEGER );
+            writeVarLong ( out, (Integer)data );
+        }
+        else if ( clazz == Long.class )
+        {
+            out.writeByte ( TAG_LONG );
+            writeVarLong ( out, (Long)data );
+        }
+        else if ( clazz == Double.class )
+        {
+            out.writeByte ( TAG_DOUBLE );
+            out.writeDouble ( (Double)data );
+        }
+        else if ( clazz == Float.class )
+        {
+            out.writeByte ( TAG_FLOAT );
+            out.writeFloat ( (Float)data );
+        }
+        else if ( clazz == Short.class )
+        {
+            out.writeByte ( TAG_SHORT );
+            out.writeShort ( (Short)data );
+        }
+        else if ( clazz == Byte.class )
+        {
+            out.writeByte ( TAG_BYTE );
+            out.writeByte ( (Byte)data );
+        }
+        else if ( clazz == Character.class )
+        {
+            out.writeByte ( TAG_CHARACTER );
+            out.writeChar ( (Character)data );
+        }
+        else if ( clazz == byte[].class )
+        {
+            final byte[] bytes = (byte[])data;
+            out.writeByte ( TAG_BYTES );
+            writeLength ( out, bytes.length );
+            out.write ( bytes );
+        }
+        else if ( clazz == Date.class )
+        {
+            out.writeByte ( TAG_DATE );
+            out.writeLong ( ( (Date)data ).getTime () );
+        }
+        else if ( VARIANT_SUPPORT && VariantSupport.isVariant ( data ) )
+        {
+            out.writeByte ( TAG_VARIANT );
+            write ( out, VariantSupport.getValue ( data ) );
+        }
+        else if ( clazz == ArrayList.class )
+        {
+            writeCollection ( out, TAG_ARRAY_LIST, (Collection<?>)data );
+        }
+        else if ( clazz == LinkedList.class )
+        {
+            writeCollection ( out, TAG_LINKED_LIST, (Collection<?>)data );
+        }
+        else if ( clazz == HashSet.class )
+        {
+            writeCollection ( out, TAG_HASH_SET, (Collection<?>)data );
+        }
+        else if ( clazz == LinkedHashSet.class )
+        {
+            writeCollection ( out, TAG_LINKED_HASH_SET, (Collection<?>)data );
+        }
+        else if ( clazz == TreeSet.class )
+        {
+            writeCollection ( out, TAG_TREE_SET, (Collection<?>)data );
+        }
+        else if ( clazz == HashMap.class )
+        {
+            writeMap ( out, TAG_HASH_MAP, (Map<?, ?>)data );
+        }
+        else if ( clazz == LinkedHashMap.class )
+        {
+            writeMap ( out, TAG_LINKED_HASH_MAP, (Map<?, ?>)data );
+        }
+        else if ( clazz == TreeMap.class )
+        {
+            writeMap ( out, TAG_TREE_MAP, (Map<?, ?>)data );
+        }
+        else
+        {
+            throw new IOException ( String.format ( "Unsupported type: %s", clazz.getName () ) );
+        }
+    }
+
+    private void writeCollection ( final DataOutputStream out, final byte tag, final Collection<?> data ) throws IOException
+    {
+        out.writeByte ( tag );
+        writeLength ( out, data.size () );
+        for ( final Object item : data )
+        {
+            write ( out, item );
+        }
+    }
+
+    private void writeMap ( final DataOutputStream out, final byte tag, final Map<?, ?> data ) throws IOException
+    {
+        out.writeByte ( tag );
+        writeLength ( out, data.size () );
+        for ( final Map.Entry<?, ?> entry : data.entrySet () )
+        {
+            write ( out, entry.getKey () );
+            write ( out, entry.getValue () );
+        }
+    }
+
+    private static void writeString ( final DataOutputStream out, final String data ) throws IOException
+    {
+        final byte[] bytes = data.getBytes ( UTF8 );
+        writeLength ( out, bytes.length );
+        out.write ( bytes );
+    }
+
+    private static void writeLength ( final DataOutputStream out, final int length ) throws IOException
+    {
+        int value = length;
+        while ( ( value & ~0x7F ) != 0 )
+        {
+            out.writeByte ( value & 0x7F | 0x80 );
+            value >>>= 7;
+        }
+        out.writeByte ( value );
+    }
+
+    /**
+     * Write a zig-zag encoded variable length value, so that small negative
+     * values are short as well
+     */
+    private static void writeVarLong ( final DataOutputStream out, final long value ) throws IOException
+    {
+        long v = value << 1 ^ value >> 63;
+        while ( ( v & ~0x7FL ) != 0 )
+        {
+            out.writeByte ( (int) ( v & 0x7F | 0x80 ) );
+            v >>>= 7;
+        }
+        out.writeByte ( (int)v );
+    }
+
+    @Override
+    public Object decode ( final InputStream stream ) throws IOException
+    {
+        return read ( new DataInputStream ( stream ), 0 );
+    }
+
+    private Object read ( final DataInputStream in, final int depth ) throws IOException
+    {
+        if ( depth > MAX_DEPTH )
+        {
+            throw new IOException ( "Data nested too deep" );
+        }
+
+        final byte tag = in.readByte ();
+        switch ( tag )
+        {
+            case TAG_NULL:
+                return null;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_BYTE:
+                return in.readByte ();
+            case TAG_SHORT:
+                return in.readShort ();
+            case TAG_INTEGER:
+                return (int)readVarLong ( in );
+            case TAG_LONG:
+                return readVarLong ( in );
+            case TAG_FLOAT:
+                return in.readFloat ();
+            case TAG_DOUBLE:
+                return in.readDouble ();
+            case TAG_CHARACTER:
+                return in.readChar ();
+            case TAG_STRING:
+                return new String ( readBytes ( in ), UTF8 );
+            case TAG_BYTES:
+                return readBytes ( in );
+            case TAG_DATE:
+                return new Date ( in.readLong () );
+            case TAG_VARIANT:
+                if ( !VARIANT_SUPPORT )
+                {
+                    throw new IOException ( "Unable to decode variant, org.openscada.core is not available" );
+                }
+                return VariantSupport.valueOf ( read ( in, depth + 1 ) );
+            case TAG_ARRAY_LIST:
+            {
+                final int size = readLength ( in );
+                return readCollection ( in, new ArrayList<Object> ( initialSize ( size ) ), size, depth );
+            }
+            case TAG_LINKED_LIST:
+                return readCollection ( in, new LinkedList<Object> (), readLength ( in ), depth );
+            case TAG_HASH_SET:
+            {
+                final int size = readLength ( in );
+                return readCollection ( in, new HashSet<Object> ( capacity ( initialSize ( size ) ) ), size, depth );
+            }
+            case TAG_LINKED_HASH_SET:
+            {
+                final int size = readLength ( in );
+                return readCollection ( in, new LinkedHashSet<Object> ( capacity ( initialSize ( size ) ) ), size, depth );
+            }
+            case TAG_TREE_SET:
+                return readCollection ( in, new TreeSet<Object> (), readLength ( in ), depth );
+            case TAG_HASH_MAP:
+            {
+                final int size = readLength ( in );
+                return readMap ( in, new HashMap<Object, Object> ( capacity ( initialSize ( size ) ) ), size, depth );
+            }
+            case TAG_LINKED_HASH_MAP:
+            {
+                final int size = readLength ( in );
+                return readMap ( in, new LinkedHashMap<Object, Object> ( capacity ( initialSize ( size ) ) ), size, depth );
+            }
+            case TAG_TREE_MAP:
+                return readMap ( in, new TreeMap<Object, Object> (), readLength ( in ), depth );
+            default:
+                throw new IOException ( String.format ( "Unknown tag: %s", tag ) );
+        }
+    }
+
+    private Collection<Object> readCollection ( final DataInputStream in, final Collection<Object> result, final int size, final int depth ) throws IOException
+    {
+        for ( int i = 0; i < size; i++ )
+        {
+            result.add ( read ( in, depth + 1 ) );
+        }
+        return result;
+    }
+
+    private Map<Object, Object> readMap ( final DataInputStream in, final Map<Object, Object> result, final int size, final int depth ) throws IOException
+    {
+        for ( int i = 0; i < size; i++ )
+        {
+            final Object key = read ( in, depth + 1 );
+            result.put ( key, read ( in, depth + 1 ) );
+        }
+        return result;
+    }
+
+    /**
+     * Read a length prefixed byte array
+     * <p>
+     * Larger arrays are read in chunks, so that a corrupt length only
+     * allocates as much memory as there is data.
+     * </p>
+     */
+    private static byte[] readBytes ( final DataInputStream in ) throws IOException
+    {
+        final int length = readLength ( in );
+        if ( length <= BYTES_CHUNK_SIZE )
+        {
+            final byte[] result = new byte[length];
+            in.readFully ( result );
+            return result;
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream ( BYTES_CHUNK_SIZE );
+        final byte[] buffer = new byte[BYTES_CHUNK_SIZE];
+        int remaining = length;
+        while ( remaining > 0 )
+        {
+            final int chunk = Math.min ( remaining, buffer.length );
+            in.readFully ( buffer, 0, chunk );
+            out.write ( buffer, 0, chunk );
+            remaining -= chunk;
+        }
+        return out.toByteArray ();
+    }
+
+    private static int readLength ( final DataInputStream in ) throws IOException
+    {
+        int result = 0;
+        for ( int shift = 0; shift < 32; shift += 7 )
+        {
+            final int b = in.readUnsignedByte ();
+            result |= ( b & 0x7F ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                if ( result < 0 )
+                {
+                    throw new IOException ( String.format ( "Invalid length: %s", result ) );
+                }
+                return result;
+            }
+        }
+        throw new IOException ( "Malformed length" );
+    }
+
+    private static long readVarLong ( final DataInputStream in ) throws IOException
+    {
+        long result = 0;
+        for ( int shift = 0; shift < 64; shift += 7 )
+        {
+            final int b = in.readUnsignedByte ();
+            result |= (long) ( b & 0x7F ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return result >>> 1 ^ - ( result & 1 );
+            }
+        }
+        throw new IOException ( "Malformed number" );
+    }
+
+    private static int initialSize ( final int size )
+    {
+        return Math.min ( size, MAX_INITIAL_SIZE );
+    }
+
+    private static int capacity ( final int size )
+    {
+        return Math.max ( 16, (int) ( size / 0.75f ) + 1 );
+    }
+
+    @Override
+    public Object copy ( final Object data )
+    {
+        if ( data == null )
+        {
+            return null;
+        }
+
+        final Class<?> clazz = data.getClass ();
+        if ( clazz == byte[].class )
+        {
+            return ( (byte[])data ).clone ();
+        }
+        if ( clazz == Date.class )
+        {
+            return new Date ( ( (Date)data ).getTime () );
+        }
+        if ( clazz == ArrayList.class )
+        {
+            return copyCollection ( (Collection<?>)data, new ArrayList<Object> ( ( (Collection<?>)data ).size () ) );
+        }
+        if ( clazz == LinkedList.class )
+        {
+            return copyCollection ( (Collection<?>)data, new LinkedList<Object> () );
+        }
+        if ( clazz == HashSet.class )
+        {
+            return copyCollection ( (Collection<?>)data, new HashSet<Object> ( capacity ( ( (Collection<?>)data ).size () ) ) );
+        }
+        if ( clazz == LinkedHashSet.class )
+        {
+            return copyCollection ( (Collection<?>)data, new LinkedHashSet<Object> ( capacity ( ( (Collection<?>)data ).size () ) ) );
+        }
+        if ( clazz == TreeSet.class )
+        {
+            return copyCollection ( (Collection<?>)data, new TreeSet<Object> () );
+        }
+        if ( clazz == HashMap.class )
+        {
+            return copyMap ( (Map<?, ?>)data, new HashMap<Object, Object> ( capacity ( ( (Map<?, ?>)data ).size () ) ) );
+        }
+        if ( clazz == LinkedHashMap.class )
+        {
+            return copyMap ( (Map<?, ?>)data, new LinkedHashMap<Object, Object> ( capacity ( ( (Map<?, ?>)data ).size () ) ) );
+        }
+        if ( clazz == TreeMap.class )
+        {
+            return copyMap ( (Map<?, ?>)data, new TreeMap<Object, Object> () );
+        }
+
+        // all others are immutable
+        return data;
+    }
+
+    private Collection<Object> copyCollection ( final Collection<?> data, final Collection<Object> result )
+    {
+        for ( final Object item : data )
+        {
+            result.add ( copy ( item ) );
+        }
+        return result;
+    }
+
+    private Map<Object, Object> copyMap ( final Map<?, ?> data, final Map<Object, Object> result )
+    {
+        for ( final Map.Entry<?, ?> entry : data.entrySet () )
+        {
+            result.put ( copy ( entry.getKey () ), copy ( entry.getValue () ) );
+        }
+        return result;
+    }
+}
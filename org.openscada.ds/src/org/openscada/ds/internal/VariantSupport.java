@@ -0,0 +1,58 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.ds.internal;
+
+import org.openscada.core.Variant;
+import org.openscada.core.VariantType;
+
+/**
+ * Access to {@link Variant} for the {@link CompactCodec}
+ * <p>
+ * The import of <code>org.openscada.core</code> is optional. So this class
+ * must only be used if {@link CompactCodec} found the variant class, other
+ * classes of the bundle must not reference it directly.
+ * </p>
+ */
+final class VariantSupport
+{
+    private VariantSupport ()
+    {
+    }
+
+    public static boolean isVariant ( final Object data )
+    {
+        return data.getClass () == Variant.class;
+    }
+
+    public static boolean canEncode ( final Object data )
+    {
+        return ( (Variant)data ).getType () != VariantType.UNKNOWN;
+    }
+
+    public static Object getValue ( final Object data )
+    {
+        return ( (Variant)data ).getValue ();
+    }
+
+    public static Object valueOf ( final Object value )
+    {
+        return Variant.valueOf ( value );
+    }
+}
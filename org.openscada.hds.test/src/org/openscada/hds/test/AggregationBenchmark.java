@@ -0,0 +1,140 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2011 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds.test;
+
+import java.io.File;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openscada.hds.AggregationFunction;
+import org.openscada.hds.Aggregator;
+import org.openscada.hds.Bucket;
+import org.openscada.hds.BucketVisitor;
+import org.openscada.hds.BulkValueVisitor;
+import org.openscada.hds.DataFilePool;
+import org.openscada.hds.DataStoreAccesor;
+import org.openscada.hds.ValueVisitor;
+
+/**
+ * Compare visiting raw values with aggregating them into buckets
+ * <p>
+ * Fills a store with one day of 1 Hz data and then reads it back using a
+ * value visitor, a bulk value visitor and the aggregation.
+ * </p>
+ */
+public class AggregationBenchmark
+{
+    private static final int ITERATIONS = 20;
+
+    private static final int WARMUP = 5;
+
+    public static void main ( final String[] args ) throws Exception
+    {
+        final File base = new File ( "base", "benchmark" );
+
+        FileUtils.deleteDirectory ( base.getParentFile () );
+        base.getParentFile ().mkdirs ();
+
+        final DataFilePool pool = new DataFilePool ( 100 );
+        final DataStoreAccesor store = DataStoreAccesor.create ( base, 1, TimeUnit.HOURS, 24 * 2, pool );
+
+        final long now = System.currentTimeMillis ();
+        final Date start = new Date ( now - TimeUnit.DAYS.toMillis ( 1 ) );
+        final Date end = new Date ( now );
+
+        System.out.println ( "Filling store" );
+        for ( long t = start.getTime (); t < end.getTime (); t += 1000 )
+        {
+            store.insertValue ( Math.sin ( t / 60000.0 ), new Date ( t ), false, false );
+        }
+
+        final long[] counter = new long[1];
+
+        final ValueVisitor rawVisitor = new ValueVisitor () {
+
+            @Override
+            public boolean value ( final double value, final Date date, final boolean error, final boolean manual )
+            {
+                counter[0]++;
+                return true;
+            }
+        };
+
+        final BulkValueVisitor bulkVisitor = new BulkValueVisitor () {
+
+            @Override
+            public boolean values ( final double[] values, final long[] timestamps, final byte[] flags, final int offset, final int length )
+            {
+                counter[0] += length;
+                return true;
+            }
+        };
+
+        final BucketVisitor bucketVisitor = new BucketVisitor () {
+
+            @Override
+            public boolean bucket ( final Bucket bucket )
+            {
+                counter[0]++;
+                return true;
+            }
+        };
+
+        final Aggregator aggregator = new Aggregator ( store );
+
+        // one bucket per pixel of a 1000 pixel wide chart
+        final long width = ( end.getTime () - start.getTime () ) / 1000;
+
+        for ( int i = 0; i < WARMUP + ITERATIONS; i++ )
+        {
+            if ( i == WARMUP )
+            {
+                System.out.println ( "Starting measurement" );
+            }
+
+            counter[0] = 0;
+            long tix = System.nanoTime ();
+            store.visit ( rawVisitor, start, end );
+            final long raw = System.nanoTime () - tix;
+            final long rawCount = counter[0];
+
+            counter[0] = 0;
+            tix = System.nanoTime ();
+            store.visit ( bulkVisitor, start, end );
+            final long bulk = System.nanoTime () - tix;
+
+            counter[0] = 0;
+            tix = System.nanoTime ();
+            aggregator.aggregate ( start, end, width, EnumSet.allOf ( AggregationFunction.class ), bucketVisitor );
+            final long aggregated = System.nanoTime () - tix;
+            final long bucketCount = counter[0];
+
+            if ( i >= WARMUP )
+            {
+                System.out.println ( String.format ( "Raw: %s values in %.2f ms, Bulk: %.2f ms, Aggregated: %s buckets in %.2f ms", rawCount, raw / 1000000.0, bulk / 1000000.0, bucketCount, aggregated / 1000000.0 ) );
+            }
+        }
+
+        store.dispose ();
+        pool.dispose ();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.hds.AggregationFunction;
+import org.openscada.hds.Aggregator;
+import org.openscada.hds.Bucket;
+import org.openscada.hds.BucketVisitor;
+import org.openscada.hds.DataFilePool;
+import org.openscada.hds.DataStoreAccesor;
+
+/**
+ * Aggregate values of a store with slices of one minute
+ * <p>
+ * The values form the following steps, relative to the start of a slice:
+ * </p>
+ * <ul>
+ * <li>-20s: 10</li>
+ * <li>10s: 20</li>
+ * <li>30s: 30, error</li>
+ * <li>45s: 40, manual</li>
+ * <li>70s: 50</li>
+ * <li>90s: 55, a late value deleting the values at 100s and 130s</li>
+ * <li>150s: 80</li>
+ * </ul>
+ * <p>
+ * Heartbeats are inserted at 15s and 95s.
+ * </p>
+ */
+public class AggregationTest
+{
+    private static final long SECOND = 1000;
+
+    private static final long SLICE = 60 * SECOND;
+
+    private static final Set<AggregationFunction> FUNCTIONS = EnumSet.allOf ( AggregationFunction.class );
+
+    private File base;
+
+    private DataFilePool pool;
+
+    private DataStoreAccesor store;
+
+    private long start;
+
+    @Before
+    public void setup () throws Exception
+    {
+        this.base = new File ( "base", "aggregation" );
+
+        FileUtils.deleteDirectory ( this.base );
+        this.base.getParentFile ().mkdirs ();
+
+        this.pool = new DataFilePool ( 10 );
+        this.store = DataStoreAccesor.create ( this.base, 1, TimeUnit.MINUTES, 60, this.pool );
+
+        this.start = ( System.currentTimeMillis () - 30 * SLICE ) / SLICE * SLICE;
+
+        insert ( -20, 10.0, false, false );
+        insert ( 10, 20.0, false, false );
+        this.store.insertHeartbeat ( new Date ( this.start + 15 * SECOND ) );
+        insert ( 30, 30.0, true, false );
+        insert ( 45, 40.0, false, true );
+        insert ( 70, 50.0, false, false );
+        insert ( 100, 60.0, false, false );
+        insert ( 130, 70.0, false, false );
+
+        // deletes the two values after it
+        insert ( 90, 55.0, false, false );
+
+        this.store.insertHeartbeat ( new Date ( this.start + 95 * SECOND ) );
+        insert ( 150, 80.0, false, false );
+    }
+
+    @After
+    public void dispose () throws Exception
+    {
+        this.store.dispose ();
+        this.pool.dispose ();
+        FileUtils.deleteDirectory ( this.base );
+    }
+
+    private void insert ( final int seconds, final double value, final boolean error, final boolean manual ) throws Exception
+    {
+        this.store.insertValue ( value, new Date ( this.start + seconds * SECOND ), error, manual );
+    }
+
+    private List<Bucket> aggregate ( final int from, final int to, final int width )
+    {
+        final List<Bucket> result = new ArrayList<Bucket> ();
+        final boolean complete = new Aggregator ( this.store ).aggregate ( new Date ( this.start + from * SECOND ), new Date ( this.start + to * SECOND ), width * SECOND, FUNCTIONS, new BucketVisitor () {
+
+            @Override
+            public boolean bucket ( final Bucket bucket )
+            {
+                result.add ( bucket );
+                return true;
+            }
+        } );
+        Assert.assertTrue ( complete );
+        return result;
+    }
+
+    private void assertBucket ( final Bucket bucket, final int from, final int to, final double min, final double max, final double average, final long count, final double first, final double last, final long errorSeconds, final long manualSeconds )
+    {
+        final String message = bucket.toString ();
+        Assert.assertEquals ( message, new Date ( this.start + from * SECOND ), bucket.getStart () );
+        Assert.assertEquals ( message, new Date ( this.start + to * SECOND ), bucket.getEnd () );
+        Assert.assertEquals ( message, min, bucket.getValue ( AggregationFunction.MIN ), 0.0 );
+        Assert.assertEquals ( message, max, bucket.getValue ( AggregationFunction.MAX ), 0.0 );
+        Assert.assertEquals ( message, average, bucket.getValue ( AggregationFunction.AVERAGE ), 1e-9 );
+        Assert.assertEquals ( message, count, bucket.getCount () );
+        Assert.assertEquals ( message, first, bucket.getFirst (), 0.0 );
+        Assert.assertEquals ( message, last, bucket.getLast (), 0.0 );
+        Assert.assertEquals ( message, errorSeconds * SECOND, bucket.getErrorTime () );
+        Assert.assertEquals ( message, manualSeconds * SECOND, bucket.getManualTime () );
+        Assert.assertEquals ( message, ( to - from - errorSeconds ) * SECOND, bucket.getValidTime () );
+    }
+
+    @Test
+    public void testBucketsAtSliceEdges ()
+    {
+        final List<Bucket> buckets = aggregate ( 0, 180, 60 );
+        Assert.assertEquals ( 3, buckets.size () );
+
+        // the value before the range is active at its start, but not counted
+        assertBucket ( buckets.get ( 0 ), 0, 60, 10.0, 40.0, ( 10 * 10.0 + 20 * 20.0 + 15 * 40.0 ) / 45, 3, 20.0, 40.0, 15, 15 );
+
+        // the value of the previous slice is active at the slice edge
+        assertBucket ( buckets.get ( 1 ), 60, 120, 40.0, 55.0, ( 10 * 40.0 + 20 * 50.0 + 30 * 55.0 ) / 60, 2, 50.0, 55.0, 0, 10 );
+
+        assertBucket ( buckets.get ( 2 ), 120, 180, 55.0, 80.0, ( 30 * 55.0 + 30 * 80.0 ) / 60, 1, 80.0, 80.0, 0, 0 );
+    }
+
+    @Test
+    public void testBucketsAcrossSliceEdges ()
+    {
+        final List<Bucket> buckets = aggregate ( 30, 150, 60 );
+        Assert.assertEquals ( 2, buckets.size () );
+
+        assertBucket ( buckets.get ( 0 ), 30, 90, 40.0, 50.0, ( 25 * 40.0 + 20 * 50.0 ) / 45, 3, 30.0, 50.0, 15, 25 );
+        assertBucket ( buckets.get ( 1 ), 90, 150, 55.0, 55.0, 55.0, 1, 55.0, 55.0, 0, 0 );
+    }
+
+    @Test
+    public void testPartialLastBucket ()
+    {
+        final List<Bucket> buckets = aggregate ( 0, 100, 40 );
+        Assert.assertEquals ( 3, buckets.size () );
+
+        assertBucket ( buckets.get ( 0 ), 0, 40, 10.0, 20.0, ( 10 * 10.0 + 20 * 20.0 ) / 30, 2, 20.0, 30.0, 10, 0 );
+        // values in error do not count for the minimum
+        assertBucket ( buckets.get ( 1 ), 40, 80, 40.0, 50.0, ( 25 * 40.0 + 10 * 50.0 ) / 35, 2, 40.0, 50.0, 5, 25 );
+        assertBucket ( buckets.get ( 2 ), 80, 100, 50.0, 55.0, ( 10 * 50.0 + 10 * 55.0 ) / 20, 1, 55.0, 55.0, 0, 0 );
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.hds.BulkValueVisitor;
+import org.openscada.hds.CompressedDataFileAccessor;
+import org.openscada.hds.DataFileAccessor;
+import org.openscada.hds.DataFileAccessorImpl;
+import org.openscada.hds.PrimitiveValueVisitor;
+
+/**
+ * Tests of the compressed data file format
+ * <p>
+ * The block codec is covered by round trips through the accessor. Where
+ * possible the results are compared to the plain format holding the same
+ * entries.
+ * </p>
+ */
+public class CompressedDataFileAccessorTest
+{
+    /**
+     * A visited entry, values are compared by their bits
+     */
+    public static class Entry
+    {
+        private final long valueBits;
+
+        private final long timestamp;
+
+        private final byte flags;
+
+        public Entry ( final double value, final long timestamp, final byte flags )
+        {
+            this.valueBits = Double.doubleToRawLongBits ( value );
+            this.timestamp = timestamp;
+            this.flags = flags;
+        }
+
+        @Override
+        public int hashCode ()
+        {
+            return (int) ( this.valueBits ^ this.timestamp ) + this.flags;
+        }
+
+        @Override
+        public boolean equals ( final Object obj )
+        {
+            if ( ! ( obj instanceof Entry ) )
+            {
+                return false;
+            }
+            final Entry other = (Entry)obj;
+            return this.valueBits == other.valueBits && this.timestamp == other.timestamp && this.flags == other.flags;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return String.format ( "%s@%s/%s", Double.longBitsToDouble ( this.valueBits ), this.timestamp, this.flags );
+        }
+    }
+
+    /**
+     * Collects the visited entries
+     */
+    public static class Collector implements BulkValueVisitor
+    {
+        private final List<Entry> entries = new ArrayList<Entry> ();
+
+        @Override
+        public boolean values ( final double[] values, final long[] timestamps, final byte[] flags, final int offset, final int length )
+        {
+            for ( int i = offset; i < offset + length; i++ )
+            {
+                this.entries.add ( new Entry ( values[i], timestamps[i], flags[i] ) );
+            }
+            return true;
+        }
+
+        public List<Entry> getEntries ()
+        {
+            return this.entries;
+        }
+    }
+
+    private static final long START = 1300000000000L;
+
+    private static final long END = START + 24 * 60 * 60 * 1000;
+
+    private File base;
+
+    private List<DataFileAccessor> accessors;
+
+    @Before
+    public void setup () throws Exception
+    {
+        this.base = new File ( "base", "compressed" );
+        FileUtils.deleteDirectory ( this.base );
+        this.base.mkdirs ();
+        this.accessors = new ArrayList<DataFileAccessor> ();
+    }
+
+    @After
+    public void dispose () throws Exception
+    {
+        for ( final DataFileAccessor accessor : this.accessors )
+        {
+            accessor.dispose ();
+        }
+        FileUtils.deleteDirectory ( this.base );
+    }
+
+    private CompressedDataFileAccessor createCompressed ( final String name ) throws Exception
+    {
+        final CompressedDataFileAccessor accessor = CompressedDataFileAccessor.create ( new File ( this.base, name ), new Date ( START ), new Date ( END ) );
+        this.accessors.add ( accessor );
+        return accessor;
+    }
+
+    private DataFileAccessor createPlain ( final String name ) throws Exception
+    {
+        final DataFileAccessor accessor = DataFileAccessorImpl.create ( new File ( this.base, name ), new Date ( START ), new Date ( END ) );
+        this.accessors.add ( accessor );
+        return accessor;
+    }
+
+    private CompressedDataFileAccessor reopen ( final String name ) throws Exception
+    {
+        final CompressedDataFileAccessor accessor = new CompressedDataFileAccessor ( new File ( this.base, name ) );
+        this.accessors.add ( accessor );
+        return accessor;
+    }
+
+    private static List<Entry> visit ( final DataFileAccessor accessor ) throws Exception
+    {
+        final Collector collector = new Collector ();
+        Assert.assertTrue ( accessor.visit ( collector ) );
+        return collector.getEntries ();
+    }
+
+    private static List<Entry> visit ( final DataFileAccessor accessor, final long start, final long end ) throws Exception
+    {
+        final Collector collector = new Collector ();
+        Assert.assertTrue ( accessor.visit ( collector, start, end ) );
+        return collector.getEntries ();
+    }
+
+    /**
+     * The entries a visitor gets to see, which excludes heartbeats
+     */
+    private static List<Entry> expected ( final double[] values, final long[] timestamps, final byte[] flags )
+    {
+        final List<Entry> result = new ArrayList<Entry> ();
+        for ( int i = 0; i < values.length; i++ )
+        {
+            if ( ( flags[i] & DataFileAccessor.FLAG_HEARTBEAT ) == 0 )
+            {
+                result.add ( new Entry ( values[i], timestamps[i], flags[i] ) );
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testRoundTripEdgeCases () throws Exception
+    {
+        final long big = 1L << 40;
+
+        // delta of delta: zero, all small widths, 32 bit, 64 bit in both directions, negative deltas
+        final long[] timestamps = new long[] { START, START + 1000, START + 2000, START + 2050, START + 2300, START + 4000, START + 100000, START + 100000, START + big, START + big + 1, START - big, START + 10, START + 9, Long.MAX_VALUE, Long.MIN_VALUE, START };
+
+        // equal values, full width XOR, special values and values reusing the previous XOR window
+        final double[] values = new double[] { 0.0, Double.longBitsToDouble ( 0x8000000000000001L ), Double.longBitsToDouble ( 0x7FFFFFFFFFFFFFFEL ), 1.0, 1.0, Double.NaN, -0.0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MAX_VALUE, 1.5, 1.25, 1.125, 42.0, 42.0 };
+
+        final byte[] flags = new byte[timestamps.length];
+        flags[3] = DataFileAccessor.FLAG_ERROR;
+        flags[4] = DataFileAccessor.FLAG_MANUAL;
+        flags[5] = DataFileAccessor.FLAG_ERROR | DataFileAccessor.FLAG_MANUAL;
+
+        final CompressedDataFileAccessor accessor = createCompressed ( "edge.hds" );
+        accessor.insertValues ( values, timestamps, flags, 0, values.length );
+
+        final List<Entry> expected = expected ( values, timestamps, flags );
+        Assert.assertEquals ( expected, visit ( accessor ) );
+        Assert.assertEquals ( expected, visit ( reopen ( "edge.hds" ) ) );
+    }
+
+    @Test
+    public void testRoundTripHeartbeats () throws Exception
+    {
+        // heartbeats carry no value, the values around them must not be affected
+        final double[] values = new double[] { 1.0, Double.NaN, Double.NaN, 1.5, Double.NaN, 3.0, 3.0, Double.NaN };
+        final long[] timestamps = new long[values.length];
+        final byte[] flags = new byte[values.length];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            timestamps[i] = START + i * 1000;
+            if ( Double.isNaN ( values[i] ) )
+            {
+                flags[i] = DataFileAccessor.FLAG_HEARTBEAT;
+            }
+        }
+
+        final CompressedDataFileAccessor accessor = createCompressed ( "heartbeat.hds" );
+        accessor.insertValues ( values, timestamps, flags, 0, values.length );
+
+        final List<Entry> expected = expected ( values, timestamps, flags );
+        Assert.assertEquals ( 4, expected.size () );
+        Assert.assertEquals ( expected, visit ( accessor ) );
+
+        // the last value is found before a trailing heartbeat
+        final double[] last = new double[1];
+        Assert.assertTrue ( accessor.visitFirstValue ( new PrimitiveValueVisitor () {
+
+            @Override
+            public boolean value ( final double value, final long timestamp, final byte flags )
+            {
+                last[0] = value;
+                return true;
+            }
+        } ) );
+        Assert.assertEquals ( 3.0, last[0], 0.0 );
+
+        // a block of heartbeats only
+        accessor.insertValues ( new double[] { Double.NaN, Double.NaN }, new long[] { START + 10000, START + 11000 }, new byte[] { DataFileAccessor.FLAG_HEARTBEAT, DataFileAccessor.FLAG_HEARTBEAT }, 0, 2 );
+        Assert.assertEquals ( expected, visit ( reopen ( "heartbeat.hds" ) ) );
+    }
+
+    @Test
+    public void testRoundTripRandom () throws Exception
+    {
+        final Random random = new Random ( 4711 );
+
+        // more than one block per insert
+        final int count = 5000;
+        final double[] values = new double[count];
+        final long[] timestamps = new long[count];
+        final byte[] flags = new byte[count];
+
+        long timestamp = START;
+        double value = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            timestamp += random.nextInt ( 10 ) == 0 ? random.nextInt ( 100000 ) : 1000;
+            value = random.nextInt ( 5 ) == 0 ? value : random.nextInt ( 3 ) == 0 ? random.nextDouble () : value + random.nextInt ( 100 );
+            timestamps[i] = timestamp;
+            values[i] = value;
+            flags[i] = random.nextInt ( 20 ) == 0 ? DataFileAccessor.FLAG_HEARTBEAT : random.nextInt ( 20 ) == 0 ? DataFileAccessor.FLAG_ERROR : 0;
+            if ( flags[i] == DataFileAccessor.FLAG_HEARTBEAT )
+            {
+                values[i] = Double.NaN;
+            }
+        }
+
+        final CompressedDataFileAccessor accessor = createCompressed ( "random.hds" );
+        accessor.insertValues ( values, timestamps, flags, 0, 3000 );
+        accessor.insertValues ( values, timestamps, flags, 3000, count - 3000 );
+
+        final List<Entry> expected = expected ( values, timestamps, flags );
+        Assert.assertEquals ( expected, visit ( accessor ) );
+        Assert.assertEquals ( expected, visit ( reopen ( "random.hds" ) ) );
+    }
+
+    /**
+     * Apply the same operations to a plain and a compressed file
+     */
+    private static void insert ( final double value, final long timestamp, final DataFileAccessor... accessors ) throws Exception
+    {
+        for ( final DataFileAccessor accessor : accessors )
+        {
+            accessor.insertValue ( value, new Date ( timestamp ), false, false, false );
+        }
+    }
+
+    private static void forwardCorrect ( final double value, final long timestamp, final DataFileAccessor... accessors ) throws Exception
+    {
+        for ( final DataFileAccessor accessor : accessors )
+        {
+            accessor.forwardCorrect ( value, new Date ( timestamp ), false, false );
+        }
+    }
+
+    @Test
+    public void testTombstoneHidesForwardCorrectedEntries () throws Exception
+    {
+        final DataFileAccessor plain = createPlain ( "plain.hds" );
+        final CompressedDataFileAccessor compressed = createCompressed ( "tombstone.hds" );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            insert ( i, START + i * 1000, plain, compressed );
+        }
+
+        forwardCorrect ( 42, START + 4500, plain, compressed );
+
+        final List<Entry> entries = visit ( compressed );
+        Assert.assertEquals ( 5, entries.size () );
+        Assert.assertEquals ( visit ( plain ), entries );
+
+        // entries written after the correction are visible again, older ones stay hidden
+        insert ( 6.5, START + 6500, plain, compressed );
+        insert ( 3.5, START + 3500, plain, compressed );
+
+        Assert.assertEquals ( visit ( plain ), visit ( compressed ) );
+        Assert.assertEquals ( visit ( plain ), visit ( reopen ( "tombstone.hds" ) ) );
+
+        // a later correction hides them again
+        forwardCorrect ( 0, START + 2000, plain, compressed );
+        Assert.assertEquals ( 3, visit ( compressed ).size () );
+        Assert.assertEquals ( visit ( plain ), visit ( compressed ) );
+        Assert.assertEquals ( visit ( plain ), visit ( reopen ( "tombstone.hds" ) ) );
+    }
+
+    @Test
+    public void testCorrectionAfterLastEntry () throws Exception
+    {
+        final CompressedDataFileAccessor compressed = createCompressed ( "noop.hds" );
+        insert ( 1, START, compressed );
+        insert ( 2, START + 1000, compressed );
+
+        final long length = new File ( this.base, "noop.hds" ).length ();
+        forwardCorrect ( 3, START + 1000, compressed );
+
+        Assert.assertEquals ( "No tombstone must be written", length, new File ( this.base, "noop.hds" ).length () );
+        Assert.assertEquals ( 2, visit ( compressed ).size () );
+    }
+
+    @Test
+    public void testRangeVisitMidFile () throws Exception
+    {
+        final int count = 3000;
+        final double[] values = new double[count];
+        final long[] timestamps = new long[count];
+        final byte[] flags = new byte[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            values[i] = i;
+            timestamps[i] = START + i * 1000;
+            flags[i] = i % 100 == 0 ? DataFileAccessor.FLAG_HEARTBEAT : 0;
+        }
+
+        final DataFileAccessor plain = createPlain ( "plain.hds" );
+        plain.insertValues ( values, timestamps, flags, 0, count );
+        final CompressedDataFileAccessor compressed = createCompressed ( "range.hds" );
+        compressed.insertValues ( values, timestamps, flags, 0, count );
+
+        // in the middle of a block, at block boundaries, at heartbeats and outside of the file
+        final long[][] ranges = new long[][] { //
+        { START + 1500500, START + 2500500 }, //
+                { START + 1024000, START + 2048000 }, //
+                { START + 1023999, START + 1024001 }, //
+                { START + 1200000, START + 1300000 }, //
+                { START - 1000, START + 500 }, //
+                { START + 2999000, END }, //
+                { END, END + 1000 } };
+
+        for ( final long[] range : ranges )
+        {
+            final List<Entry> expected = visit ( plain, range[0], range[1] );
+            Assert.assertEquals ( String.format ( "Range %s - %s", range[0], range[1] ), expected, visit ( compressed, range[0], range[1] ) );
+        }
+
+        // starts with the last entry at or before the start, skipping heartbeats
+        List<Entry> entries = visit ( compressed, START + 1550500, START + 2500500 );
+        Assert.assertEquals ( new Entry ( 1550, START + 1550000, (byte)0 ), entries.get ( 0 ) );
+        entries = visit ( compressed, START + 1500500, START + 2500500 );
+        Assert.assertEquals ( new Entry ( 1499, START + 1499000, (byte)0 ), entries.get ( 0 ) );
+
+        // and ends with the first entry after the end
+        Assert.assertEquals ( new Entry ( 2501, START + 2501000, (byte)0 ), entries.get ( entries.size () - 1 ) );
+    }
+
+    @Test
+    public void testRangeVisitStopsAtVisitor () throws Exception
+    {
+        final CompressedDataFileAccessor compressed = createCompressed ( "stop.hds" );
+        for ( int i = 0; i < 10; i++ )
+        {
+            insert ( i, START + i * 1000, compressed );
+        }
+
+        Assert.assertFalse ( compressed.visit ( new BulkValueVisitor () {
+
+            @Override
+            public boolean values ( final double[] values, final long[] timestamps, final byte[] flags, final int offset, final int length )
+            {
+                return false;
+            }
+        }, START + 2000, START + 5000 ) );
+    }
+}
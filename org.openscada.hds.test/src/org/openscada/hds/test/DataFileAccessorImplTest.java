@@ -0,0 +1,374 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.hds.DataFileAccessor;
+import org.openscada.hds.DataFileAccessorImpl;
+import org.openscada.hds.ValueVisitor;
+import org.openscada.hds.test.CompressedDataFileAccessorTest.Collector;
+import org.openscada.hds.test.CompressedDataFileAccessorTest.Entry;
+
+/**
+ * Tests of the plain data file format
+ */
+public class DataFileAccessorImplTest
+{
+    private static final long START = 1300000000000L;
+
+    private static final long END = START + 24 * 60 * 60 * 1000;
+
+    /**
+     * The number of entries the accessor reads at once
+     */
+    private static final int CHUNK_ENTRIES = 1024;
+
+    private static final String DISABLE_MAPPING = "org.openscada.hds.disableMapping";
+
+    private File base;
+
+    private List<DataFileAccessor> accessors;
+
+    @Before
+    public void setup () throws Exception
+    {
+        this.base = new File ( "base", "plain" );
+        FileUtils.deleteDirectory ( this.base );
+        this.base.mkdirs ();
+        this.accessors = new ArrayList<DataFileAccessor> ();
+    }
+
+    @After
+    public void dispose () throws Exception
+    {
+        for ( final DataFileAccessor accessor : this.accessors )
+        {
+            accessor.dispose ();
+        }
+        FileUtils.deleteDirectory ( this.base );
+        System.clearProperty ( DISABLE_MAPPING );
+    }
+
+    private DataFileAccessor create ( final String name ) throws Exception
+    {
+        final DataFileAccessor accessor = DataFileAccessorImpl.create ( new File ( this.base, name ), new Date ( START ), new Date ( END ) );
+        this.accessors.add ( accessor );
+        return accessor;
+    }
+
+    private DataFileAccessor reopen ( final DataFileAccessor accessor, final String name ) throws Exception
+    {
+        accessor.dispose ();
+        this.accessors.remove ( accessor );
+
+        final DataFileAccessor result = new DataFileAccessorImpl ( new File ( this.base, name ) );
+        this.accessors.add ( result );
+        return result;
+    }
+
+    private static List<Entry> visit ( final DataFileAccessor accessor ) throws Exception
+    {
+        final Collector collector = new Collector ();
+        Assert.assertTrue ( accessor.visit ( collector ) );
+        return collector.getEntries ();
+    }
+
+    private static List<Entry> visit ( final DataFileAccessor accessor, final long start, final long end ) throws Exception
+    {
+        final Collector collector = new Collector ();
+        Assert.assertTrue ( accessor.visit ( collector, START + start, START + end ) );
+        return collector.getEntries ();
+    }
+
+    private static void insert ( final DataFileAccessor accessor, final double value, final long offset ) throws Exception
+    {
+        accessor.insertValue ( value, new Date ( START + offset ), false, false, false );
+    }
+
+    private static void forwardCorrect ( final DataFileAccessor accessor, final long offset ) throws Exception
+    {
+        accessor.forwardCorrect ( -1.0, new Date ( START + offset ), false, false );
+    }
+
+    private static Entry entry ( final double value, final long offset )
+    {
+        return new Entry ( value, START + offset, (byte)0 );
+    }
+
+    /**
+     * Values inserted late leave the file out of order
+     * <p>
+     * The entries after the watermark, which were inserted before the late
+     * ones, are in front of the position a binary search would find. So they
+     * are only found by scanning the whole file.
+     * </p>
+     */
+    @Test
+    public void testForwardCorrectUnordered () throws Exception
+    {
+        DataFileAccessor accessor = create ( "unordered.hds" );
+        for ( int i = 0; i < 10; i++ )
+        {
+            insert ( accessor, i, i * 1000 );
+        }
+        for ( int i = 0; i < 20; i++ )
+        {
+            insert ( accessor, Double.NaN, 2510 + i * 10 );
+        }
+
+        // the order is found again when the file is loaded
+        accessor = reopen ( accessor, "unordered.hds" );
+        forwardCorrect ( accessor, 2650 );
+
+        final List<Entry> expected = new ArrayList<Entry> ();
+        for ( int i = 0; i < 3; i++ )
+        {
+            expected.add ( entry ( i, i * 1000 ) );
+        }
+        for ( int i = 0; i <= 14; i++ )
+        {
+            expected.add ( entry ( Double.NaN, 2510 + i * 10 ) );
+        }
+        Assert.assertEquals ( expected, visit ( accessor ) );
+
+        // the remaining entries are ordered, a second correction only deletes the tail
+        forwardCorrect ( accessor, 2555 );
+        Assert.assertEquals ( expected.subList ( 0, 8 ), visit ( accessor ) );
+    }
+
+    @Test
+    public void testForwardCorrectAcrossChunks () throws Exception
+    {
+        final int count = 3 * CHUNK_ENTRIES;
+        final double[] values = new double[count];
+        final long[] timestamps = new long[count];
+        final byte[] flags = new byte[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            values[i] = i;
+            timestamps[i] = START + i * 1000L;
+        }
+
+        final DataFileAccessor ordered = create ( "ordered.hds" );
+        ordered.insertValues ( values, timestamps, flags, 0, count );
+
+        final DataFileAccessor unordered = create ( "unordered.hds" );
+        unordered.insertValues ( values, timestamps, flags, 0, count );
+        insert ( unordered, Double.NaN, 500 );
+
+        // the deleted entries span several chunks
+        final int keep = CHUNK_ENTRIES - 10;
+        forwardCorrect ( ordered, keep * 1000L - 500 );
+        forwardCorrect ( unordered, keep * 1000L - 500 );
+
+        final List<Entry> expected = new ArrayList<Entry> ();
+        for ( int i = 0; i < keep; i++ )
+        {
+            expected.add ( entry ( i, i * 1000L ) );
+        }
+        Assert.assertEquals ( expected, visit ( ordered ) );
+
+        expected.add ( entry ( Double.NaN, 500 ) );
+        Assert.assertEquals ( expected, visit ( unordered ) );
+    }
+
+    @Test
+    public void testForwardCorrectAfterReopen () throws Exception
+    {
+        DataFileAccessor accessor = create ( "reopen.hds" );
+        for ( int i = 0; i < 10; i++ )
+        {
+            insert ( accessor, i, i * 1000 );
+        }
+        forwardCorrect ( accessor, 5500 );
+        insert ( accessor, 7, 7000 );
+        insert ( accessor, 8, 8000 );
+
+        // the watermark must not be taken from the deleted entries, nor stop at them
+        accessor = reopen ( accessor, "reopen.hds" );
+
+        forwardCorrect ( accessor, 7500 );
+
+        final List<Entry> expected = new ArrayList<Entry> ();
+        for ( int i = 0; i < 6; i++ )
+        {
+            expected.add ( entry ( i, i * 1000 ) );
+        }
+        expected.add ( entry ( 7, 7000 ) );
+        Assert.assertEquals ( expected, visit ( accessor ) );
+
+        // the watermark is lowered by the correction
+        forwardCorrect ( accessor, 6500 );
+        Assert.assertEquals ( expected.subList ( 0, 6 ), visit ( accessor ) );
+
+        accessor = reopen ( accessor, "reopen.hds" );
+        Assert.assertEquals ( expected.subList ( 0, 6 ), visit ( accessor ) );
+    }
+
+    /**
+     * Read a closed slice, which is mapped unless mapping is disabled
+     */
+    private void assertReadClosedSlice ( final String name ) throws Exception
+    {
+        DataFileAccessor accessor = create ( name );
+        for ( int i = 0; i < 10; i++ )
+        {
+            insert ( accessor, i, i * 1000 );
+        }
+        accessor.insertValue ( 0, new Date ( START + 3500 ), false, false, true );
+        forwardCorrect ( accessor, 7500 );
+        accessor.insertValue ( 8.5, new Date ( START + 8500 ), true, true, false );
+
+        final List<Entry> expected = new ArrayList<Entry> ();
+        for ( int i = 0; i < 8; i++ )
+        {
+            expected.add ( entry ( i, i * 1000 ) );
+        }
+        expected.add ( new Entry ( 8.5, START + 8500, (byte) ( DataFileAccessor.FLAG_ERROR | DataFileAccessor.FLAG_MANUAL ) ) );
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            Assert.assertEquals ( expected, visit ( accessor ) );
+            Assert.assertEquals ( expected.subList ( 2, 6 ), visit ( accessor, 2500, 4500 ) );
+            Assert.assertEquals ( expected.subList ( 7, 9 ), visit ( accessor, 7500, 9000 ) );
+
+            // the last valid value
+            final double[] last = new double[] { Double.NaN };
+            Assert.assertTrue ( accessor.visitFirstValue ( new ValueVisitor () {
+
+                @Override
+                public boolean value ( final double value, final Date date, final boolean error, final boolean manual )
+                {
+                    last[0] = value;
+                    return false;
+                }
+            } ) );
+            Assert.assertEquals ( 8.5, last[0], 0.0 );
+
+            accessor = reopen ( accessor, name );
+        }
+    }
+
+    @Test
+    public void testReadClosedSliceMapped () throws Exception
+    {
+        assertReadClosedSlice ( "mapped.hds" );
+    }
+
+    @Test
+    public void testReadClosedSliceUnmapped () throws Exception
+    {
+        System.setProperty ( DISABLE_MAPPING, "true" );
+        assertReadClosedSlice ( "unmapped.hds" );
+    }
+
+    /**
+     * Late values may still be appended to a closed slice after it was mapped
+     */
+    @Test
+    public void testReadAfterAppendPastMapping () throws Exception
+    {
+        final DataFileAccessor accessor = create ( "append.hds" );
+
+        final List<Entry> expected = new ArrayList<Entry> ();
+        for ( int i = 0; i < 100; i++ )
+        {
+            insert ( accessor, i, i * 1000L );
+            expected.add ( entry ( i, i * 1000L ) );
+        }
+        Assert.assertEquals ( expected, visit ( accessor ) );
+
+        for ( int i = 100; i < 2 * CHUNK_ENTRIES; i++ )
+        {
+            insert ( accessor, i, i * 1000L );
+            expected.add ( entry ( i, i * 1000L ) );
+        }
+
+        Assert.assertEquals ( expected, visit ( accessor ) );
+        Assert.assertEquals ( expected.subList ( 1499, 1603 ), visit ( accessor, 1499500, 1601000 ) );
+
+        forwardCorrect ( accessor, 1800500 );
+        Assert.assertEquals ( expected.subList ( 0, 1801 ), visit ( accessor ) );
+        Assert.assertEquals ( expected.subList ( 1800, 1801 ), visit ( accessor, 1900000, 2000000 ) );
+    }
+
+    /**
+     * A range visit starts with the last valid entry at or before the start
+     * and ends with the first one after the end
+     * <p>
+     * The entries at 5, 6, 7, 8 and 9 seconds are deleted and followed by
+     * entries at 5.5, 6.5 and 7.5 seconds. A heartbeat is at 3.2 seconds.
+     * </p>
+     */
+    private void assertRangeVisit ( final String name ) throws Exception
+    {
+        final DataFileAccessor accessor = create ( name );
+        for ( int i = 0; i < 10; i++ )
+        {
+            insert ( accessor, i, i * 1000 );
+            if ( i == 3 )
+            {
+                accessor.insertValue ( 0, new Date ( START + 3200 ), false, false, true );
+            }
+        }
+        forwardCorrect ( accessor, 4500 );
+        insert ( accessor, 5.5, 5500 );
+        insert ( accessor, 6.5, 6500 );
+        insert ( accessor, 7.5, 7500 );
+
+        // before the first entry
+        Assert.assertEquals ( Arrays.asList ( entry ( 0, 0 ), entry ( 1, 1000 ), entry ( 2, 2000 ) ), visit ( accessor, -500, 1500 ) );
+
+        // between entries and on an entry, skipping the heartbeat
+        Assert.assertEquals ( Arrays.asList ( entry ( 2, 2000 ), entry ( 3, 3000 ), entry ( 4, 4000 ) ), visit ( accessor, 2500, 3500 ) );
+        Assert.assertEquals ( Arrays.asList ( entry ( 3, 3000 ), entry ( 4, 4000 ) ), visit ( accessor, 3000, 3000 ) );
+
+        // on deleted entries
+        Assert.assertEquals ( Arrays.asList ( entry ( 4, 4000 ), entry ( 5.5, 5500 ) ), visit ( accessor, 5000, 5000 ) );
+        Assert.assertEquals ( Arrays.asList ( entry ( 5.5, 5500 ), entry ( 6.5, 6500 ) ), visit ( accessor, 6000, 6000 ) );
+        Assert.assertEquals ( Arrays.asList ( entry ( 7.5, 7500 ) ), visit ( accessor, 9000, 9500 ) );
+
+        // after the last entry
+        Assert.assertEquals ( Arrays.asList ( entry ( 7.5, 7500 ) ), visit ( accessor, 20000, END - START ) );
+    }
+
+    @Test
+    public void testRangeVisitMapped () throws Exception
+    {
+        assertRangeVisit ( "mapped.hds" );
+    }
+
+    @Test
+    public void testRangeVisitUnmapped () throws Exception
+    {
+        System.setProperty ( DISABLE_MAPPING, "true" );
+        assertRangeVisit ( "unmapped.hds" );
+    }
+}
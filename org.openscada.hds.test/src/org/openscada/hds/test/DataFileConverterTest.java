@@ -0,0 +1,207 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds.test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.hds.CompressedDataFileAccessor;
+import org.openscada.hds.DataFileAccessor;
+import org.openscada.hds.DataFileAccessorImpl;
+import org.openscada.hds.DataFileConverter;
+import org.openscada.hds.DataFileFormat;
+import org.openscada.hds.test.CompressedDataFileAccessorTest.Collector;
+import org.openscada.hds.test.CompressedDataFileAccessorTest.Entry;
+
+public class DataFileConverterTest
+{
+    /**
+     * The flag marking deleted entries in plain files
+     */
+    private static final byte FLAG_DELETED = 0x08;
+
+    private static final long START = 1300000000000L;
+
+    private static final long END = START + 24 * 60 * 60 * 1000;
+
+    private File base;
+
+    @Before
+    public void setup () throws Exception
+    {
+        this.base = new File ( "base", "converter" );
+        FileUtils.deleteDirectory ( this.base );
+        this.base.mkdirs ();
+    }
+
+    @After
+    public void dispose () throws Exception
+    {
+        FileUtils.deleteDirectory ( this.base );
+    }
+
+    /**
+     * Read all raw entries of a plain file, including heartbeats
+     */
+    private static List<Entry> readRaw ( final File file, final boolean includeDeleted ) throws Exception
+    {
+        final List<Entry> result = new ArrayList<Entry> ();
+        final DataInputStream in = new DataInputStream ( new BufferedInputStream ( new FileInputStream ( file ) ) );
+        try
+        {
+            in.skipBytes ( DataFileFormat.HEADER_SIZE );
+            while ( true )
+            {
+                final double value;
+                final long timestamp;
+                final byte flags;
+                try
+                {
+                    value = in.readDouble ();
+                    timestamp = in.readLong ();
+                    flags = in.readByte ();
+                }
+                catch ( final EOFException e )
+                {
+                    break;
+                }
+                if ( includeDeleted || ( flags & FLAG_DELETED ) == 0 )
+                {
+                    result.add ( new Entry ( value, timestamp, flags ) );
+                }
+            }
+        }
+        finally
+        {
+            in.close ();
+        }
+        return result;
+    }
+
+    private static List<Entry> visit ( final File file ) throws Exception
+    {
+        final DataFileAccessor accessor = DataFileFormat.open ( file );
+        try
+        {
+            final Collector collector = new Collector ();
+            accessor.visit ( collector );
+            return collector.getEntries ();
+        }
+        finally
+        {
+            accessor.dispose ();
+        }
+    }
+
+    /**
+     * Create a plain file with heartbeats, flags, deleted entries and entries
+     * out of order
+     */
+    private File createPlain ( final String name, final long start, final long end ) throws Exception
+    {
+        final File file = new File ( this.base, name );
+        final DataFileAccessor accessor = DataFileAccessorImpl.create ( file, new Date ( start ), new Date ( end ) );
+        try
+        {
+            for ( int i = 0; i < 2500; i++ )
+            {
+                final boolean heartbeat = i % 10 == 9;
+                accessor.insertValue ( heartbeat ? Double.NaN : i * 0.5, new Date ( start + i * 1000 ), i % 7 == 0, i % 11 == 0, heartbeat );
+            }
+
+            // deletes all entries after the timestamp
+            accessor.forwardCorrect ( 0, new Date ( start + 2000000 ), false, false );
+
+            accessor.insertValue ( 42, new Date ( start + 2100000 ), false, false, false );
+            accessor.insertValue ( 43, new Date ( start + 1000500 ), false, false, false );
+        }
+        finally
+        {
+            accessor.dispose ();
+        }
+        return file;
+    }
+
+    @Test
+    public void testPlainCompressedPlain () throws Exception
+    {
+        final File file = createPlain ( "slice.hds", START, END );
+
+        final List<Entry> raw = readRaw ( file, false );
+        Assert.assertTrue ( "Test data must contain deleted entries", readRaw ( file, true ).size () > raw.size () );
+        final List<Entry> visited = visit ( file );
+
+        Assert.assertTrue ( DataFileConverter.convert ( file, DataFileFormat.VERSION_COMPRESSED ) );
+        Assert.assertEquals ( DataFileFormat.VERSION_COMPRESSED, DataFileFormat.readVersion ( file ) );
+        Assert.assertFalse ( new File ( this.base, "slice.hds.tmp" ).exists () );
+
+        final DataFileAccessor compressed = DataFileFormat.open ( file );
+        try
+        {
+            Assert.assertTrue ( compressed instanceof CompressedDataFileAccessor );
+            Assert.assertEquals ( new Date ( START ), compressed.getStart () );
+            Assert.assertEquals ( new Date ( END ), compressed.getEnd () );
+        }
+        finally
+        {
+            compressed.dispose ();
+        }
+        Assert.assertEquals ( visited, visit ( file ) );
+
+        // converting again is a no-op
+        Assert.assertFalse ( DataFileConverter.convert ( file, DataFileFormat.VERSION_COMPRESSED ) );
+
+        Assert.assertTrue ( DataFileConverter.convert ( file, DataFileFormat.VERSION_PLAIN ) );
+        Assert.assertEquals ( DataFileFormat.VERSION_PLAIN, DataFileFormat.readVersion ( file ) );
+
+        // the same entries, including heartbeats and flags, only the deleted ones are gone
+        Assert.assertEquals ( raw, readRaw ( file, true ) );
+        Assert.assertEquals ( visited, visit ( file ) );
+    }
+
+    @Test
+    public void testOpenSliceIsSkipped () throws Exception
+    {
+        final long now = System.currentTimeMillis ();
+        final File file = createPlain ( "open.hds", now - 1000, now + 60 * 60 * 1000 );
+        final long length = file.length ();
+
+        Assert.assertFalse ( DataFileConverter.convert ( file, DataFileFormat.VERSION_COMPRESSED ) );
+        Assert.assertEquals ( DataFileFormat.VERSION_PLAIN, DataFileFormat.readVersion ( file ) );
+        Assert.assertEquals ( length, file.length () );
+    }
+
+    @Test ( expected = IllegalArgumentException.class )
+    public void testUnknownVersion () throws Exception
+    {
+        DataFileConverter.convert ( createPlain ( "slice.hds", START, END ), 0x0301 );
+    }
+}
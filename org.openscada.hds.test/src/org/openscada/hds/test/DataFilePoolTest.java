@@ -0,0 +1,209 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.hds.DataFileAccessor;
+import org.openscada.hds.DataFileFormat;
+import org.openscada.hds.DataFilePool;
+import org.openscada.hds.ValueVisitor;
+
+public class DataFilePoolTest
+{
+    private static final long START = 1300000000000L;
+
+    private static final long END = START + 24 * 60 * 60 * 1000;
+
+    private File base;
+
+    private DataFilePool pool;
+
+    @Before
+    public void setup () throws Exception
+    {
+        this.base = new File ( "base", "pool" );
+        FileUtils.deleteDirectory ( this.base );
+        this.base.mkdirs ();
+
+        // much less than the number of files used, so that files get closed all the time
+        this.pool = new DataFilePool ( 2 );
+    }
+
+    @After
+    public void dispose () throws Exception
+    {
+        if ( this.pool != null )
+        {
+            this.pool.dispose ();
+        }
+        FileUtils.deleteDirectory ( this.base );
+    }
+
+    private static class Counter implements ValueVisitor
+    {
+        private int count;
+
+        @Override
+        public boolean value ( final double value, final Date date, final boolean error, final boolean manual )
+        {
+            this.count++;
+            return true;
+        }
+
+        public int getCount ()
+        {
+            return this.count;
+        }
+    }
+
+    /**
+     * Get, use and give back files while others get closed
+     * <p>
+     * A closed accessor fails when being used, so any error shows that the
+     * pool handed out a file it closed, or closed a file that was in use.
+     * </p>
+     */
+    @Test
+    public void testConcurrentAccess () throws Exception
+    {
+        final int threads = 8;
+        final int rounds = 2000;
+
+        final File[] files = new File[16];
+        for ( int i = 0; i < files.length; i++ )
+        {
+            files[i] = new File ( this.base, String.format ( "%08x.hds", i ) );
+        }
+
+        final AtomicIntegerArray writes = new AtomicIntegerArray ( files.length );
+
+        final CountDownLatch start = new CountDownLatch ( 1 );
+        final List<Thread> workers = new ArrayList<Thread> ();
+        final List<Throwable> errors = Collections.synchronizedList ( new ArrayList<Throwable> () );
+
+        for ( int t = 0; t < threads; t++ )
+        {
+            final Random random = new Random ( t );
+            final Thread thread = new Thread () {
+
+                @Override
+                public void run ()
+                {
+                    try
+                    {
+                        start.await ();
+                        for ( int i = 0; i < rounds; i++ )
+                        {
+                            final int index = random.nextInt ( files.length );
+                            if ( random.nextBoolean () )
+                            {
+                                write ( files[index], i );
+                                writes.incrementAndGet ( index );
+                            }
+                            else
+                            {
+                                read ( files[index] );
+                            }
+                        }
+                    }
+                    catch ( final Throwable e )
+                    {
+                        errors.add ( e );
+                    }
+                }
+            };
+            workers.add ( thread );
+            thread.start ();
+        }
+
+        start.countDown ();
+        for ( final Thread thread : workers )
+        {
+            thread.join ();
+        }
+
+        Assert.assertTrue ( errors.toString (), errors.isEmpty () );
+        Assert.assertEquals ( 0, this.pool.getUsedFiles () );
+
+        this.pool.dispose ();
+        this.pool = null;
+
+        // each value was written to a file that was open
+        for ( int i = 0; i < files.length; i++ )
+        {
+            final DataFileAccessor accessor = DataFileFormat.open ( files[i] );
+            try
+            {
+                final Counter counter = new Counter ();
+                accessor.visit ( counter );
+                Assert.assertEquals ( writes.get ( i ), counter.getCount () );
+            }
+            finally
+            {
+                accessor.dispose ();
+            }
+        }
+    }
+
+    private void write ( final File file, final int round ) throws Exception
+    {
+        final DataFileAccessor accessor = this.pool.getAccessor ( file, new Date ( START ), new Date ( END ), true ).first;
+        try
+        {
+            accessor.insertValue ( round, new Date ( START + round ), false, false, false );
+        }
+        finally
+        {
+            accessor.dispose ();
+        }
+    }
+
+    private void read ( final File file ) throws Exception
+    {
+        final DataFileAccessor accessor = this.pool.getReadAccessor ( file );
+        if ( accessor == null )
+        {
+            // not yet created
+            return;
+        }
+
+        try
+        {
+            accessor.visitFirstValue ( new Counter () );
+        }
+        finally
+        {
+            accessor.dispose ();
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2011-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * openSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.hds.AggregationFunction;
+import org.openscada.hds.Aggregator;
+import org.openscada.hds.Bucket;
+import org.openscada.hds.BucketVisitor;
+import org.openscada.hds.DataFilePool;
+import org.openscada.hds.DataStoreAccesor;
+
+public class RollupTest
+{
+    private static final long SECOND = 1000;
+
+    private static final long TEN_SECONDS = 10 * SECOND;
+
+    private static final long MINUTE = 60 * SECOND;
+
+    private static final long[] ROLLUPS = new long[] { SECOND, TEN_SECONDS, MINUTE };
+
+    private static final Set<AggregationFunction> FUNCTIONS = EnumSet.allOf ( AggregationFunction.class );
+
+    private File base;
+
+    private DataFilePool pool;
+
+    private DataStoreAccesor store;
+
+    private final Random random = new Random ( 42 );
+
+    @Before
+    public void setup () throws Exception
+    {
+        this.base = new File ( "base", "rollup" );
+
+        FileUtils.deleteDirectory ( this.base );
+        this.base.getParentFile ().mkdirs ();
+
+        this.pool = new DataFilePool ( 10 );
+    }
+
+    @After
+    public void dispose () throws Exception
+    {
+        if ( this.store != null )
+        {
+            this.store.dispose ();
+        }
+        this.pool.dispose ();
+        FileUtils.deleteDirectory ( this.base );
+    }
+
+    /**
+     * The start of the test data, half an hour ago and aligned to two minutes
+     */
+    private static long makeStart ()
+    {
+        return floor ( System.currentTimeMillis () - 30 * MINUTE, 2 * MINUTE );
+    }
+
+    private static long floor ( final long timestamp, final long width )
+    {
+        return timestamp / width * width;
+    }
+
+    /**
+     * Insert a value every five seconds
+     *
+     * @return the timestamp of the last value
+     */
+    private long fill ( final long start, final int count ) throws Exception
+    {
+        long timestamp = start;
+        for ( int i = 0; i < count; i++ )
+        {
+            timestamp = start + i * 5 * SECOND;
+            this.store.insertValue ( this.random.nextDouble () * 100.0, new Date ( timestamp ), this.random.nextInt ( 10 ) == 0, this.random.nextInt ( 20 ) == 0 );
+        }
+        return timestamp;
+    }
+
+    private List<Bucket> aggregateTier ( final long start, final long end, final long width )
+    {
+        final List<Bucket> result = new ArrayList<Bucket> ();
+        Assert.assertTrue ( this.store.aggregate ( new Date ( start ), new Date ( end ), width, FUNCTIONS, makeCollector ( result ) ) );
+        return result;
+    }
+
+    private List<Bucket> aggregateRaw ( final long start, final long end, final long width )
+    {
+        final List<Bucket> result = new ArrayList<Bucket> ();
+        Assert.assertTrue ( new Aggregator ( this.store ).aggregate ( new Date ( start ), new Date ( end ), width, FUNCTIONS, makeCollector ( result ) ) );
+        return result;
+    }
+
+    private static BucketVisitor makeCollector ( final List<Bucket> result )
+    {
+        return new BucketVisitor () {
+
+            @Override
+            public boolean bucket ( final Bucket bucket )
+            {
+                result.add ( bucket );
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Compare the buckets read from the tiers with the buckets aggregated
+     * from the raw values
+     */
+    private void assertTiersMatchRaw ( final long start, final long end ) throws Exception
+    {
+        Assert.assertTrue ( "Range must be computed", this.store.getRollupComputedUntil ( MINUTE ) >= end );
+
+        assertAggregatesMatchRaw ( start, end );
+    }
+
+    /**
+     * Compare the aggregates of the store with the buckets aggregated from the
+     * raw values, no matter if the store uses the tiers or not
+     */
+    private void assertAggregatesMatchRaw ( final long start, final long end ) throws Exception
+    {
+        for ( final long width : new long[] { SECOND, TEN_SECONDS, MINUTE, 2 * MINUTE } )
+        {
+            final List<Bucket> expected = aggregateRaw ( start, end, width );
+            final List<Bucket> actual = aggregateTier ( start, end, width );
+
+            Assert.assertEquals ( ( end - start ) / width, expected.size () );
+            Assert.assertEquals ( expected.size (), actual.size () );
+            for ( int i = 0; i < expected.size (); i++ )
+            {
+                assertBucket ( expected.get ( i ), actual.get ( i ) );
+            }
+        }
+    }
+
+    private static void assertBucket ( final Bucket expected, final Bucket actual )
+    {
+        final String message = expected.toString ();
+        Assert.assertEquals ( message, expected.getStart (), actual.getStart () );
+        Assert.assertEquals ( message, expected.getEnd (), actual.getEnd () );
+        Assert.assertEquals ( message, expected.getCount (), actual.getCount () );
+        Assert.assertEquals ( message, expected.getValidTime (), actual.getValidTime () );
+        Assert.assertEquals ( message, expected.getErrorTime (), actual.getErrorTime () );
+        Assert.assertEquals ( message, expected.getManualTime (), actual.getManualTime () );
+        Assert.assertEquals ( message, expected.getMin (), actual.getMin (), 0.0 );
+        Assert.assertEquals ( message, expected.getMax (), actual.getMax (), 0.0 );
+        Assert.assertEquals ( message, expected.getFirst (), actual.getFirst (), 0.0 );
+        Assert.assertEquals ( message, expected.getLast (), actual.getLast (), 0.0 );
+        // the tiers add up the sums in a different order
+        Assert.assertEquals ( message, expected.getSum (), actual.getSum (), Math.abs ( expected.getSum () ) * 1e-9 );
+        for ( final AggregationFunction function : FUNCTIONS )
+        {
+            Assert.assertEquals ( message, expected.getValue ( function ), actual.getValue ( function ), 1e-9 );
+        }
+    }
+
+    @Test
+    public void testBucketClosing () throws Exception
+    {
+        this.store = DataStoreAccesor.create ( this.base, 1, TimeUnit.HOURS, 3, ROLLUPS, this.pool );
+
+        final long start = makeStart ();
+        final long last = fill ( start, 240 );
+
+        // buckets are closed up to the newest value
+        Assert.assertEquals ( last, this.store.getRollupComputedUntil ( SECOND ) );
+        Assert.assertEquals ( floor ( last, TEN_SECONDS ), this.store.getRollupComputedUntil ( TEN_SECONDS ) );
+        Assert.assertEquals ( floor ( last, MINUTE ), this.store.getRollupComputedUntil ( MINUTE ) );
+
+        // a value inside the open bucket does not close it
+        this.store.insertValue ( 1.0, new Date ( last + SECOND / 2 ), false, false );
+        Assert.assertEquals ( last, this.store.getRollupComputedUntil ( SECOND ) );
+
+        this.store.insertValue ( 2.0, new Date ( last + SECOND ), false, false );
+        Assert.assertEquals ( last + SECOND, this.store.getRollupComputedUntil ( SECOND ) );
+
+        assertTiersMatchRaw ( start, floor ( last, 2 * MINUTE ) );
+    }
+
+    @Test
+    public void testLateValues () throws Exception
+    {
+        this.store = DataStoreAccesor.create ( this.base, 1, TimeUnit.HOURS, 3, ROLLUPS, this.pool );
+
+        final long start = makeStart ();
+        final long last = fill ( start, 240 );
+        final long end = floor ( last, 2 * MINUTE );
+        final long computed = this.store.getRollupComputedUntil ( MINUTE );
+
+        // overrides all values after it, including closed buckets
+        final long late = start + 7 * MINUTE + 2500;
+        this.store.insertValue ( -1.0, new Date ( late ), false, true );
+
+        // the changed buckets are few enough to be computed again right away
+        Assert.assertEquals ( computed, this.store.getRollupComputedUntil ( MINUTE ) );
+
+        final List<Bucket> buckets = aggregateTier ( floor ( late, MINUTE ), floor ( late, MINUTE ) + 2 * MINUTE, MINUTE );
+        Assert.assertEquals ( -1.0, buckets.get ( 0 ).getLast (), 0.0 );
+        Assert.assertEquals ( -1.0, buckets.get ( 1 ).getMin (), 0.0 );
+        Assert.assertEquals ( -1.0, buckets.get ( 1 ).getMax (), 0.0 );
+        Assert.assertEquals ( MINUTE, buckets.get ( 1 ).getManualTime () );
+
+        assertTiersMatchRaw ( start, end );
+    }
+
+    @Test
+    public void testOutOfOrderValues () throws Exception
+    {
+        this.store = DataStoreAccesor.create ( this.base, 1, TimeUnit.HOURS, 3, ROLLUPS, this.pool );
+
+        final long start = makeStart ();
+        final long last = fill ( start, 240 );
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor ();
+        try
+        {
+            this.store.enableWriteBuffer ( 1000, 1, TimeUnit.HOURS, false, executor );
+
+            // a batch spanning closed buckets and the open end
+            final List<Long> timestamps = new ArrayList<Long> ();
+            for ( long timestamp = start + 5 * MINUTE + 1234; timestamp < last + 30 * SECOND; timestamp += 7 * SECOND )
+            {
+                timestamps.add ( timestamp );
+            }
+            Collections.shuffle ( timestamps, this.random );
+
+            for ( final long timestamp : timestamps )
+            {
+                this.store.insertValue ( this.random.nextDouble () * 100.0, new Date ( timestamp ), this.random.nextInt ( 10 ) == 0, false );
+            }
+            this.store.flush ();
+        }
+        finally
+        {
+            executor.shutdown ();
+        }
+
+        assertTiersMatchRaw ( start, floor ( last + 30 * SECOND, 2 * MINUTE ) );
+    }
+
+    @Test
+    public void testBackfill () throws Exception
+    {
+        this.store = DataStoreAccesor.create ( this.base, 1, TimeUnit.HOURS, 3, this.pool );
+
+        final long start = makeStart ();
+        final long last = fill ( start, 240 );
+        this.store.dispose ();
+        this.store = null;
+
+        // add the tiers to the existing store
+        final File settings = new File ( this.base, "settings.xml" );
+        final Properties p = new Properties ();
+        final FileInputStream in = new FileInputStream ( settings );
+        try
+        {
+            p.loadFromXML ( in );
+        }
+        finally
+        {
+            in.close ();
+        }
+        p.put ( "rollups", "1000,10000,60000" );
+        final FileOutputStream out = new FileOutputStream ( settings );
+        try
+        {
+            p.storeToXML ( out, "openSCADA HDS Settings" );
+        }
+        finally
+        {
+            out.close ();
+        }
+
+        this.store = new DataStoreAccesor ( this.base, this.pool );
+        Assert.assertEquals ( Long.MIN_VALUE, this.store.getRollupComputedUntil ( SECOND ) );
+
+        // each insert computes a limited number of buckets, starting with the valid period of the store
+        long timestamp = last;
+        long previous = Long.MIN_VALUE;
+        int updates = 0;
+        while ( this.store.getRollupComputedUntil ( MINUTE ) < floor ( last, MINUTE ) )
+        {
+            timestamp += SECOND;
+            this.store.insertValue ( 1.0, new Date ( timestamp ), false, false );
+            updates++;
+
+            final long computed = this.store.getRollupComputedUntil ( SECOND );
+            Assert.assertTrue ( computed > previous );
+            if ( previous != Long.MIN_VALUE && computed < timestamp )
+            {
+                Assert.assertEquals ( 1024 * SECOND, computed - previous );
+            }
+            Assert.assertTrue ( this.store.getRollupComputedUntil ( TEN_SECONDS ) <= computed );
+            Assert.assertTrue ( this.store.getRollupComputedUntil ( MINUTE ) <= this.store.getRollupComputedUntil ( TEN_SECONDS ) );
+            previous = computed;
+
+            Assert.assertTrue ( "Backfill does not proceed", updates < 100 );
+        }
+
+        // the valid period starts three hours ago, the backfill takes several updates
+        Assert.assertTrue ( updates > 5 );
+
+        assertTiersMatchRaw ( start, floor ( last, 2 * MINUTE ) );
+    }
+
+    /**
+     * A value far behind the computed range must not compute all following
+     * buckets at once, the range shrinks and grows back incrementally
+     */
+    @Test
+    public void testLateValueFarBack () throws Exception
+    {
+        this.store = DataStoreAccesor.create ( this.base, 1, TimeUnit.HOURS, 3, ROLLUPS, this.pool );
+
+        final long start = floor ( System.currentTimeMillis () - 2 * 60 * MINUTE, 2 * MINUTE );
+        final long last = fill ( start, 1200 );
+        Assert.assertEquals ( last, this.store.getRollupComputedUntil ( SECOND ) );
+
+        // more than five thousand buckets of the finest tier back
+        final long late = start + 5 * MINUTE + 2500;
+        this.store.insertValue ( -1.0, new Date ( late ), false, true );
+
+        final long dropped = floor ( late, SECOND ) + 1024 * SECOND;
+        Assert.assertEquals ( dropped, this.store.getRollupComputedUntil ( SECOND ) );
+        Assert.assertEquals ( floor ( dropped, TEN_SECONDS ), this.store.getRollupComputedUntil ( TEN_SECONDS ) );
+        Assert.assertEquals ( floor ( dropped, MINUTE ), this.store.getRollupComputedUntil ( MINUTE ) );
+
+        // no stale buckets are used meanwhile
+        assertAggregatesMatchRaw ( start, floor ( last, 2 * MINUTE ) );
+
+        // discarded buckets stay discarded when the store is opened again
+        this.store.dispose ();
+        this.store = new DataStoreAccesor ( this.base, this.pool );
+        Assert.assertEquals ( dropped, this.store.getRollupComputedUntil ( SECOND ) );
+        Assert.assertEquals ( floor ( dropped, MINUTE ), this.store.getRollupComputedUntil ( MINUTE ) );
+
+        long timestamp = last;
+        long previous = dropped;
+        int updates = 0;
+        while ( this.store.getRollupComputedUntil ( MINUTE ) < floor ( last, MINUTE ) )
+        {
+            timestamp += SECOND;
+            this.store.insertValue ( 1.0, new Date ( timestamp ), false, false );
+            updates++;
+
+            final long computed = this.store.getRollupComputedUntil ( SECOND );
+            if ( computed < last )
+            {
+                Assert.assertEquals ( 1024 * SECOND, computed - previous );
+            }
+            previous = computed;
+
+            Assert.assertTrue ( "Tiers do not grow back", updates < 100 );
+        }
+        Assert.assertTrue ( updates >= 4 );
+
+        assertTiersMatchRaw ( start, floor ( last, 2 * MINUTE ) );
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2011 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openscada.hds.DataFilePool;
+import org.openscada.hds.DataStoreAccesor;
+import org.openscada.hds.ValueVisitor;
+
+public class WriteBufferTest
+{
+    private static final long SLICE = TimeUnit.HOURS.toMillis ( 1 );
+
+    private File base;
+
+    private DataFilePool pool;
+
+    private DataStoreAccesor store;
+
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setup () throws Exception
+    {
+        this.base = new File ( "base", "writeBuffer" );
+
+        FileUtils.deleteDirectory ( this.base.getParentFile () );
+        this.base.getParentFile ().mkdirs ();
+
+        this.pool = new DataFilePool ( 10 );
+        this.store = DataStoreAccesor.create ( this.base, 1, TimeUnit.HOURS, 24, this.pool );
+
+        this.executor = Executors.newSingleThreadScheduledExecutor ();
+        this.store.enableWriteBuffer ( 100, 1, TimeUnit.HOURS, false, this.executor );
+    }
+
+    @After
+    public void dispose () throws Exception
+    {
+        this.store.dispose ();
+        this.pool.dispose ();
+        this.executor.shutdown ();
+    }
+
+    @Test
+    public void testFailedFlush () throws Exception
+    {
+        final long now = System.currentTimeMillis ();
+
+        // block the data file, so that writing the batch fails
+        final File file = new File ( this.base, String.format ( "%08x.hds", now / SLICE * SLICE ) );
+        Assert.assertTrue ( file.mkdir () );
+
+        this.store.insertValue ( 1.0, new Date ( now - 2 ), false, false );
+        this.store.insertValue ( 2.0, new Date ( now - 1 ), false, false );
+
+        try
+        {
+            this.store.flush ();
+            Assert.fail ( "Flush must fail" );
+        }
+        catch ( final Exception e )
+        {
+            // expected
+        }
+
+        this.store.insertValue ( 3.0, new Date ( now ), false, false );
+
+        Assert.assertTrue ( file.delete () );
+        this.store.flush ();
+
+        final List<Double> values = new ArrayList<Double> ();
+        this.store.visit ( new ValueVisitor () {
+
+            @Override
+            public boolean value ( final double value, final Date date, final boolean error, final boolean manual )
+            {
+                // skip the initial value of the new file
+                if ( !Double.isNaN ( value ) )
+                {
+                    values.add ( value );
+                }
+                return true;
+            }
+        }, new Date ( now - 2 ), new Date ( now + 1 ) );
+
+        Assert.assertEquals ( Arrays.asList ( 1.0, 2.0, 3.0 ), values );
+    }
+
+    @Test
+    public void testFailedFlushOfSecondSlice () throws Exception
+    {
+        final long now = System.currentTimeMillis ();
+        final long sliceStart = now / SLICE * SLICE;
+
+        // a first flush makes the watermark known, so the forward correction skips the blocked file
+        this.store.insertValue ( 0.5, new Date ( sliceStart - SLICE * 3 / 4 ), false, false );
+        this.store.flush ();
+
+        // block the data file of the second slice only
+        final File file = new File ( this.base, String.format ( "%08x.hds", sliceStart ) );
+        Assert.assertTrue ( file.mkdir () );
+
+        this.store.insertValue ( 1.0, new Date ( sliceStart - SLICE / 2 ), false, false );
+        this.store.insertValue ( 2.0, new Date ( sliceStart - SLICE / 4 ), false, false );
+        this.store.insertValue ( 3.0, new Date ( now ), false, false );
+
+        try
+        {
+            this.store.flush ();
+            Assert.fail ( "Flush must fail" );
+        }
+        catch ( final Exception e )
+        {
+            // expected
+        }
+
+        // the first slice is already written
+        Assert.assertEquals ( Arrays.asList ( 0.5, 1.0, 2.0 ), collect ( sliceStart - SLICE, sliceStart - 1 ) );
+
+        this.store.insertValue ( 4.0, new Date ( now + 1 ), false, false );
+
+        Assert.assertTrue ( file.delete () );
+        this.store.flush ();
+
+        Assert.assertEquals ( Arrays.asList ( 0.5, 1.0, 2.0, 3.0, 4.0 ), collect ( sliceStart - SLICE, now + 2 ) );
+    }
+
+    private List<Double> collect ( final long start, final long end )
+    {
+        final List<Double> values = new ArrayList<Double> ();
+        this.store.visit ( new ValueVisitor () {
+
+            @Override
+            public boolean value ( final double value, final Date date, final boolean error, final boolean manual )
+            {
+                // skip the initial value of a new file
+                if ( !Double.isNaN ( value ) && date.getTime () >= start && date.getTime () <= end )
+                {
+                    values.add ( value );
+                }
+                return true;
+            }
+        }, new Date ( start ), new Date ( end ) );
+        return values;
+    }
+}
@@ -44,6 +44,24 @@ public abstract class AbstractValueSource implements ValueSource
         this.listeners.remove ( listener );
     }
 
+    /**
+     * Visit using an adapter to {@link #visit(BulkValueVisitor, Date, Date)}
+     */
+    @Override
+    public boolean visit ( final ValueVisitor visitor, final Date start, final Date end )
+    {
+        return visit ( ValueVisitors.bulk ( visitor ), start, end );
+    }
+
+    /**
+     * Visit using an adapter to {@link #visit(BulkValueVisitor, Date, Date)}
+     */
+    @Override
+    public boolean visit ( final PrimitiveValueVisitor visitor, final Date start, final Date end )
+    {
+        return visit ( ValueVisitors.bulk ( visitor ), start, end );
+    }
+
     protected void notifyChange ( final Date start, final Date end )
     {
         logger.debug ( "Notify change - start: {}, end: {}", start, end );
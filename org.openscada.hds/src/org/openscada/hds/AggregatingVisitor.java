@@ -0,0 +1,267 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A value visitor which aggregates the raw values into buckets of fixed width
+ * <p>
+ * The buckets start at the start of the range. The last bucket ends at the
+ * end of the range, so it may be shorter. Values before the range are only
+ * used to find the state at the beginning of the range. The last value is
+ * assumed to be valid until the end of the range.
+ * </p>
+ * <p>
+ * The visitor must be completed by calling {@link #complete()} after the
+ * source was visited.
+ * </p>
+ */
+public class AggregatingVisitor implements PrimitiveValueVisitor
+{
+    private final long start;
+
+    private final long end;
+
+    private final long width;
+
+    private final Set<AggregationFunction> functions;
+
+    private final BucketVisitor visitor;
+
+    private long bucketStart;
+
+    private long bucketEnd;
+
+    /**
+     * The point in time up to which values are accumulated
+     */
+    private long position;
+
+    private boolean started;
+
+    private boolean completed;
+
+    /**
+     * The bucket visitor requested to stop
+     */
+    private boolean cancelled;
+
+    // the active value
+
+    private boolean hasValue;
+
+    private long valueTimestamp;
+
+    private double value;
+
+    private boolean error;
+
+    private boolean manual;
+
+    // bucket accumulators
+
+    private double sum;
+
+    private long validTime;
+
+    private long errorTime;
+
+    private long manualTime;
+
+    private double min;
+
+    private double max;
+
+    private long count;
+
+    private double first;
+
+    private double last;
+
+    public AggregatingVisitor ( final Date start, final Date end, final long width, final Set<AggregationFunction> functions, final BucketVisitor visitor )
+    {
+        if ( width <= 0 )
+        {
+            throw new IllegalArgumentException ( "Bucket width must be greater than zero" );
+        }
+        if ( end.before ( start ) )
+        {
+            throw new IllegalArgumentException ( "End must not be before start" );
+        }
+
+        this.start = start.getTime ();
+        this.end = end.getTime ();
+        this.width = width;
+        this.functions = functions.isEmpty () ? EnumSet.noneOf ( AggregationFunction.class ) : EnumSet.copyOf ( functions );
+        this.visitor = visitor;
+
+        this.bucketStart = this.start;
+        this.bucketEnd = Math.min ( this.bucketStart + width, this.end );
+        this.position = this.bucketStart;
+
+        reset ();
+    }
+
+    @Override
+    public boolean value ( final double value, final long timestamp, final byte flags )
+    {
+        if ( this.completed || this.cancelled )
+        {
+            return false;
+        }
+
+        final boolean error = ( flags & DataFileAccessor.FLAG_ERROR ) != 0;
+        final boolean manual = ( flags & DataFileAccessor.FLAG_MANUAL ) != 0;
+
+        if ( timestamp < this.start )
+        {
+            // before the range, only track the state at the beginning
+            if ( !this.started && ( !this.hasValue || timestamp >= this.valueTimestamp ) )
+            {
+                setValue ( value, timestamp, error, manual );
+            }
+            return true;
+        }
+
+        this.started = true;
+
+        if ( timestamp >= this.end )
+        {
+            complete ();
+            return false;
+        }
+
+        // values out of order are applied at the current position
+        if ( timestamp > this.position && !advance ( timestamp ) )
+        {
+            return false;
+        }
+
+        setValue ( value, timestamp, error, manual );
+
+        if ( this.count == 0 )
+        {
+            this.first = value;
+        }
+        this.last = value;
+        this.count++;
+
+        return true;
+    }
+
+    private void setValue ( final double value, final long timestamp, final boolean error, final boolean manual )
+    {
+        this.hasValue = true;
+        this.valueTimestamp = timestamp;
+        this.value = value;
+        this.error = error;
+        this.manual = manual;
+    }
+
+    /**
+     * Emit all remaining buckets up to the end of the range
+     * <p>
+     * Calling this method more than once has no effect.
+     * </p>
+     * 
+     * @return <code>true</code> if the bucket visitor did not request to stop
+     */
+    public boolean complete ()
+    {
+        if ( !this.completed && !this.cancelled )
+        {
+            advance ( this.end );
+        }
+        this.completed = true;
+        return !this.cancelled;
+    }
+
+    /**
+     * Move forward in time, emitting each bucket that gets completed
+     */
+    private boolean advance ( final long timestamp )
+    {
+        while ( timestamp >= this.bucketEnd && this.bucketStart < this.end )
+        {
+            accumulate ( this.bucketEnd );
+            if ( !emit () )
+            {
+                this.cancelled = true;
+                return false;
+            }
+            this.bucketStart = this.bucketEnd;
+            this.bucketEnd = Math.min ( this.bucketStart + this.width, this.end );
+            this.position = this.bucketStart;
+            reset ();
+        }
+
+        accumulate ( timestamp );
+        return true;
+    }
+
+    private void accumulate ( final long timestamp )
+    {
+        final long duration = timestamp - this.position;
+        if ( duration <= 0 )
+        {
+            return;
+        }
+
+        if ( !this.hasValue || this.error || Double.isNaN ( this.value ) )
+        {
+            this.errorTime += duration;
+        }
+        else
+        {
+            this.sum += this.value * duration;
+            this.validTime += duration;
+            this.min = Math.min ( this.min, this.value );
+            this.max = Math.max ( this.max, this.value );
+        }
+
+        if ( this.hasValue && this.manual )
+        {
+            this.manualTime += duration;
+        }
+
+        this.position = timestamp;
+    }
+
+    private void reset ()
+    {
+        this.sum = 0;
+        this.validTime = 0;
+        this.errorTime = 0;
+        this.manualTime = 0;
+        this.min = Double.POSITIVE_INFINITY;
+        this.max = Double.NEGATIVE_INFINITY;
+        this.count = 0;
+        this.first = Double.NaN;
+        this.last = Double.NaN;
+    }
+
+    private boolean emit ()
+    {
+        return this.visitor.bucket ( new Bucket ( new Date ( this.bucketStart ), new Date ( this.bucketEnd ), this.functions, this.min, this.max, this.sum, this.validTime, this.errorTime, this.manualTime, this.count, this.first, this.last ) );
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+/**
+ * Functions calculated per bucket by the {@link Aggregator}
+ * <p>
+ * Values are treated as a step function, each value is valid until the next
+ * one. Time ranges with the error flag set or with a <code>NaN</code> value
+ * count as invalid.
+ * </p>
+ */
+public enum AggregationFunction
+{
+    /**
+     * The lowest valid value active in the bucket
+     */
+    MIN,
+    /**
+     * The highest valid value active in the bucket
+     */
+    MAX,
+    /**
+     * The time weighted average of all valid values
+     */
+    AVERAGE,
+    /**
+     * The first value recorded in the bucket
+     */
+    FIRST,
+    /**
+     * The last value recorded in the bucket
+     */
+    LAST,
+    /**
+     * The number of values recorded in the bucket
+     */
+    COUNT,
+    /**
+     * The fraction of time (0 to 1) the value was invalid
+     */
+    ERROR_RATIO,
+    /**
+     * The fraction of time (0 to 1) the value was manual
+     */
+    MANUAL_RATIO;
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * Aggregate the values of a value source into buckets
+ * <p>
+ * The values are aggregated while they are streamed from the source, so only
+ * one record per bucket is passed on to the caller.
+ * </p>
+ */
+public class Aggregator
+{
+    private final ValueSource source;
+
+    public Aggregator ( final ValueSource source )
+    {
+        this.source = source;
+    }
+
+    /**
+     * Aggregate a time range
+     * 
+     * @param start
+     *            the start of the range
+     * @param end
+     *            the end of the range
+     * @param width
+     *            the width of each bucket in milliseconds
+     * @param functions
+     *            the functions to calculate for each bucket
+     * @param visitor
+     *            the visitor receiving the buckets
+     * @return <code>true</code> if the visitor did not request to stop,
+     *         <code>false</code> otherwise
+     * @see AggregatingVisitor
+     */
+    public boolean aggregate ( final Date start, final Date end, final long width, final Set<AggregationFunction> functions, final BucketVisitor visitor )
+    {
+        final AggregatingVisitor aggregatingVisitor = new AggregatingVisitor ( start, end, width, functions, visitor );
+        this.source.visit ( aggregatingVisitor, start, end );
+        return aggregatingVisitor.complete ();
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of the blocks of compressed data files
+ * <p>
+ * A block starts with a header containing the payload length, the number of
+ * entries, the first and the highest timestamp of the valid entries and the
+ * block flags. The payload contains the entry flags as runs, followed by a
+ * bit stream of the timestamps, encoded as delta of delta, and the values,
+ * encoded as XOR to the previous value. Heartbeats always carry
+ * <code>NaN</code>, so their values are not stored.
+ * </p>
+ */
+final class BlockCodec
+{
+    /**
+     * length, count, first valid timestamp, max valid timestamp, block flags
+     */
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 1;
+
+    /**
+     * The valid entries of the block are in time order
+     */
+    static final byte BLOCK_ORDERED = 0x01;
+
+    /**
+     * The block carries no entries but deletes all valid entries of previous
+     * blocks after the timestamp stored as first valid timestamp
+     */
+    static final byte BLOCK_TOMBSTONE = 0x02;
+
+    private BlockCodec ()
+    {
+    }
+
+    private static boolean isValid ( final byte flags )
+    {
+        return ( flags & ( DataFileAccessor.FLAG_HEARTBEAT | DataFileAccessorImpl.FLAG_DELETED ) ) == 0;
+    }
+
+    private static boolean isHeartbeat ( final byte flags )
+    {
+        return ( flags & DataFileAccessor.FLAG_HEARTBEAT ) != 0;
+    }
+
+    /**
+     * Encode entries into a block
+     * 
+     * @return the block, including the header, ready to be written
+     */
+    public static ByteBuffer encode ( final double[] values, final long[] timestamps, final byte[] flags, final int offset, final int length )
+    {
+        final BitOutput out = new BitOutput ( length * 4 + 16 );
+
+        long firstValid = Long.MAX_VALUE;
+        long maxValid = Long.MIN_VALUE;
+        boolean ordered = true;
+
+        // timestamps
+
+        long previous = 0;
+        long previousDelta = 0;
+        for ( int i = offset; i < offset + length; i++ )
+        {
+            final long timestamp = timestamps[i];
+            if ( i == offset )
+            {
+                out.write ( timestamp, 64 );
+            }
+            else
+            {
+                final long delta = timestamp - previous;
+                writeDeltaOfDelta ( out, delta - previousDelta );
+                previousDelta = delta;
+            }
+            previous = timestamp;
+
+            if ( isValid ( flags[i] ) )
+            {
+                if ( firstValid == Long.MAX_VALUE )
+                {
+                    firstValid = timestamp;
+                }
+                ordered &= timestamp >= maxValid;
+                maxValid = Math.max ( maxValid, timestamp );
+            }
+        }
+
+        // values
+
+        boolean first = true;
+        long previousBits = 0;
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for ( int i = offset; i < offset + length; i++ )
+        {
+            if ( isHeartbeat ( flags[i] ) )
+            {
+                continue;
+            }
+
+            final long bits = Double.doubleToRawLongBits ( values[i] );
+            if ( first )
+            {
+                out.write ( bits, 64 );
+                first = false;
+            }
+            else
+            {
+                final long xor = bits ^ previousBits;
+                if ( xor == 0 )
+                {
+                    out.write ( 0, 1 );
+                }
+                else
+                {
+                    out.write ( 1, 1 );
+
+                    final int leading = Math.min ( 31, Long.numberOfLeadingZeros ( xor ) );
+                    final int trailing = Long.numberOfTrailingZeros ( xor );
+
+                    if ( previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing )
+                    {
+                        // fits into the previous window
+                        out.write ( 0, 1 );
+                        out.write ( xor >>> previousTrailing, 64 - previousLeading - previousTrailing );
+                    }
+                    else
+                    {
+                        final int significant = 64 - leading - trailing;
+                        out.write ( 1, 1 );
+                        out.write ( leading, 5 );
+                        out.write ( significant - 1, 6 );
+                        out.write ( xor >>> trailing, significant );
+                        previousLeading = leading;
+                        previousTrailing = trailing;
+                    }
+                }
+            }
+            previousBits = bits;
+        }
+
+        // flag runs
+
+        int runs = 0;
+        for ( int i = offset; i < offset + length; i++ )
+        {
+            if ( i == offset || flags[i] != flags[i - 1] )
+            {
+                runs++;
+            }
+        }
+
+        final byte[] bitData = out.toByteArray ();
+        final int payloadLength = 4 + runs * 5 + bitData.length;
+
+        final ByteBuffer buffer = ByteBuffer.allocate ( HEADER_SIZE + payloadLength );
+        buffer.putInt ( payloadLength );
+        buffer.putInt ( length );
+        buffer.putLong ( firstValid );
+        buffer.putLong ( maxValid );
+        buffer.put ( ordered ? BLOCK_ORDERED : 0 );
+
+        buffer.putInt ( runs );
+        int i = offset;
+        while ( i < offset + length )
+        {
+            int j = i + 1;
+            while ( j < offset + length && flags[j] == flags[i] )
+            {
+                j++;
+            }
+            buffer.put ( flags[i] );
+            buffer.putInt ( j - i );
+            i = j;
+        }
+
+        buffer.put ( bitData );
+        buffer.flip ();
+
+        return buffer;
+    }
+
+    /**
+     * Encode a tombstone block
+     * 
+     * @param timestamp
+     *            valid entries of previous blocks after this timestamp are
+     *            deleted
+     */
+    public static ByteBuffer encodeTombstone ( final long timestamp )
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate ( HEADER_SIZE );
+        buffer.putInt ( 0 );
+        buffer.putInt ( 0 );
+        buffer.putLong ( timestamp );
+        buffer.putLong ( Long.MIN_VALUE );
+        buffer.put ( BLOCK_TOMBSTONE );
+        buffer.flip ();
+        return buffer;
+    }
+
+    /**
+     * Decode the payload of a block
+     * 
+     * @param payload
+     *            the payload, without the header
+     * @param count
+     *            the number of entries from the header
+     */
+    public static void decode ( final ByteBuffer payload, final int count, final double[] values, final long[] timestamps, final byte[] flags ) throws IOException
+    {
+        try
+        {
+            final int runs = payload.getInt ();
+            int index = 0;
+            for ( int r = 0; r < runs; r++ )
+            {
+                final byte flag = payload.get ();
+                final int length = payload.getInt ();
+                if ( length < 0 || index + length > count )
+                {
+                    throw new IOException ( "Invalid flag run" );
+                }
+                for ( int i = 0; i < length; i++ )
+                {
+                    flags[index++] = flag;
+                }
+            }
+            if ( index != count )
+            {
+                throw new IOException ( "Flag runs don't match entry count" );
+            }
+
+            final BitInput in = new BitInput ( payload );
+
+            long previous = 0;
+            long previousDelta = 0;
+            for ( int i = 0; i < count; i++ )
+            {
+                if ( i == 0 )
+                {
+                    previous = in.read ( 64 );
+                }
+                else
+                {
+                    final long delta = previousDelta + readDeltaOfDelta ( in );
+                    previous += delta;
+                    previousDelta = delta;
+                }
+                timestamps[i] = previous;
+            }
+
+            boolean first = true;
+            long previousBits = 0;
+            int previousLeading = 0;
+            int previousTrailing = 0;
+            for ( int i = 0; i < count; i++ )
+            {
+                if ( isHeartbeat ( flags[i] ) )
+                {
+                    values[i] = Double.NaN;
+                    continue;
+                }
+
+                if ( first )
+                {
+                    previousBits = in.read ( 64 );
+                    first = false;
+                }
+                else if ( in.read ( 1 ) != 0 )
+                {
+                    if ( in.read ( 1 ) != 0 )
+                    {
+                        previousLeading = (int)in.read ( 5 );
+                        final int significant = (int)in.read ( 6 ) + 1;
+                        previousTrailing = 64 - previousLeading - significant;
+                    }
+                    previousBits ^= in.read ( 64 - previousLeading - previousTrailing ) << previousTrailing;
+                }
+                values[i] = Double.longBitsToDouble ( previousBits );
+            }
+        }
+        catch ( final RuntimeException e )
+        {
+            throw new IOException ( "Corrupt block", e );
+        }
+    }
+
+    private static void writeDeltaOfDelta ( final BitOutput out, final long value )
+    {
+        if ( value == 0 )
+        {
+            out.write ( 0, 1 );
+        }
+        else if ( fits ( value, 7 ) )
+        {
+            out.write ( 0x02, 2 );
+            out.write ( value, 7 );
+        }
+        else if ( fits ( value, 9 ) )
+        {
+            out.write ( 0x06, 3 );
+            out.write ( value, 9 );
+        }
+        else if ( fits ( value, 12 ) )
+        {
+            out.write ( 0x0E, 4 );
+            out.write ( value, 12 );
+        }
+        else if ( fits ( value, 32 ) )
+        {
+            out.write ( 0x1E, 5 );
+            out.write ( value, 32 );
+        }
+        else
+        {
+            out.write ( 0x1F, 5 );
+            out.write ( value, 64 );
+        }
+    }
+
+    private static long readDeltaOfDelta ( final BitInput in )
+    {
+        if ( in.read ( 1 ) == 0 )
+        {
+            return 0;
+        }
+        if ( in.read ( 1 ) == 0 )
+        {
+            return signExtend ( in.read ( 7 ), 7 );
+        }
+        if ( in.read ( 1 ) == 0 )
+        {
+            return signExtend ( in.read ( 9 ), 9 );
+        }
+        if ( in.read ( 1 ) == 0 )
+        {
+            return signExtend ( in.read ( 12 ), 12 );
+        }
+        if ( in.read ( 1 ) == 0 )
+        {
+            return signExtend ( in.read ( 32 ), 32 );
+        }
+        return in.read ( 64 );
+    }
+
+    private static boolean fits ( final long value, final int bits )
+    {
+        return value >= - ( 1L << bits - 1 ) && value < 1L << bits - 1;
+    }
+
+    private static long signExtend ( final long value, final int bits )
+    {
+        return value << 64 - bits >> 64 - bits;
+    }
+
+    private static class BitOutput
+    {
+        private byte[] data;
+
+        private int bitPosition;
+
+        public BitOutput ( final int capacity )
+        {
+            this.data = new byte[Math.max ( 16, capacity )];
+        }
+
+        /**
+         * Write the lowest <code>bits</code> bits of the value, most
+         * significant bit first
+         */
+        public void write ( final long value, final int bits )
+        {
+            int remaining = bits;
+            while ( remaining > 0 )
+            {
+                final int index = this.bitPosition >>> 3;
+                if ( index >= this.data.length )
+                {
+                    final byte[] data = new byte[this.data.length * 2];
+                    System.arraycopy ( this.data, 0, data, 0, this.data.length );
+                    this.data = data;
+                }
+
+                final int free = 8 - ( this.bitPosition & 0x07 );
+                final int take = Math.min ( free, remaining );
+                final int chunk = (int) ( value >>> remaining - take ) & ( 1 << take ) - 1;
+
+                this.data[index] |= chunk << free - take;
+
+                this.bitPosition += take;
+                remaining -= take;
+            }
+        }
+
+        public byte[] toByteArray ()
+        {
+            final byte[] result = new byte[ ( this.bitPosition + 7 ) >>> 3];
+            System.arraycopy ( this.data, 0, result, 0, result.length );
+            return result;
+        }
+    }
+
+    private static class BitInput
+    {
+        private final ByteBuffer data;
+
+        private final int offset;
+
+        private long bitPosition;
+
+        public BitInput ( final ByteBuffer data )
+        {
+            this.data = data;
+            this.offset = data.position ();
+        }
+
+        public long read ( final int bits )
+        {
+            long result = 0;
+            int remaining = bits;
+            while ( remaining > 0 )
+            {
+                final int current = this.data.get ( this.offset + (int) ( this.bitPosition >>> 3 ) ) & 0xFF;
+                final int available = 8 - (int) ( this.bitPosition & 0x07 );
+                final int take = Math.min ( available, remaining );
+                final int chunk = current >>> available - take & ( 1 << take ) - 1;
+
+                result = result << take | chunk;
+
+                this.bitPosition += take;
+                remaining -= take;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of aggregating one time range
+ * <p>
+ * A bucket holds the raw accumulated values, so that buckets can be stored
+ * and merged into larger buckets. The values of the aggregation functions are
+ * calculated from them.
+ * </p>
+ */
+public class Bucket
+{
+    private final Date start;
+
+    private final Date end;
+
+    private final Set<AggregationFunction> functions;
+
+    private final double min;
+
+    private final double max;
+
+    private final double sum;
+
+    private final long validTime;
+
+    private final long errorTime;
+
+    private final long manualTime;
+
+    private final long count;
+
+    private final double first;
+
+    private final double last;
+
+    /**
+     * Create a new bucket
+     * 
+     * @param start
+     *            the start of the bucket
+     * @param end
+     *            the end of the bucket
+     * @param functions
+     *            the functions provided by this bucket
+     * @param min
+     *            the lowest valid value
+     * @param max
+     *            the highest valid value
+     * @param sum
+     *            the sum of all valid values, multiplied with the time in
+     *            milliseconds they were active
+     * @param validTime
+     *            the time in milliseconds with a valid value
+     * @param errorTime
+     *            the time in milliseconds with an invalid value
+     * @param manualTime
+     *            the time in milliseconds with a manual value
+     * @param count
+     *            the number of values recorded in the bucket
+     * @param first
+     *            the first value recorded in the bucket
+     * @param last
+     *            the last value recorded in the bucket
+     */
+    public Bucket ( final Date start, final Date end, final Set<AggregationFunction> functions, final double min, final double max, final double sum, final long validTime, final long errorTime, final long manualTime, final long count, final double first, final double last )
+    {
+        this.start = start;
+        this.end = end;
+        this.functions = Collections.unmodifiableSet ( functions );
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.validTime = validTime;
+        this.errorTime = errorTime;
+        this.manualTime = manualTime;
+        this.count = count;
+        this.first = first;
+        this.last = last;
+    }
+
+    public Date getStart ()
+    {
+        return this.start;
+    }
+
+    public Date getEnd ()
+    {
+        return this.end;
+    }
+
+    public Set<AggregationFunction> getFunctions ()
+    {
+        return this.functions;
+    }
+
+    /**
+     * Get the value of a function
+     * 
+     * @param function
+     *            the function
+     * @return the value, which may be <code>NaN</code> if there is no data
+     *         for the function, or <code>null</code> if the function was not
+     *         requested
+     */
+    public Double getValue ( final AggregationFunction function )
+    {
+        if ( !this.functions.contains ( function ) )
+        {
+            return null;
+        }
+
+        final long duration = this.end.getTime () - this.start.getTime ();
+
+        switch ( function )
+        {
+            case MIN:
+                return this.validTime > 0 ? this.min : Double.NaN;
+            case MAX:
+                return this.validTime > 0 ? this.max : Double.NaN;
+            case AVERAGE:
+                return this.validTime > 0 ? this.sum / this.validTime : Double.NaN;
+            case FIRST:
+                return this.first;
+            case LAST:
+                return this.last;
+            case COUNT:
+                return (double)this.count;
+            case ERROR_RATIO:
+                return duration > 0 ? (double)this.errorTime / duration : Double.NaN;
+            case MANUAL_RATIO:
+                return duration > 0 ? (double)this.manualTime / duration : Double.NaN;
+        }
+        throw new IllegalArgumentException ( String.format ( "Unknown function: %s", function ) );
+    }
+
+    /**
+     * Get the values of all provided functions
+     * 
+     * @return a new map containing the values
+     */
+    public Map<AggregationFunction, Double> getValues ()
+    {
+        final Map<AggregationFunction, Double> result = new EnumMap<AggregationFunction, Double> ( AggregationFunction.class );
+        for ( final AggregationFunction function : this.functions )
+        {
+            result.put ( function, getValue ( function ) );
+        }
+        return result;
+    }
+
+    public double getMin ()
+    {
+        return this.min;
+    }
+
+    public double getMax ()
+    {
+        return this.max;
+    }
+
+    public double getSum ()
+    {
+        return this.sum;
+    }
+
+    public long getValidTime ()
+    {
+        return this.validTime;
+    }
+
+    public long getErrorTime ()
+    {
+        return this.errorTime;
+    }
+
+    public long getManualTime ()
+    {
+        return this.manualTime;
+    }
+
+    public long getCount ()
+    {
+        return this.count;
+    }
+
+    public double getFirst ()
+    {
+        return this.first;
+    }
+
+    public double getLast ()
+    {
+        return this.last;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format ( "[%tc -> %tc: %s]", this.start, this.end, getValues () );
+    }
+}
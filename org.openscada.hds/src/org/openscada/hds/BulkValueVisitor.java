@@ -0,0 +1,52 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+/**
+ * A value visitor which receives chunks of records
+ * <p>
+ * The arrays belong to the caller and are reused for the next chunk. So they
+ * must not be stored or modified.
+ * </p>
+ * 
+ * @see ValueVisitor
+ */
+public interface BulkValueVisitor
+{
+    /**
+     * Gets called for each chunk of records found
+     * 
+     * @param values
+     *            the values
+     * @param timestamps
+     *            the timestamps in milliseconds
+     * @param flags
+     *            the flags, a combination of
+     *            {@link DataFileAccessor#FLAG_ERROR} and
+     *            {@link DataFileAccessor#FLAG_MANUAL}
+     * @param offset
+     *            the index of the first record
+     * @param length
+     *            the number of records
+     * @return <code>true</code> if the callee wants more data,
+     *         <code>false</code> otherwise
+     */
+    public boolean values ( double[] values, long[] timestamps, byte[] flags, int offset, int length );
+}
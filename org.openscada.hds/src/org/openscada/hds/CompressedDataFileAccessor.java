@@ -0,0 +1,695 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accessor for compressed data files
+ * <p>
+ * The entries are stored in blocks, encoded by {@link BlockCodec}. The block
+ * headers are read when the file is opened, so that each block can be read
+ * separately. The file is only ever appended to. Inserted values are written
+ * as a new block, a forward correction appends a tombstone block, which hides
+ * the corrected entries of all previous blocks. So readers can work on a
+ * snapshot of the block list while the file is modified.
+ * </p>
+ * <p>
+ * Deleted entries are not written. Use {@link DataFileConverter} to convert
+ * files and to drop entries hidden by tombstones.
+ * </p>
+ */
+public class CompressedDataFileAccessor implements DataFileAccessor
+{
+    private final static Logger logger = LoggerFactory.getLogger ( CompressedDataFileAccessor.class );
+
+    /**
+     * The maximum number of entries in a block
+     */
+    static final int BLOCK_ENTRIES = 1024;
+
+    private static class Block
+    {
+        private final long position;
+
+        private final int length;
+
+        private final int count;
+
+        private final long firstValid;
+
+        private final long maxValid;
+
+        private final byte flags;
+
+        public Block ( final long position, final int length, final int count, final long firstValid, final long maxValid, final byte flags )
+        {
+            this.position = position;
+            this.length = length;
+            this.count = count;
+            this.firstValid = firstValid;
+            this.maxValid = maxValid;
+            this.flags = flags;
+        }
+
+        public boolean isTombstone ()
+        {
+            return ( this.flags & BlockCodec.BLOCK_TOMBSTONE ) != 0;
+        }
+
+        public boolean isOrdered ()
+        {
+            return ( this.flags & BlockCodec.BLOCK_ORDERED ) != 0;
+        }
+    }
+
+    /**
+     * A readable view of the blocks
+     * <p>
+     * Each data block is assigned the timestamp after which its valid entries
+     * are hidden by later tombstones.
+     * </p>
+     */
+    private static class Snapshot
+    {
+        private final List<Block> blocks;
+
+        private final long[] cuts;
+
+        private final long maxTimestamp;
+
+        private final boolean ordered;
+
+        public Snapshot ( final List<Block> blocks )
+        {
+            this.blocks = blocks;
+            this.cuts = new long[blocks.size ()];
+
+            long cut = Long.MAX_VALUE;
+            for ( int i = blocks.size () - 1; i >= 0; i-- )
+            {
+                final Block block = blocks.get ( i );
+                if ( block.isTombstone () )
+                {
+                    cut = Math.min ( cut, block.firstValid );
+                }
+                this.cuts[i] = cut;
+            }
+
+            long max = Long.MIN_VALUE;
+            boolean ordered = true;
+            for ( int i = 0; i < blocks.size (); i++ )
+            {
+                final Block block = blocks.get ( i );
+                if ( block.isTombstone () || block.firstValid > this.cuts[i] )
+                {
+                    continue;
+                }
+                ordered &= block.isOrdered () && block.firstValid >= max;
+                max = Math.max ( max, Math.min ( block.maxValid, this.cuts[i] ) );
+            }
+
+            this.maxTimestamp = max;
+            this.ordered = ordered;
+        }
+
+        public boolean hasValidEntries ( final int index )
+        {
+            final Block block = this.blocks.get ( index );
+            return !block.isTombstone () && block.firstValid <= this.cuts[index];
+        }
+    }
+
+    /**
+     * Decoded entries of one block
+     */
+    private static class Entries
+    {
+        public static final int CONTINUE = 0;
+
+        public static final int END_REACHED = 1;
+
+        public static final int STOPPED = 2;
+
+        private final double[] values = new double[BLOCK_ENTRIES];
+
+        private final long[] timestamps = new long[BLOCK_ENTRIES];
+
+        private final byte[] flags = new byte[BLOCK_ENTRIES];
+
+        private int count;
+
+        public boolean isValid ( final int index, final long cut )
+        {
+            return ( this.flags[index] & ( FLAG_HEARTBEAT | DataFileAccessorImpl.FLAG_DELETED ) ) == 0 && this.timestamps[index] <= cut;
+        }
+
+        /**
+         * Pass the valid entries on to the visitor
+         * <p>
+         * The valid entries are moved to the front of the arrays, so the
+         * entries must be read again afterwards.
+         * </p>
+         * 
+         * @param from
+         *            the index of the first entry
+         * @param cut
+         *            the timestamp after which entries are hidden
+         * @param endTimestamp
+         *            stop after the first entry after this timestamp
+         * @return the result of the delivery
+         */
+        public int deliver ( final BulkValueVisitor visitor, final int from, final long cut, final long endTimestamp )
+        {
+            int size = 0;
+            int result = CONTINUE;
+            for ( int i = from; i < this.count; i++ )
+            {
+                if ( !isValid ( i, cut ) )
+                {
+                    continue;
+                }
+
+                this.values[size] = this.values[i];
+                this.timestamps[size] = this.timestamps[i];
+                this.flags[size] = this.flags[i];
+                size++;
+
+                if ( this.timestamps[i] > endTimestamp )
+                {
+                    result = END_REACHED;
+                    break;
+                }
+            }
+
+            if ( size > 0 && !visitor.values ( this.values, this.timestamps, this.flags, 0, size ) )
+            {
+                return STOPPED;
+            }
+            return result;
+        }
+    }
+
+    private final File fileInfo;
+
+    private RandomAccessFile file;
+
+    private final Date start;
+
+    private final Date end;
+
+    /**
+     * The current blocks, guarded by the instance monitor
+     */
+    private Snapshot snapshot;
+
+    /**
+     * The end of the last complete block, guarded by the instance monitor
+     */
+    private long size;
+
+    public CompressedDataFileAccessor ( final File file ) throws Exception
+    {
+        this.fileInfo = file;
+        this.file = new RandomAccessFile ( file, "rw" );
+
+        try
+        {
+            final ByteBuffer header = ByteBuffer.allocate ( DataFileFormat.HEADER_SIZE );
+            if ( !readFully ( header, 0 ) )
+            {
+                throw new IOException ( String.format ( "File %s is too short", file ) );
+            }
+            header.flip ();
+
+            final int magic = header.getInt ();
+            final int version = header.getInt ();
+            if ( version != DataFileFormat.VERSION_COMPRESSED )
+            {
+                throw new IOException ( String.format ( "File %s has an unsupported version - magic: %x, version: %x", file, magic, version ) );
+            }
+            this.start = new Date ( header.getLong () );
+            this.end = new Date ( header.getLong () );
+
+            loadBlocks ();
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to open file", e );
+            this.file.close ();
+            throw e;
+        }
+    }
+
+    private void loadBlocks () throws IOException
+    {
+        final List<Block> blocks = new ArrayList<Block> ();
+        final long fileSize = this.file.getChannel ().size ();
+        final ByteBuffer header = ByteBuffer.allocate ( BlockCodec.HEADER_SIZE );
+
+        long position = DataFileFormat.HEADER_SIZE;
+        while ( position + BlockCodec.HEADER_SIZE <= fileSize )
+        {
+            header.clear ();
+            readFully ( header, position );
+            header.flip ();
+
+            final Block block = new Block ( position, header.getInt (), header.getInt (), header.getLong (), header.getLong (), header.get () );
+            if ( block.length < 0 || block.count < 0 || block.count > BLOCK_ENTRIES || position + BlockCodec.HEADER_SIZE + block.length > fileSize )
+            {
+                break;
+            }
+
+            blocks.add ( block );
+            position += BlockCodec.HEADER_SIZE + block.length;
+        }
+
+        if ( position < fileSize )
+        {
+            // will be overwritten by the next block
+            logger.warn ( "Ignoring incomplete block at the end of {} - position: {}, size: {}", new Object[] { this.fileInfo, position, fileSize } );
+        }
+
+        logger.debug ( "Loaded {} blocks from {}", blocks.size (), this.fileInfo );
+
+        this.snapshot = new Snapshot ( Collections.unmodifiableList ( blocks ) );
+        this.size = position;
+    }
+
+    @Override
+    public Date getStart ()
+    {
+        return this.start;
+    }
+
+    @Override
+    public Date getEnd ()
+    {
+        return this.end;
+    }
+
+    private synchronized Snapshot getSnapshot ()
+    {
+        return this.snapshot;
+    }
+
+    @Override
+    public void insertValue ( final double value, final Date date, final boolean error, final boolean manual, final boolean heartbeat ) throws IOException
+    {
+        final byte flags;
+        if ( heartbeat )
+        {
+            flags = FLAG_HEARTBEAT;
+        }
+        else
+        {
+            flags = (byte) ( ( error ? FLAG_ERROR : 0x00 ) | ( manual ? FLAG_MANUAL : 0x00 ) );
+        }
+
+        insertValues ( new double[] { value }, new long[] { date.getTime () }, new byte[] { flags }, 0, 1 );
+    }
+
+    @Override
+    public synchronized void insertValues ( final double[] values, final long[] timestamps, final byte[] flags, final int offset, final int length ) throws IOException
+    {
+        final double[] blockValues = new double[Math.min ( length, BLOCK_ENTRIES )];
+        final long[] blockTimestamps = new long[blockValues.length];
+        final byte[] blockFlags = new byte[blockValues.length];
+
+        int count = 0;
+        for ( int i = offset; i < offset + length; i++ )
+        {
+            if ( ( flags[i] & DataFileAccessorImpl.FLAG_DELETED ) != 0 )
+            {
+                continue;
+            }
+
+            blockValues[count] = values[i];
+            blockTimestamps[count] = timestamps[i];
+            blockFlags[count] = flags[i];
+            count++;
+
+            if ( count == blockValues.length )
+            {
+                appendBlock ( BlockCodec.encode ( blockValues, blockTimestamps, blockFlags, 0, count ) );
+                count = 0;
+            }
+        }
+
+        if ( count > 0 )
+        {
+            appendBlock ( BlockCodec.encode ( blockValues, blockTimestamps, blockFlags, 0, count ) );
+        }
+    }
+
+    /**
+     * Write a block at the end of the file and publish it
+     */
+    private synchronized void appendBlock ( final ByteBuffer data ) throws IOException
+    {
+        final long position = this.size;
+
+        final Block block = new Block ( position, data.getInt ( 0 ), data.getInt ( 4 ), data.getLong ( 8 ), data.getLong ( 16 ), data.get ( 24 ) );
+
+        long current = position;
+        while ( data.hasRemaining () )
+        {
+            current += this.file.getChannel ().write ( data, current );
+        }
+
+        final List<Block> blocks = new ArrayList<Block> ( this.snapshot.blocks );
+        blocks.add ( block );
+        this.snapshot = new Snapshot ( Collections.unmodifiableList ( blocks ) );
+        this.size = current;
+    }
+
+    @Override
+    public void force () throws IOException
+    {
+        this.file.getChannel ().force ( false );
+    }
+
+    @Override
+    public void forwardCorrect ( final double value, final Date date, final boolean error, final boolean manual ) throws Exception
+    {
+        final long timestamp = date.getTime ();
+
+        synchronized ( this )
+        {
+            if ( this.snapshot.maxTimestamp <= timestamp )
+            {
+                logger.debug ( "No entries after {}. Skipping correction.", date );
+                return;
+            }
+
+            logger.info ( "Rewriting history - deleted entries after {}", date );
+            appendBlock ( BlockCodec.encodeTombstone ( timestamp ) );
+        }
+    }
+
+    @Override
+    public boolean visit ( final ValueVisitor visitor ) throws Exception
+    {
+        return visit ( ValueVisitors.bulk ( visitor ) );
+    }
+
+    @Override
+    public boolean visit ( final BulkValueVisitor visitor ) throws Exception
+    {
+        logger.debug ( "Welcome visitor: {}", visitor );
+
+        final Snapshot snapshot = getSnapshot ();
+        final Entries entries = new Entries ();
+
+        for ( int b = 0; b < snapshot.blocks.size (); b++ )
+        {
+            if ( !snapshot.hasValidEntries ( b ) )
+            {
+                continue;
+            }
+
+            readBlock ( snapshot.blocks.get ( b ), entries );
+            if ( entries.deliver ( visitor, 0, snapshot.cuts[b], Long.MAX_VALUE ) == Entries.STOPPED )
+            {
+                logger.debug ( "Stopping visit by request on visitor" );
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean visit ( final ValueVisitor visitor, final Date start, final Date end ) throws Exception
+    {
+        return visit ( ValueVisitors.bulk ( visitor ), start.getTime (), end.getTime () );
+    }
+
+    @Override
+    public boolean visit ( final BulkValueVisitor visitor, final long start, final long end ) throws Exception
+    {
+        logger.debug ( "Welcome range visitor: {} ({} -> {})", new Object[] { visitor, start, end } );
+
+        final Snapshot snapshot = getSnapshot ();
+        final Entries entries = new Entries ();
+
+        // an unordered file has to be read completely
+        final boolean ordered = snapshot.ordered;
+        final long endTimestamp = ordered ? end : Long.MAX_VALUE;
+
+        int startBlock = 0;
+        if ( ordered )
+        {
+            // the last block starting at or before the start timestamp
+            for ( int b = 0; b < snapshot.blocks.size (); b++ )
+            {
+                if ( snapshot.hasValidEntries ( b ) && snapshot.blocks.get ( b ).firstValid <= start )
+                {
+                    startBlock = b;
+                }
+            }
+        }
+
+        boolean first = ordered;
+        for ( int b = startBlock; b < snapshot.blocks.size (); b++ )
+        {
+            if ( !snapshot.hasValidEntries ( b ) )
+            {
+                continue;
+            }
+
+            final long cut = snapshot.cuts[b];
+            readBlock ( snapshot.blocks.get ( b ), entries );
+
+            int startEntry = 0;
+            if ( first )
+            {
+                // start with the last valid entry at or before the start timestamp
+                for ( int i = 0; i < entries.count; i++ )
+                {
+                    if ( entries.isValid ( i, cut ) && entries.timestamps[i] <= start )
+                    {
+                        startEntry = i;
+                    }
+                }
+                first = false;
+            }
+
+            final int result = entries.deliver ( visitor, startEntry, cut, endTimestamp );
+            if ( result == Entries.STOPPED )
+            {
+                logger.debug ( "Stopping visit by request on visitor" );
+                return false;
+            }
+            else if ( result == Entries.END_REACHED )
+            {
+                logger.debug ( "Reached end of range" );
+                return true;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean visitFirstValue ( final ValueVisitor visitor ) throws Exception
+    {
+        return visitFirstValue ( ValueVisitors.primitive ( visitor ) );
+    }
+
+    @Override
+    public boolean visitFirstValue ( final PrimitiveValueVisitor visitor ) throws Exception
+    {
+        logger.debug ( "Welcome backwards seeking visitor: {}", visitor );
+
+        final Snapshot snapshot = getSnapshot ();
+        final Entries entries = new Entries ();
+
+        for ( int b = snapshot.blocks.size () - 1; b >= 0; b-- )
+        {
+            if ( !snapshot.hasValidEntries ( b ) )
+            {
+                continue;
+            }
+
+            readBlock ( snapshot.blocks.get ( b ), entries );
+            for ( int i = entries.count - 1; i >= 0; i-- )
+            {
+                if ( entries.isValid ( i, snapshot.cuts[b] ) && !Double.isNaN ( entries.values[i] ) )
+                {
+                    logger.debug ( "Stumbled upon {}/{}/{} when searching backwards", new Object[] { entries.values[i], entries.timestamps[i], entries.flags[i] } );
+                    visitor.value ( entries.values[i], entries.timestamps[i], entries.flags[i] );
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Handler for the raw entries of a file
+     */
+    interface EntryHandler
+    {
+        /**
+         * Handle a block of entries
+         * <p>
+         * Entries hidden by tombstones are already removed.
+         * </p>
+         */
+        public void handle ( double[] values, long[] timestamps, byte[] flags, int count ) throws IOException;
+    }
+
+    /**
+     * Read all entries including heartbeats
+     */
+    void readEntries ( final EntryHandler handler ) throws IOException
+    {
+        final Snapshot snapshot = getSnapshot ();
+        final Entries entries = new Entries ();
+
+        for ( int b = 0; b < snapshot.blocks.size (); b++ )
+        {
+            final Block block = snapshot.blocks.get ( b );
+            if ( block.isTombstone () )
+            {
+                continue;
+            }
+
+            readBlock ( block, entries );
+
+            int count = 0;
+            for ( int i = 0; i < entries.count; i++ )
+            {
+                final boolean hidden = ( entries.flags[i] & FLAG_HEARTBEAT ) == 0 && entries.timestamps[i] > snapshot.cuts[b];
+                if ( !hidden )
+                {
+                    entries.values[count] = entries.values[i];
+                    entries.timestamps[count] = entries.timestamps[i];
+                    entries.flags[count] = entries.flags[i];
+                    count++;
+                }
+            }
+            handler.handle ( entries.values, entries.timestamps, entries.flags, count );
+        }
+    }
+
+    private void readBlock ( final Block block, final Entries entries ) throws IOException
+    {
+        final ByteBuffer payload = ByteBuffer.allocate ( block.length );
+        if ( !readFully ( payload, block.position + BlockCodec.HEADER_SIZE ) )
+        {
+            throw new IOException ( String.format ( "Failed to read block at %s", block.position ) );
+        }
+        payload.flip ();
+
+        BlockCodec.decode ( payload, block.count, entries.values, entries.timestamps, entries.flags );
+        entries.count = block.count;
+    }
+
+    private boolean readFully ( final ByteBuffer buffer, final long position ) throws IOException
+    {
+        long current = position;
+        while ( buffer.hasRemaining () )
+        {
+            final int rc = this.file.getChannel ().read ( buffer, current );
+            if ( rc < 0 )
+            {
+                return false;
+            }
+            current += rc;
+        }
+        return true;
+    }
+
+    @Override
+    public void dispose ()
+    {
+        logger.debug ( "Closing {}", this.fileInfo );
+        if ( this.file == null )
+        {
+            // already disposed
+            return;
+        }
+
+        try
+        {
+            this.file.close ();
+            this.file = null;
+        }
+        catch ( final IOException e )
+        {
+            logger.warn ( "Failed to close file", e );
+        }
+    }
+
+    @Override
+    public void delete ()
+    {
+        if ( this.file == null )
+        {
+            // already disposed
+            return;
+        }
+
+        dispose ();
+
+        if ( !this.fileInfo.delete () )
+        {
+            logger.warn ( "Failed to delete: {}", this.fileInfo );
+        }
+        else
+        {
+            logger.info ( "Deleted file: {}", this.fileInfo );
+        }
+    }
+
+    /**
+     * Create a new compressed file
+     * 
+     * @param file
+     *            The file to create. This file must not exists.
+     * @param startDate
+     *            the start date of the file
+     * @param endDate
+     *            the end date of the file
+     * @return a newly created file accessor
+     * @throws Exception
+     *             if anything goes wrong
+     */
+    public static CompressedDataFileAccessor create ( final File file, final Date startDate, final Date endDate ) throws Exception
+    {
+        logger.debug ( "Creating new compressed file: {}", file );
+
+        DataFileFormat.createFile ( file, DataFileFormat.VERSION_COMPRESSED, startDate, endDate );
+        return new CompressedDataFileAccessor ( file );
+    }
+}
@@ -24,15 +24,108 @@ import java.util.Date;
 
 public interface DataFileAccessor
 {
+    public static final byte FLAG_ERROR = 0x01;
+
+    public static final byte FLAG_MANUAL = 0x02;
+
+    public static final byte FLAG_HEARTBEAT = 0x04;
 
     public abstract void insertValue ( final double value, final Date date, final boolean error, final boolean manual, final boolean heartbeat ) throws IOException;
 
+    /**
+     * Append a number of values at once
+     * <p>
+     * The flags are a combination of {@link #FLAG_ERROR},
+     * {@link #FLAG_MANUAL} and {@link #FLAG_HEARTBEAT}. Entries which already
+     * got superseded by later entries in the same batch may also carry the
+     * deleted flag.
+     * </p>
+     * 
+     * @param values
+     *            the values
+     * @param timestamps
+     *            the timestamps in milliseconds
+     * @param flags
+     *            the flags
+     * @param offset
+     *            the index of the first entry to write
+     * @param length
+     *            the number of entries to write
+     * @throws IOException
+     *             if writing fails
+     */
+    public abstract void insertValues ( double[] values, long[] timestamps, byte[] flags, int offset, int length ) throws IOException;
+
+    /**
+     * Force all written data to the storage device
+     * 
+     * @throws IOException
+     *             if syncing fails
+     */
+    public abstract void force () throws IOException;
+
     public abstract boolean visit ( final ValueVisitor visitor ) throws Exception;
 
+    /**
+     * Visit all values in chunks
+     * 
+     * @see #visit(ValueVisitor)
+     */
+    public abstract boolean visit ( BulkValueVisitor visitor ) throws Exception;
+
+    /**
+     * Visit values in a time range
+     * <p>
+     * The first value reported is the last valid value at or before
+     * <code>start</code>, if there is one in this file, so that the visitor
+     * knows the state at the beginning of the range. Visiting stops after the
+     * first value past <code>end</code> was found.
+     * </p>
+     * <p>
+     * The start position is located using a binary search, as long as valid
+     * entries are in time order, which is normally ensured by the forward
+     * correction. Otherwise the whole file is read.
+     * </p>
+     * 
+     * @param visitor
+     *            the visitor
+     * @param start
+     *            the start of the range
+     * @param end
+     *            the end of the range
+     * @return <code>true</code> if more should be read, <code>false</code>
+     *         otherwise
+     * @throws Exception
+     *             if anything goes wrong
+     */
+    public abstract boolean visit ( final ValueVisitor visitor, Date start, Date end ) throws Exception;
+
+    /**
+     * Visit values in a time range in chunks
+     * <p>
+     * The values are copied from the file without creating an object for
+     * each value.
+     * </p>
+     * 
+     * @param start
+     *            the start of the range in milliseconds
+     * @param end
+     *            the end of the range in milliseconds
+     * @see #visit(ValueVisitor, Date, Date)
+     */
+    public abstract boolean visit ( BulkValueVisitor visitor, long start, long end ) throws Exception;
+
     public abstract void dispose ();
 
     public abstract boolean visitFirstValue ( ValueVisitor visitor ) throws Exception;
 
+    /**
+     * Visit the last valid value of the file which is not <code>NaN</code>
+     * 
+     * @return <code>true</code> if such a value was found
+     */
+    public abstract boolean visitFirstValue ( PrimitiveValueVisitor visitor ) throws Exception;
+
     /**
      * Forward correct entries
      * <p>
@@ -20,11 +20,12 @@
 package org.openscada.hds;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Date;
 
 import org.slf4j.Logger;
@@ -36,15 +37,30 @@ public class DataFileAccessorImpl implements DataFileAccessor
 
     protected static final byte FLAG_DELETED = 0x08;
 
-    protected static final byte FLAG_HEARTBEAT = 0x04;
+    protected static final int HEADER_SIZE = 4 + 4 + 8 + 8;
 
-    protected static final byte FLAG_MANUAL = 0x02;
+    private static final int ENTRY_SIZE = 8 + 8 + 1;
 
-    protected static final byte FLAG_ERROR = 0x01;
+    /**
+     * The number of bytes read at once when the file is not mapped
+     */
+    private static final int CHUNK_SIZE = ENTRY_SIZE * 1024;
 
-    protected static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+    /**
+     * The number of entries handed over to bulk visitors at once
+     */
+    private static final int CHUNK_ENTRIES = CHUNK_SIZE / ENTRY_SIZE;
 
-    private static final int ENTRY_SIZE = 8 + 8 + 1;
+    /**
+     * Memory map closed files for reading
+     * <p>
+     * Mapped files can only be deleted after the mapping was garbage collected
+     * on some platforms. So this can be disabled by setting the system property
+     * <code>org.openscada.hds.disableMapping</code> to <code>true</code>. The
+     * property is read when the file is opened.
+     * </p>
+     */
+    private final boolean useMapping = !Boolean.getBoolean ( "org.openscada.hds.disableMapping" );
 
     protected RandomAccessFile file;
 
@@ -56,6 +72,21 @@ public class DataFileAccessorImpl implements DataFileAccessor
 
     private final File fileInfo;
 
+    private MappedByteBuffer mapping;
+
+    /**
+     * The watermark, <code>null</code> if it was not yet read
+     * <p>
+     * The state is guarded by the instance monitor, since readers may access
+     * the file while it is being written.
+     * </p>
+     * 
+     * @see #loadState()
+     */
+    private Long maxTimestamp;
+
+    private boolean ordered;
+
     public DataFileAccessorImpl ( final File file ) throws Exception
     {
         this.fileInfo = file;
@@ -154,155 +185,671 @@ public class DataFileAccessorImpl implements DataFileAccessor
             logger.debug ( "Wrote {} bytes", rc );
         }
 
+        // update after writing, so that concurrent readers loading the state see a consistent file
+        updateState ( date.getTime (), flag );
+
         if ( logger.isDebugEnabled () )
         {
             logger.debug ( "File position - after: {}", this.channel.position () );
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.openscada.hds.DataFileAccessor#insertValues(double[], long[], byte[], int, int)
+     */
+    @Override
+    public void insertValues ( final double[] values, final long[] timestamps, final byte[] flags, final int offset, final int length ) throws IOException
+    {
+        logger.debug ( "Writing {} entries", length );
+
+        final ByteBuffer buffer = ByteBuffer.allocate ( length * ENTRY_SIZE );
+        for ( int i = offset; i < offset + length; i++ )
+        {
+            buffer.putDouble ( values[i] );
+            buffer.putLong ( timestamps[i] );
+            buffer.put ( flags[i] );
+        }
+        buffer.flip ();
+
+        while ( buffer.hasRemaining () )
+        {
+            final int rc = this.channel.write ( buffer );
+            if ( rc < 0 )
+            {
+                throw new IOException ( "Failed to write data" );
+            }
+            logger.debug ( "Wrote {} bytes", rc );
+        }
+
+        for ( int i = offset; i < offset + length; i++ )
+        {
+            updateState ( timestamps[i], flags[i] );
+        }
+    }
+
+    @Override
+    public void force () throws IOException
+    {
+        this.channel.force ( false );
+    }
+
     @Override
     public boolean visitFirstValue ( final ValueVisitor visitor ) throws Exception
     {
-        logger.debug ( "Welcome backwards seeking visitor: {}", visitor );
+        return visitFirstValue ( ValueVisitors.primitive ( visitor ) );
+    }
 
-        final long startPosition = this.channel.position ();
+    @Override
+    public boolean visitFirstValue ( final PrimitiveValueVisitor visitor ) throws Exception
+    {
+        logger.debug ( "Welcome backwards seeking visitor: {}", visitor );
 
-        logger.debug ( "Seeking at position: {}", startPosition );
+        final boolean[] found = new boolean[] { false };
 
-        final ByteBuffer buffer = ByteBuffer.allocate ( ENTRY_SIZE );
+        scanBackwards ( HEADER_SIZE, this.channel.size (), new EntryHandler () {
 
-        try
-        {
-            while ( this.channel.position () > HEADER_SIZE )
+            @Override
+            public boolean handle ( final ByteBuffer entries )
             {
-                logger.debug ( "At position: {}", this.channel.position () );
+                for ( int i = entries.limit () - ENTRY_SIZE; i >= entries.position (); i -= ENTRY_SIZE )
+                {
+                    final double value = entries.getDouble ( i );
+                    final byte flags = entries.get ( i + 16 );
 
-                this.channel.position ( this.channel.position () - ENTRY_SIZE );
-                if ( read ( buffer ) != ENTRY_SIZE )
+                    if ( isValid ( flags ) && !Double.isNaN ( value ) )
+                    {
+                        final long timestamp = entries.getLong ( i + 8 );
+                        logger.debug ( "Stumbled upon {}/{}/{} when searching backwards", new Object[] { value, timestamp, flags } );
+                        visitor.value ( value, timestamp, flags );
+                        found[0] = true;
+                        return false;
+                    }
+                }
+                return true;
+            }
+        } );
+
+        return found[0];
+    }
+
+    /* (non-Javadoc)
+     * @see org.openscada.hds.DataFileAccessor#visit(org.openscada.hds.ValueVisitor)
+     */
+    @Override
+    public boolean visit ( final ValueVisitor visitor ) throws IOException
+    {
+        return visit ( ValueVisitors.bulk ( visitor ) );
+    }
+
+    @Override
+    public boolean visit ( final BulkValueVisitor visitor ) throws IOException
+    {
+        logger.debug ( "Welcome visitor: {}", visitor );
+
+        return visitEntries ( visitor, HEADER_SIZE, this.channel.size (), Long.MAX_VALUE );
+    }
+
+    /* (non-Javadoc)
+     * @see org.openscada.hds.DataFileAccessor#visit(org.openscada.hds.ValueVisitor, java.util.Date, java.util.Date)
+     */
+    @Override
+    public boolean visit ( final ValueVisitor visitor, final Date start, final Date end ) throws IOException
+    {
+        return visit ( ValueVisitors.bulk ( visitor ), start.getTime (), end.getTime () );
+    }
+
+    @Override
+    public boolean visit ( final BulkValueVisitor visitor, final long start, final long end ) throws IOException
+    {
+        logger.debug ( "Welcome range visitor: {} ({} -> {})", new Object[] { visitor, start, end } );
+
+        loadState ();
+
+        final long endPosition = alignedEnd ( HEADER_SIZE, this.channel.size () );
+
+        // an unordered file has to be read completely
+        final boolean ordered = isOrdered ();
+        final long startPosition = ordered ? findStartPosition ( start, endPosition ) : HEADER_SIZE;
+        final long endTimestamp = ordered ? end : Long.MAX_VALUE;
+
+        return visitEntries ( visitor, startPosition, endPosition, endTimestamp );
+    }
+
+    /**
+     * Pass the valid entries in the file range on to the visitor
+     * <p>
+     * The entries are copied into column arrays, which are handed over when
+     * they are full, when the first entry after <code>endTimestamp</code> was
+     * copied or at the end of the range.
+     * </p>
+     * 
+     * @return <code>false</code> if the visitor requested to stop,
+     *         <code>true</code> otherwise
+     */
+    private boolean visitEntries ( final BulkValueVisitor visitor, final long from, final long to, final long endTimestamp ) throws IOException
+    {
+        final double[] values = new double[CHUNK_ENTRIES];
+        final long[] timestamps = new long[CHUNK_ENTRIES];
+        final byte[] flags = new byte[CHUNK_ENTRIES];
+        final int[] size = new int[] { 0 };
+        final boolean[] stopped = new boolean[] { false };
+
+        scan ( from, to, new EntryHandler () {
+
+            @Override
+            public boolean handle ( final ByteBuffer entries )
+            {
+                for ( int i = entries.position (); i < entries.limit (); i += ENTRY_SIZE )
                 {
-                    break;
+                    final byte entryFlags = entries.get ( i + 16 );
+                    if ( !isValid ( entryFlags ) )
+                    {
+                        continue;
+                    }
+
+                    final long timestamp = entries.getLong ( i + 8 );
+                    final int index = size[0]++;
+                    values[index] = entries.getDouble ( i );
+                    timestamps[index] = timestamp;
+                    flags[index] = entryFlags;
+
+                    final boolean last = timestamp > endTimestamp;
+                    if ( last || size[0] == CHUNK_ENTRIES )
+                    {
+                        final int length = size[0];
+                        size[0] = 0;
+                        if ( !visitor.values ( values, timestamps, flags, 0, length ) )
+                        {
+                            logger.debug ( "Stopping visit by request on visitor" );
+                            stopped[0] = true;
+                            return false;
+                        }
+                        if ( last )
+                        {
+                            logger.debug ( "Reached end of range" );
+                            return false;
+                        }
+                    }
                 }
+                return true;
+            }
+        } );
 
-                buffer.flip ();
+        if ( !stopped[0] && size[0] > 0 && !visitor.values ( values, timestamps, flags, 0, size[0] ) )
+        {
+            logger.debug ( "Stopping visit by request on visitor" );
+            return false;
+        }
 
-                final double value = buffer.getDouble ();
-                final Date timestamp = new Date ( buffer.getLong () );
-                final byte flags = buffer.get ();
+        return !stopped[0];
+    }
 
-                logger.debug ( "Stumbled upon {}/{}/{} when searching backwards", new Object[] { value, timestamp, flags } );
+    /**
+     * Find the position of the last valid entry at or before the timestamp
+     * <p>
+     * Deleted entries and heartbeats may be out of order, so they are skipped
+     * when probing.
+     * </p>
+     * 
+     * @param timestamp
+     *            the timestamp to look for
+     * @param end
+     *            the end position of the last complete entry
+     * @return the position of the entry, or the position of the first entry
+     *         if there is no entry at or before the timestamp
+     */
+    private long findStartPosition ( final long timestamp, final long end ) throws IOException
+    {
+        final ByteBuffer mapped = mappedRange ( HEADER_SIZE, end );
+        final ByteBuffer buffer = mapped != null ? mapped : ByteBuffer.allocate ( ENTRY_SIZE );
 
-                if ( ( flags & FLAG_HEARTBEAT ) == 0 && ( flags & FLAG_DELETED ) == 0 && !Double.isNaN ( value ) )
+        long low = 0;
+        long high = ( end - HEADER_SIZE ) / ENTRY_SIZE - 1;
+        long result = -1;
+
+        while ( low <= high )
+        {
+            final long mid = ( low + high ) >>> 1;
+
+            // find the next valid entry, starting at mid
+            long probe = mid;
+            int offset = readEntry ( mapped, buffer, HEADER_SIZE + probe * ENTRY_SIZE );
+            while ( probe <= high && !isValid ( buffer.get ( offset + 16 ) ) )
+            {
+                probe++;
+                if ( probe <= high )
                 {
-                    visitor.value ( value, timestamp, ( flags & FLAG_ERROR ) > 0, ( flags & FLAG_MANUAL ) > 0 );
-                    return true;
+                    offset = readEntry ( mapped, buffer, HEADER_SIZE + probe * ENTRY_SIZE );
                 }
+            }
 
-                buffer.clear ();
-                this.channel.position ( this.channel.position () - ENTRY_SIZE );
+            if ( probe <= high && buffer.getLong ( offset + 8 ) <= timestamp )
+            {
+                result = probe;
+                low = probe + 1;
             }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+
+        logger.debug ( "Start entry for {} is {}", timestamp, result );
+
+        return result < 0 ? HEADER_SIZE : HEADER_SIZE + result * ENTRY_SIZE;
+    }
+
+    private static boolean isValid ( final byte flags )
+    {
+        return ( flags & FLAG_HEARTBEAT ) == 0 && ( flags & FLAG_DELETED ) == 0;
+    }
+
+    /**
+     * Read a single entry
+     * 
+     * @param mapped
+     *            the mapped file or <code>null</code> if the file is not
+     *            mapped
+     * @param buffer
+     *            the buffer to read into if the file is not mapped
+     * @param position
+     *            the file position of the entry
+     * @return the offset of the entry in the buffer
+     */
+    private int readEntry ( final ByteBuffer mapped, final ByteBuffer buffer, final long position ) throws IOException
+    {
+        if ( mapped != null )
+        {
+            return (int)position;
         }
-        finally
+
+        buffer.clear ();
+        if ( !readFully ( buffer, position ) )
         {
-            this.channel.position ( startPosition );
-            logger.debug ( "Returned to position: {}", startPosition );
+            throw new IOException ( String.format ( "Failed to read entry at %s", position ) );
         }
-        return false;
+        return 0;
     }
 
-    /* (non-Javadoc)
-     * @see org.openscada.hds.DataFileAccessor#visit(org.openscada.hds.ValueVisitor)
+    /**
+     * Handler for a block of complete entries
      */
-    @Override
-    public boolean visit ( final ValueVisitor visitor ) throws IOException
+    private interface EntryHandler
     {
-        logger.debug ( "Welcome visitor: {}", visitor );
+        /**
+         * Handle a block of entries
+         * <p>
+         * The buffer contains only complete entries between its position and
+         * its limit. Entries must be read using absolute access.
+         * </p>
+         * 
+         * @param entries
+         *            the entries
+         * @return <code>true</code> if more entries should be read,
+         *         <code>false</code> otherwise
+         */
+        public boolean handle ( ByteBuffer entries ) throws IOException;
+    }
 
-        final long position = this.channel.position ();
+    /**
+     * Scan entries from the file position <code>from</code> up to (exclusive)
+     * <code>to</code> in forward direction
+     * <p>
+     * Neither method changes the position of the file channel, so that
+     * appending data is not affected.
+     * </p>
+     * 
+     * @return <code>false</code> if the handler stopped the scan,
+     *         <code>true</code> otherwise
+     */
+    private boolean scan ( final long from, final long to, final EntryHandler handler ) throws IOException
+    {
+        final long end = alignedEnd ( from, to );
+        if ( end <= from )
+        {
+            return true;
+        }
 
-        try
+        final ByteBuffer mapped = mappedRange ( from, end );
+        if ( mapped != null )
+        {
+            return handler.handle ( mapped );
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate ( (int)Math.min ( CHUNK_SIZE, end - from ) );
+
+        long position = from;
+        while ( position < end )
         {
-            this.channel.position ( HEADER_SIZE );
+            buffer.clear ();
+            buffer.limit ( (int)Math.min ( buffer.capacity (), end - position ) );
+            if ( !readFully ( buffer, position ) )
+            {
+                break;
+            }
+            buffer.flip ();
 
-            final ByteBuffer buffer = ByteBuffer.allocate ( ENTRY_SIZE );
+            if ( !handler.handle ( buffer ) )
+            {
+                return false;
+            }
+            position += buffer.limit ();
+        }
+
+        return true;
+    }
 
-            while ( read ( buffer ) == ENTRY_SIZE )
+    /**
+     * Scan entries from the file position <code>to</code> (exclusive) back to
+     * <code>from</code>
+     * <p>
+     * Blocks are handed over in backward order, the handler itself has to
+     * iterate each block backwards.
+     * </p>
+     * 
+     * @see #scan(long, long, EntryHandler)
+     */
+    private boolean scanBackwards ( final long from, final long to, final EntryHandler handler ) throws IOException
+    {
+        final long end = alignedEnd ( from, to );
+        if ( end <= from )
+        {
+            return true;
+        }
+
+        final ByteBuffer mapped = mappedRange ( from, end );
+        if ( mapped != null )
+        {
+            return handler.handle ( mapped );
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate ( (int)Math.min ( CHUNK_SIZE, end - from ) );
+
+        long position = end;
+        while ( position > from )
+        {
+            final int len = (int)Math.min ( buffer.capacity (), position - from );
+            position -= len;
+
+            buffer.clear ();
+            buffer.limit ( len );
+            if ( !readFully ( buffer, position ) )
             {
-                buffer.flip ();
+                break;
+            }
+            buffer.flip ();
 
-                final double value = buffer.getDouble ();
-                final long timestamp = buffer.getLong ();
-                final byte flags = buffer.get ();
+            if ( !handler.handle ( buffer ) )
+            {
+                return false;
+            }
+        }
 
-                logger.debug ( "Visit value - flag: {}", flags );
+        return true;
+    }
 
-                if ( ( flags & FLAG_HEARTBEAT ) == 0 && ( flags & FLAG_DELETED ) == 0 )
-                {
-                    final boolean cont = visitor.value ( value, new Date ( timestamp ), ( flags & FLAG_ERROR ) > 0, ( flags & FLAG_MANUAL ) > 0 );
-                    if ( !cont )
-                    {
-                        logger.debug ( "Stopping visit by request on visitor" );
-                        return false; // stop reading
-                    }
-                }
-                buffer.clear ();
+    /**
+     * Get the end position of the last complete entry before <code>to</code>
+     */
+    private static long alignedEnd ( final long from, final long to )
+    {
+        return to - ( to - from ) % ENTRY_SIZE;
+    }
+
+    /**
+     * Read the buffer fully from an absolute file position without moving the
+     * channel position
+     * 
+     * @return <code>true</code> if the buffer could be filled,
+     *         <code>false</code> if the end of file was reached before
+     */
+    private boolean readFully ( final ByteBuffer buffer, final long position ) throws IOException
+    {
+        long current = position;
+        while ( buffer.hasRemaining () )
+        {
+            final int rc = this.channel.read ( buffer, current );
+            if ( rc < 0 )
+            {
+                return false;
             }
+            current += rc;
         }
-        finally
+        return true;
+    }
+
+    /**
+     * Get a view of the memory mapped file for the requested range
+     * <p>
+     * Only slices which are closed (the end is in the past) are mapped. The
+     * current slice is still being appended, so it is read using positional
+     * reads instead.
+     * </p>
+     * 
+     * @return the buffer covering exactly the requested range or
+     *         <code>null</code> if the file is not mapped
+     */
+    private ByteBuffer mappedRange ( final long from, final long to ) throws IOException
+    {
+        if ( !this.useMapping || this.end.getTime () > System.currentTimeMillis () )
         {
-            this.channel.position ( position );
-            logger.debug ( "Returned to position: {}", position );
+            return null;
         }
 
-        return true; // continue reading
+        final ByteBuffer mapping = getMapping ( to );
+        if ( mapping == null )
+        {
+            return null;
+        }
+
+        final ByteBuffer result = mapping.duplicate ();
+        result.limit ( (int)to );
+        result.position ( (int)from );
+        return result;
     }
 
-    private int read ( final ByteBuffer buffer ) throws IOException
+    /**
+     * Get the mapping, re-map if the file has grown beyond the mapped size
+     * <p>
+     * Closed files may still grow when late values get inserted.
+     * </p>
+     */
+    private synchronized MappedByteBuffer getMapping ( final long requiredSize ) throws IOException
     {
-        while ( this.channel.read ( buffer ) > 0 && buffer.hasRemaining () )
+        if ( this.mapping != null && this.mapping.capacity () >= requiredSize )
         {
+            return this.mapping;
         }
-        return buffer.position ();
+
+        final long size = this.channel.size ();
+        if ( size > Integer.MAX_VALUE || size < requiredSize )
+        {
+            return null;
+        }
+
+        logger.debug ( "Mapping {} bytes of {}", size, this.fileInfo );
+        this.mapping = this.channel.map ( MapMode.READ_ONLY, 0, size );
+        return this.mapping;
     }
 
     @Override
-    public void forwardCorrect ( final double value, final Date timestamp, final boolean error, final boolean manual ) throws Exception
+    public void forwardCorrect ( final double value, final Date date, final boolean error, final boolean manual ) throws Exception
     {
-        final long position = this.channel.position ();
-        try
+        final long timestamp = date.getTime ();
+
+        loadState ();
+
+        if ( getMaxTimestamp () <= timestamp )
         {
-            this.channel.position ( HEADER_SIZE );
+            logger.debug ( "No entries after {}. Skipping correction.", date );
+            return;
+        }
+
+        final long end = alignedEnd ( HEADER_SIZE, this.channel.size () );
+
+        // if the file is out of order we need to check all entries
+        final boolean fullScan = !isOrdered ();
+        final long start = fullScan ? HEADER_SIZE : findStartPosition ( timestamp, end );
 
-            final ByteBuffer buffer = ByteBuffer.allocate ( ENTRY_SIZE );
+        final ByteBuffer buffer = ByteBuffer.allocate ( (int)Math.max ( ENTRY_SIZE, Math.min ( CHUNK_SIZE, end - start ) ) );
 
-            while ( read ( buffer ) == ENTRY_SIZE )
+        int count = 0;
+        long max = Long.MIN_VALUE;
+        boolean ordered = true;
+
+        long position = start;
+        while ( position < end )
+        {
+            buffer.clear ();
+            buffer.limit ( (int)Math.min ( buffer.capacity (), end - position ) );
+            if ( !readFully ( buffer, position ) )
             {
-                buffer.flip ();
+                break;
+            }
+            buffer.flip ();
 
-                final double entryValue = buffer.getDouble ();
-                final Date entryTimestamp = new Date ( buffer.getLong () );
-                final byte flags = buffer.get ();
+            // mark entries in the buffer and remember the modified range
 
-                logger.debug ( "Checking value - flag: {}", flags );
+            int first = -1;
+            int last = -1;
+            for ( int i = 0; i < buffer.limit (); i += ENTRY_SIZE )
+            {
+                final byte flags = buffer.get ( i + 16 );
+                if ( !isValid ( flags ) )
+                {
+                    continue;
+                }
 
-                if ( ( flags & FLAG_HEARTBEAT ) == 0 && ( flags & FLAG_DELETED ) == 0 )
+                final long entryTimestamp = buffer.getLong ( i + 8 );
+                if ( entryTimestamp > timestamp )
                 {
-                    if ( entryTimestamp.after ( timestamp ) )
+                    buffer.put ( i + 16, (byte) ( flags | FLAG_DELETED ) );
+                    if ( first < 0 )
                     {
-                        logger.info ( "Rewriting history - delete - timestamp: {}, value: {}", entryTimestamp, entryValue );
-                        // replace the flag value, mark as deleted
-                        // the flag is one byte behind the current position
-                        this.channel.position ( this.channel.position () - 1 );
-                        this.channel.write ( ByteBuffer.wrap ( new byte[] { (byte) ( flags | FLAG_DELETED ) } ) );
+                        first = i;
                     }
+                    last = i;
+                    count++;
+                }
+                else
+                {
+                    ordered &= entryTimestamp >= max;
+                    max = Math.max ( max, entryTimestamp );
                 }
-                buffer.clear ();
             }
 
+            // write back the modified range at once
+
+            if ( first >= 0 )
+            {
+                final ByteBuffer modified = buffer.duplicate ();
+                modified.limit ( last + ENTRY_SIZE );
+                modified.position ( first + 16 );
+                writeFully ( modified, position + first + 16 );
+            }
+
+            position += buffer.limit ();
         }
-        finally
+
+        if ( count > 0 )
         {
-            this.channel.position ( position );
-            logger.debug ( "Returned to position: {}", position );
+            logger.info ( "Rewriting history - deleted {} entries after {}", count, date );
+        }
+
+        synchronized ( this )
+        {
+            if ( fullScan )
+            {
+                this.maxTimestamp = max;
+                this.ordered = ordered;
+            }
+            else
+            {
+                // deleting from the tail of an ordered file keeps it ordered
+                this.maxTimestamp = timestamp;
+            }
+        }
+    }
+
+    private synchronized long getMaxTimestamp ()
+    {
+        return this.maxTimestamp;
+    }
+
+    private synchronized boolean isOrdered ()
+    {
+        return this.ordered;
+    }
+
+    private void writeFully ( final ByteBuffer buffer, final long position ) throws IOException
+    {
+        long current = position;
+        while ( buffer.hasRemaining () )
+        {
+            current += this.channel.write ( buffer, current );
+        }
+    }
+
+    /**
+     * Load the watermark and order state of the file
+     * <p>
+     * The watermark is the highest timestamp of all entries which are neither
+     * deleted nor heartbeats. The file is ordered if these entries are in
+     * time order, which is normally ensured by the forward correction. But
+     * values which don't get forward corrected, like <code>NaN</code>, may
+     * be inserted out of order.
+     * </p>
+     * <p>
+     * The state is read once and then updated when writing or correcting
+     * data.
+     * </p>
+     */
+    private synchronized void loadState () throws IOException
+    {
+        if ( this.maxTimestamp != null )
+        {
+            return;
+        }
+
+        final long[] max = new long[] { Long.MIN_VALUE };
+        final boolean[] ordered = new boolean[] { true };
+
+        scan ( HEADER_SIZE, this.channel.size (), new EntryHandler () {
+
+            @Override
+            public boolean handle ( final ByteBuffer entries )
+            {
+                for ( int i = entries.position (); i < entries.limit (); i += ENTRY_SIZE )
+                {
+                    if ( isValid ( entries.get ( i + 16 ) ) )
+                    {
+                        final long timestamp = entries.getLong ( i + 8 );
+                        ordered[0] &= timestamp >= max[0];
+                        max[0] = Math.max ( max[0], timestamp );
+                    }
+                }
+                return true;
+            }
+        } );
+
+        logger.debug ( "State of {} - watermark: {}, ordered: {}", new Object[] { this.fileInfo, max[0], ordered[0] } );
+
+        this.maxTimestamp = max[0];
+        this.ordered = ordered[0];
+    }
+
+    private synchronized void updateState ( final long timestamp, final byte flags )
+    {
+        if ( this.maxTimestamp != null && isValid ( flags ) )
+        {
+            if ( timestamp < this.maxTimestamp )
+            {
+                this.ordered = false;
+            }
+            else
+            {
+                this.maxTimestamp = timestamp;
+            }
         }
     }
 
@@ -319,6 +866,9 @@ public class DataFileAccessorImpl implements DataFileAccessor
             return;
         }
 
+        // the mapping will be released when it gets garbage collected
+        this.mapping = null;
+
         try
         {
             this.file.close ();
@@ -377,37 +927,8 @@ public class DataFileAccessorImpl implements DataFileAccessor
     {
         logger.debug ( "Creating new file: {}", file );
 
-        if ( !file.createNewFile () )
-        {
-            throw new IllegalStateException ( String.format ( "Unable to create file %s, already exists", file ) );
-        }
-
-        final FileOutputStream out = new FileOutputStream ( file );
-
-        try
-        {
-            final FileChannel channel = out.getChannel ();
-
-            final ByteBuffer buffer = ByteBuffer.allocate ( 100 );
-            buffer.putInt ( 0x1202 ); // magic marker
-            buffer.putInt ( 0x0101 ); // version
-            buffer.putLong ( startDate.getTime () ); // start timestamp
-            buffer.putLong ( endDate.getTime () ); // end timestamp
-
-            buffer.flip ();
-
-            while ( buffer.hasRemaining () )
-            {
-                final int rc = channel.write ( buffer );
-                logger.debug ( "Header written - {} bytes", rc );
-            }
-
-            return new DataFileAccessorImpl ( file );
-        }
-        finally
-        {
-            out.close ();
-        }
+        DataFileFormat.createFile ( file, DataFileFormat.VERSION_PLAIN, startDate, endDate );
+        return new DataFileAccessorImpl ( file );
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,266 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offline converter between the data file formats
+ * <p>
+ * The store using the files must not be running while they are converted.
+ * Only files of closed time slices are converted, since the compressed format
+ * stores each insert as a separate block. Deleted entries are dropped.
+ * </p>
+ * 
+ * <pre>
+ * java org.openscada.hds.DataFileConverter [-plain] &lt;file or directory&gt;...
+ * </pre>
+ */
+public class DataFileConverter
+{
+    private final static Logger logger = LoggerFactory.getLogger ( DataFileConverter.class );
+
+    /**
+     * Growable entry arrays
+     */
+    private static class EntryList implements CompressedDataFileAccessor.EntryHandler
+    {
+        private double[] values = new double[1024];
+
+        private long[] timestamps = new long[1024];
+
+        private byte[] flags = new byte[1024];
+
+        private int size;
+
+        public void add ( final double value, final long timestamp, final byte flags )
+        {
+            if ( this.size == this.values.length )
+            {
+                final int capacity = this.size * 2;
+
+                final double[] values = new double[capacity];
+                System.arraycopy ( this.values, 0, values, 0, this.size );
+                this.values = values;
+
+                final long[] timestamps = new long[capacity];
+                System.arraycopy ( this.timestamps, 0, timestamps, 0, this.size );
+                this.timestamps = timestamps;
+
+                final byte[] newFlags = new byte[capacity];
+                System.arraycopy ( this.flags, 0, newFlags, 0, this.size );
+                this.flags = newFlags;
+            }
+
+            this.values[this.size] = value;
+            this.timestamps[this.size] = timestamp;
+            this.flags[this.size] = flags;
+            this.size++;
+        }
+
+        @Override
+        public void handle ( final double[] values, final long[] timestamps, final byte[] flags, final int count )
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                add ( values[i], timestamps[i], flags[i] );
+            }
+        }
+    }
+
+    /**
+     * Convert a single file
+     * 
+     * @param file
+     *            the file to convert
+     * @param version
+     *            the target version, either
+     *            {@link DataFileFormat#VERSION_PLAIN} or
+     *            {@link DataFileFormat#VERSION_COMPRESSED}
+     * @return <code>true</code> if the file was converted,
+     *         <code>false</code> if it already had the target version or the
+     *         time slice is not yet closed
+     * @throws Exception
+     *             if anything goes wrong, the original file is left unchanged
+     *             in this case
+     */
+    public static boolean convert ( final File file, final int version ) throws Exception
+    {
+        if ( version != DataFileFormat.VERSION_PLAIN && version != DataFileFormat.VERSION_COMPRESSED )
+        {
+            throw new IllegalArgumentException ( String.format ( "Unknown version: %x", version ) );
+        }
+
+        if ( DataFileFormat.readVersion ( file ) == version )
+        {
+            return false;
+        }
+
+        final DataFileAccessor source = DataFileFormat.open ( file );
+        final Date start = source.getStart ();
+        final Date end = source.getEnd ();
+
+        final EntryList entries = new EntryList ();
+        try
+        {
+            if ( !end.before ( new Date () ) )
+            {
+                return false;
+            }
+
+            if ( source instanceof CompressedDataFileAccessor )
+            {
+                ( (CompressedDataFileAccessor)source ).readEntries ( entries );
+            }
+            else
+            {
+                readPlain ( file, entries );
+            }
+        }
+        finally
+        {
+            source.dispose ();
+        }
+
+        final File target = new File ( file.getParentFile (), file.getName () + ".tmp" );
+        if ( target.exists () && !target.delete () )
+        {
+            throw new IOException ( String.format ( "Unable to delete temporary file %s", target ) );
+        }
+
+        final DataFileAccessor accessor = version == DataFileFormat.VERSION_COMPRESSED ? CompressedDataFileAccessor.create ( target, start, end ) : DataFileAccessorImpl.create ( target, start, end );
+        try
+        {
+            accessor.insertValues ( entries.values, entries.timestamps, entries.flags, 0, entries.size );
+            accessor.force ();
+        }
+        catch ( final Exception e )
+        {
+            accessor.delete ();
+            throw e;
+        }
+        finally
+        {
+            accessor.dispose ();
+        }
+
+        if ( !file.delete () || !target.renameTo ( file ) )
+        {
+            throw new IOException ( String.format ( "Unable to replace %s with %s", file, target ) );
+        }
+
+        return true;
+    }
+
+    /**
+     * Read all entries of a plain file, except the deleted ones
+     */
+    private static void readPlain ( final File file, final EntryList entries ) throws IOException
+    {
+        final DataInputStream in = new DataInputStream ( new BufferedInputStream ( new FileInputStream ( file ) ) );
+        try
+        {
+            in.skipBytes ( DataFileFormat.HEADER_SIZE );
+            while ( true )
+            {
+                final double value;
+                final long timestamp;
+                final byte flags;
+                try
+                {
+                    value = in.readDouble ();
+                    timestamp = in.readLong ();
+                    flags = in.readByte ();
+                }
+                catch ( final EOFException e )
+                {
+                    // incomplete entries at the end are ignored, as when reading the file
+                    break;
+                }
+
+                if ( ( flags & DataFileAccessorImpl.FLAG_DELETED ) == 0 )
+                {
+                    entries.add ( value, timestamp, flags );
+                }
+            }
+        }
+        finally
+        {
+            in.close ();
+        }
+    }
+
+    private static void convertAll ( final File file, final int version ) throws Exception
+    {
+        if ( file.isDirectory () )
+        {
+            for ( final File child : file.listFiles () )
+            {
+                if ( child.isFile () && child.getName ().endsWith ( ".hds" ) )
+                {
+                    convertAll ( child, version );
+                }
+            }
+            return;
+        }
+
+        final long before = file.length ();
+        if ( convert ( file, version ) )
+        {
+            logger.info ( "Converted {}: {} -> {} bytes", new Object[] { file, before, file.length () } );
+        }
+        else
+        {
+            logger.info ( "Skipped {}", file );
+        }
+    }
+
+    public static void main ( final String[] args ) throws Exception
+    {
+        int version = DataFileFormat.VERSION_COMPRESSED;
+        int count = 0;
+
+        for ( final String arg : args )
+        {
+            if ( "-plain".equals ( arg ) )
+            {
+                version = DataFileFormat.VERSION_PLAIN;
+                continue;
+            }
+            convertAll ( new File ( arg ), version );
+            count++;
+        }
+
+        if ( count == 0 )
+        {
+            System.err.println ( "Usage: DataFileConverter [-plain] <file or directory>..." );
+            System.exit ( 1 );
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+/**
+ * The data file formats
+ * <p>
+ * All data files start with the same header: magic marker, version, start
+ * and end timestamp. The version selects the layout of the entries.
+ * </p>
+ */
+public final class DataFileFormat
+{
+    public static final int MAGIC = 0x1202;
+
+    /**
+     * Fixed size entries, see {@link DataFileAccessorImpl}
+     */
+    public static final int VERSION_PLAIN = 0x0101;
+
+    /**
+     * Compressed blocks, see {@link CompressedDataFileAccessor}
+     */
+    public static final int VERSION_COMPRESSED = 0x0201;
+
+    public static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+    private DataFileFormat ()
+    {
+    }
+
+    /**
+     * Read the version of a data file
+     * 
+     * @return the version from the header
+     * @throws IOException
+     *             if the header cannot be read
+     */
+    public static int readVersion ( final File file ) throws IOException
+    {
+        final DataInputStream in = new DataInputStream ( new FileInputStream ( file ) );
+        try
+        {
+            in.readInt (); // magic
+            return in.readInt ();
+        }
+        finally
+        {
+            in.close ();
+        }
+    }
+
+    /**
+     * Open an existing data file with the accessor matching its version
+     * <p>
+     * Files with an unknown version are opened as plain files, as it was done
+     * before there were other formats.
+     * </p>
+     */
+    public static DataFileAccessor open ( final File file ) throws Exception
+    {
+        if ( file.length () >= HEADER_SIZE && readVersion ( file ) == VERSION_COMPRESSED )
+        {
+            return new CompressedDataFileAccessor ( file );
+        }
+        return new DataFileAccessorImpl ( file );
+    }
+
+    /**
+     * Create a new file containing only the header
+     * 
+     * @param file
+     *            the file to create, must not exist
+     */
+    static void createFile ( final File file, final int version, final Date startDate, final Date endDate ) throws IOException
+    {
+        if ( !file.createNewFile () )
+        {
+            throw new IllegalStateException ( String.format ( "Unable to create file %s, already exists", file ) );
+        }
+
+        final RandomAccessFile out = new RandomAccessFile ( file, "rw" );
+        try
+        {
+            out.writeInt ( MAGIC );
+            out.writeInt ( version );
+            out.writeLong ( startDate.getTime () );
+            out.writeLong ( endDate.getTime () );
+        }
+        finally
+        {
+            out.close ();
+        }
+    }
+}
@@ -21,68 +21,120 @@ package org.openscada.hds;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Comparator;
+import java.lang.management.ManagementFactory;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.openscada.utils.lang.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class DataFilePool
+public class DataFilePool implements DataFilePoolMXBean
 {
 
     private final static Logger logger = LoggerFactory.getLogger ( DataFilePool.class );
 
+    /**
+     * A lease on a pooled file
+     * <p>
+     * Each call to one of the <code>get</code> methods creates a new lease,
+     * which is returned by disposing it. A read lease only allows visiting the
+     * file.
+     * </p>
+     */
     private class AccessorWrapper implements DataFileAccessor
     {
+        private final Entry entry;
 
         private final DataFileAccessor accessor;
 
-        private final File file;
+        private final boolean write;
 
-        private long accesses;
+        private boolean released;
 
-        private Date lastAccess = new Date ();
+        private boolean deleted;
 
-        public AccessorWrapper ( final File file, final DataFileAccessor accessor )
+        public AccessorWrapper ( final Entry entry, final DataFileAccessor accessor, final boolean write )
         {
-            this.file = file;
+            this.entry = entry;
             this.accessor = accessor;
+            this.write = write;
         }
 
         @Override
         public void insertValue ( final double value, final Date date, final boolean error, final boolean manual, final boolean heartbeat ) throws IOException
         {
-            check ();
+            checkWrite ();
             this.accessor.insertValue ( value, date, error, manual, heartbeat );
         }
 
+        @Override
+        public void insertValues ( final double[] values, final long[] timestamps, final byte[] flags, final int offset, final int length ) throws IOException
+        {
+            checkWrite ();
+            this.accessor.insertValues ( values, timestamps, flags, offset, length );
+        }
+
+        @Override
+        public void force () throws IOException
+        {
+            checkWrite ();
+            this.accessor.force ();
+        }
+
         @Override
         public boolean visit ( final ValueVisitor visitor ) throws Exception
         {
-            check ();
             return this.accessor.visit ( visitor );
         }
 
+        @Override
+        public boolean visit ( final ValueVisitor visitor, final Date start, final Date end ) throws Exception
+        {
+            return this.accessor.visit ( visitor, start, end );
+        }
+
         @Override
         public boolean visitFirstValue ( final ValueVisitor visitor ) throws Exception
         {
-            check ();
             return this.accessor.visitFirstValue ( visitor );
         }
 
+        @Override
+        public boolean visitFirstValue ( final PrimitiveValueVisitor visitor ) throws Exception
+        {
+            return this.accessor.visitFirstValue ( visitor );
+        }
+
+        @Override
+        public boolean visit ( final BulkValueVisitor visitor ) throws Exception
+        {
+            return this.accessor.visit ( visitor );
+        }
+
+        @Override
+        public boolean visit ( final BulkValueVisitor visitor, final long start, final long end ) throws Exception
+        {
+            return this.accessor.visit ( visitor, start, end );
+        }
+
         @Override
         public void forwardCorrect ( final double value, final Date date, final boolean error, final boolean manual ) throws Exception
         {
-            check ();
+            checkWrite ();
             this.accessor.forwardCorrect ( value, date, error, manual );
         }
 
@@ -101,8 +153,10 @@ public class DataFilePool
         @Override
         public void delete ()
         {
-            check ();
+            checkWrite ();
+            drain ( this.entry );
             this.accessor.delete ();
+            this.deleted = true;
             dispose ();
         }
 
@@ -114,49 +168,100 @@ public class DataFilePool
 
         public File getFile ()
         {
-            return this.file;
+            return this.entry.file;
         }
 
-        public DataFileAccessor getTarget ()
+        protected void checkWrite ()
         {
-            return this.accessor;
+            if ( !this.write )
+            {
+                throw new IllegalStateException ( String.format ( "File %s is opened for reading only", this.entry.file ) );
+            }
         }
+    }
 
-        protected void check ()
-        {
-            this.accesses++;
-            this.lastAccess = new Date ();
-        }
+    /**
+     * The pool entry of a file
+     * <p>
+     * Each entry has its own lock and condition, so that requests for
+     * different files don't block each other and giving back a file only
+     * wakes up the threads waiting for this file.
+     * </p>
+     * <p>
+     * A file can be used by one writer and any number of readers at the same
+     * time. Readers use positional reads, so they are not affected by the
+     * writer appending data.
+     * </p>
+     */
+    private static class Entry
+    {
+        private final File file;
+
+        private final Lock lock = new ReentrantLock ();
+
+        private final Condition released = this.lock.newCondition ();
+
+        private DataFileAccessor accessor;
+
+        private boolean writer;
+
+        private int readers;
 
-        @SuppressWarnings ( "unused" )
-        public long getAccesses ()
+        /**
+         * The file is about to be deleted, no new readers are accepted
+         */
+        private boolean draining;
+
+        /**
+         * The entry was removed from the pool and must not be used anymore
+         */
+        private boolean removed;
+
+        public Entry ( final File file )
         {
-            return this.accesses;
+            this.file = file;
         }
 
-        public Date getLastAccess ()
+        public boolean isUsed ()
         {
-            return this.lastAccess;
+            return this.writer || this.readers > 0;
         }
-
     }
 
     private static final long LOCK_TIME = 10 * 1000;
 
-    private final Lock lock = new ReentrantLock ();
+    private final long timeout;
 
-    private final Condition condition = this.lock.newCondition ();
+    private final ConcurrentMap<File, Entry> entries = new ConcurrentHashMap<File, Entry> ();
 
-    private final long timeout;
+    /**
+     * Entries with an open file which are currently not used, the least
+     * recently used first
+     */
+    private final Map<File, Entry> freeEntries = new LinkedHashMap<File, Entry> ();
+
+    private final Lock freeLock = new ReentrantLock ();
 
-    private final Map<File, AccessorWrapper> freePool = new HashMap<File, AccessorWrapper> ();
+    private final AtomicInteger openFiles = new AtomicInteger ();
 
-    private final Map<File, AccessorWrapper> usedPool = new HashMap<File, AccessorWrapper> ();
+    private final AtomicInteger usedFiles = new AtomicInteger ();
 
-    private boolean disposed;
+    private final AtomicLong hitCount = new AtomicLong ();
+
+    private final AtomicLong missCount = new AtomicLong ();
+
+    private final AtomicLong evictionCount = new AtomicLong ();
+
+    private final AtomicLong waitCount = new AtomicLong ();
+
+    private volatile boolean disposed;
 
     private int instanceCountTarget;
 
+    private final MBeanServer mbs;
+
+    private ObjectName name;
+
     public DataFilePool ( final int instanceCountTarget )
     {
         this ( LOCK_TIME );
@@ -172,6 +277,18 @@ public class DataFilePool
     public DataFilePool ( final long timeout )
     {
         this.timeout = timeout;
+
+        this.mbs = ManagementFactory.getPlatformMBeanServer ();
+
+        try
+        {
+            this.name = new ObjectName ( "org.openscada.hds", "dataFilePool", Integer.toHexString ( System.identityHashCode ( this ) ) );
+            this.mbs.registerMBean ( this, this.name );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to export", e );
+        }
     }
 
     public DataFileAccessor getAccessor ( final File file ) throws Exception
@@ -189,6 +306,10 @@ public class DataFilePool
      * <p>
      * If the parameter <code>create</code> is <code>true</code> then start and end must not be null
      * </p>
+     * <p>
+     * The returned accessor holds the write lease of the file. Other writers
+     * have to wait until it is disposed, readers don't.
+     * </p>
      * 
      * @param file
      *            the file to get access to
@@ -203,110 +324,257 @@ public class DataFilePool
      *             if anything goes wrong
      */
     public Pair<DataFileAccessor, Boolean> getAccessor ( final File file, final Date start, final Date end, final boolean create ) throws Exception
+    {
+        return acquire ( file, start, end, create, true );
+    }
+
+    /**
+     * get read access to a file
+     * <p>
+     * Any number of readers can access the same file, also while it is being
+     * written to. The returned accessor can only be used for visiting values.
+     * </p>
+     * 
+     * @param file
+     *            the file to get access to
+     * @return the accessor or <code>null</code> if the file does not exist
+     * @throws Exception
+     *             if anything goes wrong
+     */
+    public DataFileAccessor getReadAccessor ( final File file ) throws Exception
+    {
+        final Pair<DataFileAccessor, Boolean> result = acquire ( file, null, null, false, false );
+        if ( result == null )
+        {
+            return null;
+        }
+        return result.first;
+    }
+
+    private Pair<DataFileAccessor, Boolean> acquire ( final File file, final Date start, final Date end, final boolean create, final boolean write ) throws Exception
     {
         final Date deadline = new Date ( System.currentTimeMillis () + this.timeout );
 
         logger.debug ( "Looking for file: {}", file );
 
-        if ( this.lock.tryLock ( this.timeout, TimeUnit.MILLISECONDS ) )
+        while ( true )
         {
             if ( this.disposed )
             {
                 throw new IllegalStateException ( "Pool is disposed" );
             }
 
+            final Entry entry = getEntry ( file );
+
+            if ( !entry.lock.tryLock ( deadline.getTime () - System.currentTimeMillis (), TimeUnit.MILLISECONDS ) )
+            {
+                throw new IllegalStateException ( String.format ( "Failed to acquire create lock within %s ms", this.timeout ) );
+            }
+
+            final Pair<DataFileAccessor, Boolean> result;
             try
             {
+                if ( this.disposed )
+                {
+                    throw new IllegalStateException ( "Pool is disposed" );
+                }
+
+                if ( !waitForFile ( entry, write, deadline ) )
+                {
+                    // entry got removed while we were waiting, try again
+                    continue;
+                }
+
+                if ( entry.accessor != null )
+                {
+                    logger.debug ( "Fetching file {} from pool", file );
+                    this.hitCount.incrementAndGet ();
+                    return new Pair<DataFileAccessor, Boolean> ( take ( entry, write ), false );
+                }
+
+                this.missCount.incrementAndGet ();
+
                 if ( file.exists () )
                 {
                     logger.debug ( "File exists" );
-                    return new Pair<DataFileAccessor, Boolean> ( waitForFile ( file, deadline ), false );
+                    entry.accessor = DataFileFormat.open ( file );
+                    result = new Pair<DataFileAccessor, Boolean> ( take ( entry, write ), false );
                 }
                 else if ( create )
                 {
                     logger.debug ( "File does not exists and we are requested to create" );
-                    final AccessorWrapper result = wrap ( file, DataFileAccessorImpl.create ( file, start, end ) );
-                    this.usedPool.put ( file, result );
-                    return new Pair<DataFileAccessor, Boolean> ( result, true );
+                    entry.accessor = DataFileAccessorImpl.create ( file, start, end );
+                    result = new Pair<DataFileAccessor, Boolean> ( take ( entry, write ), true );
                 }
                 else
                 {
                     logger.debug ( "File does not exists and no request to create" );
+                    remove ( entry );
                     return null;
                 }
+
+                this.openFiles.incrementAndGet ();
             }
             finally
             {
-                this.lock.unlock ();
+                entry.lock.unlock ();
             }
+
+            // we opened a new file, so check if we need to close others
+            closeUnused ();
+
+            return result;
         }
-        else
+    }
+
+    private Entry getEntry ( final File file )
+    {
+        final Entry entry = this.entries.get ( file );
+        if ( entry != null )
         {
-            throw new IllegalStateException ( String.format ( "Failed to acquire create lock within %s ms", this.timeout ) );
+            return entry;
         }
+
+        final Entry newEntry = new Entry ( file );
+        final Entry oldEntry = this.entries.putIfAbsent ( file, newEntry );
+        return oldEntry != null ? oldEntry : newEntry;
     }
 
-    private AccessorWrapper waitForFile ( final File file, final Date deadline ) throws Exception
+    private static boolean mustWait ( final Entry entry, final boolean write )
     {
-        logger.info ( "Waiting until {} for {}", deadline, file );
+        return entry.draining || write && entry.writer;
+    }
+
+    /**
+     * Wait until the entry can be used
+     * <p>
+     * Writers wait for other writers, readers only wait if the file is about
+     * to be deleted. Must be called holding the lock of the entry.
+     * </p>
+     * 
+     * @return <code>true</code> if the entry may be used, <code>false</code>
+     *         if it got removed from the pool in the meantime
+     */
+    private boolean waitForFile ( final Entry entry, final boolean write, final Date deadline ) throws InterruptedException
+    {
+        if ( !mustWait ( entry, write ) )
+        {
+            return !entry.removed;
+        }
+
+        logger.info ( "Waiting until {} for {}", deadline, entry.file );
+        this.waitCount.incrementAndGet ();
 
         final long startTix = System.currentTimeMillis ();
 
         try
         {
-            do
+            while ( mustWait ( entry, write ) && !entry.removed )
             {
-                if ( this.usedPool.containsKey ( file ) )
+                if ( !entry.released.awaitUntil ( deadline ) )
                 {
-                    // still used, wait again
-                    continue;
+                    throw new IllegalStateException ( String.format ( "Failed to acquire create lock within %s ms for resource %s", this.timeout, entry.file ) );
                 }
+            }
+            return !entry.removed;
+        }
+        finally
+        {
+            logger.info ( "Waiting took {} ms", System.currentTimeMillis () - startTix );
+        }
+    }
 
-                final AccessorWrapper result = this.freePool.remove ( file );
-                if ( result != null )
-                {
-                    logger.debug ( "Fetching file {} from free pool", file );
-                    // mark as used
-                    this.usedPool.put ( file, result );
-                    // success, bring it home
-                    return result;
-                }
+    /**
+     * Take a lease on the entry
+     * <p>
+     * Must be called holding the lock of the entry
+     * </p>
+     */
+    private AccessorWrapper take ( final Entry entry, final boolean write )
+    {
+        if ( !entry.isUsed () )
+        {
+            this.usedFiles.incrementAndGet ();
 
-                // resource was neither used nor free, so we need to create it
-                final AccessorWrapper newResult = wrap ( file, new DataFileAccessorImpl ( file ) );
-                this.usedPool.put ( file, newResult );
-                logger.debug ( "Acquired resource {} by creating accessor", file );
-                return newResult;
-            } while ( this.condition.awaitUntil ( deadline ) );
+            this.freeLock.lock ();
+            try
+            {
+                this.freeEntries.remove ( entry.file );
+            }
+            finally
+            {
+                this.freeLock.unlock ();
+            }
+        }
 
-            throw new IllegalStateException ( String.format ( "Failed to acquire create lock within %s ms for resource %s", this.timeout, file ) );
+        if ( write )
+        {
+            entry.writer = true;
         }
-        finally
+        else
         {
-            logger.info ( "Waiting took {} ms", System.currentTimeMillis () - startTix );
+            entry.readers++;
         }
+
+        return new AccessorWrapper ( entry, entry.accessor, write );
     }
 
-    protected AccessorWrapper wrap ( final File file, final DataFileAccessor accessor )
+    /**
+     * Wait until all readers have given back the file
+     * <p>
+     * New readers have to wait until the file is given back by the writer.
+     * </p>
+     */
+    private void drain ( final Entry entry )
     {
-        // we need to lock here
-        this.lock.lock ();
+        final Date deadline = new Date ( System.currentTimeMillis () + this.timeout );
+
+        entry.lock.lock ();
         try
         {
-            closeUnused ();
-            return new AccessorWrapper ( file, accessor );
+            entry.draining = true;
+            while ( entry.readers > 0 )
+            {
+                if ( !entry.released.awaitUntil ( deadline ) )
+                {
+                    entry.draining = false;
+                    entry.released.signalAll ();
+                    throw new IllegalStateException ( String.format ( "Failed to wait for readers of %s within %s ms", entry.file, this.timeout ) );
+                }
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            entry.draining = false;
+            entry.released.signalAll ();
+            Thread.currentThread ().interrupt ();
+            throw new IllegalStateException ( String.format ( "Interrupted while waiting for readers of %s", entry.file ), e );
         }
         finally
         {
-            this.lock.unlock ();
+            entry.lock.unlock ();
         }
     }
 
-    private void closeUnused ()
+    /**
+     * Remove the entry from the pool
+     * <p>
+     * Must be called holding the lock of the entry
+     * </p>
+     */
+    private void remove ( final Entry entry )
     {
-        final int instances = this.usedPool.size () + this.freePool.size ();
+        entry.removed = true;
+        this.entries.remove ( entry.file, entry );
+    }
 
-        int num = instances - this.instanceCountTarget;
+    /**
+     * Close the least recently used files until the number of open files is
+     * back at the target
+     */
+    private void closeUnused ()
+    {
+        int num = this.openFiles.get () - this.instanceCountTarget;
 
         if ( num <= 0 )
         {
@@ -315,27 +583,83 @@ public class DataFilePool
 
         logger.info ( "Trying to reduce by {}", num );
 
-        final LinkedList<AccessorWrapper> entries = new LinkedList<AccessorWrapper> ( this.freePool.values () );
+        while ( num > 0 )
+        {
+            final Entry entry;
 
-        // sort by access date
-        Collections.sort ( entries, new Comparator<AccessorWrapper> () {
-            @Override
-            public int compare ( final AccessorWrapper o1, final AccessorWrapper o2 )
+            this.freeLock.lock ();
+            try
+            {
+                final Iterator<Entry> i = this.freeEntries.values ().iterator ();
+                if ( !i.hasNext () )
+                {
+                    return;
+                }
+                entry = i.next ();
+                i.remove ();
+            }
+            finally
             {
-                return o1.getLastAccess ().compareTo ( o2.getLastAccess () );
+                this.freeLock.unlock ();
             }
 
-        } );
+            entry.lock.lock ();
+            try
+            {
+                /*
+                 * The entry was unlocked since we took it from the free list,
+                 * so it may have been used and given back, or closed by
+                 * someone else in the meantime.
+                 */
+                if ( entry.isUsed () || entry.accessor == null || entry.removed )
+                {
+                    continue;
+                }
 
-        while ( !this.freePool.isEmpty () && !entries.isEmpty () && num > 0 )
-        {
-            final AccessorWrapper entry = entries.pollLast ();
+                logger.info ( "Removing {} from pool", entry.file );
+                close ( entry );
+                this.evictionCount.incrementAndGet ();
+                num--;
+            }
+            finally
+            {
+                entry.lock.unlock ();
+            }
+        }
+    }
 
-            logger.info ( "Removing {} from pool", entry.getFile () );
-            this.freePool.remove ( entry.getFile () );
-            entry.getTarget ().dispose ();
+    /**
+     * Close the file of the entry and remove the entry from the pool
+     * <p>
+     * Must be called holding the lock of the entry
+     * </p>
+     */
+    private void close ( final Entry entry )
+    {
+        try
+        {
+            entry.accessor.dispose ();
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( String.format ( "Failed to dispose %s", entry.file ), e );
+        }
+        entry.accessor = null;
+        this.openFiles.decrementAndGet ();
+        remove ( entry );
 
-            num--;
+        // it might have been given back again since it was taken from the free list
+        this.freeLock.lock ();
+        try
+        {
+            if ( this.freeEntries.get ( entry.file ) == entry )
+            {
+                this.freeEntries.remove ( entry.file );
+            }
+        }
+        finally
+        {
+            this.freeLock.unlock ();
         }
     }
 
@@ -343,35 +667,95 @@ public class DataFilePool
     {
         logger.debug ( "Giving back: {}", accessor.getFile () );
 
-        this.lock.lock ();
+        final Entry entry = accessor.entry;
+
+        entry.lock.lock ();
         try
         {
-            if ( this.usedPool.remove ( accessor.getFile () ) != null )
+            if ( accessor.released )
+            {
+                logger.warn ( "File was already given back: {}", accessor.getFile () );
+                return;
+            }
+            accessor.released = true;
+
+            if ( accessor.write )
+            {
+                entry.writer = false;
+            }
+            else
+            {
+                entry.readers--;
+            }
+
+            if ( !entry.isUsed () )
+            {
+                this.usedFiles.decrementAndGet ();
+            }
+
+            if ( accessor.deleted )
             {
-                this.freePool.put ( accessor.getFile (), accessor );
+                // the target is already disposed
+                entry.accessor = null;
+                entry.draining = false;
+                this.openFiles.decrementAndGet ();
+                remove ( entry );
             }
-            this.condition.signalAll ();
+            else if ( !entry.isUsed () && !entry.removed && entry.accessor != null && !this.disposed )
+            {
+                this.freeLock.lock ();
+                try
+                {
+                    this.freeEntries.put ( entry.file, entry );
+                }
+                finally
+                {
+                    this.freeLock.unlock ();
+                }
+            }
+
+            entry.released.signalAll ();
         }
         finally
         {
-            this.lock.unlock ();
+            entry.lock.unlock ();
         }
     }
 
     public void dispose ()
     {
-        this.lock.lock ();
+        // mark disposed
+        this.disposed = true;
+
         try
         {
-            // mark disposed
-            this.disposed = true;
-
-            // wait for resources
-            while ( !this.usedPool.isEmpty () )
+            for ( final Entry entry : this.entries.values () )
             {
-                while ( !this.condition.await ( 30, TimeUnit.SECONDS ) )
+                entry.lock.lock ();
+                try
+                {
+                    // wait for resources
+                    while ( entry.isUsed () )
+                    {
+                        if ( !entry.released.await ( 30, TimeUnit.SECONDS ) )
+                        {
+                            logger.warn ( "Still waiting for resources to be returned" );
+                        }
+                    }
+
+                    // dipose what is possible to dispose
+                    if ( entry.accessor != null )
+                    {
+                        close ( entry );
+                    }
+                    else
+                    {
+                        remove ( entry );
+                    }
+                }
+                finally
                 {
-                    logger.warn ( "Still waiting for resources to be returned" );
+                    entry.lock.unlock ();
                 }
             }
         }
@@ -382,32 +766,66 @@ public class DataFilePool
         }
         finally
         {
+            this.freeLock.lock ();
             try
             {
-                // dipose what is possible to dispose
-                disposeFreePool ();
+                this.freeEntries.clear ();
             }
             finally
             {
-                this.lock.unlock ();
+                this.freeLock.unlock ();
             }
         }
 
+        try
+        {
+            this.mbs.unregisterMBean ( this.name );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to unregister: " + this.name, e );
+        }
     }
 
-    private void disposeFreePool ()
+    @Override
+    public int getOpenFiles ()
     {
-        for ( final Map.Entry<File, AccessorWrapper> wrapper : this.freePool.entrySet () )
-        {
-            try
-            {
-                wrapper.getValue ().getTarget ().dispose ();
-            }
-            catch ( final Exception e )
-            {
-                logger.warn ( String.format ( "Failed to dispose %s", wrapper.getKey () ), e );
-            }
-        }
-        this.freePool.clear ();
+        return this.openFiles.get ();
+    }
+
+    @Override
+    public int getUsedFiles ()
+    {
+        return this.usedFiles.get ();
+    }
+
+    @Override
+    public int getInstanceCountTarget ()
+    {
+        return this.instanceCountTarget;
+    }
+
+    @Override
+    public long getHitCount ()
+    {
+        return this.hitCount.get ();
+    }
+
+    @Override
+    public long getMissCount ()
+    {
+        return this.missCount.get ();
+    }
+
+    @Override
+    public long getEvictionCount ()
+    {
+        return this.evictionCount.get ();
+    }
+
+    @Override
+    public long getWaitCount ()
+    {
+        return this.waitCount.get ();
     }
 }
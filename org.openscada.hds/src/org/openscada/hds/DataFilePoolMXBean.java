@@ -0,0 +1,47 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+public interface DataFilePoolMXBean
+{
+    public int getOpenFiles ();
+
+    public int getUsedFiles ();
+
+    public int getInstanceCountTarget ();
+
+    /**
+     * @return the number of requests served by an already open file
+     */
+    public long getHitCount ();
+
+    /**
+     * @return the number of requests which had to open or create the file
+     */
+    public long getMissCount ();
+
+    public long getEvictionCount ();
+
+    /**
+     * @return the number of requests which had to wait for the file to be
+     *         given back
+     */
+    public long getWaitCount ();
+}
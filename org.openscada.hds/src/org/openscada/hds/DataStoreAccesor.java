@@ -23,10 +23,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -40,6 +45,11 @@ public class DataStoreAccesor extends AbstractValueSource
 {
     private final static Logger logger = LoggerFactory.getLogger ( DataStoreAccesor.class );
 
+    /**
+     * Rollup tiers of one minute, one hour and one day
+     */
+    public static final long[] DEFAULT_ROLLUPS = new long[] { TimeUnit.MINUTES.toMillis ( 1 ), TimeUnit.HOURS.toMillis ( 1 ), TimeUnit.DAYS.toMillis ( 1 ) };
+
     private final File basePath;
 
     private final long time;
@@ -60,6 +70,21 @@ public class DataStoreAccesor extends AbstractValueSource
 
     private boolean disposed;
 
+    private WriteBuffer writeBuffer;
+
+    private boolean syncWrites;
+
+    /**
+     * The watermark of the store, {@link Long#MAX_VALUE} until the first
+     * forward correction was performed
+     */
+    private long maxTimestamp = Long.MAX_VALUE;
+
+    /**
+     * The rollup tiers, ordered from the finest to the coarsest
+     */
+    private final List<RollupTier> rollups;
+
     private class AccessorWrapper implements DataFileAccessor
     {
         private final DataFileAccessor accessor;
@@ -76,18 +101,54 @@ public class DataStoreAccesor extends AbstractValueSource
             this.accessor.insertValue ( value, date, error, manual, heartbeat );
         }
 
+        @Override
+        public void insertValues ( final double[] values, final long[] timestamps, final byte[] flags, final int offset, final int length ) throws IOException
+        {
+            this.accessor.insertValues ( values, timestamps, flags, offset, length );
+        }
+
+        @Override
+        public void force () throws IOException
+        {
+            this.accessor.force ();
+        }
+
         @Override
         public boolean visit ( final ValueVisitor visitor ) throws Exception
         {
             return this.accessor.visit ( visitor );
         }
 
+        @Override
+        public boolean visit ( final ValueVisitor visitor, final Date start, final Date end ) throws Exception
+        {
+            return this.accessor.visit ( visitor, start, end );
+        }
+
         @Override
         public boolean visitFirstValue ( final ValueVisitor visitor ) throws Exception
         {
             return this.accessor.visitFirstValue ( visitor );
         }
 
+        @Override
+        public boolean visitFirstValue ( final PrimitiveValueVisitor visitor ) throws Exception
+        {
+            return this.accessor.visitFirstValue ( visitor );
+        }
+
+        @Override
+        public boolean visit ( final BulkValueVisitor visitor ) throws Exception
+        {
+            return this.accessor.visit ( visitor );
+        }
+
+        @Override
+        public boolean visit ( final BulkValueVisitor visitor, final long start, final long end ) throws Exception
+        {
+            return this.accessor.visit ( visitor, start, end );
+        }
+
         @Override
         public void forwardCorrect ( final double value, final Date date, final boolean error, final boolean manual ) throws Exception
         {
@@ -144,6 +205,41 @@ public class DataStoreAccesor extends AbstractValueSource
         this.unit = TimeUnit.valueOf ( p.getProperty ( "unit" ) );
         this.count = Integer.parseInt ( p.getProperty ( "count" ) );
         this.quantizer = new Quantizer ( this.time, this.unit, this.count );
+        this.rollups = createRollups ( p.getProperty ( "rollups" ) );
+    }
+
+    private List<RollupTier> createRollups ( final String rollups )
+    {
+        if ( rollups == null || rollups.trim ().isEmpty () )
+        {
+            return Collections.emptyList ();
+        }
+
+        final List<RollupTier> result = new ArrayList<RollupTier> ();
+        final File rollupPath = new File ( this.basePath, "rollup" );
+
+        RollupTier finer = null;
+        for ( final long width : parseRollups ( rollups ) )
+        {
+            finer = new RollupTier ( new File ( rollupPath, Long.toString ( width ) ), width, finer );
+            result.add ( finer );
+        }
+
+        logger.info ( "Rollup tiers: {}", rollups );
+
+        return Collections.unmodifiableList ( result );
+    }
+
+    private static long[] parseRollups ( final String rollups )
+    {
+        final String[] toks = rollups.split ( "," );
+        final long[] result = new long[toks.length];
+        for ( int i = 0; i < toks.length; i++ )
+        {
+            result[i] = Long.parseLong ( toks[i].trim () );
+        }
+        Arrays.sort ( result );
+        return result;
     }
 
     /**
@@ -194,8 +290,89 @@ public class DataStoreAccesor extends AbstractValueSource
         }
     }
 
+    /**
+     * Enable buffering of inserted values
+     * <p>
+     * Values are collected in memory and written in batches, either when
+     * <code>capacity</code> values have been collected or when the flush delay
+     * has passed. So in the case of a crash up to <code>capacity</code> values
+     * or the values of one flush period may be lost. Buffered values are not
+     * visible to visitors before they got flushed.
+     * </p>
+     * <p>
+     * This method must be called before any values are inserted.
+     * </p>
+     * 
+     * @param capacity
+     *            the maximum number of values to buffer
+     * @param flushDelay
+     *            the maximum time a value stays in the buffer
+     * @param unit
+     *            the time unit of the flush delay
+     * @param syncWrites
+     *            if <code>true</code> each flushed batch is forced to the
+     *            storage device, otherwise it is left to the operating system
+     * @param executor
+     *            the executor running the flush job
+     */
+    public void enableWriteBuffer ( final int capacity, final long flushDelay, final TimeUnit unit, final boolean syncWrites, final ScheduledExecutorService executor )
+    {
+        this.lock.lock ();
+        try
+        {
+            if ( this.writeBuffer != null )
+            {
+                throw new IllegalStateException ( "Write buffer is already enabled" );
+            }
+            this.syncWrites = syncWrites;
+            this.writeBuffer = new WriteBuffer ( this, capacity, flushDelay, unit, executor );
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    /**
+     * Write out all buffered values
+     * <p>
+     * If there is no write buffer enabled, this method does nothing.
+     * </p>
+     * 
+     * @throws Exception
+     *             if writing fails
+     */
+    public void flush () throws Exception
+    {
+        final WriteBuffer writeBuffer = getWriteBuffer ();
+        if ( writeBuffer != null )
+        {
+            writeBuffer.flush ();
+        }
+    }
+
+    private WriteBuffer getWriteBuffer ()
+    {
+        this.lock.lock ();
+        try
+        {
+            return this.writeBuffer;
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
     protected void insertValue ( final double value, final Date date, final boolean error, final boolean manual, final boolean heartbeat ) throws Exception
     {
+        final WriteBuffer writeBuffer = getWriteBuffer ();
+        if ( writeBuffer != null )
+        {
+            writeBuffer.add ( value, date.getTime (), makeFlags ( error, manual, heartbeat ) );
+            return;
+        }
+
         {
             logger.debug ( "Inserting value - value: {}, timestamp: {}, error: {}, manual: {}", new Object[] { value, date, error, manual } );
             final DataFileAccessor file = createOrGetFile ( date, true );
@@ -203,6 +380,10 @@ public class DataStoreAccesor extends AbstractValueSource
             {
                 file.insertValue ( value, date, error, manual, heartbeat );
                 file.dispose ();
+                if ( !heartbeat )
+                {
+                    updateMaxTimestamp ( date.getTime () );
+                }
             }
             else
             {
@@ -217,32 +398,349 @@ public class DataStoreAccesor extends AbstractValueSource
 
         if ( !heartbeat && !Double.isNaN ( value ) )
         {
-            logger.debug ( "Starting forward correction" );
+            forwardCorrect ( value, date, error, manual );
+        }
+
+        updateRollups ( date.getTime (), heartbeat ? Long.MAX_VALUE : date.getTime () );
+    }
+
+    private static byte makeFlags ( final boolean error, final boolean manual, final boolean heartbeat )
+    {
+        if ( heartbeat )
+        {
+            return DataFileAccessor.FLAG_HEARTBEAT;
+        }
+        else
+        {
+            return (byte) ( ( error ? DataFileAccessor.FLAG_ERROR : 0x00 ) | ( manual ? DataFileAccessor.FLAG_MANUAL : 0x00 ) );
+        }
+    }
 
-            final Date now = new Date ();
-            Date current = this.quantizer.getValidStart ( date );
-            while ( current != null && current.before ( now ) )
+    /**
+     * Prepare a batch of values for being inserted
+     * <p>
+     * The result of preparing and inserting a batch is the same as inserting
+     * the values one by one. However values that are superseded by later
+     * values of the same batch are marked deleted in memory, and the forward
+     * correction of already stored values is performed only once, using the
+     * oldest timestamp of the batch.
+     * </p>
+     * <p>
+     * This must be called once for a batch, before the first call to
+     * {@link #insertValues(double[], long[], byte[], int, int)}.
+     * </p>
+     * 
+     * @param values
+     *            the values
+     * @param timestamps
+     *            the timestamps
+     * @param flags
+     *            the flags, will be modified
+     * @param count
+     *            the number of entries
+     */
+    void prepareValues ( final double[] values, final long[] timestamps, final byte[] flags, final int count ) throws Exception
+    {
+        // find the oldest correction and mark entries which get corrected inside the batch
+
+        long correction = Long.MAX_VALUE;
+        int correctionIndex = -1;
+        for ( int i = count - 1; i >= 0; i-- )
+        {
+            final boolean heartbeat = ( flags[i] & DataFileAccessor.FLAG_HEARTBEAT ) != 0;
+            if ( !heartbeat && timestamps[i] > correction )
             {
-                final Date next = this.quantizer.getNext ( current );
+                flags[i] |= DataFileAccessorImpl.FLAG_DELETED;
+            }
+            if ( !heartbeat && !Double.isNaN ( values[i] ) && timestamps[i] < correction )
+            {
+                correction = timestamps[i];
+                correctionIndex = i;
+            }
+        }
 
-                logger.debug ( "Forward correcting - {} -> {}", current, next );
-                final DataFileAccessor file = createOrGetFile ( date, true );
+        // forward correct what is already stored, before appending
 
-                if ( file != null )
+        if ( correctionIndex >= 0 )
+        {
+            final byte correctionFlags = flags[correctionIndex];
+            forwardCorrect ( values[correctionIndex], new Date ( correction ), ( correctionFlags & DataFileAccessor.FLAG_ERROR ) != 0, ( correctionFlags & DataFileAccessor.FLAG_MANUAL ) != 0 );
+        }
+    }
+
+    /**
+     * Insert a prepared batch of values
+     * <p>
+     * Consecutive values of the same slice are written with one call. Values
+     * which are outside of the valid time period are skipped, since they would
+     * be removed right away.
+     * </p>
+     * <p>
+     * If writing a slice fails after previous slices of the batch have been
+     * written, the method stops and returns the number of entries handled so
+     * far. Calling it again with the remaining entries will then either
+     * continue or report the failure. So the result is always greater than
+     * zero unless <code>count</code> is zero.
+     * </p>
+     * 
+     * @param values
+     *            the values
+     * @param timestamps
+     *            the timestamps
+     * @param flags
+     *            the flags, as modified by
+     *            {@link #prepareValues(double[], long[], byte[], int)}
+     * @param offset
+     *            the index of the first entry to insert
+     * @param count
+     *            the number of entries
+     * @return the number of entries, starting at <code>offset</code>, which
+     *         have been handled
+     * @throws Exception
+     *             if no entry could be written
+     */
+    int insertValues ( final double[] values, final long[] timestamps, final byte[] flags, final int offset, final int count ) throws Exception
+    {
+        logger.debug ( "Inserting {} values", count );
+
+        long until = Long.MIN_VALUE;
+        long changedFrom = Long.MAX_VALUE;
+
+        final int limit = offset + count;
+        int start = offset;
+
+        try
+        {
+            while ( start < limit )
+            {
+                final long sliceEnd = this.quantizer.getEnd ( new Date ( timestamps[start] ) ).getTime ();
+                final long sliceStart = this.quantizer.getStart ( new Date ( timestamps[start] ) ).getTime ();
+
+                int end = start + 1;
+                while ( end < limit && timestamps[end] >= sliceStart && timestamps[end] < sliceEnd )
                 {
-                    try
+                    end++;
+                }
+
+                final Date date = new Date ( timestamps[start] );
+
+                if ( this.quantizer.getValidStart ( date ) == null )
+                {
+                    logger.info ( "{} is outside of the valid time period. Skipping {} entries.", date, end - start );
+                    start = end;
+                    continue;
+                }
+
+                try
+                {
+                    writeSlice ( date, values, timestamps, flags, start, end - start );
+                }
+                catch ( final Exception e )
+                {
+                    if ( start == offset )
+                    {
+                        throw e;
+                    }
+                    logger.info ( "Failed to write slice after {} of {} entries", start - offset, count );
+                    break;
+                }
+
+                for ( int i = start; i < end; i++ )
+                {
+                    until = Math.max ( until, timestamps[i] );
+                    if ( ( flags[i] & DataFileAccessor.FLAG_HEARTBEAT ) == 0 )
                     {
-                        file.forwardCorrect ( value, date, error, manual );
+                        changedFrom = Math.min ( changedFrom, timestamps[i] );
                     }
-                    finally
+                    if ( ( flags[i] & ( DataFileAccessor.FLAG_HEARTBEAT | DataFileAccessorImpl.FLAG_DELETED ) ) == 0 )
                     {
-                        file.dispose ();
+                        updateMaxTimestamp ( timestamps[i] );
                     }
                 }
-                current = next;
+
+                start = end;
+            }
+        }
+        finally
+        {
+            if ( until != Long.MIN_VALUE )
+            {
+                updateRollups ( until, changedFrom );
+            }
+        }
+
+        return start - offset;
+    }
+
+    private void writeSlice ( final Date date, final double[] values, final long[] timestamps, final byte[] flags, final int offset, final int length ) throws Exception
+    {
+        final DataFileAccessor file = createOrGetFile ( date, true );
+        if ( file == null )
+        {
+            throw new IllegalStateException ( String.format ( "Unable to get file for %tc", date ) );
+        }
+
+        try
+        {
+            file.insertValues ( values, timestamps, flags, offset, length );
+            if ( this.syncWrites )
+            {
+                force ( file );
             }
+        }
+        finally
+        {
+            file.dispose ();
+        }
+    }
 
-            logger.debug ( "Finished forward correcting" );
+    private static void force ( final DataFileAccessor file )
+    {
+        // the entries are written, so a failure must not cause them to be written again
+        try
+        {
+            file.force ();
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to force file", e );
+        }
+    }
+
+    /**
+     * Compute the rollup buckets which got closed or changed by inserted values
+     * <p>
+     * Rollups are derived data, so a failure is only logged. The affected
+     * buckets are computed again with the next change.
+     * </p>
+     * 
+     * @param until
+     *            the newest inserted timestamp
+     * @param changedFrom
+     *            the oldest inserted timestamp which changed values,
+     *            {@link Long#MAX_VALUE} if there is none
+     */
+    private void updateRollups ( final long until, final long changedFrom )
+    {
+        if ( this.rollups.isEmpty () )
+        {
+            return;
+        }
+
+        // don't let a timestamp in the future close buckets
+        final long now = System.currentTimeMillis ();
+        final long validFrom = this.quantizer.getEndOfPeriod ( new Date ( now ) ).getTime ();
+
+        synchronized ( this.rollups )
+        {
+            for ( final RollupTier tier : this.rollups )
+            {
+                try
+                {
+                    tier.update ( this, validFrom, Math.min ( until, now ), changedFrom );
+                }
+                catch ( final Exception e )
+                {
+                    logger.warn ( String.format ( "Failed to update rollup tier %s", tier.getWidth () ), e );
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark all values after the provided timestamp as deleted
+     * <p>
+     * Only slices between the timestamp and the watermark of the store are
+     * checked. Each file additionally skips the correction if it has no
+     * entries after the timestamp.
+     * </p>
+     */
+    private void forwardCorrect ( final double value, final Date date, final boolean error, final boolean manual ) throws Exception
+    {
+        final long max = getMaxTimestamp ();
+        if ( max <= date.getTime () )
+        {
+            logger.debug ( "No values after {}. Skipping forward correction.", date );
+            return;
+        }
+
+        logger.debug ( "Starting forward correction" );
+
+        final Date limit = max == Long.MAX_VALUE ? new Date () : new Date ( max );
+        Date current = this.quantizer.getValidStart ( date );
+        while ( current != null && !current.after ( limit ) )
+        {
+            final Date next = this.quantizer.getNext ( current );
+
+            logger.debug ( "Forward correcting - {} -> {}", current, next );
+            final DataFileAccessor file = createOrGetFile ( current, false );
+
+            if ( file != null )
+            {
+                try
+                {
+                    file.forwardCorrect ( value, date, error, manual );
+                }
+                finally
+                {
+                    file.dispose ();
+                }
+            }
+            current = next;
+        }
+
+        setMaxTimestamp ( date.getTime () );
+
+        logger.debug ( "Finished forward correcting" );
+    }
+
+    /**
+     * Get the watermark of the store
+     * 
+     * @return the highest timestamp of all stored values that could be
+     *         subject to forward correction, {@link Long#MAX_VALUE} if
+     *         unknown
+     */
+    private long getMaxTimestamp ()
+    {
+        this.lock.lock ();
+        try
+        {
+            return this.maxTimestamp;
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    private void setMaxTimestamp ( final long timestamp )
+    {
+        this.lock.lock ();
+        try
+        {
+            this.maxTimestamp = Math.min ( this.maxTimestamp, timestamp );
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    private void updateMaxTimestamp ( final long timestamp )
+    {
+        this.lock.lock ();
+        try
+        {
+            if ( this.maxTimestamp != Long.MAX_VALUE )
+            {
+                this.maxTimestamp = Math.max ( this.maxTimestamp, timestamp );
+            }
+        }
+        finally
+        {
+            this.lock.unlock ();
         }
     }
 
@@ -267,6 +765,12 @@ public class DataStoreAccesor extends AbstractValueSource
 
     /**
      * Visit values
+     * <p>
+     * Each file is only read starting with the last value before
+     * <code>start</code> up to the first value after <code>end</code>. The
+     * values are passed on in chunks, as they are read from the files. The
+     * other forms of visiting are adapters to this method.
+     * </p>
      * 
      * @param visitor
      *            the visitor
@@ -278,8 +782,11 @@ public class DataStoreAccesor extends AbstractValueSource
      *         otherwise
      */
     @Override
-    public boolean visit ( final ValueVisitor visitor, final Date start, final Date end )
+    public boolean visit ( final BulkValueVisitor visitor, final Date start, final Date end )
     {
+        // used for single values
+        final PrimitiveValueVisitor singleVisitor = ValueVisitors.primitive ( visitor );
+
         Date current = this.quantizer.getStart ( start );
 
         // read backwards till first entry
@@ -300,7 +807,7 @@ public class DataStoreAccesor extends AbstractValueSource
             {
                 try
                 {
-                    file = createOrGetFile ( startTimestamp, false );
+                    file = getFileForReading ( startTimestamp );
                 }
                 catch ( final Exception e )
                 {
@@ -316,7 +823,7 @@ public class DataStoreAccesor extends AbstractValueSource
                     try
                     {
                         logger.debug ( "Visiting file" );
-                        firstRead = file.visitFirstValue ( visitor );
+                        firstRead = file.visitFirstValue ( singleVisitor );
                     }
                     catch ( final Exception e )
                     {
@@ -352,7 +859,7 @@ public class DataStoreAccesor extends AbstractValueSource
             {
                 try
                 {
-                    file = createOrGetFile ( current, false );
+                    file = getFileForReading ( current );
                 }
                 catch ( final Exception e )
                 {
@@ -362,7 +869,7 @@ public class DataStoreAccesor extends AbstractValueSource
                 if ( file == null )
                 {
                     logger.info ( "Did not receive file. Marking invalid!" );
-                    if ( !visitor.value ( Double.NaN, current, true, false ) )
+                    if ( !singleVisitor.value ( Double.NaN, current.getTime (), DataFileAccessor.FLAG_ERROR ) )
                     {
                         logger.debug ( "Visitor requested stop" );
                         return false;
@@ -373,7 +880,7 @@ public class DataStoreAccesor extends AbstractValueSource
                     try
                     {
                         logger.debug ( "Visiting file" );
-                        if ( !file.visit ( visitor ) )
+                        if ( !file.visit ( visitor, start.getTime (), end.getTime () ) )
                         {
                             logger.debug ( "Visitor requested stop" );
                             return false;
@@ -382,7 +889,7 @@ public class DataStoreAccesor extends AbstractValueSource
                     catch ( final Exception e )
                     {
                         logger.warn ( "Failed to visit file", e );
-                        if ( !visitor.value ( Double.NaN, current, true, false ) )
+                        if ( !singleVisitor.value ( Double.NaN, current.getTime (), DataFileAccessor.FLAG_ERROR ) )
                         {
                             logger.debug ( "Visitor requested stop" );
                             return false;
@@ -399,11 +906,117 @@ public class DataStoreAccesor extends AbstractValueSource
             }
 
             current = next;
-        } while ( current.before ( end ) );
+        } while ( this.quantizer.getStart ( current ).before ( end ) );
 
         return true;
     }
 
+    /**
+     * Aggregate a time range
+     * <p>
+     * The coarsest rollup tier the requested buckets are aligned to is used,
+     * as far as it is computed. The rest of the range, or the whole range if
+     * there is no such tier, is aggregated from the raw values.
+     * </p>
+     * 
+     * @see Aggregator#aggregate(Date, Date, long, Set, BucketVisitor)
+     */
+    public boolean aggregate ( final Date start, final Date end, final long width, final Set<AggregationFunction> functions, final BucketVisitor visitor )
+    {
+        if ( width <= 0 )
+        {
+            throw new IllegalArgumentException ( "Bucket width must be greater than zero" );
+        }
+
+        long split = start.getTime ();
+
+        final RollupTier tier = findRollup ( start.getTime (), width );
+        if ( tier != null )
+        {
+            final long[] emitted = new long[] { split };
+            try
+            {
+                final long computed = Math.min ( end.getTime (), tier.getComputedUntil () );
+                if ( computed > split )
+                {
+                    split += ( computed - split ) / width * width;
+                }
+
+                if ( split > start.getTime () )
+                {
+                    final boolean result = tier.aggregate ( start, new Date ( split ), width, functions, new BucketVisitor () {
+
+                        @Override
+                        public boolean bucket ( final Bucket bucket )
+                        {
+                            emitted[0] = bucket.getEnd ().getTime ();
+                            return visitor.bucket ( bucket );
+                        }
+                    } );
+
+                    if ( !result )
+                    {
+                        return false;
+                    }
+                }
+            }
+            catch ( final Exception e )
+            {
+                logger.warn ( "Failed to read rollup tier. Falling back to raw values.", e );
+                split = emitted[0];
+            }
+        }
+
+        if ( split >= end.getTime () )
+        {
+            return true;
+        }
+
+        return new Aggregator ( this ).aggregate ( new Date ( split ), end, width, functions, visitor );
+    }
+
+    /**
+     * Find the coarsest tier whose buckets exactly fill the requested buckets
+     */
+    private RollupTier findRollup ( final long start, final long width )
+    {
+        RollupTier result = null;
+        for ( final RollupTier tier : this.rollups )
+        {
+            if ( width % tier.getWidth () == 0 && start % tier.getWidth () == 0 )
+            {
+                result = tier;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the end of the computed range of a rollup tier
+     * <p>
+     * Tiers added to an existing store are computed incrementally with the
+     * following inserts, this shows how far they got.
+     * </p>
+     *
+     * @param width
+     *            the bucket width of the tier in milliseconds
+     * @return the end of the last computed bucket or {@link Long#MIN_VALUE} if
+     *         nothing was computed yet
+     * @throws IllegalArgumentException
+     *             if the store has no tier of this width
+     */
+    public long getRollupComputedUntil ( final long width ) throws IOException
+    {
+        for ( final RollupTier tier : this.rollups )
+        {
+            if ( tier.getWidth () == width )
+            {
+                return tier.getComputedUntil ();
+            }
+        }
+        throw new IllegalArgumentException ( String.format ( "There is no rollup tier with a width of %s", width ) );
+    }
+
     /**
      * Delete data files that are out of range
      */
@@ -446,6 +1059,11 @@ public class DataStoreAccesor extends AbstractValueSource
                 logger.warn ( String.format ( "Failed to check file: %s", file ), e );
             }
         }
+
+        for ( final RollupTier tier : this.rollups )
+        {
+            tier.purge ( this.quantizer.getEndOfPeriod ( null ).getTime () );
+        }
     }
 
     /**
@@ -477,7 +1095,7 @@ public class DataStoreAccesor extends AbstractValueSource
             return null;
         }
 
-        final File file = new File ( this.basePath, String.format ( "%08x.hds", start.getTime () ) );
+        final File file = makeFile ( start );
 
         final Date end = this.quantizer.getEnd ( date );
 
@@ -509,7 +1127,64 @@ public class DataStoreAccesor extends AbstractValueSource
         }
     }
 
+    /**
+     * Get a file from the pool for reading
+     * <p>
+     * Any number of readers can access a file at the same time, also while
+     * values get inserted.
+     * </p>
+     * 
+     * @param date
+     *            the date for which to file should be valid for
+     * @return the file found or <code>null</code> if there is no such file
+     * @throws Exception
+     *             if anything goes wrong
+     */
+    private AccessorWrapper getFileForReading ( final Date date ) throws Exception
+    {
+        if ( this.disposed )
+        {
+            throw new IllegalStateException ( "Data store is disposed" );
+        }
+
+        final Date start = this.quantizer.getValidStart ( date );
+
+        if ( start == null )
+        {
+            logger.info ( "{} is outside of the valid time period", date );
+            return null;
+        }
+
+        final DataFileAccessor accessor = this.pool.getReadAccessor ( makeFile ( start ) );
+        if ( accessor == null )
+        {
+            logger.info ( "Pool returned no file" );
+            return null;
+        }
+
+        return new AccessorWrapper ( accessor );
+    }
+
+    private File makeFile ( final Date start )
+    {
+        return new File ( this.basePath, String.format ( "%08x.hds", start.getTime () ) );
+    }
+
     public static DataStoreAccesor create ( final File basePath, final long time, final TimeUnit unit, final int count, final DataFilePool pool ) throws Exception
+    {
+        return create ( basePath, time, unit, count, null, pool );
+    }
+
+    /**
+     * Create a new data store
+     * 
+     * @param rollups
+     *            the widths of the rollup tiers in milliseconds, each width
+     *            must be a multiple of the next smaller one. May be
+     *            <code>null</code> for no rollups.
+     * @see #DEFAULT_ROLLUPS
+     */
+    public static DataStoreAccesor create ( final File basePath, final long time, final TimeUnit unit, final int count, final long[] rollups, final DataFilePool pool ) throws Exception
     {
         if ( basePath.exists () )
         {
@@ -531,6 +1206,19 @@ public class DataStoreAccesor extends AbstractValueSource
         p.put ( "unit", unit.name () );
         p.put ( "count", "" + count );
         p.put ( "version", "1" );
+        if ( rollups != null && rollups.length > 0 )
+        {
+            final StringBuilder sb = new StringBuilder ();
+            for ( final long width : rollups )
+            {
+                if ( sb.length () > 0 )
+                {
+                    sb.append ( ',' );
+                }
+                sb.append ( width );
+            }
+            p.put ( "rollups", sb.toString () );
+        }
 
         try
         {
@@ -548,6 +1236,12 @@ public class DataStoreAccesor extends AbstractValueSource
 
     public void dispose ()
     {
+        final WriteBuffer writeBuffer = getWriteBuffer ();
+        if ( writeBuffer != null )
+        {
+            writeBuffer.dispose ();
+        }
+
         this.lock.lock ();
         try
         {
@@ -571,6 +1265,14 @@ public class DataStoreAccesor extends AbstractValueSource
         {
             this.lock.unlock ();
         }
+
+        synchronized ( this.rollups )
+        {
+            for ( final RollupTier tier : this.rollups )
+            {
+                tier.dispose ();
+            }
+        }
     }
 
 }
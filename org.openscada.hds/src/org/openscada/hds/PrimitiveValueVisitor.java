@@ -0,0 +1,44 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+/**
+ * A value visitor which receives the values without creating objects
+ * 
+ * @see ValueVisitor
+ */
+public interface PrimitiveValueVisitor
+{
+    /**
+     * Gets called for each record found
+     * 
+     * @param value
+     *            the value
+     * @param timestamp
+     *            the timestamp of the value in milliseconds
+     * @param flags
+     *            the flags of the value, a combination of
+     *            {@link DataFileAccessor#FLAG_ERROR} and
+     *            {@link DataFileAccessor#FLAG_MANUAL}
+     * @return <code>true</code> if the callee wants more data,
+     *         <code>false</code> otherwise
+     */
+    public boolean value ( double value, long timestamp, byte flags );
+}
@@ -0,0 +1,276 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A file holding precomputed buckets of one rollup tier
+ * <p>
+ * Each bucket has a fixed slot in the file, so that single buckets can be
+ * read and rewritten without touching the rest of the file. Slots which were
+ * never written read as missing.
+ * </p>
+ */
+class RollupFile
+{
+    private final static Logger logger = LoggerFactory.getLogger ( RollupFile.class );
+
+    private static final int MAGIC = 0x1203;
+
+    private static final int VERSION = 0x0101;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+
+    /**
+     * present flag, count, valid time, error time, manual time, sum, min, max,
+     * first, last
+     */
+    private static final int RECORD_SIZE = 1 + 8 * 9;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final long start;
+
+    private final long end;
+
+    private final long width;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate ( RECORD_SIZE );
+
+    private RollupFile ( final File file ) throws IOException
+    {
+        this.file = new RandomAccessFile ( file, "rw" );
+        try
+        {
+            this.channel = this.file.getChannel ();
+
+            final ByteBuffer header = ByteBuffer.allocate ( HEADER_SIZE );
+            if ( !readFully ( header, 0 ) )
+            {
+                throw new IOException ( String.format ( "File %s is too short", file ) );
+            }
+            header.flip ();
+
+            final int magic = header.getInt ();
+            final int version = header.getInt ();
+            if ( magic != MAGIC || version != VERSION )
+            {
+                throw new IOException ( String.format ( "File %s is not a rollup file - magic: %x, version: %x", file, magic, version ) );
+            }
+
+            this.start = header.getLong ();
+            this.end = header.getLong ();
+            this.width = header.getLong ();
+        }
+        catch ( final IOException e )
+        {
+            this.file.close ();
+            throw e;
+        }
+    }
+
+    public long getStart ()
+    {
+        return this.start;
+    }
+
+    public long getEnd ()
+    {
+        return this.end;
+    }
+
+    /**
+     * Read a bucket
+     * 
+     * @param bucketStart
+     *            the start of the bucket, must be inside the file
+     * @param functions
+     *            the functions the bucket should provide
+     * @return the bucket or <code>null</code> if it was not written
+     */
+    public synchronized Bucket read ( final long bucketStart, final Set<AggregationFunction> functions ) throws IOException
+    {
+        this.buffer.clear ();
+        if ( !readFully ( this.buffer, position ( bucketStart ) ) )
+        {
+            return null;
+        }
+        this.buffer.flip ();
+
+        if ( this.buffer.get () == 0 )
+        {
+            return null;
+        }
+
+        final long count = this.buffer.getLong ();
+        final long validTime = this.buffer.getLong ();
+        final long errorTime = this.buffer.getLong ();
+        final long manualTime = this.buffer.getLong ();
+        final double sum = this.buffer.getDouble ();
+        final double min = this.buffer.getDouble ();
+        final double max = this.buffer.getDouble ();
+        final double first = this.buffer.getDouble ();
+        final double last = this.buffer.getDouble ();
+
+        return new Bucket ( new Date ( bucketStart ), new Date ( bucketStart + this.width ), functions, min, max, sum, validTime, errorTime, manualTime, count, first, last );
+    }
+
+    /**
+     * Write a bucket into its slot
+     */
+    public synchronized void write ( final Bucket bucket ) throws IOException
+    {
+        this.buffer.clear ();
+        this.buffer.put ( (byte)1 );
+        this.buffer.putLong ( bucket.getCount () );
+        this.buffer.putLong ( bucket.getValidTime () );
+        this.buffer.putLong ( bucket.getErrorTime () );
+        this.buffer.putLong ( bucket.getManualTime () );
+        this.buffer.putDouble ( bucket.getSum () );
+        this.buffer.putDouble ( bucket.getMin () );
+        this.buffer.putDouble ( bucket.getMax () );
+        this.buffer.putDouble ( bucket.getFirst () );
+        this.buffer.putDouble ( bucket.getLast () );
+        this.buffer.flip ();
+
+        long current = position ( bucket.getStart ().getTime () );
+        while ( this.buffer.hasRemaining () )
+        {
+            current += this.channel.write ( this.buffer, current );
+        }
+    }
+
+    /**
+     * Find the end of the last bucket which was written
+     * 
+     * @return the end of the last bucket or <code>null</code> if no bucket was
+     *         written
+     */
+    public synchronized Long findLastEnd () throws IOException
+    {
+        final long size = this.channel.size ();
+        if ( size < HEADER_SIZE + RECORD_SIZE )
+        {
+            return null;
+        }
+
+        final ByteBuffer flag = ByteBuffer.allocate ( 1 );
+        for ( long slot = ( size - HEADER_SIZE ) / RECORD_SIZE - 1; slot >= 0; slot-- )
+        {
+            flag.clear ();
+            if ( readFully ( flag, HEADER_SIZE + slot * RECORD_SIZE ) && flag.get ( 0 ) != 0 )
+            {
+                return this.start + ( slot + 1 ) * this.width;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove all buckets starting at or after the provided bucket
+     */
+    public synchronized void truncate ( final long bucketStart ) throws IOException
+    {
+        final long position = position ( bucketStart );
+        if ( this.channel.size () > position )
+        {
+            this.channel.truncate ( position );
+        }
+    }
+
+    private long position ( final long bucketStart )
+    {
+        if ( bucketStart < this.start || bucketStart >= this.end )
+        {
+            throw new IllegalArgumentException ( String.format ( "Bucket %tc is outside of the file range %tc -> %tc", bucketStart, this.start, this.end ) );
+        }
+        return HEADER_SIZE + ( bucketStart - this.start ) / this.width * RECORD_SIZE;
+    }
+
+    private boolean readFully ( final ByteBuffer buffer, final long position ) throws IOException
+    {
+        long current = position;
+        while ( buffer.hasRemaining () )
+        {
+            final int rc = this.channel.read ( buffer, current );
+            if ( rc < 0 )
+            {
+                return false;
+            }
+            current += rc;
+        }
+        return true;
+    }
+
+    public void dispose ()
+    {
+        try
+        {
+            this.file.close ();
+        }
+        catch ( final IOException e )
+        {
+            logger.warn ( "Failed to close file", e );
+        }
+    }
+
+    public static RollupFile open ( final File file ) throws IOException
+    {
+        return new RollupFile ( file );
+    }
+
+    public static RollupFile create ( final File file, final long start, final long end, final long width ) throws IOException
+    {
+        logger.debug ( "Creating new rollup file: {}", file );
+
+        if ( !file.createNewFile () )
+        {
+            throw new IllegalStateException ( String.format ( "Unable to create file %s, already exists", file ) );
+        }
+
+        final RandomAccessFile out = new RandomAccessFile ( file, "rw" );
+        try
+        {
+            out.writeInt ( MAGIC );
+            out.writeInt ( VERSION );
+            out.writeLong ( start );
+            out.writeLong ( end );
+            out.writeLong ( width );
+        }
+        finally
+        {
+            out.close ();
+        }
+
+        return new RollupFile ( file );
+    }
+}
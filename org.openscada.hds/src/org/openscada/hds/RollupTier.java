@@ -0,0 +1,555 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One tier of precomputed buckets of a data store
+ * <p>
+ * A tier holds the buckets of a fixed width, aligned to multiples of the
+ * width. Only closed buckets are stored, which are buckets ending at or before
+ * the latest inserted timestamp. The finest tier is calculated from the raw
+ * values, coarser tiers are merged from the buckets of the next finer tier.
+ * </p>
+ * <p>
+ * The tier covers the time from the start of the valid period of the store up
+ * to {@link #getComputedUntil()}. Each update extends the computed range by a
+ * limited number of buckets, so the history of an existing store is
+ * backfilled incrementally with the following updates. A change inside the
+ * computed range shrinks the range back to the changed bucket, which is then
+ * computed again the same way.
+ * </p>
+ */
+class RollupTier
+{
+    private final static Logger logger = LoggerFactory.getLogger ( RollupTier.class );
+
+    private static final int BUCKETS_PER_FILE = 1024;
+
+    private static final int MAX_OPEN_FILES = 8;
+
+    /**
+     * The maximum number of buckets computed beyond the computed range with
+     * one update, so that backfilling an existing store does not stall the
+     * inserting thread
+     */
+    private static final int MAX_BUCKETS_PER_UPDATE = 1024;
+
+    private static final String SUFFIX = ".rollup";
+
+    static final Set<AggregationFunction> ALL_FUNCTIONS = Collections.unmodifiableSet ( EnumSet.allOf ( AggregationFunction.class ) );
+
+    private final File directory;
+
+    private final long width;
+
+    private final long fileSpan;
+
+    private final RollupTier finer;
+
+    @SuppressWarnings ( "serial" )
+    private final Map<Long, RollupFile> files = new LinkedHashMap<Long, RollupFile> ( 16, 0.75f, true ) {
+        @Override
+        protected boolean removeEldestEntry ( final Map.Entry<Long, RollupFile> eldest )
+        {
+            if ( size () > MAX_OPEN_FILES )
+            {
+                eldest.getValue ().dispose ();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private boolean loaded;
+
+    /**
+     * The end of the last computed bucket, {@link Long#MIN_VALUE} if there is
+     * none
+     */
+    private long computedUntil = Long.MIN_VALUE;
+
+    /**
+     * The end of the last bucket known to be closed, so that the computed range
+     * can grow back to it after buckets were discarded. Coarser tiers follow
+     * the computed range of the finer tier instead.
+     */
+    private long closedUntil = Long.MIN_VALUE;
+
+    /**
+     * Create a new tier
+     * 
+     * @param directory
+     *            the directory holding the files of the tier, will be created
+     *            if necessary
+     * @param width
+     *            the width of the buckets in milliseconds
+     * @param finer
+     *            the next finer tier or <code>null</code> if the tier is
+     *            calculated from the raw values
+     */
+    public RollupTier ( final File directory, final long width, final RollupTier finer )
+    {
+        if ( width <= 0 )
+        {
+            throw new IllegalArgumentException ( "Bucket width must be greater than zero" );
+        }
+        if ( finer != null && width % finer.getWidth () != 0 )
+        {
+            throw new IllegalArgumentException ( String.format ( "Bucket width %s must be a multiple of the next finer tier width %s", width, finer.getWidth () ) );
+        }
+        if ( !directory.isDirectory () && !directory.mkdirs () )
+        {
+            throw new IllegalStateException ( String.format ( "Unable to create directory %s", directory ) );
+        }
+
+        this.directory = directory;
+        this.width = width;
+        this.fileSpan = width * BUCKETS_PER_FILE;
+        this.finer = finer;
+    }
+
+    public long getWidth ()
+    {
+        return this.width;
+    }
+
+    /**
+     * Get the end of the last computed bucket
+     * 
+     * @return the end of the last computed bucket or {@link Long#MIN_VALUE} if
+     *         nothing was computed yet
+     */
+    public synchronized long getComputedUntil () throws IOException
+    {
+        load ();
+        return this.computedUntil;
+    }
+
+    /**
+     * Compute the buckets which got closed or changed
+     * <p>
+     * A change inside the computed range discards the buckets from the changed
+     * one on. Beyond the computed range at most {@link #MAX_BUCKETS_PER_UPDATE}
+     * buckets are computed, the rest follows with the next updates.
+     * </p>
+     * 
+     * @param source
+     *            the raw values
+     * @param validFrom
+     *            the start of the valid period of the store, buckets before
+     *            are not computed
+     * @param until
+     *            the timestamp up to which the store has values, all buckets
+     *            ending at or before this timestamp are closed
+     * @param changedFrom
+     *            the oldest timestamp at which values were changed,
+     *            {@link Long#MAX_VALUE} if only values were appended
+     */
+    public synchronized void update ( final ValueSource source, final long validFrom, final long until, final long changedFrom ) throws IOException
+    {
+        load ();
+
+        final long origin = ceil ( validFrom );
+
+        if ( changedFrom < this.computedUntil )
+        {
+            discard ( Math.max ( floor ( changedFrom ), origin ) );
+        }
+
+        final long from = Math.max ( this.computedUntil, origin );
+
+        long limit;
+        if ( this.finer == null )
+        {
+            this.closedUntil = Math.max ( this.closedUntil, floor ( until ) );
+            limit = this.closedUntil;
+        }
+        else
+        {
+            limit = floor ( this.finer.getComputedUntil () );
+        }
+        // limit the work done with one update
+        limit = Math.min ( limit, from + MAX_BUCKETS_PER_UPDATE * this.width );
+
+        if ( from >= limit )
+        {
+            return;
+        }
+
+        logger.debug ( "Computing tier {} - {} -> {}", new Object[] { this.width, from, limit } );
+
+        if ( this.finer == null )
+        {
+            computeFromSource ( source, from, limit );
+        }
+        else
+        {
+            for ( long bucketStart = from; bucketStart < limit; bucketStart += this.width )
+            {
+                final long bucketEnd = bucketStart + this.width;
+                write ( merge ( new Date ( bucketStart ), new Date ( bucketEnd ), ALL_FUNCTIONS, this.finer.read ( bucketStart, bucketEnd ) ) );
+            }
+        }
+
+        this.computedUntil = limit;
+    }
+
+    /**
+     * Discard all buckets starting at or after the provided bucket
+     * <p>
+     * The buckets are removed from the files as well, so that the computed
+     * range is found again when the tier is loaded.
+     * </p>
+     */
+    private void discard ( final long from ) throws IOException
+    {
+        if ( from >= this.computedUntil )
+        {
+            return;
+        }
+
+        logger.debug ( "Discarding tier {} from {}", this.width, from );
+
+        // buckets left over by a failure get overwritten when computed again
+        this.closedUntil = Math.max ( this.closedUntil, this.computedUntil );
+        this.computedUntil = from;
+
+        final long fileStart = from / this.fileSpan * this.fileSpan;
+        for ( final File file : listFiles () )
+        {
+            final long start = parseStart ( file );
+            if ( start > fileStart )
+            {
+                final RollupFile open = this.files.remove ( start );
+                if ( open != null )
+                {
+                    open.dispose ();
+                }
+                logger.debug ( "Deleting rollup file: {}", file );
+                if ( !file.delete () )
+                {
+                    logger.warn ( "Failed to delete rollup file: {}", file );
+                }
+            }
+        }
+
+        final RollupFile file = getFile ( from, false );
+        if ( file != null )
+        {
+            file.truncate ( from );
+        }
+    }
+
+    private void computeFromSource ( final ValueSource source, final long from, final long to ) throws IOException
+    {
+        final IOException[] error = new IOException[1];
+
+        final AggregatingVisitor visitor = new AggregatingVisitor ( new Date ( from ), new Date ( to ), this.width, ALL_FUNCTIONS, new BucketVisitor () {
+
+            @Override
+            public boolean bucket ( final Bucket bucket )
+            {
+                try
+                {
+                    write ( bucket );
+                    return true;
+                }
+                catch ( final IOException e )
+                {
+                    error[0] = e;
+                    return false;
+                }
+            }
+        } );
+
+        source.visit ( visitor, new Date ( from ), new Date ( to ) );
+        visitor.complete ();
+
+        if ( error[0] != null )
+        {
+            throw error[0];
+        }
+    }
+
+    /**
+     * Aggregate a time range using the buckets of this tier
+     * <p>
+     * Each bucket of the tier is assigned to the requested bucket containing
+     * its start. So the result is only exact if the start and the width of the
+     * requested buckets are multiples of the width of the tier.
+     * </p>
+     * 
+     * @see Aggregator#aggregate(Date, Date, long, Set, BucketVisitor)
+     */
+    public boolean aggregate ( final Date start, final Date end, final long width, final Set<AggregationFunction> functions, final BucketVisitor visitor ) throws IOException
+    {
+        long from = floor ( start.getTime () );
+        long bucketStart = start.getTime ();
+
+        while ( bucketStart < end.getTime () )
+        {
+            final long bucketEnd = Math.min ( bucketStart + width, end.getTime () );
+
+            final List<Bucket> buckets = read ( from, bucketEnd );
+            if ( !visitor.bucket ( merge ( new Date ( bucketStart ), new Date ( bucketEnd ), functions, buckets ) ) )
+            {
+                return false;
+            }
+
+            from = ceil ( bucketEnd );
+            bucketStart = bucketEnd;
+        }
+
+        return true;
+    }
+
+    /**
+     * Read all stored buckets starting in the provided range
+     */
+    synchronized List<Bucket> read ( final long from, final long to ) throws IOException
+    {
+        final List<Bucket> result = new ArrayList<Bucket> ();
+        for ( long bucketStart = ceil ( from ); bucketStart < to; bucketStart += this.width )
+        {
+            final RollupFile file = getFile ( bucketStart, false );
+            if ( file == null )
+            {
+                // skip to the next file
+                bucketStart = ( bucketStart / this.fileSpan + 1 ) * this.fileSpan - this.width;
+                continue;
+            }
+
+            final Bucket bucket = file.read ( bucketStart, ALL_FUNCTIONS );
+            if ( bucket != null )
+            {
+                result.add ( bucket );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merge buckets into one
+     * <p>
+     * Time not covered by any of the buckets counts as error time.
+     * </p>
+     */
+    static Bucket merge ( final Date start, final Date end, final Set<AggregationFunction> functions, final List<Bucket> buckets )
+    {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        long validTime = 0;
+        long errorTime = 0;
+        long manualTime = 0;
+        long count = 0;
+        double first = Double.NaN;
+        double last = Double.NaN;
+
+        for ( final Bucket bucket : buckets )
+        {
+            if ( bucket.getValidTime () > 0 )
+            {
+                min = Math.min ( min, bucket.getMin () );
+                max = Math.max ( max, bucket.getMax () );
+            }
+            if ( bucket.getCount () > 0 )
+            {
+                if ( count == 0 )
+                {
+                    first = bucket.getFirst ();
+                }
+                last = bucket.getLast ();
+            }
+            sum += bucket.getSum ();
+            validTime += bucket.getValidTime ();
+            errorTime += bucket.getErrorTime ();
+            manualTime += bucket.getManualTime ();
+            count += bucket.getCount ();
+        }
+
+        final long uncovered = end.getTime () - start.getTime () - validTime - errorTime;
+        if ( uncovered > 0 )
+        {
+            errorTime += uncovered;
+        }
+
+        return new Bucket ( start, end, functions, min, max, sum, validTime, errorTime, manualTime, count, first, last );
+    }
+
+    private void write ( final Bucket bucket ) throws IOException
+    {
+        getFile ( bucket.getStart ().getTime (), true ).write ( bucket );
+    }
+
+    private RollupFile getFile ( final long timestamp, final boolean create ) throws IOException
+    {
+        final long fileStart = timestamp / this.fileSpan * this.fileSpan;
+
+        RollupFile file = this.files.get ( fileStart );
+        if ( file != null )
+        {
+            return file;
+        }
+
+        final File path = makeFile ( fileStart );
+        if ( path.isFile () )
+        {
+            file = RollupFile.open ( path );
+        }
+        else if ( create )
+        {
+            file = RollupFile.create ( path, fileStart, fileStart + this.fileSpan, this.width );
+        }
+        else
+        {
+            return null;
+        }
+
+        this.files.put ( fileStart, file );
+        return file;
+    }
+
+    private File makeFile ( final long start )
+    {
+        return new File ( this.directory, String.format ( "%08x%s", start, SUFFIX ) );
+    }
+
+    /**
+     * Find the last computed bucket
+     */
+    private void load () throws IOException
+    {
+        if ( this.loaded )
+        {
+            return;
+        }
+
+        long latest = Long.MIN_VALUE;
+        for ( final File file : listFiles () )
+        {
+            latest = Math.max ( latest, parseStart ( file ) );
+        }
+
+        // the newest file may be empty if writing was interrupted
+
+        for ( long fileStart = latest; fileStart != Long.MIN_VALUE && this.computedUntil == Long.MIN_VALUE; fileStart -= this.fileSpan )
+        {
+            final RollupFile file = getFile ( fileStart, false );
+            if ( file == null )
+            {
+                break;
+            }
+            final Long lastEnd = file.findLastEnd ();
+            if ( lastEnd != null )
+            {
+                this.computedUntil = lastEnd;
+            }
+        }
+
+        this.closedUntil = this.computedUntil;
+        this.loaded = true;
+
+        logger.debug ( "Tier {} computed until {}", this.width, this.computedUntil );
+    }
+
+    private File[] listFiles ()
+    {
+        final File[] files = this.directory.listFiles ();
+        if ( files == null )
+        {
+            return new File[0];
+        }
+
+        final List<File> result = new ArrayList<File> ( files.length );
+        for ( final File file : files )
+        {
+            if ( file.isFile () && file.getName ().endsWith ( SUFFIX ) )
+            {
+                result.add ( file );
+            }
+        }
+        return result.toArray ( new File[result.size ()] );
+    }
+
+    private long parseStart ( final File file )
+    {
+        final String name = file.getName ();
+        return Long.parseLong ( name.substring ( 0, name.length () - SUFFIX.length () ), 16 );
+    }
+
+    /**
+     * Delete all files which end before the provided timestamp
+     */
+    public synchronized void purge ( final long before )
+    {
+        for ( final File file : listFiles () )
+        {
+            final long start = parseStart ( file );
+            if ( start + this.fileSpan < before )
+            {
+                final RollupFile open = this.files.remove ( start );
+                if ( open != null )
+                {
+                    open.dispose ();
+                }
+                logger.debug ( "Deleting rollup file: {}", file );
+                if ( !file.delete () )
+                {
+                    logger.warn ( "Failed to delete rollup file: {}", file );
+                }
+            }
+        }
+    }
+
+    public synchronized void dispose ()
+    {
+        for ( final RollupFile file : this.files.values () )
+        {
+            file.dispose ();
+        }
+        this.files.clear ();
+    }
+
+    private long floor ( final long timestamp )
+    {
+        return timestamp / this.width * this.width;
+    }
+
+    private long ceil ( final long timestamp )
+    {
+        final long floor = floor ( timestamp );
+        return floor == timestamp ? floor : floor + this.width;
+    }
+}
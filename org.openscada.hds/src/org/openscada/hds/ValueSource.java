@@ -32,6 +32,20 @@ public interface ValueSource
      */
     public boolean visit ( final ValueVisitor visitor, final Date start, final Date end );
 
+    /**
+     * Visit the value source without creating objects for each value
+     * 
+     * @see #visit(ValueVisitor, Date, Date)
+     */
+    public boolean visit ( final PrimitiveValueVisitor visitor, final Date start, final Date end );
+
+    /**
+     * Visit the value source in chunks of values
+     * 
+     * @see #visit(ValueVisitor, Date, Date)
+     */
+    public boolean visit ( final BulkValueVisitor visitor, final Date start, final Date end );
+
     public void addListener ( final DataStoreListener listener );
 
     public void removeListener ( final DataStoreListener listener );
@@ -0,0 +1,132 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+import java.util.Date;
+
+/**
+ * Adapters between the different kinds of value visitors
+ */
+public final class ValueVisitors
+{
+    private ValueVisitors ()
+    {
+    }
+
+    private static class DateAdapter implements PrimitiveValueVisitor
+    {
+        private final ValueVisitor visitor;
+
+        public DateAdapter ( final ValueVisitor visitor )
+        {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public boolean value ( final double value, final long timestamp, final byte flags )
+        {
+            return this.visitor.value ( value, new Date ( timestamp ), ( flags & DataFileAccessor.FLAG_ERROR ) != 0, ( flags & DataFileAccessor.FLAG_MANUAL ) != 0 );
+        }
+    }
+
+    private static class BulkAdapter implements BulkValueVisitor
+    {
+        private final PrimitiveValueVisitor visitor;
+
+        public BulkAdapter ( final PrimitiveValueVisitor visitor )
+        {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public boolean values ( final double[] values, final long[] timestamps, final byte[] flags, final int offset, final int length )
+        {
+            for ( int i = offset; i < offset + length; i++ )
+            {
+                if ( !this.visitor.value ( values[i], timestamps[i], flags[i] ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class SingleAdapter implements PrimitiveValueVisitor
+    {
+        private final BulkValueVisitor visitor;
+
+        private final double[] values = new double[1];
+
+        private final long[] timestamps = new long[1];
+
+        private final byte[] flags = new byte[1];
+
+        public SingleAdapter ( final BulkValueVisitor visitor )
+        {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public boolean value ( final double value, final long timestamp, final byte flags )
+        {
+            this.values[0] = value;
+            this.timestamps[0] = timestamp;
+            this.flags[0] = flags;
+            return this.visitor.values ( this.values, this.timestamps, this.flags, 0, 1 );
+        }
+    }
+
+    /**
+     * Create a primitive visitor which passes each value on to a visitor
+     * using {@link Date} objects
+     */
+    public static PrimitiveValueVisitor primitive ( final ValueVisitor visitor )
+    {
+        return new DateAdapter ( visitor );
+    }
+
+    /**
+     * Create a primitive visitor which passes each value on as chunk of one
+     * record
+     */
+    public static PrimitiveValueVisitor primitive ( final BulkValueVisitor visitor )
+    {
+        return new SingleAdapter ( visitor );
+    }
+
+    /**
+     * Create a bulk visitor which passes each record on to a primitive
+     * visitor
+     */
+    public static BulkValueVisitor bulk ( final PrimitiveValueVisitor visitor )
+    {
+        return new BulkAdapter ( visitor );
+    }
+
+    /**
+     * Create a bulk visitor which passes each record on to a visitor using
+     * {@link Date} objects
+     */
+    public static BulkValueVisitor bulk ( final ValueVisitor visitor )
+    {
+        return new BulkAdapter ( new DateAdapter ( visitor ) );
+    }
+}
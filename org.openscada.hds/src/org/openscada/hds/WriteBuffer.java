@@ -0,0 +1,249 @@
+/*
+ * This file is part of the openSCADA project
+ * Copyright (C) 2006-2012 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * openSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with openSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.hds;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A buffer collecting values before they get written to the store
+ * <p>
+ * Values are collected until either the capacity is reached or the flush
+ * delay has passed. The buffer is double buffered, so that new values can be
+ * added while the previous batch is being written.
+ * </p>
+ * <p>
+ * If writing a batch fails, the entries which were not written are kept and
+ * written before any newer values on the next flush.
+ * </p>
+ */
+class WriteBuffer
+{
+
+    private final static Logger logger = LoggerFactory.getLogger ( WriteBuffer.class );
+
+    private final DataStoreAccesor store;
+
+    private final int capacity;
+
+    private final Lock lock = new ReentrantLock ();
+
+    private final Lock flushLock = new ReentrantLock ();
+
+    private double[] values;
+
+    private long[] timestamps;
+
+    private byte[] flags;
+
+    private int size;
+
+    private double[] flushValues;
+
+    private long[] flushTimestamps;
+
+    private byte[] flushFlags;
+
+    /**
+     * The number of entries in the flush buffer which still have to be
+     * written, only accessed while holding the flush lock
+     */
+    private int flushSize;
+
+    /**
+     * The number of entries of the flush buffer which have already been
+     * written, only accessed while holding the flush lock
+     */
+    private int flushOffset;
+
+    /**
+     * Whether the batch in the flush buffer has already been prepared, only
+     * accessed while holding the flush lock
+     */
+    private boolean flushPrepared;
+
+    private final ScheduledFuture<?> job;
+
+    public WriteBuffer ( final DataStoreAccesor store, final int capacity, final long flushDelay, final TimeUnit unit, final ScheduledExecutorService executor )
+    {
+        if ( capacity <= 0 )
+        {
+            throw new IllegalArgumentException ( "Capacity must be greater than zero" );
+        }
+
+        this.store = store;
+        this.capacity = capacity;
+
+        this.values = new double[capacity];
+        this.timestamps = new long[capacity];
+        this.flags = new byte[capacity];
+
+        this.flushValues = new double[capacity];
+        this.flushTimestamps = new long[capacity];
+        this.flushFlags = new byte[capacity];
+
+        this.job = executor.scheduleWithFixedDelay ( new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                try
+                {
+                    flush ();
+                }
+                catch ( final Exception e )
+                {
+                    logger.warn ( "Failed to flush buffer", e );
+                }
+            }
+        }, flushDelay, flushDelay, unit );
+    }
+
+    /**
+     * Add a value to the buffer
+     * <p>
+     * If the buffer is full it is flushed in the calling thread.
+     * </p>
+     */
+    public void add ( final double value, final long timestamp, final byte flags ) throws Exception
+    {
+        while ( true )
+        {
+            this.lock.lock ();
+            try
+            {
+                if ( this.size < this.capacity )
+                {
+                    this.values[this.size] = value;
+                    this.timestamps[this.size] = timestamp;
+                    this.flags[this.size] = flags;
+                    this.size++;
+                    return;
+                }
+            }
+            finally
+            {
+                this.lock.unlock ();
+            }
+
+            flush ();
+        }
+    }
+
+    /**
+     * Write out all buffered values
+     * <p>
+     * If a previous flush failed, the rest of its batch is written first. If
+     * writing fails, the entries not written are kept for the next flush.
+     * </p>
+     */
+    public void flush () throws Exception
+    {
+        this.flushLock.lock ();
+        try
+        {
+            if ( this.flushSize > 0 )
+            {
+                // retry the batch which could not be written last time
+                writeBatch ();
+            }
+
+            this.lock.lock ();
+            try
+            {
+                if ( this.size == 0 )
+                {
+                    return;
+                }
+                this.flushSize = this.size;
+                swap ();
+            }
+            finally
+            {
+                this.lock.unlock ();
+            }
+
+            writeBatch ();
+        }
+        finally
+        {
+            this.flushLock.unlock ();
+        }
+    }
+
+    private void writeBatch () throws Exception
+    {
+        logger.debug ( "Flushing {} entries", this.flushSize - this.flushOffset );
+
+        if ( !this.flushPrepared )
+        {
+            this.store.prepareValues ( this.flushValues, this.flushTimestamps, this.flushFlags, this.flushSize );
+            this.flushPrepared = true;
+        }
+
+        while ( this.flushOffset < this.flushSize )
+        {
+            this.flushOffset += this.store.insertValues ( this.flushValues, this.flushTimestamps, this.flushFlags, this.flushOffset, this.flushSize - this.flushOffset );
+        }
+
+        this.flushSize = 0;
+        this.flushOffset = 0;
+        this.flushPrepared = false;
+    }
+
+    private void swap ()
+    {
+        final double[] values = this.values;
+        this.values = this.flushValues;
+        this.flushValues = values;
+
+        final long[] timestamps = this.timestamps;
+        this.timestamps = this.flushTimestamps;
+        this.flushTimestamps = timestamps;
+
+        final byte[] flags = this.flags;
+        this.flags = this.flushFlags;
+        this.flushFlags = flags;
+
+        this.size = 0;
+    }
+
+    /**
+     * Stop the flush job and write out the remaining values
+     */
+    public void dispose ()
+    {
+        this.job.cancel ( false );
+        try
+        {
+            flush ();
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to flush buffer on dispose", e );
+        }
+    }
+}
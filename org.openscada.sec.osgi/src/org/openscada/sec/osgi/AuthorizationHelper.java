@@ -28,10 +28,11 @@ import org.openscada.sec.AuthorizationResult;
 import org.openscada.sec.StatusCodes;
 import org.openscada.sec.authz.AuthorizationContext;
 import org.openscada.sec.authz.AuthorizationRule;
+import org.openscada.utils.concurrent.Futures;
 import org.openscada.utils.concurrent.InstantFuture;
 import org.openscada.utils.concurrent.IteratingFuture;
 import org.openscada.utils.concurrent.NotifyFuture;
-import org.openscada.utils.concurrent.TransformResultFuture;
+import org.openscada.utils.concurrent.Transformer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -96,10 +97,10 @@ public class AuthorizationHelper
 
         future.startIterating ();
 
-        return new TransformResultFuture<AuthorizationResult, AuthorizationReply> ( future ) {
+        return Futures.thenApply ( future, new Transformer<AuthorizationResult, AuthorizationReply> () {
 
             @Override
-            protected AuthorizationReply transform ( final AuthorizationResult from ) throws Exception
+            public AuthorizationReply transform ( final AuthorizationResult from ) throws Exception
             {
                 logger.debug ( "Transforming result: {}", from );
                 if ( from == null )
@@ -111,8 +112,7 @@ public class AuthorizationHelper
                     return AuthorizationReply.create ( from, context );
                 }
             }
-
-        };
+        } );
     }
 
 }
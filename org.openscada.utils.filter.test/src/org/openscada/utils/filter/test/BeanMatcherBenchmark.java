@@ -0,0 +1,112 @@
+package org.openscada.utils.filter.test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.openscada.utils.filter.Filter;
+import org.openscada.utils.filter.FilterParser;
+import org.openscada.utils.filter.bean.BeanIndex;
+import org.openscada.utils.filter.bean.BeanMatcher;
+import org.openscada.utils.filter.bean.BeanPredicate;
+
+/**
+ * Compare the interpreted bean matcher with a compiled filter
+ * <p>
+ * Also measures filtering the whole collection sequentially, in parallel and
+ * using a {@link BeanIndex}.
+ * </p>
+ */
+public class BeanMatcherBenchmark
+{
+    private static final int SIZE = 50000;
+
+    private static final int ITERATIONS = 10;
+
+    private static final int WARMUP = 5;
+
+    private static final String FILTER = "(&(|(integerValue1>=500)(testEnum1=A))(stringValue1=*Hello*)(!(doubleValue1<0.5))(stringValue1~=World$))";
+
+    public static void main ( final String[] args ) throws Exception
+    {
+        final Random r = new Random ( 0 );
+
+        final List<Object> beans = new ArrayList<Object> ( SIZE );
+        for ( int i = 0; i < SIZE; i++ )
+        {
+            final TestBean1 bean = new TestBean1 ();
+            bean.setIntegerValue1 ( r.nextInt ( 1000 ) );
+            bean.setDoubleValue1 ( r.nextDouble () );
+            bean.setStringValue1 ( r.nextBoolean () ? "Hello World" : "Hello" );
+            bean.setTestEnum1 ( r.nextBoolean () ? TestEnum.A : TestEnum.B );
+            beans.add ( bean );
+        }
+
+        final Filter filter = new FilterParser ( FILTER ).getFilter ();
+
+        final ExecutorService executor = Executors.newFixedThreadPool ( Runtime.getRuntime ().availableProcessors () );
+
+        long tix = System.nanoTime ();
+        final BeanIndex index = new BeanIndex ( beans, null, "integerValue1", "doubleValue1", "stringValue1", "testEnum1" );
+        System.out.println ( String.format ( "Index built in %.2f ms", ( System.nanoTime () - tix ) / 1000000.0 ) );
+
+        for ( int i = 0; i < WARMUP + ITERATIONS; i++ )
+        {
+            if ( i == WARMUP )
+            {
+                System.out.println ( "Starting measurement" );
+            }
+
+            tix = System.nanoTime ();
+            int interpreted = 0;
+            for ( final Object bean : beans )
+            {
+                if ( BeanMatcher.matches ( filter, bean, false, null ) )
+                {
+                    interpreted++;
+                }
+            }
+            final long interpretedTime = System.nanoTime () - tix;
+
+            tix = System.nanoTime ();
+            final BeanPredicate predicate = BeanMatcher.compile ( filter, TestBean1.class, false, null );
+            int compiled = 0;
+            for ( final Object bean : beans )
+            {
+                if ( predicate.matches ( bean ) )
+                {
+                    compiled++;
+                }
+            }
+            final long compiledTime = System.nanoTime () - tix;
+
+            tix = System.nanoTime ();
+            final Collection<Object> result = BeanMatcher.filter ( filter, beans, false, null );
+            final long filterTime = System.nanoTime () - tix;
+
+            tix = System.nanoTime ();
+            final List<Object> parallelResult = new ArrayList<Object> ();
+            BeanMatcher.filter ( filter, beans, parallelResult, false, null, executor );
+            final long parallelTime = System.nanoTime () - tix;
+
+            tix = System.nanoTime ();
+            final List<Object> indexResult = index.filter ( filter, false );
+            final long indexTime = System.nanoTime () - tix;
+
+            if ( interpreted != compiled || compiled != result.size () || !result.equals ( parallelResult ) || !result.equals ( indexResult ) )
+            {
+                throw new IllegalStateException ( String.format ( "Results differ: %s / %s / %s / %s / %s", interpreted, compiled, result.size (), parallelResult.size (), indexResult.size () ) );
+            }
+
+            if ( i >= WARMUP )
+            {
+                System.out.println ( String.format ( "%s matches - Interpreted: %.2f ms, Compiled: %.2f ms, Filter: %.2f ms, Parallel: %.2f ms, Index: %.2f ms", compiled, interpretedTime / 1000000.0, compiledTime / 1000000.0, filterTime / 1000000.0, parallelTime / 1000000.0, indexTime / 1000000.0 ) );
+            }
+        }
+
+        executor.shutdown ();
+    }
+}
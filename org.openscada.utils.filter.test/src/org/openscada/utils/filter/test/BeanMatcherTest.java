@@ -1,6 +1,12 @@
 package org.openscada.utils.filter.test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.Assert;
 
@@ -8,7 +14,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openscada.utils.filter.Filter;
 import org.openscada.utils.filter.FilterParser;
+import org.openscada.utils.filter.bean.BeanIndex;
 import org.openscada.utils.filter.bean.BeanMatcher;
+import org.openscada.utils.filter.bean.BeanPredicate;
+import org.openscada.utils.propertyeditors.Converter;
+import org.openscada.utils.propertyeditors.PropertyEditorRegistry;
 
 public class BeanMatcherTest
 {
@@ -113,10 +123,136 @@ public class BeanMatcherTest
         testFilter ( "(stringValue1~=^ll$)", this.bean2, false );
     }
 
+    @Test
+    public void testFilterList () throws Exception
+    {
+        final Filter filter = new FilterParser ( "(integerValue1>=42)" ).getFilter ();
+        final List<Object> beans = new ArrayList<Object> ();
+        beans.add ( this.bean1 );
+        beans.add ( this.bean2 );
+        beans.add ( "not a bean" );
+
+        Assert.assertEquals ( Arrays.<Object> asList ( this.bean2 ), BeanMatcher.filter ( filter, beans, false, null ) );
+    }
+
+    @Test
+    public void testCompiledOtherClass () throws Exception
+    {
+        final Filter filter = new FilterParser ( "(stringValue1=Hello*)" ).getFilter ();
+        final BeanPredicate predicate = BeanMatcher.compile ( filter, Object.class, false, null );
+
+        Assert.assertTrue ( predicate.matches ( this.bean1 ) );
+    }
+
+    @Test
+    public void testCompiledReuse () throws Exception
+    {
+        final Filter filter = new FilterParser ( "(&(integerValue1>41)(stringValue1~=World$))" ).getFilter ();
+        final BeanPredicate predicate = BeanMatcher.compile ( filter, TestBean1.class, false, null );
+
+        Assert.assertFalse ( predicate.matches ( this.bean1 ) );
+        Assert.assertTrue ( predicate.matches ( this.bean2 ) );
+        Assert.assertTrue ( predicate.matches ( this.bean2 ) );
+    }
+
+    @Test
+    public void testConverter () throws Exception
+    {
+        final PropertyEditorRegistry registry = new PropertyEditorRegistry ( true );
+        registry.registerConverter ( Integer.class, new Converter<Integer> () {
+
+            @Override
+            public Integer convert ( final String text )
+            {
+                return Integer.decode ( text );
+            }
+        } );
+
+        final Filter filter = new FilterParser ( "(integerValue1=0x2A)" ).getFilter ();
+        Assert.assertTrue ( BeanMatcher.matches ( filter, this.bean2, false, registry ) );
+        Assert.assertTrue ( BeanMatcher.compile ( filter, TestBean1.class, false, registry ).matches ( this.bean2 ) );
+        Assert.assertEquals ( Integer.valueOf ( 42 ), registry.convert ( "0x2A", Integer.class ) );
+        Assert.assertEquals ( TestEnum.B, registry.convert ( "B", TestEnum.class ) );
+    }
+
+    @Test
+    public void testFilterParallel () throws Exception
+    {
+        final Filter filter = new FilterParser ( "(|(integerValue1<100)(testEnum1=C))" ).getFilter ();
+        final List<Object> beans = makeBeans ( 10000 );
+
+        final Collection<Object> expected = BeanMatcher.filter ( filter, beans, false, null );
+
+        final ExecutorService executor = Executors.newFixedThreadPool ( 4 );
+        try
+        {
+            final List<Object> result = new ArrayList<Object> ();
+            BeanMatcher.filter ( filter, beans, result, false, null, executor );
+            Assert.assertEquals ( expected, result );
+        }
+        finally
+        {
+            executor.shutdown ();
+        }
+    }
+
+    @Test
+    public void testIndex () throws Exception
+    {
+        final List<Object> beans = makeBeans ( 1000 );
+        beans.add ( "not a bean" );
+
+        final BeanIndex index = new BeanIndex ( beans, null, "integerValue1", "doubleValue1", "stringValue1", "testEnum1", "dateValue1" );
+        Assert.assertEquals ( beans.size (), index.size () );
+        Assert.assertTrue ( index.isIndexed ( "integerValue1" ) );
+
+        testIndex ( index, beans, "(integerValue1=42)" );
+        testIndex ( index, beans, "(integerValue1>=500)" );
+        testIndex ( index, beans, "(&(integerValue1>100)(integerValue1<=200))" );
+        testIndex ( index, beans, "(|(integerValue1<10)(testEnum1=B))" );
+        testIndex ( index, beans, "(!(testEnum1=A))" );
+        testIndex ( index, beans, "(doubleValue1=*)" );
+        testIndex ( index, beans, "(doubleValue1<1.5)" );
+        testIndex ( index, beans, "(stringValue1=Bean 1*)" );
+        testIndex ( index, beans, "(stringValue1~=7$)" );
+        testIndex ( index, beans, "(&(booleanValue1=true)(integerValue1<50))" );
+        testIndex ( index, beans, "(missing=*)" );
+    }
+
+    private void testIndex ( final BeanIndex index, final List<Object> beans, final String filterString ) throws Exception
+    {
+        final Filter filter = new FilterParser ( filterString ).getFilter ();
+        final Collection<Object> expected = BeanMatcher.filter ( filter, beans, false, null );
+        Assert.assertEquals ( filterString, expected, index.filter ( filter, false ) );
+    }
+
+    private List<Object> makeBeans ( final int count )
+    {
+        final TestEnum[] enums = TestEnum.values ();
+        final List<Object> beans = new ArrayList<Object> ( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            final TestBean1 bean = new TestBean1 ();
+            bean.setStringValue1 ( "Bean " + i );
+            bean.setIntegerValue1 ( i % 1000 );
+            bean.setBooleanValue1 ( i % 2 == 0 );
+            if ( i % 3 != 0 )
+            {
+                bean.setDoubleValue1 ( i / 100.0 );
+            }
+            bean.setTestEnum1 ( enums[i % enums.length] );
+            beans.add ( bean );
+        }
+        return beans;
+    }
+
     private void testFilter ( final String filterString, final Object bean, final boolean expected ) throws Exception
     {
         final Filter filter = new FilterParser ( filterString ).getFilter ();
         final boolean result = BeanMatcher.matches ( filter, bean, false, null );
         Assert.assertEquals ( "Must be equal", expected, result );
+
+        final boolean compiledResult = BeanMatcher.compile ( filter, bean.getClass (), false, null ).matches ( bean );
+        Assert.assertEquals ( "Compiled filter must be equal", expected, compiledResult );
     }
 }
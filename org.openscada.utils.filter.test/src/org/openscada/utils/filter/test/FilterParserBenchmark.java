@@ -0,0 +1,74 @@
+package org.openscada.utils.filter.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openscada.utils.filter.Filter;
+import org.openscada.utils.filter.FilterParser;
+
+/**
+ * Measure the parsing throughput with and without the parse cache
+ */
+public class FilterParserBenchmark
+{
+    private static final int FILTERS = 100;
+
+    private static final int ROUNDS = 1000;
+
+    private static final int ITERATIONS = 10;
+
+    private static final int WARMUP = 5;
+
+    public static void main ( final String[] args ) throws Exception
+    {
+        final List<String> filters = new ArrayList<String> ( FILTERS );
+        for ( int i = 0; i < FILTERS; i++ )
+        {
+            filters.add ( String.format ( "(&(stockBalance.stockBalanceType=RECEIPT)(|(snapshotType=START)(snapshotType=*END*))(!(tank.id=%s))(value>=%s.5)(name~=Tank\\2a.*))", i, i ) );
+        }
+
+        final int count = FILTERS * ROUNDS;
+
+        for ( int i = 0; i < WARMUP + ITERATIONS; i++ )
+        {
+            if ( i == WARMUP )
+            {
+                System.out.println ( "Starting measurement" );
+            }
+
+            int length = 0;
+
+            long tix = System.nanoTime ();
+            for ( int j = 0; j < ROUNDS; j++ )
+            {
+                for ( final String filter : filters )
+                {
+                    final Filter f = new FilterParser ( filter ).getFilter ();
+                    length += f.isExpression () ? 1 : 0;
+                }
+            }
+            final long parseTime = System.nanoTime () - tix;
+
+            tix = System.nanoTime ();
+            for ( int j = 0; j < ROUNDS; j++ )
+            {
+                for ( final String filter : filters )
+                {
+                    final Filter f = FilterParser.parse ( filter );
+                    length += f.isExpression () ? 1 : 0;
+                }
+            }
+            final long cachedTime = System.nanoTime () - tix;
+
+            if ( length != count * 2 )
+            {
+                throw new IllegalStateException ();
+            }
+
+            if ( i >= WARMUP )
+            {
+                System.out.println ( String.format ( "Parse: %.0f ns/op, Cached: %.0f ns/op", (double)parseTime / count, (double)cachedTime / count ) );
+            }
+        }
+    }
+}
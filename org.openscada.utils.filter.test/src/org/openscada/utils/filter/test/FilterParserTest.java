@@ -1,11 +1,19 @@
 package org.openscada.utils.filter.test;
 
+import java.util.Arrays;
+import java.util.List;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
+import org.openscada.utils.filter.Assertion;
 import org.openscada.utils.filter.Filter;
+import org.openscada.utils.filter.FilterAssertion;
+import org.openscada.utils.filter.FilterCache;
+import org.openscada.utils.filter.FilterExpression;
 import org.openscada.utils.filter.FilterParseException;
 import org.openscada.utils.filter.FilterParser;
+import org.openscada.utils.filter.Operator;
 
 public class FilterParserTest
 {
@@ -58,6 +66,98 @@ public class FilterParserTest
         checkFail ( "-" );
         checkFail ( "xxx" );
         checkFail ( "(&field=value)" );
+        checkFail ( "(field!=value)" );
+        checkFail ( "(field=value)(foo=bar)" );
+        checkFail ( "(field=value\\2)" );
+    }
+
+    @Test
+    public void testValues () throws Exception
+    {
+        checkValue ( "(field~=.*)", Assertion.APPROXIMATE, ".*" );
+        checkValue ( "(field=a&b)", Assertion.EQUALITY, "a&b" );
+        checkValue ( "(field=value\\2a)", Assertion.EQUALITY, "value*" );
+        checkValue ( "(field=*)", Assertion.PRESENCE, "" );
+        checkValue ( "(field=*va*ue*)", Assertion.SUBSTRING, Arrays.asList ( "", "va", "ue", "" ) );
+    }
+
+    @Test
+    public void testCache () throws Exception
+    {
+        final String s = "(&(field=value)(!(foo=b*r)))";
+        final Filter f = FilterParser.parse ( s );
+
+        Assert.assertEquals ( s, f.toString () );
+        Assert.assertSame ( f, FilterParser.parse ( s ) );
+
+        final FilterExpression and = (FilterExpression)f;
+        checkImmutable ( and );
+        checkImmutable ( (FilterExpression)and.getFilterSet ().get ( 1 ) );
+
+        final FilterAssertion assertion = (FilterAssertion)and.getFilterSet ().get ( 0 );
+        try
+        {
+            assertion.setValue ( "other" );
+            Assert.fail ( "Cached filter must be immutable" );
+        }
+        catch ( final UnsupportedOperationException e )
+        {
+        }
+
+        final FilterAssertion substring = (FilterAssertion) ( (FilterExpression)and.getFilterSet ().get ( 1 ) ).getFilterSet ().get ( 0 );
+        try
+        {
+            ( (List<?>)substring.getValue () ).clear ();
+            Assert.fail ( "Cached filter must be immutable" );
+        }
+        catch ( final UnsupportedOperationException e )
+        {
+        }
+
+        // parsing still returns a filter which can be changed
+        final FilterExpression copy = (FilterExpression)new FilterParser ( s ).getFilter ();
+        copy.getFilterSet ().remove ( 1 );
+        Assert.assertEquals ( "(&(field=value))", copy.toString () );
+        Assert.assertEquals ( s, f.toString () );
+    }
+
+    @Test
+    public void testCacheSize () throws Exception
+    {
+        final FilterCache cache = new FilterCache ( 10 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.parse ( "(field=" + i + ")" );
+        }
+        Assert.assertEquals ( 10, cache.size () );
+        Assert.assertEquals ( "(field=99)", cache.parse ( "(field=99)" ).toString () );
+    }
+
+    private void checkImmutable ( final FilterExpression expression )
+    {
+        try
+        {
+            expression.getFilterSet ().clear ();
+            Assert.fail ( "Cached filter must be immutable" );
+        }
+        catch ( final UnsupportedOperationException e )
+        {
+        }
+        try
+        {
+            expression.setOperator ( Operator.OR );
+            Assert.fail ( "Cached filter must be immutable" );
+        }
+        catch ( final UnsupportedOperationException e )
+        {
+        }
+    }
+
+    private void checkValue ( final String s, final Assertion assertion, final Object value ) throws Exception
+    {
+        final FilterAssertion f = (FilterAssertion)new FilterParser ( s ).getFilter ();
+        Assert.assertEquals ( assertion, f.getAssertion () );
+        Assert.assertEquals ( value, f.getValue () );
     }
 
     @Test
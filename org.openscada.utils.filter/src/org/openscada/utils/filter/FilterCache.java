@@ -0,0 +1,107 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.utils.filter;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded cache of parsed filters
+ * <p>
+ * The cached filters cannot be changed, so they can be shared between all
+ * callers. Lookups do not lock. When the cache is full the filters parsed
+ * first are removed.
+ * </p>
+ * 
+ * @since 1.1.0
+ */
+public class FilterCache
+{
+    private final int maximumSize;
+
+    private final ConcurrentMap<String, Filter> filters = new ConcurrentHashMap<String, Filter> ();
+
+    /**
+     * The filter strings in the order they were added
+     */
+    private final Queue<String> order = new ConcurrentLinkedQueue<String> ();
+
+    public FilterCache ( final int maximumSize )
+    {
+        if ( maximumSize <= 0 )
+        {
+            throw new IllegalArgumentException ( "Maximum size must be greater than zero" );
+        }
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Get the parsed filter for a filter string
+     * 
+     * @param filter
+     *            the filter string
+     * @return the parsed filter, which cannot be changed
+     * @throws FilterParseException
+     *             if the filter string is invalid, errors are not cached
+     */
+    public Filter parse ( final String filter ) throws FilterParseException
+    {
+        if ( filter == null )
+        {
+            return new FilterEmpty ();
+        }
+
+        final Filter result = this.filters.get ( filter );
+        if ( result != null )
+        {
+            return result;
+        }
+
+        final Filter parsed = FilterParser.parse ( filter, true );
+        final Filter current = this.filters.putIfAbsent ( filter, parsed );
+        if ( current != null )
+        {
+            return current;
+        }
+
+        this.order.add ( filter );
+        while ( this.filters.size () > this.maximumSize )
+        {
+            final String eldest = this.order.poll ();
+            if ( eldest == null )
+            {
+                break;
+            }
+            this.filters.remove ( eldest );
+        }
+
+        return parsed;
+    }
+
+    /**
+     * @return the number of cached filters
+     */
+    public int size ()
+    {
+        return this.filters.size ();
+    }
+}
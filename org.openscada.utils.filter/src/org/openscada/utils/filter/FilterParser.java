@@ -20,20 +20,13 @@
 package org.openscada.utils.filter;
 
 import java.util.ArrayList;
-import java.util.EmptyStackException;
+import java.util.Collections;
 import java.util.List;
-import java.util.Stack;
 
 import org.openscada.utils.filter.internal.Encoder;
 import org.openscada.utils.filter.internal.Tokenizer;
+import org.openscada.utils.filter.internal.Tokenizer.TokenType;
 import org.openscada.utils.filter.internal.Tokenizer.TokenizeException;
-import org.openscada.utils.filter.internal.Tokens.Token;
-import org.openscada.utils.filter.internal.Tokens.TokenAssertion;
-import org.openscada.utils.filter.internal.Tokens.TokenAttribute;
-import org.openscada.utils.filter.internal.Tokens.TokenLeftParen;
-import org.openscada.utils.filter.internal.Tokens.TokenOperator;
-import org.openscada.utils.filter.internal.Tokens.TokenRightParen;
-import org.openscada.utils.filter.internal.Tokens.TokenValue;
 
 /**
  * @author jrose
@@ -42,200 +35,202 @@ import org.openscada.utils.filter.internal.Tokens.TokenValue;
 public class FilterParser
 {
 
+    private final static FilterCache cache = new FilterCache ( 1024 );
+
     private final Filter filter;
 
     public FilterParser ( final String filter ) throws FilterParseException
     {
-        if ( filter == null || "".equals ( filter.trim () ) ) //$NON-NLS-1$
+        this.filter = parse ( filter, false );
+    }
+
+    public Filter getFilter ()
+    {
+        return this.filter;
+    }
+
+    /**
+     * Parse a filter using a shared cache
+     * <p>
+     * The returned filter is shared and cannot be changed, the setters and
+     * the filter sets of expressions throw
+     * {@link UnsupportedOperationException}. Use
+     * {@link #FilterParser(String)} for getting a filter which can be
+     * changed.
+     * </p>
+     * 
+     * @param filter
+     *            the filter string
+     * @return the parsed filter
+     * @throws FilterParseException
+     *             if the filter string is invalid
+     * @since 1.1.0
+     */
+    public static Filter parse ( final String filter ) throws FilterParseException
+    {
+        return cache.parse ( filter );
+    }
+
+    static Filter parse ( final CharSequence filter, final boolean immutable ) throws FilterParseException
+    {
+        if ( filter == null || isBlank ( filter ) )
         {
-            this.filter = new FilterEmpty ();
-            return;
+            return new FilterEmpty ();
         }
-        boolean expressionExpected = true;
-        FilterAssertion currentAssertion = null;
-        final Stack<FilterExpression> filterExpressions = new Stack<FilterExpression> ();
-        Filter result = null;
+
+        final Tokenizer tokenizer = new Tokenizer ( filter );
         try
         {
-            for ( final Token token : new Tokenizer ( filter ) )
+            if ( tokenizer.next () != TokenType.LEFT_PAREN )
+            {
+                throw new FilterParseException ( Messages.getString ( "FilterParser.Error.ExpressionExpected" ) ); //$NON-NLS-1$
+            }
+
+            final Filter result = parseFilter ( tokenizer, immutable );
+
+            if ( tokenizer.next () != TokenType.END )
             {
-                if ( token instanceof TokenLeftParen )
-                {
-                    expressionExpected = false;
-                    continue;
-                }
-                if ( token instanceof TokenOperator )
-                {
-                    expressionExpected = true;
-                    final FilterExpression expression = new FilterExpression ();
-                    if ( "|".equals ( token.getValue () ) ) //$NON-NLS-1$
-                    {
-                        expression.setOperator ( Operator.OR );
-                    }
-                    else if ( "&".equals ( token.getValue () ) ) //$NON-NLS-1$
-                    {
-                        expression.setOperator ( Operator.AND );
-                    }
-                    else if ( "!".equals ( token.getValue () ) ) //$NON-NLS-1$
-                    {
-                        expression.setOperator ( Operator.NOT );
-                    }
-                    if ( filterExpressions.isEmpty () )
-                    {
-                        result = expression;
-                    }
-                    else
-                    {
-                        filterExpressions.peek ().getFilterSet ().add ( expression );
-                    }
-                    filterExpressions.push ( expression );
-                    continue;
-                }
-                if ( expressionExpected )
-                {
-                    throw new FilterParseException ( Messages.getString ( "FilterParser.Error.ExpressionExpected" ) ); //$NON-NLS-1$
-                }
-                if ( token instanceof TokenAttribute )
-                {
-                    currentAssertion = new FilterAssertion ( token.getValue (), null, "" ); //$NON-NLS-1$
-                    continue;
-                }
-                if ( token instanceof TokenAssertion )
-                {
-                    if ( "=".equals ( token.getValue () ) ) //$NON-NLS-1$
-                    {
-                        currentAssertion.setAssertion ( Assertion.EQUALITY );
-                    }
-                    else if ( ">=".equals ( token.getValue () ) ) //$NON-NLS-1$
-                    {
-                        currentAssertion.setAssertion ( Assertion.GREATEREQ );
-                    }
-                    else if ( ">".equals ( token.getValue () ) ) //$NON-NLS-1$
-                    {
-                        currentAssertion.setAssertion ( Assertion.GREATERTHAN );
-                    }
-                    else if ( "<=".equals ( token.getValue () ) ) //$NON-NLS-1$
-                    {
-                        currentAssertion.setAssertion ( Assertion.LESSEQ );
-                    }
-                    else if ( "<".equals ( token.getValue () ) ) //$NON-NLS-1$
-                    {
-                        currentAssertion.setAssertion ( Assertion.LESSTHAN );
-                    }
-                    else if ( "~=".equals ( token.getValue () ) ) //$NON-NLS-1$
-                    {
-                        currentAssertion.setAssertion ( Assertion.APPROXIMATE );
-                    }
-                    else if ( "=*".equals ( token.getValue () ) ) //$NON-NLS-1$
-                    {
-                        currentAssertion.setAssertion ( Assertion.PRESENCE );
-                    }
-                    continue;
-                }
-                if ( token instanceof TokenValue )
-                {
-                    currentAssertion.setValue ( toValue ( currentAssertion, token.getValue () ) );
-                    continue;
-                }
-                if ( token instanceof TokenRightParen )
-                {
-                    if ( result == null )
-                    {
-                        validate ( currentAssertion );
-                        result = currentAssertion;
-                        break;
-                    }
-                    if ( currentAssertion != null )
-                    {
-                        validate ( currentAssertion );
-                        filterExpressions.peek ().getFilterSet ().add ( currentAssertion );
-                        currentAssertion = null;
-                    }
-                    else
-                    {
-                        try
-                        {
-                            validate ( filterExpressions.pop () );
-                        }
-                        catch ( final EmptyStackException e )
-                        {
-                            throw new FilterParseException ( Messages.getString ( "FilterParser.Error.ExpressionExpected" ) ); //$NON-NLS-1$
-                        }
-                    }
-                    continue;
-                }
+                throw new FilterParseException ( String.format ( Messages.getString ( "FilterParser.Error.ExpressionAmbiguous" ), result.toString () ) ); //$NON-NLS-1$
             }
+            return result;
         }
         catch ( final TokenizeException e )
         {
             throw new FilterParseException ( e.getMessage () );
         }
-        validate ( result );
-        if ( !result.toString ().equals ( filter ) )
+    }
+
+    private static boolean isBlank ( final CharSequence filter )
+    {
+        for ( int i = 0; i < filter.length (); i++ )
         {
-            throw new FilterParseException ( String.format ( Messages.getString ( "FilterParser.Error.ExpressionAmbiguous" ), result.toString () ) ); //$NON-NLS-1$
+            if ( filter.charAt ( i ) > ' ' )
+            {
+                return false;
+            }
         }
-        this.filter = result;
+        return true;
     }
 
-    private void validate ( final Filter toValidate )
+    /**
+     * Parse a filter after its left paren, up to and including its right paren
+     */
+    private static Filter parseFilter ( final Tokenizer tokenizer, final boolean immutable )
     {
-        if ( toValidate == null )
+        switch ( tokenizer.next () )
         {
-            throw new FilterParseException ( Messages.getString ( "FilterParser.Error.NoFilterGiven" ) ); //$NON-NLS-1$
+        case OPERATOR:
+            return parseExpression ( tokenizer, immutable );
+        case ATTRIBUTE:
+            return parseAssertion ( tokenizer.getText (), tokenizer, immutable );
+        case ASSERTION:
+            // empty attribute names were always accepted
+            return parseValue ( "", tokenizer, immutable ); //$NON-NLS-1$
+        case LEFT_PAREN:
+        case RIGHT_PAREN:
+            throw new FilterParseException ( Messages.getString ( "FilterParser.Error.ExpressionExpected" ) ); //$NON-NLS-1$
+        default:
+            throw tokenizer.invalidSyntax ();
         }
-        if ( toValidate.isAssertion () )
+    }
+
+    private static Filter parseExpression ( final Tokenizer tokenizer, final boolean immutable )
+    {
+        final Operator operator = tokenizer.getOperator ();
+        final List<Filter> filterSet = new ArrayList<Filter> ();
+
+        TokenType token;
+        while ( ( token = tokenizer.next () ) == TokenType.LEFT_PAREN )
         {
-            final FilterAssertion assertion = (FilterAssertion)toValidate;
-            if ( assertion.getAttribute () == null )
-            {
-                throw new FilterParseException ( Messages.getString ( "FilterParser.Error.NoAttributeGiven" ) ); //$NON-NLS-1$
-            }
-            if ( assertion.getAssertion () == null )
-            {
-                throw new FilterParseException ( Messages.getString ( "FilterParser.Error.NoAssertionGiven" ) ); //$NON-NLS-1$
-            }
-            if ( assertion.getValue () == null )
-            {
-                throw new FilterParseException ( Messages.getString ( "FilterParser.Error.NoValueGiven" ) ); //$NON-NLS-1$
-            }
+            filterSet.add ( parseFilter ( tokenizer, immutable ) );
         }
-        else if ( toValidate.isExpression () )
+
+        if ( token == TokenType.END )
         {
-            final FilterExpression expression = (FilterExpression)toValidate;
-            if ( expression.getOperator () == null )
-            {
-                throw new FilterParseException ( Messages.getString ( "FilterParser.Error.NoOperatorGiven" ) ); //$NON-NLS-1$
-            }
-            if ( expression.getFilterSet ().size () == 0 )
-            {
-                throw new FilterParseException ( Messages.getString ( "FilterParser.Error.MissingSubExpression" ) ); //$NON-NLS-1$
-            }
+            throw tokenizer.invalidSyntax ();
+        }
+        if ( token != TokenType.RIGHT_PAREN )
+        {
+            throw new FilterParseException ( Messages.getString ( "FilterParser.Error.ExpressionExpected" ) ); //$NON-NLS-1$
+        }
+        if ( filterSet.isEmpty () )
+        {
+            throw new FilterParseException ( Messages.getString ( "FilterParser.Error.MissingSubExpression" ) ); //$NON-NLS-1$
         }
+
+        if ( immutable )
+        {
+            return new ImmutableFilterExpression ( operator, filterSet );
+        }
+
+        final FilterExpression expression = new FilterExpression ();
+        expression.setOperator ( operator );
+        expression.getFilterSet ().addAll ( filterSet );
+        return expression;
     }
 
-    public Filter getFilter ()
+    private static Filter parseAssertion ( final String attribute, final Tokenizer tokenizer, final boolean immutable )
     {
-        return this.filter;
+        if ( tokenizer.next () != TokenType.ASSERTION )
+        {
+            throw new FilterParseException ( Messages.getString ( "FilterParser.Error.NoAssertionGiven" ) ); //$NON-NLS-1$
+        }
+        return parseValue ( attribute, tokenizer, immutable );
     }
 
-    private Object toValue ( final FilterAssertion currentAssertion, final String value ) throws TokenizeException
+    /**
+     * Parse the value after the assertion, up to and including the right paren
+     */
+    private static Filter parseValue ( final String attribute, final Tokenizer tokenizer, final boolean immutable )
     {
-        if ( currentAssertion.getAssertion () == Assertion.EQUALITY && value.contains ( "*" ) ) //$NON-NLS-1$
+        final CharSequence filter = tokenizer.getFilter ();
+        Assertion assertion = tokenizer.getAssertion ();
+
+        tokenizer.next ();
+        final int start = tokenizer.getStart ();
+        final int end = tokenizer.getEnd ();
+
+        if ( tokenizer.next () != TokenType.RIGHT_PAREN )
+        {
+            throw tokenizer.invalidSyntax ();
+        }
+
+        final Object value;
+        if ( assertion == Assertion.EQUALITY && indexOf ( filter, '*', start, end ) >= 0 )
         {
-            currentAssertion.setAssertion ( Assertion.SUBSTRING );
-            final List<String> result = new ArrayList<String> ();
-            for ( final String part : value.split ( "\\*" ) ) //$NON-NLS-1$
+            assertion = Assertion.SUBSTRING;
+            final List<String> parts = new ArrayList<String> ();
+            int partStart = start;
+            int partEnd;
+            while ( ( partEnd = indexOf ( filter, '*', partStart, end ) ) >= 0 )
             {
-                result.add ( Encoder.decode ( part ) );
+                parts.add ( Encoder.decode ( filter, partStart, partEnd ) );
+                partStart = partEnd + 1;
             }
-            // split doesn't include trailing whitespace, so add it here manually
-            if ( value.charAt ( value.length () - 1 ) == '*' )
+            parts.add ( Encoder.decode ( filter, partStart, end ) );
+            value = immutable ? Collections.unmodifiableList ( parts ) : parts;
+        }
+        else
+        {
+            value = Encoder.decode ( filter, start, end );
+        }
+
+        if ( immutable )
+        {
+            return new ImmutableFilterAssertion ( attribute, assertion, value );
+        }
+        return new FilterAssertion ( attribute, assertion, value );
+    }
+
+    private static int indexOf ( final CharSequence filter, final char c, final int start, final int end )
+    {
+        for ( int i = start; i < end; i++ )
+        {
+            if ( filter.charAt ( i ) == c )
             {
-                result.add ( "" ); //$NON-NLS-1$
+                return i;
             }
-            return result;
         }
-        return Encoder.decode ( value );
+        return -1;
     }
 }
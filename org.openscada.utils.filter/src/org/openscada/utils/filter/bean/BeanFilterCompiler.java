@@ -0,0 +1,467 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.utils.filter.bean;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.openscada.utils.filter.Assertion;
+import org.openscada.utils.filter.Filter;
+import org.openscada.utils.filter.FilterAssertion;
+import org.openscada.utils.filter.FilterExpression;
+import org.openscada.utils.propertyeditors.PropertyEditorRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns a filter into a tree of nodes for one bean class
+ * <p>
+ * The nodes reproduce the logic of {@link BeanMatcher} but resolve everything
+ * which does not depend on the matched object up front. Errors found while
+ * compiling are raised when matching, at the point the interpreted filter
+ * would have raised them.
+ * </p>
+ */
+class BeanFilterCompiler
+{
+    private final static Logger logger = LoggerFactory.getLogger ( BeanFilterCompiler.class );
+
+    private interface Node
+    {
+        public boolean matches ( Object object ) throws Exception;
+    }
+
+    private static final Node TRUE = new Node () {
+
+        @Override
+        public boolean matches ( final Object object )
+        {
+            return true;
+        }
+    };
+
+    private static final Node FALSE = new Node () {
+
+        @Override
+        public boolean matches ( final Object object )
+        {
+            return false;
+        }
+    };
+
+    private static class AndNode implements Node
+    {
+        private final Node[] nodes;
+
+        public AndNode ( final Node[] nodes )
+        {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public boolean matches ( final Object object ) throws Exception
+        {
+            for ( final Node node : this.nodes )
+            {
+                if ( !node.matches ( object ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class OrNode implements Node
+    {
+        private final Node[] nodes;
+
+        public OrNode ( final Node[] nodes )
+        {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public boolean matches ( final Object object ) throws Exception
+        {
+            for ( final Node node : this.nodes )
+            {
+                if ( node.matches ( object ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class ErrorNode implements Node
+    {
+        private final Exception error;
+
+        public ErrorNode ( final Exception error )
+        {
+            this.error = error;
+        }
+
+        @Override
+        public boolean matches ( final Object object ) throws Exception
+        {
+            throw this.error;
+        }
+    }
+
+    private static class NotNode implements Node
+    {
+        private final Node node;
+
+        public NotNode ( final Node node )
+        {
+            this.node = node;
+        }
+
+        @Override
+        public boolean matches ( final Object object ) throws Exception
+        {
+            return !this.node.matches ( object );
+        }
+    }
+
+    private static abstract class PropertyNode implements Node
+    {
+        private final Method readMethod;
+
+        public PropertyNode ( final Method readMethod )
+        {
+            this.readMethod = readMethod;
+        }
+
+        @Override
+        public boolean matches ( final Object object ) throws Exception
+        {
+            final Object value = this.readMethod.invoke ( object );
+            if ( value == null )
+            {
+                return false;
+            }
+            return matchesValue ( value );
+        }
+
+        protected abstract boolean matchesValue ( Object value ) throws Exception;
+    }
+
+    private static class PresenceNode implements Node
+    {
+        private final Method readMethod;
+
+        public PresenceNode ( final Method readMethod )
+        {
+            this.readMethod = readMethod;
+        }
+
+        @Override
+        public boolean matches ( final Object object ) throws Exception
+        {
+            return this.readMethod.invoke ( object ) != null;
+        }
+    }
+
+    private static class ValueErrorNode extends PropertyNode
+    {
+        private final RuntimeException error;
+
+        public ValueErrorNode ( final Method readMethod, final RuntimeException error )
+        {
+            super ( readMethod );
+            this.error = error;
+        }
+
+        @Override
+        protected boolean matchesValue ( final Object value )
+        {
+            throw this.error;
+        }
+    }
+
+    private static class PatternNode extends PropertyNode
+    {
+        private final Pattern pattern;
+
+        public PatternNode ( final Method readMethod, final Pattern pattern )
+        {
+            super ( readMethod );
+            this.pattern = pattern;
+        }
+
+        @Override
+        protected boolean matchesValue ( final Object value )
+        {
+            return this.pattern.matcher ( value.toString () ).find ();
+        }
+    }
+
+    /**
+     * A filter value converted to the class of a property value
+     */
+    private static class Literal
+    {
+        private final Class<?> clazz;
+
+        private final Object value;
+
+        public Literal ( final Class<?> clazz, final Object value )
+        {
+            this.clazz = clazz;
+            this.value = value;
+        }
+    }
+
+    private static abstract class CompareNode extends PropertyNode
+    {
+        private final Object stringValue;
+
+        private final PropertyEditorRegistry registry;
+
+        /**
+         * The converted filter value, the class of the property value may
+         * change from object to object if the property is not declared with
+         * a final type
+         */
+        private volatile Literal literal;
+
+        public CompareNode ( final Method readMethod, final Object stringValue, final PropertyEditorRegistry registry )
+        {
+            super ( readMethod );
+            this.stringValue = stringValue;
+            this.registry = registry;
+        }
+
+        @Override
+        protected boolean matchesValue ( final Object value )
+        {
+            Literal literal = this.literal;
+            if ( literal == null || literal.clazz != value.getClass () )
+            {
+                literal = new Literal ( value.getClass (), BeanMatcher.convert ( (String)this.stringValue, value.getClass (), this.registry ) );
+                this.literal = literal;
+            }
+            return matchesResult ( BeanMatcher.compareConverted ( value, literal.value ) );
+        }
+
+        protected abstract boolean matchesResult ( int result );
+    }
+
+    private final Class<?> clazz;
+
+    private final boolean ifEmpty;
+
+    private final PropertyEditorRegistry registry;
+
+    public BeanFilterCompiler ( final Class<?> clazz, final boolean ifEmpty, final PropertyEditorRegistry registry )
+    {
+        this.clazz = clazz;
+        this.ifEmpty = ifEmpty;
+        this.registry = registry;
+    }
+
+    public BeanPredicate compile ( final Filter filter )
+    {
+        final Node root = makeNode ( filter );
+
+        return new BeanPredicate () {
+
+            @Override
+            public boolean matches ( final Object object )
+            {
+                if ( object == null || object.getClass () != BeanFilterCompiler.this.clazz )
+                {
+                    return BeanMatcher.matches ( filter, object, BeanFilterCompiler.this.ifEmpty, BeanFilterCompiler.this.registry );
+                }
+
+                try
+                {
+                    return root.matches ( object );
+                }
+                catch ( final Exception e )
+                {
+                    throw new RuntimeException ( Messages.getString ( "BeanMatcher.Error.FailedToFilter" ), e ); //$NON-NLS-1$
+                }
+            }
+        };
+    }
+
+    private Node makeConstant ( final boolean value )
+    {
+        return value ? TRUE : FALSE;
+    }
+
+    private Node makeNode ( final Filter filter )
+    {
+        if ( filter == null || filter.isEmpty () )
+        {
+            return makeConstant ( this.ifEmpty );
+        }
+        else if ( filter.isAssertion () )
+        {
+            return makeAssertion ( (FilterAssertion)filter );
+        }
+        else if ( filter.isExpression () )
+        {
+            return makeExpression ( (FilterExpression)filter );
+        }
+        else
+        {
+            return makeConstant ( this.ifEmpty );
+        }
+    }
+
+    private Node makeExpression ( final FilterExpression filterExpression )
+    {
+        final List<Node> nodes = new ArrayList<Node> ( filterExpression.getFilterSet ().size () );
+        for ( final Filter filter : filterExpression.getFilterSet () )
+        {
+            nodes.add ( makeNode ( filter ) );
+        }
+
+        switch ( filterExpression.getOperator () )
+        {
+            case AND:
+                return nodes.size () == 1 ? nodes.get ( 0 ) : new AndNode ( nodes.toArray ( new Node[nodes.size ()] ) );
+            case OR:
+                return nodes.size () == 1 ? nodes.get ( 0 ) : new OrNode ( nodes.toArray ( new Node[nodes.size ()] ) );
+            case NOT:
+                if ( !nodes.isEmpty () )
+                {
+                    return new NotNode ( nodes.get ( 0 ) );
+                }
+                break;
+        }
+        return makeConstant ( this.ifEmpty );
+    }
+
+    private Node makeAssertion ( final FilterAssertion filterAssertion )
+    {
+        final PropertyDescriptor pd;
+        try
+        {
+            pd = BeanMatcher.getProperyDescriptor ( this.clazz, filterAssertion.getAttribute () );
+        }
+        catch ( final Exception e )
+        {
+            return new ErrorNode ( e );
+        }
+
+        if ( pd == null || pd.getReadMethod () == null )
+        {
+            return FALSE;
+        }
+
+        final Method m = pd.getReadMethod ();
+        try
+        {
+            // skip the access checks on every call
+            m.setAccessible ( true );
+        }
+        catch ( final SecurityException e )
+        {
+            logger.debug ( "Unable to suppress access checks for {}. Using normal access.", m );
+        }
+
+        switch ( filterAssertion.getAssertion () )
+        {
+            case EQUALITY:
+                return new CompareNode ( m, filterAssertion.getValue (), this.registry ) {
+
+                    @Override
+                    protected boolean matchesResult ( final int result )
+                    {
+                        return result == 0;
+                    }
+                };
+            case GREATERTHAN:
+                return new CompareNode ( m, filterAssertion.getValue (), this.registry ) {
+
+                    @Override
+                    protected boolean matchesResult ( final int result )
+                    {
+                        return result > 0;
+                    }
+                };
+            case LESSTHAN:
+                return new CompareNode ( m, filterAssertion.getValue (), this.registry ) {
+
+                    @Override
+                    protected boolean matchesResult ( final int result )
+                    {
+                        return result < 0;
+                    }
+                };
+            case GREATEREQ:
+                return new CompareNode ( m, filterAssertion.getValue (), this.registry ) {
+
+                    @Override
+                    protected boolean matchesResult ( final int result )
+                    {
+                        return result >= 0;
+                    }
+                };
+            case LESSEQ:
+                return new CompareNode ( m, filterAssertion.getValue (), this.registry ) {
+
+                    @Override
+                    protected boolean matchesResult ( final int result )
+                    {
+                        return result <= 0;
+                    }
+                };
+            case SUBSTRING:
+                return makePatternNode ( m, filterAssertion.getAssertion (), filterAssertion.getValue () );
+            case PRESENCE:
+                return new PresenceNode ( m );
+            case APPROXIMATE:
+                return makePatternNode ( m, filterAssertion.getAssertion (), filterAssertion.getValue () );
+        }
+        return FALSE;
+    }
+
+    @SuppressWarnings ( "unchecked" )
+    private Node makePatternNode ( final Method m, final Assertion assertion, final Object value )
+    {
+        try
+        {
+            if ( assertion == Assertion.SUBSTRING )
+            {
+                return new PatternNode ( m, BeanMatcher.makeSubStringPattern ( (Collection<String>)value ) );
+            }
+            else
+            {
+                return new PatternNode ( m, Pattern.compile ( (String)value ) );
+            }
+        }
+        catch ( final RuntimeException e )
+        {
+            return new ValueErrorNode ( m, e );
+        }
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.utils.filter.bean;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.openscada.utils.filter.Filter;
+import org.openscada.utils.filter.FilterAssertion;
+import org.openscada.utils.filter.FilterExpression;
+import org.openscada.utils.propertyeditors.PropertyEditorRegistry;
+
+/**
+ * An index over the attributes of a fixed collection of beans
+ * <p>
+ * The index is built once and can then filter the collection without looking
+ * at every bean. Each indexed attribute gets a sorted index, serving range
+ * assertions, and a hash index for equality assertions if the value class
+ * allows it. <code>AND</code>, <code>OR</code> and <code>NOT</code>
+ * expressions are evaluated by intersecting and joining the sets of matching
+ * beans.
+ * </p>
+ * <p>
+ * Assertions on attributes which are not indexed are evaluated by checking
+ * every bean. This is also the case for attributes whose values are of
+ * different classes. The results are the same as with
+ * {@link BeanMatcher#filter(Filter, Collection, boolean, PropertyEditorRegistry)}
+ * , in the order of the original collection. <code>null</code> entries in the
+ * collection only match negated and empty filters.
+ * </p>
+ * <p>
+ * The beans must not change while they are indexed. Filtering is thread safe.
+ * </p>
+ * 
+ * @since 1.1.0
+ */
+public class BeanIndex
+{
+    /**
+     * Classes whose <code>equals</code> is consistent with
+     * <code>compareTo</code>, so the hash index gives the same result
+     */
+    private final static Set<Class<?>> HASHABLE = new HashSet<Class<?>> ( Arrays.<Class<?>> asList ( String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, Date.class, UUID.class ) );
+
+    private static class AttributeIndex
+    {
+        private final BitSet present = new BitSet ();
+
+        /**
+         * The index keys are the values if these are comparable, otherwise
+         * their string representation, matching the way
+         * {@link BeanMatcher} compares them
+         */
+        private NavigableMap<Object, List<Integer>> building = new TreeMap<Object, List<Integer>> ();
+
+        /**
+         * Maps the keys to their rank in sort order
+         */
+        private final NavigableMap<Object, Integer> sorted = new TreeMap<Object, Integer> ();
+
+        private Map<Object, Integer> hash;
+
+        /**
+         * The bean positions grouped by key in sort order, the positions of
+         * the key with rank <code>r</code> start at <code>offsets[r]</code>
+         */
+        private int[] positions;
+
+        private int[] offsets;
+
+        private Class<?> valueClass;
+
+        private boolean comparable;
+
+        public void add ( final int position, final Object value )
+        {
+            this.present.set ( position );
+
+            final Object key = this.comparable ? value : value.toString ();
+            List<Integer> keyPositions = this.building.get ( key );
+            if ( keyPositions == null )
+            {
+                keyPositions = new ArrayList<Integer> ( 1 );
+                this.building.put ( key, keyPositions );
+            }
+            keyPositions.add ( position );
+        }
+
+        public void complete ( final boolean hashable )
+        {
+            this.positions = new int[this.present.cardinality ()];
+            this.offsets = new int[this.building.size () + 1];
+
+            int rank = 0;
+            int offset = 0;
+            for ( final Map.Entry<Object, List<Integer>> entry : this.building.entrySet () )
+            {
+                this.sorted.put ( entry.getKey (), rank );
+                this.offsets[rank++] = offset;
+                for ( final Integer position : entry.getValue () )
+                {
+                    this.positions[offset++] = position;
+                }
+            }
+            this.offsets[rank] = offset;
+            this.building = null;
+
+            if ( hashable )
+            {
+                this.hash = new HashMap<Object, Integer> ( this.sorted );
+            }
+        }
+
+        public Map<Object, Integer> getEqualityIndex ()
+        {
+            return this.hash != null ? this.hash : this.sorted;
+        }
+
+        /**
+         * Add the beans of all keys in the range of ranks
+         * 
+         * @param fromRank
+         *            the first rank, inclusive
+         * @param toRank
+         *            the last rank, exclusive
+         */
+        public void select ( final BitSet result, final int fromRank, final int toRank )
+        {
+            for ( int i = this.offsets[fromRank]; i < this.offsets[toRank]; i++ )
+            {
+                result.set ( this.positions[i] );
+            }
+        }
+
+        public BitSet selectFrom ( final Map.Entry<Object, Integer> entry )
+        {
+            final BitSet result = new BitSet ();
+            if ( entry != null )
+            {
+                select ( result, entry.getValue (), this.sorted.size () );
+            }
+            return result;
+        }
+
+        public BitSet selectTo ( final Map.Entry<Object, Integer> entry )
+        {
+            final BitSet result = new BitSet ();
+            if ( entry != null )
+            {
+                select ( result, 0, entry.getValue () + 1 );
+            }
+            return result;
+        }
+    }
+
+    private final Object[] beans;
+
+    private final PropertyEditorRegistry registry;
+
+    private final Map<String, AttributeIndex> indexes = new HashMap<String, AttributeIndex> ();
+
+    private final BitSet all;
+
+    /**
+     * Create a new index
+     * 
+     * @param beans
+     *            the beans to index
+     * @param registry
+     *            the registry used for converting filter values, may be
+     *            <code>null</code>
+     * @param attributes
+     *            the attributes to index
+     */
+    public BeanIndex ( final Collection<?> beans, final PropertyEditorRegistry registry, final String... attributes )
+    {
+        this.beans = beans.toArray ();
+        this.registry = registry;
+
+        this.all = new BitSet ( this.beans.length );
+        this.all.set ( 0, this.beans.length );
+
+        for ( final String attribute : attributes )
+        {
+            try
+            {
+                final AttributeIndex index = makeIndex ( attribute );
+                if ( index != null )
+                {
+                    this.indexes.put ( attribute, index );
+                }
+            }
+            catch ( final Exception e )
+            {
+                throw new RuntimeException ( String.format ( Messages.getString ( "BeanIndex.Error.FailedToIndex" ), attribute ), e ); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * @return the number of beans in the index
+     */
+    public int size ()
+    {
+        return this.beans.length;
+    }
+
+    /**
+     * Check if an attribute is indexed
+     * 
+     * @return <code>true</code> if the attribute is indexed,
+     *         <code>false</code> if it was not requested or its values are of
+     *         different classes
+     */
+    public boolean isIndexed ( final String attribute )
+    {
+        return this.indexes.containsKey ( attribute );
+    }
+
+    public List<Object> filter ( final Filter filter, final boolean ifEmpty )
+    {
+        final List<Object> result = new ArrayList<Object> ();
+        filter ( filter, result, ifEmpty );
+        return result;
+    }
+
+    public void filter ( final Filter filter, final Collection<Object> targetCollection, final boolean ifEmpty )
+    {
+        final BitSet result;
+        try
+        {
+            result = evaluate ( filter, ifEmpty );
+        }
+        catch ( final Exception e )
+        {
+            throw new RuntimeException ( Messages.getString ( "BeanMatcher.Error.FailedToFilter" ), e ); //$NON-NLS-1$
+        }
+
+        for ( int i = result.nextSetBit ( 0 ); i >= 0; i = result.nextSetBit ( i + 1 ) )
+        {
+            targetCollection.add ( this.beans[i] );
+        }
+    }
+
+    private AttributeIndex makeIndex ( final String attribute ) throws Exception
+    {
+        final AttributeIndex index = new AttributeIndex ();
+        final Map<Class<?>, Method> readMethods = new HashMap<Class<?>, Method> ();
+
+        for ( int i = 0; i < this.beans.length; i++ )
+        {
+            final Object bean = this.beans[i];
+            if ( bean == null )
+            {
+                continue;
+            }
+
+            final Method m = getReadMethod ( readMethods, bean.getClass (), attribute );
+            if ( m == null )
+            {
+                continue;
+            }
+
+            final Object value = m.invoke ( bean );
+            if ( value == null )
+            {
+                continue;
+            }
+
+            if ( index.valueClass == null )
+            {
+                index.valueClass = value.getClass ();
+                index.comparable = value instanceof Comparable<?>;
+            }
+            else if ( index.valueClass != value.getClass () )
+            {
+                // values cannot be compared with each other
+                return null;
+            }
+
+            index.add ( i, value );
+        }
+
+        index.complete ( index.valueClass != null && ( !index.comparable || HASHABLE.contains ( index.valueClass ) || index.valueClass.isEnum () ) );
+
+        return index;
+    }
+
+    private static Method getReadMethod ( final Map<Class<?>, Method> readMethods, final Class<?> clazz, final String attribute ) throws Exception
+    {
+        if ( readMethods.containsKey ( clazz ) )
+        {
+            return readMethods.get ( clazz );
+        }
+
+        final PropertyDescriptor pd = BeanMatcher.getProperyDescriptor ( clazz, attribute );
+        final Method m = pd != null ? pd.getReadMethod () : null;
+        readMethods.put ( clazz, m );
+        return m;
+    }
+
+    private BitSet evaluate ( final Filter filter, final boolean ifEmpty ) throws Exception
+    {
+        if ( filter == null || filter.isEmpty () )
+        {
+            return constant ( ifEmpty );
+        }
+        else if ( filter.isAssertion () )
+        {
+            return evaluateAssertion ( (FilterAssertion)filter, ifEmpty );
+        }
+        else if ( filter.isExpression () )
+        {
+            return evaluateExpression ( (FilterExpression)filter, ifEmpty );
+        }
+        return constant ( ifEmpty );
+    }
+
+    private BitSet constant ( final boolean value )
+    {
+        return value ? (BitSet)this.all.clone () : new BitSet ();
+    }
+
+    private BitSet evaluateExpression ( final FilterExpression filterExpression, final boolean ifEmpty ) throws Exception
+    {
+        switch ( filterExpression.getOperator () )
+        {
+        case AND:
+        {
+            final BitSet result = (BitSet)this.all.clone ();
+            for ( final Filter filter : filterExpression.getFilterSet () )
+            {
+                if ( result.isEmpty () )
+                {
+                    break;
+                }
+                result.and ( evaluate ( filter, ifEmpty ) );
+            }
+            return result;
+        }
+        case OR:
+        {
+            final BitSet result = new BitSet ();
+            for ( final Filter filter : filterExpression.getFilterSet () )
+            {
+                result.or ( evaluate ( filter, ifEmpty ) );
+            }
+            return result;
+        }
+        case NOT:
+            if ( !filterExpression.getFilterSet ().isEmpty () )
+            {
+                final BitSet result = (BitSet)this.all.clone ();
+                result.andNot ( evaluate ( filterExpression.getFilterSet ().get ( 0 ), ifEmpty ) );
+                return result;
+            }
+            break;
+        }
+        return constant ( ifEmpty );
+    }
+
+    @SuppressWarnings ( "unchecked" )
+    private BitSet evaluateAssertion ( final FilterAssertion filterAssertion, final boolean ifEmpty ) throws Exception
+    {
+        final AttributeIndex index = this.indexes.get ( filterAssertion.getAttribute () );
+        if ( index == null )
+        {
+            return scan ( filterAssertion, ifEmpty );
+        }
+
+        if ( index.valueClass == null )
+        {
+            // no bean has a value
+            return new BitSet ();
+        }
+
+        switch ( filterAssertion.getAssertion () )
+        {
+        case PRESENCE:
+            return (BitSet)index.present.clone ();
+        case EQUALITY:
+        {
+            final BitSet result = new BitSet ();
+            final Integer rank = index.getEqualityIndex ().get ( makeKey ( index, filterAssertion.getValue () ) );
+            if ( rank != null )
+            {
+                index.select ( result, rank, rank + 1 );
+            }
+            return result;
+        }
+        case GREATERTHAN:
+            return index.selectFrom ( index.sorted.higherEntry ( makeKey ( index, filterAssertion.getValue () ) ) );
+        case GREATEREQ:
+            return index.selectFrom ( index.sorted.ceilingEntry ( makeKey ( index, filterAssertion.getValue () ) ) );
+        case LESSTHAN:
+            return index.selectTo ( index.sorted.lowerEntry ( makeKey ( index, filterAssertion.getValue () ) ) );
+        case LESSEQ:
+            return index.selectTo ( index.sorted.floorEntry ( makeKey ( index, filterAssertion.getValue () ) ) );
+        case SUBSTRING:
+            return match ( index, BeanMatcher.makeSubStringPattern ( (Collection<String>)filterAssertion.getValue () ) );
+        case APPROXIMATE:
+            return match ( index, Pattern.compile ( (String)filterAssertion.getValue () ) );
+        }
+        return new BitSet ();
+    }
+
+    private Object makeKey ( final AttributeIndex index, final Object value )
+    {
+        final Object cvtValue = BeanMatcher.convert ( (String)value, index.valueClass, this.registry );
+        return index.comparable ? cvtValue : cvtValue.toString ();
+    }
+
+    /**
+     * Match the distinct values of an attribute instead of every bean
+     */
+    private static BitSet match ( final AttributeIndex index, final Pattern pattern )
+    {
+        final BitSet result = new BitSet ();
+        for ( final Map.Entry<Object, Integer> entry : index.sorted.entrySet () )
+        {
+            if ( pattern.matcher ( entry.getKey ().toString () ).find () )
+            {
+                index.select ( result, entry.getValue (), entry.getValue () + 1 );
+            }
+        }
+        return result;
+    }
+
+    private BitSet scan ( final FilterAssertion filterAssertion, final boolean ifEmpty )
+    {
+        final BitSet result = new BitSet ();
+        final Map<Class<?>, BeanPredicate> predicates = new HashMap<Class<?>, BeanPredicate> ();
+
+        for ( int i = 0; i < this.beans.length; i++ )
+        {
+            final Object bean = this.beans[i];
+            if ( bean == null )
+            {
+                continue;
+            }
+
+            BeanPredicate predicate = predicates.get ( bean.getClass () );
+            if ( predicate == null )
+            {
+                predicate = BeanMatcher.compile ( filterAssertion, bean.getClass (), ifEmpty, this.registry );
+                predicates.put ( bean.getClass (), predicate );
+            }
+
+            if ( predicate.matches ( bean ) )
+            {
+                result.set ( i );
+            }
+        }
+
+        return result;
+    }
+}
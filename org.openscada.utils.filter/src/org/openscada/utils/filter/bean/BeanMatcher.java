@@ -26,12 +26,21 @@ import java.beans.PropertyEditor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.openscada.utils.filter.Filter;
 import org.openscada.utils.filter.FilterAssertion;
 import org.openscada.utils.filter.FilterExpression;
+import org.openscada.utils.propertyeditors.Converter;
 import org.openscada.utils.propertyeditors.PropertyEditorRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +51,11 @@ public class BeanMatcher
 
     private final static Logger logger = LoggerFactory.getLogger ( BeanMatcher.class );
 
+    /**
+     * The minimum number of objects handled by one parallel task
+     */
+    private final static int MIN_CHUNK_SIZE = 1024;
+
     public static boolean matches ( final Filter filter, final Object object, final boolean ifEmpty, final PropertyEditorRegistry registry )
     {
         if ( filter == null )
@@ -75,6 +89,33 @@ public class BeanMatcher
         }
     }
 
+    /**
+     * Compile a filter into a reusable predicate for objects of one class
+     * <p>
+     * The predicate looks up the properties once, converts the filter values
+     * once and precompiles patterns. It gives the same result as
+     * {@link #matches(Filter, Object, boolean, PropertyEditorRegistry)}.
+     * Objects of other classes than the one the filter was compiled for are
+     * matched by the latter.
+     * </p>
+     * 
+     * @param filter
+     *            the filter to compile
+     * @param clazz
+     *            the class of the objects to match
+     * @param ifEmpty
+     *            the result of empty filters
+     * @param registry
+     *            the registry used for converting filter values, may be
+     *            <code>null</code>
+     * @return the compiled predicate, can be used by multiple threads
+     * @since 1.1.0
+     */
+    public static BeanPredicate compile ( final Filter filter, final Class<?> clazz, final boolean ifEmpty, final PropertyEditorRegistry registry )
+    {
+        return new BeanFilterCompiler ( clazz, ifEmpty, registry ).compile ( filter );
+    }
+
     public static Collection<Object> filter ( final Filter filter, final Collection<Object> list, final boolean ifEmpty, final PropertyEditorRegistry registry )
     {
         final ArrayList<Object> result = new ArrayList<Object> ();
@@ -84,15 +125,119 @@ public class BeanMatcher
 
     public static void filter ( final Filter filter, final Collection<Object> list, final Collection<Object> targetCollection, final boolean ifEmpty, final PropertyEditorRegistry registry )
     {
+        // compile the filter once for each class in the list
+        final Map<Class<?>, BeanPredicate> predicates = new HashMap<Class<?>, BeanPredicate> ();
+
         for ( final Object object : list )
         {
-            if ( matches ( filter, object, ifEmpty, registry ) )
+            if ( matches ( predicates, filter, object, ifEmpty, registry ) )
             {
                 targetCollection.add ( object );
             }
         }
     }
 
+    /**
+     * Filter a collection using multiple threads
+     * <p>
+     * The collection is split into chunks which are filtered by the executor,
+     * the first chunk is filtered by the calling thread. The matching objects
+     * are added to the target collection in the order of the source
+     * collection. Small collections are filtered by the calling thread only.
+     * </p>
+     * 
+     * @param executor
+     *            the executor running the chunks
+     * @throws InterruptedException
+     *             if the calling thread was interrupted while waiting for the
+     *             chunks
+     * @since 1.1.0
+     */
+    public static void filter ( final Filter filter, final Collection<Object> list, final Collection<Object> targetCollection, final boolean ifEmpty, final PropertyEditorRegistry registry, final ExecutorService executor ) throws InterruptedException
+    {
+        final Object[] objects = list.toArray ();
+
+        final int chunkSize = Math.max ( MIN_CHUNK_SIZE, objects.length / ( Runtime.getRuntime ().availableProcessors () * 4 ) + 1 );
+        if ( objects.length <= chunkSize )
+        {
+            filter ( filter, list, targetCollection, ifEmpty, registry );
+            return;
+        }
+
+        final List<Future<List<Object>>> futures = new LinkedList<Future<List<Object>>> ();
+        try
+        {
+            for ( int i = chunkSize; i < objects.length; i += chunkSize )
+            {
+                final int start = i;
+                final int end = Math.min ( objects.length, i + chunkSize );
+                futures.add ( executor.submit ( new Callable<List<Object>> () {
+
+                    @Override
+                    public List<Object> call () throws Exception
+                    {
+                        return filterChunk ( filter, objects, start, end, ifEmpty, registry );
+                    }
+                } ) );
+            }
+
+            targetCollection.addAll ( filterChunk ( filter, objects, 0, chunkSize, ifEmpty, registry ) );
+
+            for ( final Future<List<Object>> future : futures )
+            {
+                targetCollection.addAll ( future.get () );
+            }
+        }
+        catch ( final ExecutionException e )
+        {
+            if ( e.getCause () instanceof RuntimeException )
+            {
+                throw (RuntimeException)e.getCause ();
+            }
+            throw new RuntimeException ( Messages.getString ( "BeanMatcher.Error.FailedToFilter" ), e.getCause () ); //$NON-NLS-1$
+        }
+        finally
+        {
+            // no-op for completed chunks
+            for ( final Future<List<Object>> future : futures )
+            {
+                future.cancel ( false );
+            }
+        }
+    }
+
+    private static List<Object> filterChunk ( final Filter filter, final Object[] objects, final int start, final int end, final boolean ifEmpty, final PropertyEditorRegistry registry )
+    {
+        final Map<Class<?>, BeanPredicate> predicates = new HashMap<Class<?>, BeanPredicate> ();
+        final List<Object> result = new ArrayList<Object> ();
+
+        for ( int i = start; i < end; i++ )
+        {
+            if ( matches ( predicates, filter, objects[i], ifEmpty, registry ) )
+            {
+                result.add ( objects[i] );
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean matches ( final Map<Class<?>, BeanPredicate> predicates, final Filter filter, final Object object, final boolean ifEmpty, final PropertyEditorRegistry registry )
+    {
+        if ( object == null )
+        {
+            return matches ( filter, object, ifEmpty, registry );
+        }
+
+        BeanPredicate predicate = predicates.get ( object.getClass () );
+        if ( predicate == null )
+        {
+            predicate = compile ( filter, object.getClass (), ifEmpty, registry );
+            predicates.put ( object.getClass (), predicate );
+        }
+        return predicate.matches ( object );
+    }
+
     private static boolean matchExpression ( final FilterExpression filterExpression, final Object object, final boolean ifEmpty, final PropertyEditorRegistry registry ) throws Exception
     {
         switch ( filterExpression.getOperator () )
@@ -232,11 +377,14 @@ public class BeanMatcher
         return m.find ();
     }
 
-    @SuppressWarnings ( { "unchecked", "rawtypes" } )
     private static int compare ( final Object value, final String stringValue, final PropertyEditorRegistry registry )
     {
-        final Object cvtValue = convert ( stringValue, value.getClass (), registry );
+        return compareConverted ( value, convert ( stringValue, value.getClass (), registry ) );
+    }
 
+    @SuppressWarnings ( { "unchecked", "rawtypes" } )
+    static int compareConverted ( final Object value, final Object cvtValue )
+    {
         if ( value instanceof Comparable<?> )
         {
             return ( (Comparable)value ).compareTo ( cvtValue );
@@ -249,7 +397,7 @@ public class BeanMatcher
     }
 
     @SuppressWarnings ( { "rawtypes", "unchecked" } )
-    private static Object convert ( final String stringValue, final Class<? extends Object> clazz, final PropertyEditorRegistry registry )
+    static Object convert ( final String stringValue, final Class<? extends Object> clazz, final PropertyEditorRegistry registry )
     {
         if ( clazz == String.class )
         {
@@ -261,32 +409,27 @@ public class BeanMatcher
             return Enum.valueOf ( (Class<? extends Enum>)clazz, stringValue );
         }
 
-        PropertyEditor editor = null;
-
-        if ( registry != null )
-        {
-            editor = registry.findCustomEditor ( clazz );
-        }
-        else
+        final Converter<?> converter = ( registry != null ? registry : defaultRegistry ).findConverter ( clazz );
+        if ( converter != null )
         {
-            editor = defaultRegistry.findCustomEditor ( clazz );
+            return converter.convert ( stringValue );
         }
 
-        if ( editor == null )
+        // try an editor next to the class, which may only be visible to this bundle
+        PropertyEditor editor = null;
+
+        try
         {
-            try
+            final Class propertyEditorClass = Class.forName ( clazz.getName () + "Editor" ); //$NON-NLS-1$
+            if ( propertyEditorClass != null )
             {
-                final Class propertyEditorClass = Class.forName ( clazz.getName () + "Editor" ); //$NON-NLS-1$
-                if ( propertyEditorClass != null )
-                {
-                    editor = (PropertyEditor)propertyEditorClass.newInstance ();
-                }
-            }
-            catch ( final Exception e )
-            {
-                throw new IllegalArgumentException ( String.format ( Messages.getString("BeanMatcher.Error.FailedToConvert"), stringValue, clazz ), e ); //$NON-NLS-1$
+                editor = (PropertyEditor)propertyEditorClass.newInstance ();
             }
         }
+        catch ( final Exception e )
+        {
+            throw new IllegalArgumentException ( String.format ( Messages.getString("BeanMatcher.Error.FailedToConvert"), stringValue, clazz ), e ); //$NON-NLS-1$
+        }
 
         if ( editor == null )
         {
@@ -298,6 +441,11 @@ public class BeanMatcher
     }
 
     private static boolean matchSubString ( final String string, final Collection<String> collection )
+    {
+        return makeSubStringPattern ( collection ).matcher ( string ).find ();
+    }
+
+    static Pattern makeSubStringPattern ( final Collection<String> collection )
     {
         final StringBuilder sb = new StringBuilder ();
 
@@ -317,7 +465,7 @@ public class BeanMatcher
 
         sb.append ( "$" ); //$NON-NLS-1$
 
-        return matchRegexString ( string, sb.toString () );
+        return Pattern.compile ( sb.toString () );
     }
 
     protected static Object getValue ( final Method readMethod, final Object object ) throws Exception
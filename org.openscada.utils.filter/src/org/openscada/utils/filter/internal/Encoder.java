@@ -66,25 +66,48 @@ public class Encoder
 
     public static String decode ( final String toDecode ) throws TokenizeException
     {
-        final StringBuilder sb = new StringBuilder ();
-        for ( int i = 0; i < toDecode.length (); i++ )
+        return decode ( toDecode, 0, toDecode.length () );
+    }
+
+    /**
+     * Decode a range of a string
+     * 
+     * @param start
+     *            the start of the range, inclusive
+     * @param end
+     *            the end of the range, exclusive
+     */
+    public static String decode ( final CharSequence toDecode, final int start, final int end ) throws TokenizeException
+    {
+        int i = start;
+        while ( i < end && toDecode.charAt ( i ) != '\\' )
+        {
+            i++;
+        }
+        if ( i == end )
+        {
+            // nothing to decode
+            return toDecode.subSequence ( start, end ).toString ();
+        }
+
+        final StringBuilder sb = new StringBuilder ( end - start );
+        sb.append ( toDecode, start, i );
+        for ( ; i < end; i++ )
         {
             final char c = toDecode.charAt ( i );
             if ( c == '\\' )
             {
-                if ( i + 2 >= toDecode.length () )
+                if ( i + 2 >= end )
                 {
                     throw new TokenizeException ( "valid escape sequence expected" );
                 }
-                final String ec = "" + toDecode.charAt ( i + 1 ) + toDecode.charAt ( i + 2 );
-                try
-                {
-                    sb.append ( String.valueOf ( (char)Integer.parseInt ( ec, 16 ) ) );
-                }
-                catch ( final NumberFormatException e )
+                final int high = Character.digit ( toDecode.charAt ( i + 1 ), 16 );
+                final int low = Character.digit ( toDecode.charAt ( i + 2 ), 16 );
+                if ( high < 0 || low < 0 )
                 {
                     throw new TokenizeException ( "valid escape sequence expected" );
                 }
+                sb.append ( (char) ( high << 4 | low ) );
                 i += 2;
             }
             else
@@ -19,15 +19,18 @@
 
 package org.openscada.utils.filter.internal;
 
-import java.util.Iterator;
+import org.openscada.utils.filter.Assertion;
+import org.openscada.utils.filter.Operator;
 
-import org.openscada.utils.filter.internal.Tokens.Token;
-import org.openscada.utils.filter.internal.Tokens.TokenAssertion;
-import org.openscada.utils.filter.internal.Tokens.TokenAttribute;
-import org.openscada.utils.filter.internal.Tokens.TokenOperator;
-import org.openscada.utils.filter.internal.Tokens.TokenValue;
-
-public class Tokenizer implements Iterable<Token>, Iterator<Token>
+/**
+ * Splits a filter string into tokens in a single pass
+ * <p>
+ * The tokenizer does not create strings, a token is described by its type and
+ * its range in the filter string, see {@link #getText()}. Operators and assertions are provided as
+ * their enum values.
+ * </p>
+ */
+public class Tokenizer
 {
 
     public static class TokenizeException extends RuntimeException
@@ -56,144 +59,203 @@ public class Tokenizer implements Iterable<Token>, Iterator<Token>
         }
     }
 
-    private final char[] filter;
+    public static enum TokenType
+    {
+        LEFT_PAREN,
+        RIGHT_PAREN,
+        OPERATOR,
+        ATTRIBUTE,
+        ASSERTION,
+        /**
+         * Always follows an assertion and ends before the next right paren,
+         * may be empty
+         */
+        VALUE,
+        END
+    }
 
-    private int pos = 0;
+    private final CharSequence filter;
 
-    private boolean isAttribute = false;
+    private final int length;
 
-    private boolean isValue = false;
+    private int pos = 0;
 
-    private boolean isAssertion = false;
+    private int start;
 
-    private StringBuilder buffer;
+    private boolean valueExpected = false;
 
-    public Tokenizer ( final String toParse )
-    {
-        this.filter = toParse.toCharArray ();
-    }
+    private Operator operator;
 
-    @Override
-    public Iterator<Token> iterator ()
-    {
-        return this;
-    }
+    private Assertion assertion;
 
-    @Override
-    public boolean hasNext ()
+    public Tokenizer ( final CharSequence toParse )
     {
-        return this.filter != null && this.pos < this.filter.length;
+        this.filter = toParse;
+        this.length = toParse.length ();
     }
 
-    @Override
-    public Token next ()
+    public TokenType next ()
     {
-        int overflow = 0;
-        for ( ;; )
-        {
-            overflow += 1;
-            if ( this.pos >= this.filter.length || overflow > this.filter.length )
-            {
-                throw new TokenizeException ( String.format ( Messages.getString("Tokenizer.Error.InvalidSyntax"), this.pos ) ); //$NON-NLS-1$
-            }
-            final String currentChar = String.valueOf ( this.filter[this.pos] );
-
-            if ( currentChar.equals ( Tokens.tokenLeftParen.getValue () ) ) // left paren
-            {
-                this.pos += 1;
-                this.buffer = new StringBuilder ();
-                return Tokens.tokenLeftParen;
+        this.start = this.pos;
 
-            }
-            else if ( currentChar.equals ( Tokens.tokenRightParen.getValue () ) ) // right paren
+        if ( this.valueExpected )
+        {
+            this.valueExpected = false;
+            while ( this.pos < this.length && this.filter.charAt ( this.pos ) != ')' )
             {
-                if ( this.isValue )
+                if ( this.filter.charAt ( this.pos ) == '(' )
                 {
-                    this.isValue = false;
-                    return new TokenValue ( this.buffer.toString () );
+                    throw invalidSyntax ();
                 }
-                this.pos += 1;
-                return Tokens.tokenRightParen;
-
+                this.pos++;
             }
-            else if ( TokenOperator.isOperator ( currentChar ) ) // operator
-            {
-                this.pos += 1;
-                return TokenOperator.getByValue ( currentChar );
+            return TokenType.VALUE;
+        }
 
-            }
-            else if ( !this.isAttribute && !this.isAssertion && !this.isValue ) // attribute started
+        if ( this.pos >= this.length )
+        {
+            return TokenType.END;
+        }
+
+        switch ( this.filter.charAt ( this.pos ) )
+        {
+        case '(':
+            this.pos++;
+            return TokenType.LEFT_PAREN;
+        case ')':
+            this.pos++;
+            return TokenType.RIGHT_PAREN;
+        case '&':
+            return operator ( Operator.AND );
+        case '|':
+            return operator ( Operator.OR );
+        case '!':
+            return operator ( Operator.NOT );
+        case '=':
+            // presence is only valid if nothing follows the asterisk
+            if ( charAt ( this.pos + 1 ) == '*' && charAt ( this.pos + 2 ) == ')' )
             {
-                this.isAttribute = true;
-                continue;
+                return assertion ( Assertion.PRESENCE, 2 );
             }
-            else if ( this.isAttribute && !this.isAssertion && !this.isValue ) // continue or end attribute
+            return assertion ( Assertion.EQUALITY, 1 );
+        case '>':
+            if ( charAt ( this.pos + 1 ) == '=' )
             {
-                if ( this.pos + 1 >= this.filter.length )
-                {
-                    throw new TokenizeException ( String.format ( Messages.getString("Tokenizer.Error.InvalidSyntax"), this.pos ) ); //$NON-NLS-1$
-                }
-                final String lookahead = currentChar + this.filter[this.pos + 1] + ( this.filter.length > this.pos + 2 ? this.filter[this.pos + 2] : "" ); //$NON-NLS-1$
-                if ( TokenAssertion.isAssertion ( lookahead ) )
-                {
-                    this.isAssertion = true;
-                    this.isAttribute = false;
-                    final TokenAttribute token = new TokenAttribute ( this.buffer.toString () );
-                    this.buffer = new StringBuilder ();
-                    return token;
-                }
-                else
-                {
-                    if ( this.buffer == null )
-                    {
-                        throw new TokenizeException ( String.format ( Messages.getString("Tokenizer.Error.InvalidSyntax"), this.pos ) ); //$NON-NLS-1$
-                    }
-                    this.buffer.append ( currentChar );
-                    this.pos += 1;
-                    continue;
-                }
+                return assertion ( Assertion.GREATEREQ, 2 );
             }
-            else if ( this.isAssertion ) // handle assertion
+            return assertion ( Assertion.GREATERTHAN, 1 );
+        case '<':
+            if ( charAt ( this.pos + 1 ) == '=' )
             {
-                this.isAttribute = false;
-                this.isAssertion = false;
-                this.isValue = true;
-                final String lookahead2 = currentChar + this.filter[this.pos + 1];
-                final String lookahead3 = currentChar + this.filter[this.pos + 1] + ( this.filter.length > this.pos + 2 ? this.filter[this.pos + 2] : "" ); //$NON-NLS-1$
-                // special case for presence
-                if ( "=*)".equals ( lookahead3 ) ) //$NON-NLS-1$
-                {
-                    this.pos += 2;
-                    return TokenAssertion.getByValue ( "=*" ); //$NON-NLS-1$
-                }
-                else if ( "=*".equals ( lookahead2 ) ) //$NON-NLS-1$
-                {
-                    this.pos += 1;
-                    return TokenAssertion.getByValue ( "=" ); //$NON-NLS-1$
-                }
-                // all others are handled regularly
-                if ( TokenAssertion.getByValue ( lookahead2 ) != null )
-                {
-                    this.pos += 2;
-                    return TokenAssertion.getByValue ( lookahead2 );
-                }
-                this.pos += 1;
-                return TokenAssertion.getByValue ( currentChar );
-
+                return assertion ( Assertion.LESSEQ, 2 );
             }
-            else if ( !this.isAttribute && !this.isAssertion && this.isValue ) // in any other case it is an value
+            return assertion ( Assertion.LESSTHAN, 1 );
+        case '~':
+            if ( charAt ( this.pos + 1 ) == '=' )
             {
-                this.buffer.append ( currentChar );
-                this.pos += 1;
-                continue;
+                return assertion ( Assertion.APPROXIMATE, 2 );
             }
-            throw new TokenizeException ( String.format ( Messages.getString("Tokenizer.Error.InvalidSyntax"), this.pos ) ); //$NON-NLS-1$
+            break;
+        }
+
+        // attribute, up to the assertion or a paren
+        while ( this.pos < this.length && !isAttributeEnd ( this.pos ) )
+        {
+            this.pos++;
+        }
+        return TokenType.ATTRIBUTE;
+    }
+
+    private boolean isAttributeEnd ( final int index )
+    {
+        switch ( this.filter.charAt ( index ) )
+        {
+        case '(':
+        case ')':
+        case '&':
+        case '|':
+        case '!':
+        case '=':
+        case '>':
+        case '<':
+            return true;
+        case '~':
+            return charAt ( index + 1 ) == '=';
+        default:
+            return false;
         }
     }
 
-    @Override
-    public void remove ()
+    private char charAt ( final int index )
+    {
+        return index < this.length ? this.filter.charAt ( index ) : 0;
+    }
+
+    private TokenType operator ( final Operator operator )
+    {
+        this.pos++;
+        this.operator = operator;
+        return TokenType.OPERATOR;
+    }
+
+    private TokenType assertion ( final Assertion assertion, final int length )
+    {
+        this.pos += length;
+        this.assertion = assertion;
+        this.valueExpected = true;
+        return TokenType.ASSERTION;
+    }
+
+    public TokenizeException invalidSyntax ()
+    {
+        return new TokenizeException ( String.format ( Messages.getString ( "Tokenizer.Error.InvalidSyntax" ), this.pos ) ); //$NON-NLS-1$
+    }
+
+    /**
+     * @return the filter string being tokenized
+     */
+    public CharSequence getFilter ()
+    {
+        return this.filter;
+    }
+
+    /**
+     * @return the text of the last token
+     */
+    public String getText ()
+    {
+        return this.filter.subSequence ( this.start, this.pos ).toString ();
+    }
+
+    /**
+     * @return the start of the last token, inclusive
+     */
+    public int getStart ()
+    {
+        return this.start;
+    }
+
+    /**
+     * @return the end of the last token, exclusive
+     */
+    public int getEnd ()
+    {
+        return this.pos;
+    }
+
+    /**
+     * @return the last operator
+     */
+    public Operator getOperator ()
+    {
+        return this.operator;
+    }
+
+    /**
+     * @return the last assertion
+     */
+    public Assertion getAssertion ()
     {
-        throw new UnsupportedOperationException ();
+        return this.assertion;
     }
-}
\ No newline at end of file
+}
@@ -24,6 +24,6 @@ public class BooleanEditor extends NumberEditor
     @Override
     public void setAsText ( final String text ) throws IllegalArgumentException
     {
-        setValue ( Boolean.valueOf ( text ) );
+        setValue ( Converters.BOOLEAN.convert ( text ) );
     }
 }
@@ -24,6 +24,6 @@ public class ByteEditor extends NumberEditor
     @Override
     public void setAsText ( final String text ) throws IllegalArgumentException
     {
-        setValue ( Byte.valueOf ( text ) );
+        setValue ( Converters.BYTE.convert ( text ) );
     }
 }
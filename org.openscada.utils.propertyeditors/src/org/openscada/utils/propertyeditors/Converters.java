@@ -0,0 +1,180 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.utils.propertyeditors;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * The default converters
+ * <p>
+ * The property editors of this package delegate to these.
+ * </p>
+ */
+final class Converters
+{
+    private Converters ()
+    {
+    }
+
+    public static final Converter<Boolean> BOOLEAN = new Converter<Boolean> () {
+
+        @Override
+        public Boolean convert ( final String text )
+        {
+            return Boolean.valueOf ( text );
+        }
+    };
+
+    public static final Converter<Byte> BYTE = new Converter<Byte> () {
+
+        @Override
+        public Byte convert ( final String text )
+        {
+            return Byte.valueOf ( text );
+        }
+    };
+
+    public static final Converter<Short> SHORT = new Converter<Short> () {
+
+        @Override
+        public Short convert ( final String text )
+        {
+            return Short.valueOf ( text );
+        }
+    };
+
+    public static final Converter<Integer> INTEGER = new Converter<Integer> () {
+
+        @Override
+        public Integer convert ( final String text )
+        {
+            return Integer.valueOf ( text );
+        }
+    };
+
+    public static final Converter<Long> LONG = new Converter<Long> () {
+
+        @Override
+        public Long convert ( final String text )
+        {
+            return Long.valueOf ( text );
+        }
+    };
+
+    public static final Converter<Float> FLOAT = new Converter<Float> () {
+
+        @Override
+        public Float convert ( final String text )
+        {
+            return Float.valueOf ( text );
+        }
+    };
+
+    public static final Converter<Double> DOUBLE = new Converter<Double> () {
+
+        @Override
+        public Double convert ( final String text )
+        {
+            return Double.valueOf ( text );
+        }
+    };
+
+    public static final Converter<String> STRING = new Converter<String> () {
+
+        @Override
+        public String convert ( final String text )
+        {
+            return text;
+        }
+    };
+
+    public static final Converter<UUID> UUID = new Converter<UUID> () {
+
+        @Override
+        public java.util.UUID convert ( final String text )
+        {
+            return java.util.UUID.fromString ( text );
+        }
+    };
+
+    /**
+     * Converts dates and times, the format is selected by the length of the
+     * string. Strings which cannot be parsed are converted to
+     * <code>null</code>.
+     */
+    public static final Converter<Date> DATE = new Converter<Date> () {
+
+        @Override
+        public Date convert ( final String text )
+        {
+            if ( text == null )
+            {
+                return null;
+            }
+
+            // SimpleDateFormat is not thread safe
+            final SimpleDateFormat format;
+            switch ( text.length () )
+            {
+            case 23:
+                format = new SimpleDateFormat ( "yyyy-MM-dd HH:mm:ss.S" );
+                break;
+            case 19:
+                format = new SimpleDateFormat ( "yyyy-MM-dd HH:mm:ss" );
+                break;
+            case 10:
+                format = new SimpleDateFormat ( "yyyy-MM-dd" );
+                break;
+            case 12:
+                format = new SimpleDateFormat ( "HH:mm:ss.S" );
+                break;
+            case 8:
+                format = new SimpleDateFormat ( "HH:mm:ss" );
+                break;
+            default:
+                return null;
+            }
+
+            try
+            {
+                return format.parse ( text );
+            }
+            catch ( final ParseException e )
+            {
+                return null;
+            }
+        }
+    };
+
+    public static <E extends Enum<E>> Converter<E> forEnum ( final Class<E> clazz )
+    {
+        return new Converter<E> () {
+
+            @Override
+            public E convert ( final String text )
+            {
+                return Enum.valueOf ( clazz, text );
+            }
+        };
+    }
+}
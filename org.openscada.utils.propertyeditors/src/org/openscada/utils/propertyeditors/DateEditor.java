@@ -20,60 +20,15 @@
 package org.openscada.utils.propertyeditors;
 
 import java.beans.PropertyEditorSupport;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 
 public class DateEditor extends PropertyEditorSupport
 {
-    private final SimpleDateFormat dfDateTimeS = new SimpleDateFormat ( "yyyy-MM-dd HH:mm:ss.S" ); // 23 
-
-    private final SimpleDateFormat dfDateTime = new SimpleDateFormat ( "yyyy-MM-dd HH:mm:ss" ); // 19
-
-    private final SimpleDateFormat dfDate = new SimpleDateFormat ( "yyyy-MM-dd" ); // 10 
-
-    private final SimpleDateFormat dfTimeS = new SimpleDateFormat ( "HH:mm:ss.S" ); // 12
-
-    private final SimpleDateFormat dfTime = new SimpleDateFormat ( "HH:mm:ss" ); // 8
-
     @Override
     public void setAsText ( final String text ) throws IllegalArgumentException
     {
-        Date d = null;
-        if ( text == null )
-        {
-            setValue ( null );
-            return;
-        }
-        try
-        {
-            if ( text.length () == 23 )
-            {
-                d = this.dfDateTimeS.parse ( text );
-            }
-            else if ( text.length () == 19 )
-            {
-                d = this.dfDateTime.parse ( text );
-            }
-            else if ( text.length () == 10 )
-            {
-                d = this.dfDate.parse ( text );
-            }
-            else if ( text.length () == 12 )
-            {
-                d = this.dfTimeS.parse ( text );
-            }
-            else if ( text.length () == 8 )
-            {
-                d = this.dfTime.parse ( text );
-            }
-        }
-        catch ( final ParseException e )
-        {
-            d = null;
-        }
-        setValue ( d );
+        setValue ( Converters.DATE.convert ( text ) );
     }
 
     @Override
@@ -24,6 +24,6 @@ public class DoubleEditor extends NumberEditor
     @Override
     public void setAsText ( final String text ) throws IllegalArgumentException
     {
-        setValue ( Double.valueOf ( text ) );
+        setValue ( Converters.DOUBLE.convert ( text ) );
     }
 }
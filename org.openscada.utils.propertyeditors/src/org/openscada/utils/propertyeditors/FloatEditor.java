@@ -24,7 +24,7 @@ public class FloatEditor extends NumberEditor
     @Override
     public void setAsText ( final String text ) throws IllegalArgumentException
     {
-        setValue ( Float.valueOf ( text ) );
+        setValue ( Converters.FLOAT.convert ( text ) );
     }
 
 }
@@ -24,6 +24,6 @@ public class IntegerEditor extends NumberEditor
     @Override
     public void setAsText ( final String text ) throws IllegalArgumentException
     {
-        setValue ( Integer.valueOf ( text ) );
+        setValue ( Converters.INTEGER.convert ( text ) );
     }
 }
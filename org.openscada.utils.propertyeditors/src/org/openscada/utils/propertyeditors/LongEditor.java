@@ -24,6 +24,6 @@ public class LongEditor extends NumberEditor
     @Override
     public void setAsText ( final String text ) throws IllegalArgumentException
     {
-        setValue ( Long.valueOf ( text ) );
+        setValue ( Converters.LONG.convert ( text ) );
     }
 }
@@ -36,6 +36,30 @@ public class PropertyEditorRegistry
 
     private final ConcurrentMap<String, PropertyEditor> propertyEditors = new ConcurrentHashMap<String, PropertyEditor> ();
 
+    /**
+     * The editors registered without a property path, by class
+     */
+    private final ConcurrentMap<Class<?>, PropertyEditor> classEditors = new ConcurrentHashMap<Class<?>, PropertyEditor> ();
+
+    /**
+     * The registered converters and editors
+     */
+    private final ConcurrentMap<Class<?>, Converter<?>> converters = new ConcurrentHashMap<Class<?>, Converter<?>> ();
+
+    /**
+     * Converters for classes without a registration, including misses
+     */
+    private final ConcurrentMap<Class<?>, Converter<?>> fallbackConverters = new ConcurrentHashMap<Class<?>, Converter<?>> ();
+
+    private static final Converter<Object> NO_CONVERTER = new Converter<Object> () {
+
+        @Override
+        public Object convert ( final String text )
+        {
+            throw new UnsupportedOperationException ();
+        }
+    };
+
     public PropertyEditorRegistry ()
     {
         this ( false );
@@ -64,6 +88,25 @@ public class PropertyEditorRegistry
             registerCustomEditor ( Date.class, new DateEditor () );
             registerCustomEditor ( UUID.class, new UUIDEditor () );
             registerCustomEditor ( Number.class, new NumberEditor () );
+
+            registerConverter ( Boolean.class, Converters.BOOLEAN );
+            registerConverter ( boolean.class, Converters.BOOLEAN );
+            registerConverter ( Byte.class, Converters.BYTE );
+            registerConverter ( byte.class, Converters.BYTE );
+            registerConverter ( Double.class, Converters.DOUBLE );
+            registerConverter ( double.class, Converters.DOUBLE );
+            registerConverter ( Float.class, Converters.FLOAT );
+            registerConverter ( float.class, Converters.FLOAT );
+            registerConverter ( Integer.class, Converters.INTEGER );
+            registerConverter ( int.class, Converters.INTEGER );
+            registerConverter ( Long.class, Converters.LONG );
+            registerConverter ( long.class, Converters.LONG );
+            registerConverter ( Short.class, Converters.SHORT );
+            registerConverter ( short.class, Converters.SHORT );
+
+            registerConverter ( String.class, Converters.STRING );
+            registerConverter ( Date.class, Converters.DATE );
+            registerConverter ( UUID.class, Converters.UUID );
         }
     }
 
@@ -79,14 +122,16 @@ public class PropertyEditorRegistry
      */
     public PropertyEditor findCustomEditor ( final Class<?> requiredType, final String propertyPath )
     {
+        PropertyEditor pe = null;
         // first try to find exact match
-        String key = requiredType.getCanonicalName () + ":" + propertyPath;
-        PropertyEditor pe = this.propertyEditors.get ( key );
+        if ( propertyPath != null && propertyPath.length () > 0 )
+        {
+            pe = this.propertyEditors.get ( requiredType.getCanonicalName () + ":" + propertyPath );
+        }
         // 2nd: try to find for class only
         if ( pe == null )
         {
-            key = requiredType.getCanonicalName () + ":";
-            pe = this.propertyEditors.get ( key );
+            pe = this.classEditors.get ( requiredType );
         }
         // 3rd: try to get internal
         if ( pe == null )
@@ -123,5 +168,98 @@ public class PropertyEditorRegistry
     {
         final String key = requiredType.getCanonicalName () + ":" + propertyPath;
         this.propertyEditors.put ( key, propertyEditor );
+        if ( propertyPath.length () == 0 )
+        {
+            this.classEditors.put ( requiredType, propertyEditor );
+            this.converters.put ( requiredType, new EditorConverter ( propertyEditor ) );
+        }
+    }
+
+    /**
+     * Register a converter
+     * <p>
+     * The converter replaces an editor registered for the same class before,
+     * when converting values using {@link #findConverter(Class)} or
+     * {@link #convert(String, Class)}. Registering an editor later replaces
+     * the converter.
+     * </p>
+     * 
+     * @param requiredType
+     *            the type the converter creates
+     * @param converter
+     *            the converter
+     * @since 1.1.0
+     */
+    public <T> void registerConverter ( final Class<T> requiredType, final Converter<? extends T> converter )
+    {
+        this.converters.put ( requiredType, converter );
+    }
+
+    /**
+     * Find a converter for a class
+     * <p>
+     * If no converter or editor is registered for the class, enums are
+     * converted by name and the editor of the {@link PropertyEditorManager} is
+     * used otherwise. Editors are used with one conversion at a time.
+     * </p>
+     * 
+     * @param requiredType
+     *            the type to convert to
+     * @return the converter or <code>null</code> if there is none
+     * @since 1.1.0
+     */
+    @SuppressWarnings ( "unchecked" )
+    public <T> Converter<T> findConverter ( final Class<T> requiredType )
+    {
+        Converter<?> converter = this.converters.get ( requiredType );
+        if ( converter == null )
+        {
+            converter = this.fallbackConverters.get ( requiredType );
+            if ( converter == null )
+            {
+                converter = makeFallbackConverter ( requiredType );
+                final Converter<?> current = this.fallbackConverters.putIfAbsent ( requiredType, converter );
+                if ( current != null )
+                {
+                    converter = current;
+                }
+            }
+        }
+        return converter != NO_CONVERTER ? (Converter<T>)converter : null;
+    }
+
+    /**
+     * Convert a string
+     * 
+     * @param text
+     *            the string to convert
+     * @param requiredType
+     *            the type to convert to
+     * @return the converted value
+     * @throws IllegalArgumentException
+     *             if there is no converter for the type or the string cannot
+     *             be converted
+     * @since 1.1.0
+     */
+    public <T> T convert ( final String text, final Class<T> requiredType ) throws IllegalArgumentException
+    {
+        final Converter<T> converter = findConverter ( requiredType );
+        if ( converter == null )
+        {
+            throw new IllegalArgumentException ( String.format ( "No converter for %s", requiredType ) );
+        }
+        return converter.convert ( text );
+    }
+
+    @SuppressWarnings ( { "unchecked", "rawtypes" } )
+    private static Converter<?> makeFallbackConverter ( final Class<?> requiredType )
+    {
+        if ( requiredType.isEnum () )
+        {
+            return Converters.forEnum ( (Class<? extends Enum>)requiredType );
+        }
+
+        final PropertyEditor editor = PropertyEditorManager.findEditor ( requiredType );
+        return editor != null ? new EditorConverter ( editor ) : NO_CONVERTER;
     }
 }
@@ -24,6 +24,6 @@ public class ShortEditor extends NumberEditor
     @Override
     public void setAsText ( final String text ) throws IllegalArgumentException
     {
-        setValue ( Short.valueOf ( text ) );
+        setValue ( Converters.SHORT.convert ( text ) );
     }
 }
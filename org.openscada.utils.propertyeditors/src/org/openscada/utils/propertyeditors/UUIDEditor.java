@@ -20,7 +20,6 @@
 package org.openscada.utils.propertyeditors;
 
 import java.beans.PropertyEditorSupport;
-import java.util.UUID;
 
 public class UUIDEditor extends PropertyEditorSupport
 {
@@ -33,6 +32,6 @@ public class UUIDEditor extends PropertyEditorSupport
     @Override
     public void setAsText ( final String text ) throws IllegalArgumentException
     {
-        setValue ( UUID.fromString ( text ) );
+        setValue ( Converters.UUID.convert ( text ) );
     }
 }
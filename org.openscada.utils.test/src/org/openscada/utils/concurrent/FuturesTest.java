@@ -0,0 +1,276 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2009 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.openscada.utils.concurrent;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FuturesTest
+{
+    private static final Transformer<Integer, String> TO_STRING = new Transformer<Integer, String> () {
+
+        public String transform ( final Integer from ) throws Exception
+        {
+            return "" + from;
+        }
+    };
+
+    /**
+     * A future only implementing the plain {@link NotifyFuture} interface
+     */
+    private static class PlainFuture<T> implements NotifyFuture<T>
+    {
+        private final NotifyFuture<T> future;
+
+        public PlainFuture ( final NotifyFuture<T> future )
+        {
+            this.future = future;
+        }
+
+        public boolean cancel ( final boolean mayInterruptIfRunning )
+        {
+            return this.future.cancel ( mayInterruptIfRunning );
+        }
+
+        public boolean isCancelled ()
+        {
+            return this.future.isCancelled ();
+        }
+
+        public boolean isDone ()
+        {
+            return this.future.isDone ();
+        }
+
+        public T get () throws InterruptedException, ExecutionException
+        {
+            return this.future.get ();
+        }
+
+        public T get ( final long timeout, final TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException
+        {
+            return this.future.get ( timeout, unit );
+        }
+
+        public void addListener ( final FutureListener<T> listener )
+        {
+            this.future.addListener ( listener );
+        }
+
+        public void removeListener ( final FutureListener<T> listener )
+        {
+            this.future.removeListener ( listener );
+        }
+
+        public void addListener ( final Runnable listener )
+        {
+            this.future.addListener ( listener );
+        }
+
+        public void removeListener ( final Runnable listener )
+        {
+            this.future.removeListener ( listener );
+        }
+    }
+
+    private FutureTestImpl<Integer> future;
+
+    @Before
+    public void setUp () throws Exception
+    {
+        this.future = new FutureTestImpl<Integer> ();
+    }
+
+    @Test
+    public void testApply () throws Exception
+    {
+        final NotifyFuture<String> result = Futures.thenApply ( this.future, TO_STRING );
+        Assert.assertFalse ( result.isDone () );
+
+        this.future.setResult ( 42 );
+
+        Assert.assertEquals ( "42", result.get () );
+    }
+
+    @Test
+    public void testApplyExecutor () throws Exception
+    {
+        final ExecutorService executor = Executors.newSingleThreadExecutor ();
+        try
+        {
+            final NotifyFuture<String> result = Futures.thenApply ( this.future, TO_STRING, executor );
+            this.future.setResult ( 42 );
+            Assert.assertEquals ( "42", result.get ( 10, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            executor.shutdown ();
+        }
+    }
+
+    @Test
+    public void testApplyExecutorPlainFuture () throws Exception
+    {
+        final ExecutorService executor = Executors.newSingleThreadExecutor ();
+        try
+        {
+            final Thread caller = Thread.currentThread ();
+            final NotifyFuture<String> result = Futures.thenApply ( new PlainFuture<Integer> ( this.future ), new Transformer<Integer, String> () {
+
+                public String transform ( final Integer from ) throws Exception
+                {
+                    Assert.assertNotSame ( caller, Thread.currentThread () );
+                    return "" + from;
+                }
+            }, executor );
+            this.future.setResult ( 42 );
+            Assert.assertEquals ( "42", result.get ( 10, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            executor.shutdown ();
+        }
+    }
+
+    @Test
+    public void testApplyError () throws Exception
+    {
+        final NotifyFuture<String> result = Futures.thenApply ( this.future, TO_STRING );
+        final RuntimeException error = new RuntimeException ( "test" );
+
+        this.future.setError ( error );
+
+        try
+        {
+            result.get ();
+            Assert.fail ( "Future must fail" );
+        }
+        catch ( final ExecutionException e )
+        {
+            Assert.assertSame ( error, e.getCause () );
+        }
+    }
+
+    @Test
+    public void testApplyTransformerError () throws Exception
+    {
+        final Exception error = new Exception ( "test" );
+        final NotifyFuture<String> result = Futures.thenApply ( this.future, new Transformer<Integer, String> () {
+
+            public String transform ( final Integer from ) throws Exception
+            {
+                throw error;
+            }
+        } );
+
+        this.future.setResult ( 42 );
+
+        try
+        {
+            result.get ();
+            Assert.fail ( "Future must fail" );
+        }
+        catch ( final ExecutionException e )
+        {
+            Assert.assertSame ( error, e.getCause () );
+        }
+    }
+
+    @Test ( expected = CancellationException.class )
+    public void testSourceCancel () throws Exception
+    {
+        final NotifyFuture<String> result = Futures.thenApply ( this.future, TO_STRING );
+
+        this.future.cancel ( false );
+
+        Assert.assertTrue ( result.isCancelled () );
+        result.get ();
+    }
+
+    @Test
+    public void testCancel () throws Exception
+    {
+        final NotifyFuture<String> result = Futures.thenApply ( this.future, TO_STRING );
+
+        Assert.assertTrue ( result.cancel ( false ) );
+        Assert.assertTrue ( this.future.isCancelled () );
+    }
+
+    @Test
+    public void testCompose () throws Exception
+    {
+        final FutureTestImpl<String> inner = new FutureTestImpl<String> ();
+        final NotifyFuture<String> result = Futures.thenCompose ( this.future, new Transformer<Integer, NotifyFuture<String>> () {
+
+            public NotifyFuture<String> transform ( final Integer from ) throws Exception
+            {
+                return inner;
+            }
+        } );
+
+        this.future.setResult ( 42 );
+        Assert.assertFalse ( result.isDone () );
+
+        inner.setResult ( "inner" );
+        Assert.assertEquals ( "inner", result.get () );
+    }
+
+    @Test
+    public void testComposeCancel () throws Exception
+    {
+        final FutureTestImpl<String> inner = new FutureTestImpl<String> ();
+        final NotifyFuture<String> result = Futures.thenCompose ( this.future, new Transformer<Integer, NotifyFuture<String>> () {
+
+            public NotifyFuture<String> transform ( final Integer from ) throws Exception
+            {
+                return inner;
+            }
+        } );
+
+        this.future.setResult ( 42 );
+
+        Assert.assertTrue ( result.cancel ( false ) );
+        Assert.assertTrue ( inner.isCancelled () );
+    }
+
+    @Test
+    public void testComposeChain () throws Exception
+    {
+        final NotifyFuture<String> result = Futures.thenCompose ( this.future, new Transformer<Integer, NotifyFuture<String>> () {
+
+            public NotifyFuture<String> transform ( final Integer from ) throws Exception
+            {
+                return Futures.thenApply ( new InstantFuture<Integer> ( from + 1 ), TO_STRING );
+            }
+        } );
+
+        this.future.setResult ( 41 );
+
+        Assert.assertEquals ( "42", result.get () );
+    }
+}
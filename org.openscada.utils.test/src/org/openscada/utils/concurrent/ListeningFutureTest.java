@@ -19,14 +19,19 @@
 
 package org.openscada.utils.concurrent;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -119,4 +124,155 @@ public class ListeningFutureTest
             Assert.assertEquals ( "Result not ok", result, f.get () );
         }
     }
+
+    @Test
+    public void testListenerOrder () throws InterruptedException, ExecutionException
+    {
+        final List<Integer> calls = new ArrayList<Integer> ();
+        for ( int i = 0; i < 5; i++ )
+        {
+            final int id = i;
+            this.future.addListener ( new Runnable () {
+
+                public void run ()
+                {
+                    calls.add ( id );
+                }
+            } );
+        }
+
+        this.future.setResult ( new Object () );
+
+        Assert.assertEquals ( Arrays.asList ( 0, 1, 2, 3, 4 ), calls );
+    }
+
+    @Test
+    public void testRemoveListener () throws InterruptedException, ExecutionException
+    {
+        final List<String> calls = new ArrayList<String> ();
+        final FutureListener<Object> listener = new FutureListener<Object> () {
+
+            public void complete ( final Future<Object> future )
+            {
+                calls.add ( "removed" );
+            }
+        };
+        this.future.addListener ( listener );
+        this.future.addListener ( new Runnable () {
+
+            public void run ()
+            {
+                calls.add ( "kept" );
+            }
+        } );
+        this.future.removeListener ( listener );
+
+        this.future.setResult ( new Object () );
+
+        Assert.assertEquals ( Arrays.asList ( "kept" ), calls );
+    }
+
+    @Test
+    public void testLateListener () throws InterruptedException, ExecutionException
+    {
+        final List<String> calls = new ArrayList<String> ();
+        this.future.setResult ( new Object () );
+        this.future.addListener ( new Runnable () {
+
+            public void run ()
+            {
+                calls.add ( "late" );
+            }
+        } );
+
+        Assert.assertEquals ( Arrays.asList ( "late" ), calls );
+    }
+
+    @Test
+    public void testFailingListener () throws InterruptedException, ExecutionException
+    {
+        final List<String> calls = new ArrayList<String> ();
+        this.future.addListener ( new Runnable () {
+
+            public void run ()
+            {
+                throw new RuntimeException ( "test" );
+            }
+        } );
+        this.future.addListener ( new Runnable () {
+
+            public void run ()
+            {
+                calls.add ( "second" );
+            }
+        } );
+
+        this.future.setResult ( new Object () );
+
+        Assert.assertEquals ( Arrays.asList ( "second" ), calls );
+    }
+
+    @Test
+    public void testExecutorListener () throws Exception
+    {
+        final ExecutorService executor = Executors.newSingleThreadExecutor ();
+        try
+        {
+            final FutureTestImpl<Thread> listenerDone = new FutureTestImpl<Thread> ();
+            final FutureTestImpl<Thread> lateDone = new FutureTestImpl<Thread> ();
+
+            this.future.addListener ( new FutureListener<Object> () {
+
+                public void complete ( final Future<Object> future )
+                {
+                    listenerDone.setResult ( Thread.currentThread () );
+                }
+            }, executor );
+
+            this.future.setResult ( new Object () );
+
+            this.future.addListener ( new Runnable () {
+
+                public void run ()
+                {
+                    lateDone.setResult ( Thread.currentThread () );
+                }
+            }, executor );
+
+            Assert.assertNotSame ( Thread.currentThread (), listenerDone.get ( 10, TimeUnit.SECONDS ) );
+            Assert.assertNotSame ( Thread.currentThread (), lateDone.get ( 10, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            executor.shutdown ();
+        }
+    }
+
+    @Test ( expected = TimeoutException.class )
+    public void testTimeout () throws Exception
+    {
+        this.future.get ( 10, TimeUnit.MILLISECONDS );
+    }
+
+    @Test
+    public void testTimedGet () throws Exception
+    {
+        final Object result = new Object ();
+        final ExecutorService executor = Executors.newSingleThreadExecutor ();
+        try
+        {
+            executor.execute ( new Runnable () {
+
+                public void run ()
+                {
+                    ListeningFutureTest.this.future.setResult ( result );
+                }
+            } );
+            Assert.assertEquals ( "Result does not match", result, this.future.get ( 10, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            executor.shutdown ();
+        }
+    }
 }
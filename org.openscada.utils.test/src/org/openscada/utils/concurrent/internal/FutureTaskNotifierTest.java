@@ -0,0 +1,191 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2011 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.utils.concurrent.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FutureTaskNotifierTest
+{
+    private static class Recorder implements Runnable
+    {
+        private final List<String> calls;
+
+        private final String name;
+
+        public Recorder ( final List<String> calls, final String name )
+        {
+            this.calls = calls;
+            this.name = name;
+        }
+
+        public void run ()
+        {
+            this.calls.add ( this.name );
+        }
+    }
+
+    private FutureTaskNotifier<Object> notifier;
+
+    private List<String> calls;
+
+    @Before
+    public void setup ()
+    {
+        this.notifier = new FutureTaskNotifier<Object> ( null );
+        this.calls = Collections.synchronizedList ( new ArrayList<String> () );
+    }
+
+    @Test
+    public void testTimedOutWaitersAreUnlinked () throws Exception
+    {
+        this.notifier.addListener ( new Recorder ( this.calls, "first" ) );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            Assert.assertFalse ( this.notifier.await ( 1, TimeUnit.MICROSECONDS ) );
+        }
+        Assert.assertEquals ( 1, this.notifier.getStackSize () );
+
+        this.notifier.addListener ( new Recorder ( this.calls, "second" ) );
+        Assert.assertFalse ( this.notifier.await ( 1, TimeUnit.MICROSECONDS ) );
+        Assert.assertEquals ( 2, this.notifier.getStackSize () );
+
+        this.notifier.done ();
+        Assert.assertEquals ( Arrays.asList ( "first", "second" ), this.calls );
+    }
+
+    @Test
+    public void testInterruptedWaiterIsUnlinked () throws Exception
+    {
+        Thread.currentThread ().interrupt ();
+        try
+        {
+            this.notifier.await ();
+            Assert.fail ( "Wait must be interrupted" );
+        }
+        catch ( final InterruptedException e )
+        {
+            // expected
+        }
+        Assert.assertEquals ( 0, this.notifier.getStackSize () );
+    }
+
+    @Test
+    public void testRemoveFromTheMiddle ()
+    {
+        final Recorder first = new Recorder ( this.calls, "first" );
+        final Recorder second = new Recorder ( this.calls, "second" );
+        final Recorder third = new Recorder ( this.calls, "third" );
+
+        this.notifier.addListener ( first );
+        this.notifier.addListener ( second );
+        this.notifier.addListener ( third );
+
+        this.notifier.removeListener ( second );
+        Assert.assertEquals ( 2, this.notifier.getStackSize () );
+
+        this.notifier.done ();
+        Assert.assertEquals ( Arrays.asList ( "first", "third" ), this.calls );
+    }
+
+    @Test
+    public void testConcurrentWaitersAndRemovals () throws Exception
+    {
+        final int threads = 8;
+        final int rounds = 2000;
+
+        final AtomicInteger notified = new AtomicInteger ();
+        final List<Runnable> kept = new ArrayList<Runnable> ();
+
+        final CountDownLatch start = new CountDownLatch ( 1 );
+        final List<Thread> workers = new ArrayList<Thread> ();
+        final List<Throwable> errors = Collections.synchronizedList ( new ArrayList<Throwable> () );
+
+        for ( int t = 0; t < threads; t++ )
+        {
+            final Runnable keep = new Runnable () {
+
+                public void run ()
+                {
+                    notified.incrementAndGet ();
+                }
+            };
+            kept.add ( keep );
+
+            final boolean waiter = t % 2 == 0;
+            final Thread thread = new Thread () {
+
+                @Override
+                public void run ()
+                {
+                    try
+                    {
+                        start.await ();
+                        FutureTaskNotifierTest.this.notifier.addListener ( keep );
+                        for ( int i = 0; i < rounds; i++ )
+                        {
+                            if ( waiter )
+                            {
+                                FutureTaskNotifierTest.this.notifier.await ( 1, TimeUnit.MICROSECONDS );
+                            }
+                            else
+                            {
+                                final Runnable temporary = new Recorder ( FutureTaskNotifierTest.this.calls, "temporary" );
+                                FutureTaskNotifierTest.this.notifier.addListener ( temporary );
+                                FutureTaskNotifierTest.this.notifier.removeListener ( temporary );
+                            }
+                        }
+                    }
+                    catch ( final Throwable e )
+                    {
+                        errors.add ( e );
+                    }
+                }
+            };
+            workers.add ( thread );
+            thread.start ();
+        }
+
+        start.countDown ();
+        for ( final Thread thread : workers )
+        {
+            thread.join ();
+        }
+
+        Assert.assertTrue ( errors.toString (), errors.isEmpty () );
+
+        // only the permanent listeners are left
+        Assert.assertEquals ( threads, this.notifier.getStackSize () );
+
+        this.notifier.done ();
+        Assert.assertEquals ( threads, notified.get () );
+        Assert.assertTrue ( this.calls.isEmpty () );
+    }
+}
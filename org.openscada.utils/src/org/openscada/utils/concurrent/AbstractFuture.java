@@ -21,38 +21,51 @@ package org.openscada.utils.concurrent;
 
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.openscada.utils.concurrent.internal.FutureTaskNotifier;
 
-public abstract class AbstractFuture<T> implements NotifyFuture<T>
+/**
+ * A base class for futures which are completed by calling
+ * {@link #setResult(Object)} or {@link #setError(Throwable)}
+ * <p>
+ * The outcome of the future is set once using compare and set, no locks are
+ * held at any time.
+ * </p>
+ */
+public abstract class AbstractFuture<T> implements ExecutorNotifyFuture<T>
 {
-    private final FutureTaskNotifier<T> notifier;
-
-    private volatile Throwable error;
+    private static final Object NULL_RESULT = new Object ();
 
-    private volatile T result;
+    private static final Object CANCELED = new Object ();
 
-    private enum State
+    private static final class Failure
     {
-        WAITING,
-        COMPLETE,
-        CANCELED
-    };
+        final Throwable error;
+
+        Failure ( final Throwable error )
+        {
+            this.error = error;
+        }
+    }
 
-    private volatile State state = State.WAITING;
+    @SuppressWarnings ( "rawtypes" )
+    private static final AtomicReferenceFieldUpdater<AbstractFuture, Object> OUTCOME = AtomicReferenceFieldUpdater.newUpdater ( AbstractFuture.class, Object.class, "outcome" );
 
-    private final Semaphore lock;
+    private final FutureTaskNotifier<T> notifier;
 
-    private final Object setLock;
+    /**
+     * The result, {@link #NULL_RESULT}, a {@link Failure} or
+     * {@link #CANCELED}, <code>null</code> while waiting
+     */
+    private volatile Object outcome;
 
     public AbstractFuture ()
     {
         this.notifier = new FutureTaskNotifier<T> ( this );
-        this.lock = new Semaphore ( -1 );
-        this.setLock = new Object ();
     }
 
     public void addListener ( final FutureListener<T> listener )
@@ -60,11 +73,21 @@ public abstract class AbstractFuture<T> implements NotifyFuture<T>
         this.notifier.addListener ( listener );
     }
 
+    public void addListener ( final FutureListener<T> listener, final Executor executor )
+    {
+        this.notifier.addListener ( listener, executor );
+    }
+
     public void addListener ( final Runnable listener )
     {
         this.notifier.addListener ( listener );
     }
 
+    public void addListener ( final Runnable listener, final Executor executor )
+    {
+        this.notifier.addListener ( listener, executor );
+    }
+
     public void removeListener ( final FutureListener<T> listener )
     {
         this.notifier.removeListener ( listener );
@@ -77,96 +100,76 @@ public abstract class AbstractFuture<T> implements NotifyFuture<T>
 
     protected void setResult ( final T result )
     {
-        synchronized ( this.setLock )
-        {
-            if ( isDone () )
-            {
-                return;
-            }
-            this.result = result;
-            this.state = State.COMPLETE;
-
-            // release the wait lock
-            this.lock.release ( 2 );
-        }
-
-        this.notifier.done ();
+        complete ( result != null ? result : NULL_RESULT );
     }
 
     protected void setError ( final Throwable error )
     {
-        synchronized ( this.setLock )
-        {
-            if ( isDone () )
-            {
-                return;
-            }
-            this.error = error;
-            this.state = State.COMPLETE;
-
-            // release the wait lock
-            this.lock.release ( 2 );
-        }
-
-        this.notifier.done ();
+        // a null error always completed the future with a null result
+        complete ( error != null ? new Failure ( error ) : NULL_RESULT );
     }
 
     public boolean cancel ( final boolean mayInterruptIfRunning )
     {
-        synchronized ( this.setLock )
+        return complete ( CANCELED );
+    }
+
+    private boolean complete ( final Object outcome )
+    {
+        if ( !OUTCOME.compareAndSet ( this, null, outcome ) )
         {
-            if ( isDone () )
-            {
-                return false;
-            }
-            this.state = State.CANCELED;
-
-            // release the wait lock
-            this.lock.release ( 2 );
+            return false;
         }
 
         this.notifier.done ();
-
         return true;
     }
 
     public T get () throws InterruptedException, ExecutionException
     {
-        this.lock.acquire ( 0 );
+        if ( this.outcome == null )
+        {
+            this.notifier.await ();
+        }
         return fetchResult ();
     }
 
+    public T get ( final long timeout, final TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if ( this.outcome == null && !this.notifier.await ( timeout, unit ) )
+        {
+            throw new TimeoutException ();
+        }
+        return fetchResult ();
+    }
+
+    @SuppressWarnings ( "unchecked" )
     protected T fetchResult () throws ExecutionException
     {
-        if ( isCancelled () )
+        final Object outcome = this.outcome;
+        if ( outcome == CANCELED )
         {
             throw new CancellationException ();
         }
-        if ( this.error != null )
+        if ( outcome instanceof Failure )
         {
-            throw new ExecutionException ( this.error );
+            throw new ExecutionException ( ( (Failure)outcome ).error );
         }
-
-        return this.result;
-    }
-
-    public T get ( final long timeout, final TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException
-    {
-        if ( !this.lock.tryAcquire ( 0, timeout, unit ) )
+        if ( outcome == NULL_RESULT )
         {
-            throw new TimeoutException ();
+            return null;
         }
-        return fetchResult ();
+
+        return (T)outcome;
     }
 
     public boolean isCancelled ()
     {
-        return this.state == State.CANCELED;
+        return this.outcome == CANCELED;
     }
 
     public boolean isDone ()
     {
-        final State state = this.state;
-        return state == State.CANCELED || state == State.COMPLETE;
+        return this.outcome != null;
     }
 }
@@ -0,0 +1,55 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+
+package org.openscada.utils.concurrent;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link NotifyFuture} which can notify listeners using an executor
+ * <p>
+ * This is a separate interface so that existing implementations of
+ * {@link NotifyFuture} don't break. Use
+ * {@link Futures#addListener(NotifyFuture, FutureListener, Executor)} to add
+ * a listener to any {@link NotifyFuture}.
+ * </p>
+ * 
+ * @since 1.1
+ */
+public interface ExecutorNotifyFuture<T> extends NotifyFuture<T>
+{
+    /**
+     * Add a listener which gets notified using the provided executor
+     * <p>
+     * If the future is already done the listener is handed over to the
+     * executor immediately.
+     * </p>
+     */
+    public void addListener ( FutureListener<T> listener, Executor executor );
+
+    /**
+     * Add a listener which gets run using the provided executor
+     * <p>
+     * If the future is already done the listener is handed over to the
+     * executor immediately.
+     * </p>
+     */
+    public void addListener ( Runnable listener, Executor executor );
+}
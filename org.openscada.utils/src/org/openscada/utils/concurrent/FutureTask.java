@@ -20,10 +20,11 @@
 package org.openscada.utils.concurrent;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import org.openscada.utils.concurrent.internal.FutureTaskNotifier;
 
-public class FutureTask<T> extends java.util.concurrent.FutureTask<T> implements NotifyFuture<T>
+public class FutureTask<T> extends java.util.concurrent.FutureTask<T> implements ExecutorNotifyFuture<T>
 {
 
     private final FutureTaskNotifier<T> notifier;
@@ -45,11 +46,21 @@ public class FutureTask<T> extends java.util.concurrent.FutureTask<T> implements
         this.notifier.addListener ( listener );
     }
 
+    public void addListener ( final FutureListener<T> listener, final Executor executor )
+    {
+        this.notifier.addListener ( listener, executor );
+    }
+
     public void addListener ( final Runnable listener )
     {
         this.notifier.addListener ( listener );
     }
 
+    public void addListener ( final Runnable listener, final Executor executor )
+    {
+        this.notifier.addListener ( listener, executor );
+    }
+
     public void removeListener ( final FutureListener<T> listener )
     {
         this.notifier.removeListener ( listener );
@@ -0,0 +1,252 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.utils.concurrent;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Compose {@link NotifyFuture} instances without blocking
+ * <p>
+ * The derived futures complete once the source future completed and the
+ * transformation was applied. A cancelled source cancels the derived future, a
+ * failed source fails it with the original cause. Cancelling the derived future
+ * cancels the source future as well.
+ * </p>
+ * 
+ * @since 1.1
+ */
+public final class Futures
+{
+    private Futures ()
+    {
+    }
+
+    /**
+     * Transform the result of a future
+     * <p>
+     * The transformer is called in the thread completing the source future.
+     * </p>
+     */
+    public static <F, T> NotifyFuture<T> thenApply ( final NotifyFuture<F> future, final Transformer<? super F, ? extends T> transformer )
+    {
+        return thenApply ( future, transformer, null );
+    }
+
+    /**
+     * Transform the result of a future using the provided executor
+     * 
+     * @param executor
+     *            the executor running the transformer, may be
+     *            <code>null</code> in which case the transformer is called in
+     *            the thread completing the source future
+     */
+    public static <F, T> NotifyFuture<T> thenApply ( final NotifyFuture<F> future, final Transformer<? super F, ? extends T> transformer, final Executor executor )
+    {
+        final DependentFuture<T> result = new DependentFuture<T> ( future );
+
+        addListener ( future, new FutureListener<F> () {
+
+            @Override
+            public void complete ( final Future<F> future )
+            {
+                try
+                {
+                    result.setResult ( transformer.transform ( future.get () ) );
+                }
+                catch ( final Exception e )
+                {
+                    result.fail ( e );
+                }
+            }
+        }, executor );
+
+        return result;
+    }
+
+    /**
+     * Chain an asynchronous operation to the result of a future
+     * <p>
+     * The transformer is called in the thread completing the source future.
+     * </p>
+     */
+    public static <F, T> NotifyFuture<T> thenCompose ( final NotifyFuture<F> future, final Transformer<? super F, ? extends NotifyFuture<T>> transformer )
+    {
+        return thenCompose ( future, transformer, null );
+    }
+
+    /**
+     * Chain an asynchronous operation to the result of a future using the
+     * provided executor
+     * 
+     * @param executor
+     *            the executor running the transformer, may be
+     *            <code>null</code> in which case the transformer is called in
+     *            the thread completing the source future
+     */
+    public static <F, T> NotifyFuture<T> thenCompose ( final NotifyFuture<F> future, final Transformer<? super F, ? extends NotifyFuture<T>> transformer, final Executor executor )
+    {
+        final DependentFuture<T> result = new DependentFuture<T> ( future );
+
+        addListener ( future, new FutureListener<F> () {
+
+            @Override
+            public void complete ( final Future<F> future )
+            {
+                final NotifyFuture<T> next;
+                try
+                {
+                    next = transformer.transform ( future.get () );
+                    if ( next == null )
+                    {
+                        throw new NullPointerException ( "Transformer did not return a future" );
+                    }
+                }
+                catch ( final Exception e )
+                {
+                    result.fail ( e );
+                    return;
+                }
+
+                result.setNext ( next );
+                next.addListener ( new FutureListener<T> () {
+
+                    @Override
+                    public void complete ( final Future<T> future )
+                    {
+                        try
+                        {
+                            result.setResult ( future.get () );
+                        }
+                        catch ( final Exception e )
+                        {
+                            result.fail ( e );
+                        }
+                    }
+                } );
+            }
+        }, executor );
+
+        return result;
+    }
+
+    /**
+     * Add a listener to a future which gets notified using the provided
+     * executor
+     * <p>
+     * Futures which don't implement {@link ExecutorNotifyFuture} get a
+     * listener which hands over the notification to the executor.
+     * </p>
+     * 
+     * @param executor
+     *            the executor notifying the listener, may be
+     *            <code>null</code> in which case the listener is called in
+     *            the thread completing the future
+     */
+    public static <F> void addListener ( final NotifyFuture<F> future, final FutureListener<F> listener, final Executor executor )
+    {
+        if ( executor == null )
+        {
+            future.addListener ( listener );
+        }
+        else if ( future instanceof ExecutorNotifyFuture<?> )
+        {
+            ( (ExecutorNotifyFuture<F>)future ).addListener ( listener, executor );
+        }
+        else
+        {
+            future.addListener ( new FutureListener<F> () {
+
+                @Override
+                public void complete ( final Future<F> future )
+                {
+                    executor.execute ( new Runnable () {
+
+                        @Override
+                        public void run ()
+                        {
+                            listener.complete ( future );
+                        }
+                    } );
+                }
+            } );
+        }
+    }
+
+    private static final class DependentFuture<T> extends AbstractFuture<T>
+    {
+        private final Future<?> source;
+
+        private volatile Future<?> next;
+
+        public DependentFuture ( final Future<?> source )
+        {
+            this.source = source;
+        }
+
+        /**
+         * Complete with the outcome of a failed source or transformation
+         */
+        void fail ( final Exception e )
+        {
+            if ( e instanceof CancellationException )
+            {
+                super.cancel ( false );
+            }
+            else if ( e instanceof ExecutionException && e.getCause () != null )
+            {
+                setError ( e.getCause () );
+            }
+            else
+            {
+                setError ( e );
+            }
+        }
+
+        void setNext ( final Future<?> next )
+        {
+            this.next = next;
+            if ( isCancelled () )
+            {
+                next.cancel ( false );
+            }
+        }
+
+        @Override
+        public boolean cancel ( final boolean mayInterruptIfRunning )
+        {
+            if ( !super.cancel ( mayInterruptIfRunning ) )
+            {
+                return false;
+            }
+
+            this.source.cancel ( mayInterruptIfRunning );
+
+            final Future<?> next = this.next;
+            if ( next != null )
+            {
+                next.cancel ( mayInterruptIfRunning );
+            }
+            return true;
+        }
+    }
+}
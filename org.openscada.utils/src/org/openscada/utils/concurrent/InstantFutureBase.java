@@ -19,13 +19,15 @@
 
 package org.openscada.utils.concurrent;
 
+import java.util.concurrent.Executor;
+
 /**
  * A base class for instant futures
  * @author Jens Reimann
  *
  * @param <T> the value type
  */
-public abstract class InstantFutureBase<T> implements NotifyFuture<T>
+public abstract class InstantFutureBase<T> implements ExecutorNotifyFuture<T>
 {
 
     public InstantFutureBase ()
@@ -54,6 +56,18 @@ public abstract class InstantFutureBase<T> implements NotifyFuture<T>
         listener.complete ( this );
     }
 
+    public void addListener ( final FutureListener<T> listener, final Executor executor )
+    {
+        executor.execute ( new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                listener.complete ( InstantFutureBase.this );
+            }
+        } );
+    }
+
     public void removeListener ( final FutureListener<T> listener )
     {
         // nothing to do
@@ -64,6 +78,11 @@ public abstract class InstantFutureBase<T> implements NotifyFuture<T>
         listener.run ();
     }
 
+    public void addListener ( final Runnable listener, final Executor executor )
+    {
+        executor.execute ( listener );
+    }
+
     public void removeListener ( final Runnable listener )
     {
         // nothing to do
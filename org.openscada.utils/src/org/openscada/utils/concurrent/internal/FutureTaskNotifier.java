@@ -19,22 +19,76 @@
 
 package org.openscada.utils.concurrent.internal;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 import org.openscada.utils.concurrent.FutureListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Notifies the listeners of a future once it is done
+ * <p>
+ * Listeners are kept in a lock free stack. Once the future is done the stack
+ * is replaced by a marker, so that listeners added later are notified
+ * immediately. Listeners are notified in the order they were added, either by
+ * the thread completing the future or by their executor. Threads waiting for
+ * the future are kept in the same stack.
+ * </p>
+ * <p>
+ * Removed listeners and waiters which gave up are cleared first and unlinked
+ * from the stack afterwards. The links of the nodes are only changed for
+ * unlinking, so that a concurrent unlink never breaks the traversal of another
+ * thread.
+ * </p>
+ */
 public class FutureTaskNotifier<T>
 {
 
-    private final Object lock = new Object ();
+    private final static Logger logger = LoggerFactory.getLogger ( FutureTaskNotifier.class );
+
+    private static final class Node
+    {
+        /**
+         * A {@link FutureListener}, a {@link Runnable} or a {@link Waiter},
+         * <code>null</code> if removed
+         */
+        volatile Object listener;
+
+        final Executor executor;
+
+        volatile Node next;
+
+        Node ( final Object listener, final Executor executor )
+        {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    private static final class Waiter
+    {
+        final Thread thread;
+
+        Waiter ( final Thread thread )
+        {
+            this.thread = thread;
+        }
+    }
+
+    private static final Node DONE = new Node ( null, null );
 
-    private final Set<FutureListener<T>> listeners = new HashSet<FutureListener<T>> ( 1 );
+    @SuppressWarnings ( "rawtypes" )
+    private static final AtomicReferenceFieldUpdater<FutureTaskNotifier, Node> HEAD = AtomicReferenceFieldUpdater.newUpdater ( FutureTaskNotifier.class, Node.class, "head" );
 
-    private final Set<Runnable> runnables = new HashSet<Runnable> ();
+    private static final AtomicReferenceFieldUpdater<Node, Object> LISTENER = AtomicReferenceFieldUpdater.newUpdater ( Node.class, Object.class, "listener" );
 
-    private boolean done = false;
+    private volatile Node head;
 
     private final Future<T> future;
 
@@ -43,105 +97,290 @@ public class FutureTaskNotifier<T>
         this.future = future;
     }
 
+    public boolean isDone ()
+    {
+        return this.head == DONE;
+    }
+
     public void done ()
     {
-        Set<FutureListener<T>> listeners;
-        final Set<Runnable> runnables;
-        synchronized ( this.lock )
+        Node node = HEAD.getAndSet ( this, DONE );
+        if ( node == DONE )
+        {
+            return;
+        }
+
+        // collect the stack without changing it, a concurrent unlink might still traverse it
+        final List<Node> nodes = new ArrayList<Node> ();
+        for ( ; node != null; node = node.next )
         {
-            if ( this.done )
+            if ( node.listener != null )
             {
-                return;
+                nodes.add ( node );
+            }
+        }
+
+        // notify in the order of registration
+        for ( int i = nodes.size () - 1; i >= 0; i-- )
+        {
+            node = nodes.get ( i );
+            final Object listener = node.listener;
+            if ( listener != null )
+            {
+                dispatch ( listener, node.executor );
             }
+        }
+    }
+
+    public void addListener ( final Runnable listener )
+    {
+        if ( !push ( new Node ( listener, null ) ) )
+        {
+            listener.run ();
+        }
+    }
+
+    public void addListener ( final Runnable listener, final Executor executor )
+    {
+        if ( !push ( new Node ( listener, executor ) ) )
+        {
+            dispatch ( listener, executor );
+        }
+    }
+
+    public void removeListener ( final Runnable listener )
+    {
+        remove ( listener );
+    }
+
+    public void addListener ( final FutureListener<T> listener )
+    {
+        if ( !push ( new Node ( listener, null ) ) )
+        {
+            listener.complete ( this.future );
+        }
+    }
+
+    public void addListener ( final FutureListener<T> listener, final Executor executor )
+    {
+        if ( !push ( new Node ( listener, executor ) ) )
+        {
+            dispatch ( listener, executor );
+        }
+    }
+
+    public void removeListener ( final FutureListener<T> listener )
+    {
+        remove ( listener );
+    }
+
+    /**
+     * Wait until the future is done
+     */
+    public void await () throws InterruptedException
+    {
+        await ( false, 0 );
+    }
+
+    /**
+     * Wait until the future is done
+     * 
+     * @return <code>true</code> if the future is done, <code>false</code> if
+     *         the timeout expired
+     */
+    public boolean await ( final long timeout, final TimeUnit unit ) throws InterruptedException
+    {
+        return await ( true, unit.toNanos ( timeout ) );
+    }
+
+    private boolean await ( final boolean timed, final long nanos ) throws InterruptedException
+    {
+        if ( this.head == DONE )
+        {
+            return true;
+        }
 
-            this.done = true;
-            listeners = new HashSet<FutureListener<T>> ( this.listeners );
-            runnables = new HashSet<Runnable> ( this.runnables );
+        final Node node = new Node ( new Waiter ( Thread.currentThread () ), null );
+        if ( !push ( node ) )
+        {
+            return true;
         }
 
-        // notify
-        for ( final FutureListener<T> listener : listeners )
+        try
         {
-            try
+            final long deadline = timed ? System.nanoTime () + nanos : 0;
+            while ( this.head != DONE )
             {
-                listener.complete ( this.future );
+                if ( Thread.interrupted () )
+                {
+                    throw new InterruptedException ();
+                }
+                if ( timed )
+                {
+                    final long remaining = deadline - System.nanoTime ();
+                    if ( remaining <= 0 )
+                    {
+                        return false;
+                    }
+                    LockSupport.parkNanos ( this, remaining );
+                }
+                else
+                {
+                    LockSupport.park ( this );
+                }
             }
-            catch ( final Throwable e )
+            return true;
+        }
+        finally
+        {
+            node.listener = null;
+            if ( this.head != DONE )
             {
+                // the wait timed out or got interrupted
+                unlink ();
             }
         }
-        for ( final Runnable runnable : runnables )
+    }
+
+    /**
+     * Push a node onto the stack
+     * 
+     * @return <code>false</code> if the future is already done
+     */
+    private boolean push ( final Node node )
+    {
+        for ( ;; )
         {
-            try
+            final Node head = this.head;
+            if ( head == DONE )
             {
-                runnable.run ();
+                return false;
             }
-            catch ( final Throwable e )
+            node.next = head;
+            if ( HEAD.compareAndSet ( this, head, node ) )
             {
+                return true;
             }
         }
-
-        // just clean up
-        this.listeners.clear ();
-        this.runnables.clear ();
     }
 
-    public void addListener ( final Runnable listener )
+    private void remove ( final Object listener )
     {
-        boolean notifyNow = false;
-        synchronized ( this.lock )
+        Node node = this.head;
+        while ( node != null && node != DONE )
         {
-            if ( this.done )
+            final Object current = node.listener;
+            if ( current != null && current.equals ( listener ) && LISTENER.compareAndSet ( node, current, null ) )
             {
-                notifyNow = true;
+                unlink ();
+                return;
             }
-            else
+            node = node.next;
+        }
+    }
+
+    /**
+     * Unlink all cleared nodes from the stack
+     * <p>
+     * If a predecessor gets cleared while unlinking, the traversal starts over
+     * since the predecessor itself might be unlinked already.
+     * </p>
+     */
+    private void unlink ()
+    {
+        retry: for ( ;; )
+        {
+            Node pred = null;
+            Node node = this.head;
+            while ( node != null && node != DONE )
             {
-                this.runnables.add ( listener );
+                final Node next = node.next;
+                if ( node.listener != null )
+                {
+                    pred = node;
+                }
+                else if ( pred != null )
+                {
+                    pred.next = next;
+                    if ( pred.listener == null )
+                    {
+                        continue retry;
+                    }
+                }
+                else if ( !HEAD.compareAndSet ( this, node, next ) )
+                {
+                    continue retry;
+                }
+                node = next;
             }
+            return;
         }
+    }
 
-        if ( notifyNow )
+    /**
+     * Get the number of nodes in the stack
+     * <p>
+     * This method is intended for testing only.
+     * </p>
+     */
+    int getStackSize ()
+    {
+        int result = 0;
+        for ( Node node = this.head; node != null && node != DONE; node = node.next )
         {
-            listener.run ();
+            result++;
         }
+        return result;
     }
 
-    public void removeListener ( final Runnable listener )
+    private void dispatch ( final Object listener, final Executor executor )
     {
-        synchronized ( this.lock )
+        if ( listener instanceof Waiter )
+        {
+            LockSupport.unpark ( ( (Waiter)listener ).thread );
+            return;
+        }
+
+        if ( executor == null )
         {
-            this.runnables.remove ( listener );
+            fire ( listener );
+            return;
+        }
+
+        try
+        {
+            executor.execute ( new Runnable () {
+
+                @Override
+                public void run ()
+                {
+                    fire ( listener );
+                }
+            } );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to dispatch listener", e );
         }
     }
 
-    public void addListener ( final FutureListener<T> listener )
+    @SuppressWarnings ( "unchecked" )
+    private void fire ( final Object listener )
     {
-        boolean notifyNow = false;
-        synchronized ( this.lock )
+        try
         {
-            if ( this.done )
+            if ( listener instanceof FutureListener<?> )
             {
-                notifyNow = true;
+                ( (FutureListener<T>)listener ).complete ( this.future );
             }
             else
             {
-                this.listeners.add ( listener );
+                ( (Runnable)listener ).run ();
             }
         }
-
-        if ( notifyNow )
+        catch ( final Throwable e )
         {
-            listener.complete ( this.future );
+            logger.warn ( "Failed to notify listener", e );
         }
     }
-
-    public void removeListener ( final FutureListener<T> listener )
-    {
-        synchronized ( this.lock )
-        {
-            this.listeners.remove ( listener );
-        }
-    }
-
 }